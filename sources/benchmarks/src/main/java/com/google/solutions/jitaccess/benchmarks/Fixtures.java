@@ -0,0 +1,188 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.benchmarks;
+
+import com.google.api.services.cloudasset.v1.model.Binding;
+import com.google.api.services.cloudasset.v1.model.ConditionEvaluation;
+import com.google.api.services.cloudasset.v1.model.Expr;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1AccessControlList;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1Identity;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1IdentityList;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1Resource;
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysisResult;
+import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
+import com.google.solutions.jitaccess.core.data.UserId;
+import com.google.solutions.jitaccess.core.services.JitConstraints;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic, deterministic fixtures of configurable size. Fixtures
+ * mimic the shape of API responses so that benchmarks can run
+ * offline, without any Google Cloud resources.
+ */
+public final class Fixtures {
+  public static final UserId USER = new UserId("user-1", "user-1@example.com");
+
+  public static final OffsetDateTime START_TIME =
+    OffsetDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  private static final String JIT_CONDITION = "has({}.jitAccessConstraint)";
+  private static final String MPA_CONDITION = "has({}.multiPartyApprovalConstraint)";
+  private static final int ROLE_COUNT = 20;
+
+  private Fixtures() {
+  }
+
+  public static String projectResourceName(int index) {
+    return "//cloudresourcemanager.googleapis.com/projects/project-" + index;
+  }
+
+  public static String roleName(int index) {
+    return "roles/role-" + (index % ROLE_COUNT);
+  }
+
+  public static UserId user(int index) {
+    return new UserId("user-" + index, "user-" + index + "@example.com");
+  }
+
+  public static String temporaryCondition(int index) {
+    var startTime = START_TIME.plusMinutes(index);
+    return IamTemporaryAccessConditions.createExpression(startTime, startTime.plusHours(1));
+  }
+
+  private static IamPolicyAnalysisResult createResult(
+    String resource,
+    String role,
+    Expr condition,
+    String evaluationResult
+  ) {
+    var acl = new GoogleCloudAssetV1AccessControlList()
+      .setResources(List.of(new GoogleCloudAssetV1Resource()
+        .setFullResourceName(resource)));
+
+    if (evaluationResult != null) {
+      acl.setConditionEvaluation(new ConditionEvaluation()
+        .setEvaluationValue(evaluationResult));
+    }
+
+    return new IamPolicyAnalysisResult()
+      .setAttachedResourceFullName(resource)
+      .setAccessControlLists(List.of(acl))
+      .setIamBinding(new Binding()
+        .setMembers(List.of("user:" + USER.email))
+        .setRole(role)
+        .setCondition(condition))
+      .setIdentityList(new GoogleCloudAssetV1IdentityList()
+        .setIdentities(List.of(
+          new GoogleCloudAssetV1Identity().setName("user:" + USER.email),
+          new GoogleCloudAssetV1Identity().setName("group:group-1@example.com"))));
+  }
+
+  /**
+   * Create a policy analysis for USER with the given number of results,
+   * spread across the given number of projects. Results cycle through
+   * JIT-eligible, MPA-eligible, activated, and permanent bindings.
+   */
+  public static IamPolicyAnalysis createPolicyAnalysis(int resultCount, int projectCount) {
+    var results = new ArrayList<IamPolicyAnalysisResult>(resultCount);
+    for (int i = 0; i < resultCount; i++) {
+      var resource = projectResourceName(i % projectCount);
+      var role = roleName(i);
+
+      switch (i % 4) {
+        case 0:
+          results.add(createResult(
+            resource,
+            role,
+            new Expr().setExpression(JIT_CONDITION),
+            "CONDITIONAL"));
+          break;
+
+        case 1:
+          results.add(createResult(
+            resource,
+            role,
+            new Expr().setExpression(MPA_CONDITION),
+            "CONDITIONAL"));
+          break;
+
+        case 2:
+          results.add(createResult(
+            resource,
+            role,
+            new Expr()
+              .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+              .setExpression(temporaryCondition(i)),
+            "TRUE"));
+          break;
+
+        default:
+          results.add(createResult(resource, role, null, null));
+          break;
+      }
+    }
+
+    return new IamPolicyAnalysis().setAnalysisResults(results);
+  }
+
+  /**
+   * Create a list of IAM conditions that covers the various forms
+   * of conditions found in policies.
+   */
+  public static List<Expr> createConditions(int count) {
+    var conditions = new ArrayList<Expr>(count);
+    for (int i = 0; i < count; i++) {
+      switch (i % 5) {
+        case 0:
+          conditions.add(new Expr().setExpression(JIT_CONDITION));
+          break;
+
+        case 1:
+          conditions.add(new Expr().setExpression(
+            String.format("  has( {}.multiPartyApprovalConstraint ) /* %d */", i)));
+          break;
+
+        case 2:
+          conditions.add(new Expr()
+            .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+            .setExpression(temporaryCondition(i)));
+          break;
+
+        case 3:
+          conditions.add(new Expr().setExpression(temporaryCondition(i)));
+          break;
+
+        default:
+          conditions.add(new Expr().setExpression(
+            String.format("resource.name.startsWith(\"projects/_/buckets/bucket-%d\")", i)));
+          break;
+      }
+    }
+
+    return conditions;
+  }
+}
@@ -0,0 +1,107 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.http.GenericUrl;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the per-call overhead of creating a new HTTP transport
+ * for each API call, compared to using the shared transport.
+ *
+ * Requests go to a local server so that the benchmark measures the
+ * client-side overhead rather than network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpTransportBenchmark {
+  private static final byte[] RESPONSE = "{}".getBytes(StandardCharsets.UTF_8);
+
+  private HttpServer server;
+  private GenericUrl url;
+
+  @Setup
+  public void setup() throws IOException {
+    //
+    // Disable Nagle's algorithm, otherwise delayed ACKs dominate
+    // the latency of each request.
+    //
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/", exchange -> {
+      exchange.getRequestBody().readAllBytes();
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, RESPONSE.length);
+      exchange.getResponseBody().write(RESPONSE);
+      exchange.close();
+    });
+    this.server.start();
+
+    this.url = new GenericUrl(String.format(
+      "http://127.0.0.1:%d/v1/resource",
+      this.server.getAddress().getPort()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.server.stop(0);
+  }
+
+  private String get(com.google.api.client.http.HttpTransport transport) throws IOException {
+    var response = transport
+      .createRequestFactory()
+      .buildGetRequest(this.url)
+      .execute();
+    try {
+      return response.parseAsString();
+    }
+    finally {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Baseline: create a new transport (and load the trust store) for each call.
+   */
+  @Benchmark
+  public String callWithNewTransport() throws IOException, GeneralSecurityException {
+    return get(HttpTransport.newTransport());
+  }
+
+  @Benchmark
+  public String callWithSharedTransport() throws IOException, GeneralSecurityException {
+    return get(HttpTransport.getSharedTransport());
+  }
+}
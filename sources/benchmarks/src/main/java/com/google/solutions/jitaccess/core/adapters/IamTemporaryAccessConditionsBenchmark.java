@@ -0,0 +1,66 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for creating and parsing temporary access conditions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IamTemporaryAccessConditionsBenchmark {
+  private OffsetDateTime startTime;
+  private OffsetDateTime endTime;
+  private String condition;
+
+  @Setup
+  public void setup() {
+    this.startTime = Fixtures.START_TIME;
+    this.endTime = Fixtures.START_TIME.plusHours(1);
+    this.condition = Fixtures.temporaryCondition(0);
+  }
+
+  @Benchmark
+  public String createExpression() {
+    return IamTemporaryAccessConditions.createExpression(this.startTime, this.endTime);
+  }
+
+  @Benchmark
+  public boolean isTemporaryAccessCondition() {
+    return IamTemporaryAccessConditions.isTemporaryAccessCondition(this.condition);
+  }
+
+  @Benchmark
+  public Optional<OffsetDateTime> getEndTime() {
+    return IamTemporaryAccessConditions.getEndTime(this.condition);
+  }
+}
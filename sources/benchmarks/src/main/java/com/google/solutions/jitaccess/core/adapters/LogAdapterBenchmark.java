@@ -0,0 +1,96 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import com.google.solutions.jitaccess.core.data.DeviceInfo;
+import com.google.solutions.jitaccess.core.data.UserId;
+import com.google.solutions.jitaccess.core.data.UserPrincipal;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for serializing and writing log entries. Output is
+ * discarded so that the benchmark only measures serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogAdapterBenchmark {
+  private static final Appendable NULL_OUTPUT = new Appendable() {
+    @Override
+    public Appendable append(CharSequence csq) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return this;
+    }
+  };
+
+  private LogAdapter logAdapter;
+
+  @Setup
+  public void setup() {
+    var device = new DeviceInfo("device-1", List.of("level-1", "level-2"));
+
+    this.logAdapter = new LogAdapter(NULL_OUTPUT);
+    this.logAdapter.setTraceId("0123456789abcdef0123456789abcdef");
+    this.logAdapter.setPrincipal(new UserPrincipal() {
+      @Override
+      public UserId getId() {
+        return Fixtures.USER;
+      }
+
+      @Override
+      public DeviceInfo getDevice() {
+        return device;
+      }
+
+      @Override
+      public String getName() {
+        return Fixtures.USER.email;
+      }
+    });
+  }
+
+  @Benchmark
+  public void writeInfoEntry() {
+    this.logAdapter
+      .newInfoEntry("api.activateRole", "User activated role 'roles/role-1' on project 'project-1'")
+      .addLabel("role", Fixtures.roleName(1))
+      .addLabel("resource", Fixtures.projectResourceName(1))
+      .addLabel("justification", "Bug #1")
+      .write();
+  }
+}
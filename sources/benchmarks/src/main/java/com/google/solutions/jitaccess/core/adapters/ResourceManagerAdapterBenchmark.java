@@ -0,0 +1,92 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.services.cloudresourcemanager.v3.model.Binding;
+import com.google.api.services.cloudresourcemanager.v3.model.Expr;
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import com.google.solutions.jitaccess.core.services.JitConstraints;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the filtering of obsolete temporary bindings that
+ * precedes every policy update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceManagerAdapterBenchmark {
+  private static final int USER_COUNT = 50;
+
+  @Param({"10", "100", "1000"})
+  public int existingBindings;
+
+  @Param({"1", "10"})
+  public int newBindings;
+
+  private List<Binding> policyBindings;
+  private List<Binding> activationBindings;
+
+  private static Binding createBinding(int index, boolean temporary) {
+    var binding = new Binding()
+      .setRole(Fixtures.roleName(index))
+      .setMembers(List.of("user:" + Fixtures.user(index % USER_COUNT).email));
+
+    if (temporary) {
+      binding.setCondition(new Expr()
+        .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+        .setExpression(Fixtures.temporaryCondition(index)));
+    }
+
+    return binding;
+  }
+
+  @Setup
+  public void setup() {
+    //
+    // One in four existing bindings is temporary.
+    //
+    this.policyBindings = new ArrayList<>(this.existingBindings);
+    for (int i = 0; i < this.existingBindings; i++) {
+      this.policyBindings.add(createBinding(i, i % 4 == 0));
+    }
+
+    this.activationBindings = new ArrayList<>(this.newBindings);
+    for (int i = 0; i < this.newBindings; i++) {
+      this.activationBindings.add(createBinding(i * 4, true));
+    }
+  }
+
+  @Benchmark
+  public List<Binding> removeObsoleteBindings() {
+    return ResourceManagerAdapter.removeObsoleteBindings(
+      this.policyBindings,
+      this.activationBindings);
+  }
+}
@@ -0,0 +1,100 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.services.cloudasset.v1.model.Expr;
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark for classifying IAM conditions, with and without
+ * the classification cache, and using the regular expressions
+ * that JitConstraints used previously.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JitConstraintsBenchmark {
+  @Param({"10", "100", "1000"})
+  public int conditions;
+
+  private static final Pattern JIT_CONDITION_PATTERN = Pattern
+    .compile("^\\s*has\\(\\s*\\{\\s*\\}.jitaccessconstraint\\s*\\)\\s*$");
+
+  private static final Pattern MPA_CONDITION_PATTERN = Pattern
+    .compile("^\\s*has\\(\\s*\\{\\s*\\}.multipartyapprovalconstraint\\s*\\)\\s*$");
+
+  private List<Expr> expressions;
+
+  /**
+   * Previous implementation, which normalizes the expression and
+   * matches it against a regular expression.
+   */
+  private static boolean isConstraint(Expr iamCondition, Pattern pattern) {
+    if (iamCondition == null) {
+      return false;
+    }
+
+    // Strip all whitespace to simplify expression matching.
+    var expression = iamCondition
+      .getExpression()
+      .toLowerCase()
+      .replace(" ", "");
+
+    return pattern.matcher(expression).matches();
+  }
+
+  @Setup
+  public void setup() {
+    this.expressions = Fixtures.createConditions(this.conditions);
+  }
+
+  @Benchmark
+  public void classifyUsingRegex(Blackhole blackhole) {
+    for (var expression : this.expressions) {
+      blackhole.consume(isConstraint(expression, JIT_CONDITION_PATTERN));
+      blackhole.consume(isConstraint(expression, MPA_CONDITION_PATTERN));
+    }
+  }
+
+  @Benchmark
+  public void classify(Blackhole blackhole) {
+    for (var expression : this.expressions) {
+      blackhole.consume(JitConstraints.classify(expression));
+    }
+  }
+
+  @Benchmark
+  public void scanExpression(Blackhole blackhole) {
+    for (var expression : this.expressions) {
+      blackhole.consume(JitConstraints.scanExpression(expression.getExpression()));
+    }
+  }
+}
@@ -0,0 +1,85 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.html.HtmlEscapers;
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import com.google.solutions.jitaccess.core.data.RoleBinding;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for rendering notification emails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationServiceBenchmark {
+  private NotificationService.ApprovalRequest request;
+
+  @Setup
+  public void setup() {
+    this.request = new NotificationService.ApprovalRequest(
+      Fixtures.user(1),
+      Fixtures.user(2),
+      new ProjectRole(
+        new RoleBinding(Fixtures.projectResourceName(1), Fixtures.roleName(1)),
+        ProjectRole.Status.ELIGIBLE_FOR_MPA),
+      "<justification> & more",
+      URI.create("https://jitaccess.example.com/?activation=abc"));
+  }
+
+  /**
+   * Previous implementation, which reads the template for every
+   * notification and runs one String.replace per property.
+   */
+  @Benchmark
+  public String formatApprovalRequestUsingReplace() throws IOException {
+    try (var stream = NotificationService.class
+      .getClassLoader()
+      .getResourceAsStream(NotificationService.ApprovalRequest.TEMPLATE)) {
+
+      var template = new String(stream.readAllBytes());
+      var escaper = HtmlEscapers.htmlEscaper();
+
+      for (var property : this.request.properties.entrySet()) {
+        template = template.replace(
+          property.getKey(),
+          escaper.escape(property.getValue()));
+      }
+
+      return template;
+    }
+  }
+
+  @Benchmark
+  public String formatApprovalRequest() {
+    return this.request.format();
+  }
+}
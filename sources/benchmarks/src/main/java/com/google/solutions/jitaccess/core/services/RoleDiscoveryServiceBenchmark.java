@@ -0,0 +1,57 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.solutions.jitaccess.benchmarks.Fixtures;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for turning a policy analysis into a list of
+ * eligible and activated project roles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleDiscoveryServiceBenchmark {
+  @Param({"10", "100", "1000", "10000"})
+  public int results;
+
+  private IamPolicyAnalysis analysis;
+
+  @Setup
+  public void setup() {
+    this.analysis = Fixtures.createPolicyAnalysis(this.results, Math.max(1, this.results / 10));
+  }
+
+  @Benchmark
+  public List<ProjectRole> classifyProjectRoles() {
+    return RoleDiscoveryService.classifyProjectRoles(this.analysis);
+  }
+}
@@ -0,0 +1,57 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser for command line arguments of the form --name value.
+ */
+class Arguments {
+  private final Map<String, String> values = new HashMap<>();
+
+  Arguments(String[] args) {
+    for (int i = 0; i < args.length; i += 2) {
+      if (!args[i].startsWith("--") || i + 1 >= args.length) {
+        throw new IllegalArgumentException(
+          String.format("Invalid argument '%s', expected --name value", args[i]));
+      }
+
+      this.values.put(args[i].substring(2), args[i + 1]);
+    }
+  }
+
+  String getString(String name, String defaultValue) {
+    return this.values.getOrDefault(name, defaultValue);
+  }
+
+  int getInt(String name, int defaultValue) {
+    var value = this.values.get(name);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
+  double getDouble(String name, double defaultValue) {
+    var value = this.values.get(name);
+    return value != null ? Double.parseDouble(value) : defaultValue;
+  }
+}
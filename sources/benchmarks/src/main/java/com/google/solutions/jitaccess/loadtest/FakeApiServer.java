@@ -0,0 +1,620 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.loadtest;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.cloudasset.v1.model.AnalyzeIamPolicyResponse;
+import com.google.api.services.cloudasset.v1.model.ConditionEvaluation;
+import com.google.api.services.cloudasset.v1.model.Expr;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1AccessControlList;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1Identity;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1IdentityList;
+import com.google.api.services.cloudasset.v1.model.GoogleCloudAssetV1Resource;
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysisResult;
+import com.google.api.services.cloudresourcemanager.v3.model.Binding;
+import com.google.api.services.cloudresourcemanager.v3.model.Policy;
+import com.google.api.services.cloudresourcemanager.v3.model.SetIamPolicyRequest;
+import com.google.api.services.iamcredentials.v1.model.SignJwtRequest;
+import com.google.api.services.iamcredentials.v1.model.SignJwtResponse;
+import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
+import com.google.solutions.jitaccess.core.services.JitConstraints;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fake HTTP server that emulates the Google APIs used by the application
+ * so that the application can be load tested without calling real APIs.
+ *
+ * The server emulates:
+ *
+ * - Asset Inventory analyzeIamPolicy
+ * - Resource Manager getIamPolicy and setIamPolicy, incl. etags
+ * - IAM Credentials signJwt
+ *
+ * Users, projects, and bindings are synthetic: user-N@example.com is
+ * eligible for a fixed set of projects, and the approvers of a project
+ * are the users that follow the project's number.
+ */
+public class FakeApiServer {
+  static final String JIT_CONDITION = "has({}.jitAccessConstraint)";
+  static final String MPA_CONDITION = "has({}.multiPartyApprovalConstraint)";
+
+  private static final Pattern ANALYZE_IAM_POLICY = Pattern.compile("^/v1/(.+):analyzeIamPolicy$");
+  private static final Pattern GET_IAM_POLICY = Pattern.compile("^/v3/projects/([^/]+):getIamPolicy$");
+  private static final Pattern SET_IAM_POLICY = Pattern.compile("^/v3/projects/([^/]+):setIamPolicy$");
+  private static final Pattern SIGN_JWT = Pattern.compile("^/v1/projects/-/serviceAccounts/([^/]+):signJwt$");
+  private static final Pattern USER_EMAIL = Pattern.compile("^user-(\\d+)@");
+  private static final Pattern PROJECT_ID = Pattern.compile("^project-(\\d+)$");
+
+  private final Options options;
+  private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+  private final ConcurrentMap<String, StoredPolicy> policies = new ConcurrentHashMap<>();
+  private final HttpServer server;
+
+  public FakeApiServer(Options options) throws IOException {
+    this.options = options;
+    this.server = HttpServer.create(new InetSocketAddress(options.port), 0);
+    this.server.createContext("/", this::handle);
+
+    //
+    // Handlers block while simulating latency, so use an unbounded pool.
+    //
+    this.server.setExecutor(Executors.newCachedThreadPool());
+  }
+
+  public void start() {
+    this.server.start();
+  }
+
+  public void stop() {
+    this.server.stop(0);
+  }
+
+  // -------------------------------------------------------------------------
+  // Request handling.
+  // -------------------------------------------------------------------------
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      var path = exchange.getRequestURI().getPath();
+      var method = exchange.getRequestMethod();
+      var random = ThreadLocalRandom.current();
+
+      Matcher match;
+      if ("GET".equals(method) && (match = ANALYZE_IAM_POLICY.matcher(path)).matches()) {
+        simulateLatency(this.options.analyzeLatency);
+        if (random.nextDouble() < this.options.errorRate) {
+          sendError(exchange, 503, "UNAVAILABLE", "Injected error");
+        }
+        else {
+          sendJson(exchange, 200, analyzeIamPolicy(parseQuery(exchange.getRequestURI().getRawQuery())));
+        }
+      }
+      else if ("POST".equals(method) && (match = GET_IAM_POLICY.matcher(path)).matches()) {
+        simulateLatency(this.options.policyLatency);
+        if (random.nextDouble() < this.options.errorRate) {
+          sendError(exchange, 503, "UNAVAILABLE", "Injected error");
+        }
+        else {
+          sendJson(exchange, 200, getIamPolicy(match.group(1)));
+        }
+      }
+      else if ("POST".equals(method) && (match = SET_IAM_POLICY.matcher(path)).matches()) {
+        simulateLatency(this.options.policyLatency);
+        if (random.nextDouble() < this.options.errorRate) {
+          sendError(exchange, 503, "UNAVAILABLE", "Injected error");
+        }
+        else {
+          var request = readJson(exchange, SetIamPolicyRequest.class);
+
+          var policy = setIamPolicy(match.group(1), request.getPolicy());
+          if (policy == null) {
+            sendError(
+              exchange,
+              412,
+              "FAILED_PRECONDITION",
+              "There were concurrent policy changes. Please retry the whole read-modify-write with exponential backoff.");
+          }
+          else {
+            sendJson(exchange, 200, policy);
+          }
+        }
+      }
+      else if ("POST".equals(method) && (match = SIGN_JWT.matcher(path)).matches()) {
+        simulateLatency(this.options.signLatency);
+        if (random.nextDouble() < this.options.errorRate) {
+          sendError(exchange, 503, "UNAVAILABLE", "Injected error");
+        }
+        else {
+          var request = readJson(exchange, SignJwtRequest.class);
+
+          sendJson(exchange, 200, signJwt(request.getPayload()));
+        }
+      }
+      else {
+        sendError(exchange, 404, "NOT_FOUND", String.format("Unknown method: %s %s", method, path));
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sendError(exchange, 503, "UNAVAILABLE", "Server shutting down");
+    }
+    catch (IllegalArgumentException e) {
+      sendError(exchange, 400, "INVALID_ARGUMENT", e.getMessage());
+    }
+    catch (Exception e) {
+      sendError(exchange, 500, "INTERNAL", e.toString());
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  private void simulateLatency(LatencyDistribution distribution) throws InterruptedException {
+    var latency = distribution.sample();
+    if (!latency.isZero()) {
+      Thread.sleep(latency.toMillis());
+    }
+  }
+
+  private <T> T readJson(HttpExchange exchange, Class<T> type) throws IOException {
+    //
+    // Client libraries compress request bodies.
+    //
+    var stream = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+      ? new GZIPInputStream(exchange.getRequestBody())
+      : exchange.getRequestBody();
+
+    return this.jsonFactory.fromInputStream(stream, StandardCharsets.UTF_8, type);
+  }
+
+  private void sendJson(HttpExchange exchange, int statusCode, Object body) throws IOException {
+    var bytes = this.jsonFactory.toByteArray(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private void sendError(
+    HttpExchange exchange,
+    int statusCode,
+    String status,
+    String message
+  ) throws IOException {
+    //
+    // Use the same error format as Google APIs so that the client
+    // library surfaces a GoogleJsonResponseException.
+    //
+    sendJson(exchange, statusCode, Map.of(
+      "error", Map.of(
+        "code", statusCode,
+        "message", message,
+        "status", status)));
+  }
+
+  private static Map<String, List<String>> parseQuery(String rawQuery) {
+    var parameters = new HashMap<String, List<String>>();
+    if (rawQuery != null) {
+      for (var pair : rawQuery.split("&")) {
+        var separator = pair.indexOf('=');
+        var name = URLDecoder.decode(
+          separator >= 0 ? pair.substring(0, separator) : pair,
+          StandardCharsets.UTF_8);
+        var value = separator >= 0
+          ? URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8)
+          : "";
+
+        parameters.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+      }
+    }
+
+    return parameters;
+  }
+
+  // -------------------------------------------------------------------------
+  // Synthetic data.
+  // -------------------------------------------------------------------------
+
+  private static int parseNumber(Pattern pattern, String value) {
+    var match = pattern.matcher(value);
+    return match.find()
+      ? Integer.parseInt(match.group(1))
+      : value.hashCode() & Integer.MAX_VALUE;
+  }
+
+  private static String fullResourceName(String projectId) {
+    return "//cloudresourcemanager.googleapis.com/projects/" + projectId;
+  }
+
+  /**
+   * Get the projects that a user has access to.
+   */
+  private List<String> projectsOfUser(int user) {
+    var projects = new ArrayList<String>(this.options.projectsPerUser);
+    for (int i = 0; i < this.options.projectsPerUser; i++) {
+      projects.add("project-" + ((user * this.options.projectsPerUser + i) % this.options.projects));
+    }
+
+    return projects;
+  }
+
+  private static IamPolicyAnalysisResult createAnalysisResult(
+    String projectId,
+    String role,
+    Expr condition,
+    String evaluationResult,
+    List<String> members
+  ) {
+    var acl = new GoogleCloudAssetV1AccessControlList()
+      .setResources(List.of(new GoogleCloudAssetV1Resource()
+        .setFullResourceName(fullResourceName(projectId))));
+
+    if (evaluationResult != null) {
+      acl.setConditionEvaluation(new ConditionEvaluation()
+        .setEvaluationValue(evaluationResult));
+    }
+
+    var identities = new ArrayList<GoogleCloudAssetV1Identity>();
+    for (var member : members) {
+      identities.add(new GoogleCloudAssetV1Identity().setName(member));
+    }
+
+    return new IamPolicyAnalysisResult()
+      .setAttachedResourceFullName(fullResourceName(projectId))
+      .setAccessControlLists(List.of(acl))
+      .setIamBinding(new com.google.api.services.cloudasset.v1.model.Binding()
+        .setRole(role)
+        .setMembers(members)
+        .setCondition(condition))
+      .setIdentityList(new GoogleCloudAssetV1IdentityList()
+        .setIdentities(identities));
+  }
+
+  AnalyzeIamPolicyResponse analyzeIamPolicy(Map<String, List<String>> query) {
+    var identity = query.get("analysisQuery.identitySelector.identity");
+    var resource = query.get("analysisQuery.resourceSelector.fullResourceName");
+    var roles = query.get("analysisQuery.accessSelector.roles");
+
+    var results = new ArrayList<IamPolicyAnalysisResult>();
+    if (identity != null) {
+      //
+      // Find resources accessible by a user.
+      //
+      var member = identity.get(0);
+      var user = parseNumber(USER_EMAIL, member.substring(member.indexOf(':') + 1));
+      var now = OffsetDateTime.now();
+
+      for (var projectId : projectsOfUser(user)) {
+        if (resource != null && !resource.get(0).equals(fullResourceName(projectId))) {
+          continue;
+        }
+
+        results.add(createAnalysisResult(projectId, "roles/viewer", null, null, List.of(member)));
+
+        for (int i = 0; i < this.options.rolesPerProject; i++) {
+          results.add(createAnalysisResult(
+            projectId,
+            "roles/fake.role" + i,
+            new Expr().setExpression(i % 2 == 0 ? JIT_CONDITION : MPA_CONDITION),
+            "CONDITIONAL",
+            List.of(member)));
+        }
+
+        //
+        // Include activated roles that haven't expired yet.
+        //
+        var policy = this.policies.get(projectId);
+        if (policy != null) {
+          synchronized (policy) {
+            for (var binding : policy.bindings) {
+              if (binding.getCondition() != null &&
+                JitConstraints.ACTIVATION_CONDITION_TITLE.equals(binding.getCondition().getTitle()) &&
+                binding.getMembers().contains(member) &&
+                IamTemporaryAccessConditions.getEndTime(binding.getCondition().getExpression())
+                  .map(endTime -> endTime.isAfter(now))
+                  .orElse(false)) {
+                results.add(createAnalysisResult(
+                  projectId,
+                  binding.getRole(),
+                  new Expr()
+                    .setTitle(binding.getCondition().getTitle())
+                    .setExpression(binding.getCondition().getExpression()),
+                  "TRUE",
+                  List.of(member)));
+              }
+            }
+          }
+        }
+      }
+    }
+    else if (resource != null && roles != null) {
+      //
+      // Find principals that have been granted a role.
+      //
+      var projectId = resource.get(0).substring(resource.get(0).lastIndexOf('/') + 1);
+      var project = parseNumber(PROJECT_ID, projectId);
+
+      var approvers = new ArrayList<String>();
+      for (int i = 0; i < this.options.approversPerRole; i++) {
+        approvers.add(String.format("user:user-%d@example.com", project + i));
+      }
+
+      for (var role : roles) {
+        results.add(createAnalysisResult(
+          projectId,
+          role,
+          new Expr().setExpression(MPA_CONDITION),
+          "CONDITIONAL",
+          approvers));
+      }
+    }
+    else {
+      throw new IllegalArgumentException("Unsupported analysis query");
+    }
+
+    return new AnalyzeIamPolicyResponse()
+      .setMainAnalysis(new IamPolicyAnalysis().setAnalysisResults(results))
+      .setFullyExplored(true);
+  }
+
+  private StoredPolicy createInitialPolicy(String projectId) {
+    var project = parseNumber(PROJECT_ID, projectId);
+    var start = OffsetDateTime.now().minusHours(2);
+
+    //
+    // Fill the policy with bindings for other users. One in
+    // four bindings is an expired temporary binding.
+    //
+    var bindings = new ArrayList<Binding>(this.options.policySize);
+    for (int i = 0; i < this.options.policySize; i++) {
+      var binding = new Binding()
+        .setRole("roles/other.role" + i)
+        .setMembers(new ArrayList<>(List.of(String.format("user:user-%d@example.com", project + i))));
+
+      if (i % 4 == 0) {
+        binding.setCondition(new com.google.api.services.cloudresourcemanager.v3.model.Expr()
+          .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+          .setExpression(IamTemporaryAccessConditions.createExpression(start, Duration.ofHours(1))));
+      }
+
+      bindings.add(binding);
+    }
+
+    return new StoredPolicy(bindings);
+  }
+
+  Policy getIamPolicy(String projectId) {
+    var policy = this.policies.computeIfAbsent(projectId, this::createInitialPolicy);
+    synchronized (policy) {
+      return policy.toPolicy();
+    }
+  }
+
+  /**
+   * Replace a policy, or return null if the policy has been
+   * modified since the caller read it.
+   */
+  Policy setIamPolicy(String projectId, Policy newPolicy) {
+    Objects.requireNonNull(newPolicy, "policy");
+
+    var policy = this.policies.computeIfAbsent(projectId, this::createInitialPolicy);
+    synchronized (policy) {
+      if (!policy.etag().equals(newPolicy.getEtag()) ||
+        ThreadLocalRandom.current().nextDouble() < this.options.conflictRate) {
+        return null;
+      }
+
+      policy.bindings = newPolicy.getBindings() != null
+        ? new ArrayList<>(newPolicy.getBindings())
+        : new ArrayList<>();
+      policy.version++;
+
+      return policy.toPolicy();
+    }
+  }
+
+  SignJwtResponse signJwt(String payload) {
+    //
+    // The signature is fake, so tokens only pass verification
+    // if the application signs tokens locally.
+    //
+    var encoder = Base64.getUrlEncoder().withoutPadding();
+    var header = "{\"alg\":\"RS256\",\"kid\":\"fake-key\",\"typ\":\"JWT\"}";
+
+    return new SignJwtResponse()
+      .setKeyId("fake-key")
+      .setSignedJwt(String.join(
+        ".",
+        encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)),
+        encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)),
+        encoder.encodeToString("fake-signature".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  // -------------------------------------------------------------------------
+  // Main.
+  // -------------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception {
+    var options = Options.parse(new Arguments(args));
+    var server = new FakeApiServer(options);
+    server.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+    System.out.printf(
+      "Fake API server listening on http://localhost:%d/%n" +
+        "  %d projects, %d projects per user, %d roles per project, %d bindings per policy%n" +
+        "  Latency: analyzeIamPolicy %s, get/setIamPolicy %s, signJwt %s%n" +
+        "  Error rate: %.3f, conflict rate: %.3f%n",
+      options.port,
+      options.projects,
+      options.projectsPerUser,
+      options.rolesPerProject,
+      options.policySize,
+      options.analyzeLatency,
+      options.policyLatency,
+      options.signLatency,
+      options.errorRate,
+      options.conflictRate);
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  private static class StoredPolicy {
+    private List<Binding> bindings;
+    private int version;
+
+    private StoredPolicy(List<Binding> bindings) {
+      this.bindings = bindings;
+    }
+
+    private String etag() {
+      return Base64.getEncoder().encodeToString(
+        ("v" + this.version).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Policy toPolicy() {
+      return new Policy()
+        .setVersion(3)
+        .setEtag(etag())
+        .setBindings(new ArrayList<>(this.bindings));
+    }
+  }
+
+  /**
+   * Log-normal latency distribution, specified as median:sigma in
+   * milliseconds. A sigma of 0 yields a constant latency.
+   */
+  public static class LatencyDistribution {
+    private final double medianMillis;
+    private final double sigma;
+
+    public LatencyDistribution(double medianMillis, double sigma) {
+      if (medianMillis < 0 || sigma < 0) {
+        throw new IllegalArgumentException("Median and sigma must not be negative");
+      }
+
+      this.medianMillis = medianMillis;
+      this.sigma = sigma;
+    }
+
+    public static LatencyDistribution parse(String value) {
+      var parts = value.split(":");
+      return new LatencyDistribution(
+        Double.parseDouble(parts[0]),
+        parts.length > 1 ? Double.parseDouble(parts[1]) : 0.0);
+    }
+
+    public Duration sample() {
+      var millis = this.medianMillis * Math.exp(this.sigma * ThreadLocalRandom.current().nextGaussian());
+      return Duration.ofMillis(Math.round(millis));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0fms (sigma %.2f)", this.medianMillis, this.sigma);
+    }
+  }
+
+  public static class Options {
+    public final int port;
+    public final int projects;
+    public final int projectsPerUser;
+    public final int rolesPerProject;
+    public final int approversPerRole;
+    public final int policySize;
+    public final LatencyDistribution analyzeLatency;
+    public final LatencyDistribution policyLatency;
+    public final LatencyDistribution signLatency;
+    public final double errorRate;
+    public final double conflictRate;
+
+    public Options(
+      int port,
+      int projects,
+      int projectsPerUser,
+      int rolesPerProject,
+      int approversPerRole,
+      int policySize,
+      LatencyDistribution analyzeLatency,
+      LatencyDistribution policyLatency,
+      LatencyDistribution signLatency,
+      double errorRate,
+      double conflictRate
+    ) {
+      if (projects <= 0 || projectsPerUser < 0 || rolesPerProject < 0 || approversPerRole < 0 || policySize < 0) {
+        throw new IllegalArgumentException("Sizes must not be negative");
+      }
+
+      this.port = port;
+      this.projects = projects;
+      this.projectsPerUser = projectsPerUser;
+      this.rolesPerProject = rolesPerProject;
+      this.approversPerRole = approversPerRole;
+      this.policySize = policySize;
+      this.analyzeLatency = analyzeLatency;
+      this.policyLatency = policyLatency;
+      this.signLatency = signLatency;
+      this.errorRate = errorRate;
+      this.conflictRate = conflictRate;
+    }
+
+    static Options parse(Arguments arguments) {
+      return new Options(
+        arguments.getInt("port", 9090),
+        arguments.getInt("projects", 1000),
+        arguments.getInt("projects-per-user", 20),
+        arguments.getInt("roles-per-project", 4),
+        arguments.getInt("approvers-per-role", 3),
+        arguments.getInt("policy-size", 50),
+        LatencyDistribution.parse(arguments.getString("analyze-latency", "800:0.5")),
+        LatencyDistribution.parse(arguments.getString("policy-latency", "150:0.3")),
+        LatencyDistribution.parse(arguments.getString("sign-latency", "50:0.3")),
+        arguments.getDouble("error-rate", 0.0),
+        arguments.getDouble("conflict-rate", 0.0));
+    }
+  }
+}
@@ -0,0 +1,401 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load driver that exercises the application's REST API with a number
+ * of concurrent virtual users, and reports latency percentiles and
+ * throughput per endpoint.
+ *
+ * Each virtual user repeatedly follows the same steps as the frontend:
+ * it loads the policy, lists projects, lists the roles of one of the
+ * projects, and occasionally activates one of the eligible roles. On
+ * each iteration, the virtual user impersonates a random user from
+ * the user pool.
+ *
+ * Optionally, a probe sends requests to the policy endpoint at a fixed
+ * rate. The policy endpoint doesn't call any Google APIs, so its latency
+ * shows how well the application stays responsive while the virtual
+ * users keep it busy.
+ *
+ * The application must use a fake API server, otherwise it ignores the
+ * header that selects the user.
+ */
+public class LoadDriver {
+  private static final String XSRF_HEADER = "X-JITACCESS";
+  private static final String TEST_PRINCIPAL_HEADER = "x-jitaccess-test-principal";
+
+  private final Options options;
+  private final HttpClient client;
+  private final Map<String, EndpointStatistics> statistics = new ConcurrentHashMap<>();
+
+  private volatile long measurementStartNanos;
+
+  public LoadDriver(Options options) {
+    this.options = options;
+    this.client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(10))
+      .build();
+  }
+
+  private HttpRequest.Builder newRequest(String user, String path) {
+    return HttpRequest.newBuilder(this.options.target.resolve(path))
+      .timeout(Duration.ofSeconds(60))
+      .header(XSRF_HEADER, "1")
+      .header(TEST_PRINCIPAL_HEADER, user);
+  }
+
+  /**
+   * Send a request and record its latency under the given endpoint name.
+   *
+   * @return response body, or empty if the request failed
+   */
+  private Optional<JsonElement> send(String endpoint, HttpRequest request) throws InterruptedException {
+    var startNanos = System.nanoTime();
+    boolean succeeded;
+    String body = null;
+    try {
+      var response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+      succeeded = response.statusCode() < 400;
+      body = response.body();
+    }
+    catch (IOException e) {
+      succeeded = false;
+    }
+
+    var latencyNanos = System.nanoTime() - startNanos;
+
+    //
+    // Ignore requests that started during the warm-up phase.
+    //
+    if (startNanos >= this.measurementStartNanos) {
+      this.statistics
+        .computeIfAbsent(endpoint, EndpointStatistics::new)
+        .record(latencyNanos, succeeded);
+    }
+
+    return succeeded && body != null && !body.isEmpty()
+      ? Optional.of(JsonParser.parseString(body))
+      : Optional.empty();
+  }
+
+  private void runIteration() throws InterruptedException {
+    var random = ThreadLocalRandom.current();
+    var user = String.format("user-%d@example.com", random.nextInt(this.options.userPool));
+
+    send("GET /api/policy", newRequest(user, "api/policy").GET().build());
+
+    var projects = send("GET /api/projects", newRequest(user, "api/projects").GET().build())
+      .map(JsonElement::getAsJsonObject)
+      .map(response -> response.getAsJsonArray("projects"));
+    if (projects.isEmpty() || projects.get().size() == 0) {
+      return;
+    }
+
+    var projectId = projects.get().get(random.nextInt(projects.get().size())).getAsString();
+    var roles = send(
+      "GET /api/projects/{projectId}/roles",
+      newRequest(user, String.format("api/projects/%s/roles", urlEncode(projectId))).GET().build())
+      .map(JsonElement::getAsJsonObject)
+      .map(response -> response.getAsJsonArray("roles"));
+
+    if (roles.isPresent() && random.nextDouble() < this.options.activationRate) {
+      var eligibleRoles = new ArrayList<String>();
+      for (var role : roles.get()) {
+        var projectRole = role.getAsJsonObject();
+        if ("ELIGIBLE_FOR_JIT".equals(projectRole.get("status").getAsString())) {
+          eligibleRoles.add(projectRole.getAsJsonObject("roleBinding").get("role").getAsString());
+        }
+      }
+
+      if (!eligibleRoles.isEmpty()) {
+        var activatedRoles = new JsonArray();
+        activatedRoles.add(eligibleRoles.get(random.nextInt(eligibleRoles.size())));
+
+        var request = new JsonObject();
+        request.add("roles", activatedRoles);
+        request.addProperty("justification", "Load test");
+
+        send(
+          "POST /api/projects/{projectId}/roles/self-activate",
+          newRequest(user, String.format("api/projects/%s/roles/self-activate", urlEncode(projectId)))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(request.toString()))
+            .build());
+      }
+    }
+
+    if (random.nextDouble() < this.options.allRolesRate) {
+      send("GET /api/roles", newRequest(user, "api/roles").GET().build());
+    }
+  }
+
+  private void runProbe(long endNanos) throws InterruptedException {
+    var intervalNanos = (long)(1e9 / this.options.probeRate);
+    var nextNanos = System.nanoTime();
+    while (nextNanos < endNanos) {
+      send(
+        "GET /api/policy (probe)",
+        newRequest("probe@example.com", "api/policy").GET().build());
+
+      //
+      // Keep a fixed schedule, regardless of how long the request took.
+      //
+      nextNanos += intervalNanos;
+      var delayNanos = nextNanos - System.nanoTime();
+      if (delayNanos > 0) {
+        Thread.sleep(delayNanos / 1_000_000, (int)(delayNanos % 1_000_000));
+      }
+    }
+  }
+
+  private static String urlEncode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Run the load test and return the statistics, ordered by endpoint.
+   */
+  public List<EndpointStatistics> run() throws InterruptedException {
+    var startNanos = System.nanoTime();
+    this.measurementStartNanos = startNanos + this.options.warmup.toNanos();
+    var endNanos = this.measurementStartNanos + this.options.duration.toNanos();
+
+    var virtualUsers = new ArrayList<Thread>();
+    for (int i = 0; i < this.options.virtualUsers; i++) {
+      var thread = new Thread(() -> {
+        try {
+          while (System.nanoTime() < endNanos) {
+            runIteration();
+
+            if (!this.options.thinkTime.isZero()) {
+              Thread.sleep(this.options.thinkTime.toMillis());
+            }
+          }
+        }
+        catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+      }, "virtual-user-" + i);
+
+      thread.setDaemon(true);
+      thread.start();
+      virtualUsers.add(thread);
+    }
+
+    if (this.options.probeRate > 0) {
+      var probe = new Thread(() -> {
+        try {
+          runProbe(endNanos);
+        }
+        catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+      }, "probe");
+
+      probe.setDaemon(true);
+      probe.start();
+      virtualUsers.add(probe);
+    }
+
+    for (var thread : virtualUsers) {
+      thread.join();
+    }
+
+    var measuredNanos = System.nanoTime() - this.measurementStartNanos;
+    var result = new ArrayList<>(this.statistics.values());
+    result.forEach(s -> s.measuredNanos = measuredNanos);
+    result.sort((a, b) -> a.endpoint.compareTo(b.endpoint));
+    return result;
+  }
+
+  // -------------------------------------------------------------------------
+  // Main.
+  // -------------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception {
+    var options = Options.parse(new Arguments(args));
+
+    System.out.printf(
+      "Running %d virtual users against %s for %ds (after %ds warm-up)%n",
+      options.virtualUsers,
+      options.target,
+      options.duration.toSeconds(),
+      options.warmup.toSeconds());
+
+    var statistics = new LoadDriver(options).run();
+
+    System.out.printf(
+      "%n%-52s %8s %8s %8s %8s %8s %8s%n",
+      "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p95 ms", "p99 ms");
+    for (var endpoint : statistics) {
+      System.out.printf(
+        "%-52s %8d %8d %8.1f %8.1f %8.1f %8.1f%n",
+        endpoint.endpoint,
+        endpoint.getRequestCount(),
+        endpoint.getErrorCount(),
+        endpoint.getThroughput(),
+        endpoint.getPercentileMillis(50),
+        endpoint.getPercentileMillis(95),
+        endpoint.getPercentileMillis(99));
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  /**
+   * Latencies of successful requests to an endpoint.
+   */
+  public static class EndpointStatistics {
+    public final String endpoint;
+    private final AtomicLong errors = new AtomicLong();
+    private long[] latencies = new long[1024];
+    private int count;
+    private long measuredNanos;
+
+    private EndpointStatistics(String endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    private synchronized void record(long latencyNanos, boolean succeeded) {
+      if (!succeeded) {
+        this.errors.incrementAndGet();
+        return;
+      }
+
+      if (this.count == this.latencies.length) {
+        this.latencies = Arrays.copyOf(this.latencies, this.latencies.length * 2);
+      }
+
+      this.latencies[this.count++] = latencyNanos;
+    }
+
+    public synchronized long getRequestCount() {
+      return this.count + this.errors.get();
+    }
+
+    public long getErrorCount() {
+      return this.errors.get();
+    }
+
+    /**
+     * Successful requests per second.
+     */
+    public synchronized double getThroughput() {
+      return this.measuredNanos > 0
+        ? this.count / (this.measuredNanos / 1e9)
+        : 0;
+    }
+
+    /**
+     * Get a latency percentile (nearest-rank) in milliseconds.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+      if (this.count == 0) {
+        return 0;
+      }
+
+      var sorted = Arrays.copyOf(this.latencies, this.count);
+      Arrays.sort(sorted);
+
+      var rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+      return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+  }
+
+  public static class Options {
+    public final URI target;
+    public final int virtualUsers;
+    public final int userPool;
+    public final Duration warmup;
+    public final Duration duration;
+    public final Duration thinkTime;
+    public final double activationRate;
+    public final double allRolesRate;
+    public final double probeRate;
+
+    public Options(
+      URI target,
+      int virtualUsers,
+      int userPool,
+      Duration warmup,
+      Duration duration,
+      Duration thinkTime,
+      double activationRate,
+      double allRolesRate,
+      double probeRate
+    ) {
+      if (virtualUsers <= 0 || userPool <= 0) {
+        throw new IllegalArgumentException("The number of users must be positive");
+      }
+
+      this.target = target;
+      this.virtualUsers = virtualUsers;
+      this.userPool = userPool;
+      this.warmup = warmup;
+      this.duration = duration;
+      this.thinkTime = thinkTime;
+      this.activationRate = activationRate;
+      this.allRolesRate = allRolesRate;
+      this.probeRate = probeRate;
+    }
+
+    static Options parse(Arguments arguments) {
+      var target = arguments.getString("target", "http://localhost:8080/");
+      return new Options(
+        URI.create(target.endsWith("/") ? target : target + "/"),
+        arguments.getInt("virtual-users", 10),
+        arguments.getInt("user-pool", 1000),
+        Duration.ofSeconds(arguments.getInt("warmup", 10)),
+        Duration.ofSeconds(arguments.getInt("duration", 60)),
+        Duration.ofMillis(arguments.getInt("think-time", 0)),
+        arguments.getDouble("activation-rate", 0.1),
+        arguments.getDouble("all-roles-rate", 0.05),
+        arguments.getDouble("probe-rate", 0));
+    }
+  }
+}
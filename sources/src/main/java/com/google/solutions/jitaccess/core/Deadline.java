@@ -0,0 +1,134 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core;
+
+import com.google.common.base.Preconditions;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+import io.opentelemetry.context.ImplicitContextKeyed;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Point in time by which a request must complete.
+ *
+ * The deadline of the current request is kept in the current context,
+ * so it follows the request to other threads in the same way as the
+ * request's trace context. Code that runs outside a request, such as
+ * background jobs, has no deadline.
+ */
+public class Deadline implements ImplicitContextKeyed {
+  private static final ContextKey<Deadline> KEY = ContextKey.named("jitaccess.deadline");
+
+  private final Duration timeout;
+  private final long expiryNanos;
+
+  private Deadline(Duration timeout, long expiryNanos) {
+    this.timeout = timeout;
+    this.expiryNanos = expiryNanos;
+  }
+
+  /**
+   * Create a deadline that expires after the given timeout.
+   */
+  public static Deadline after(Duration timeout) {
+    Preconditions.checkNotNull(timeout, "timeout");
+    Preconditions.checkArgument(!timeout.isNegative(), "timeout");
+
+    return new Deadline(timeout, System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * Get the deadline of the current request, if any.
+   */
+  public static Optional<Deadline> current() {
+    return Optional.ofNullable(Context.current().get(KEY));
+  }
+
+  /**
+   * Limit a timeout to the time that remains until the current
+   * request's deadline.
+   *
+   * @throws DeadlineExceededException if the deadline has passed already
+   */
+  public static Duration limit(Duration timeout) throws DeadlineExceededException {
+    Preconditions.checkNotNull(timeout, "timeout");
+
+    var deadline = current();
+    if (deadline.isEmpty()) {
+      return timeout;
+    }
+
+    var remaining = deadline.get().checkRemaining();
+    return remaining.compareTo(timeout) < 0 ? remaining : timeout;
+  }
+
+  /**
+   * Timeout that the deadline was created with.
+   */
+  public Duration getTimeout() {
+    return this.timeout;
+  }
+
+  /**
+   * Time that remains until the deadline, or zero if the deadline has passed.
+   */
+  public Duration getRemaining() {
+    var remainingNanos = this.expiryNanos - System.nanoTime();
+    return remainingNanos > 0 ? Duration.ofNanos(remainingNanos) : Duration.ZERO;
+  }
+
+  public boolean isExpired() {
+    return getRemaining().isZero();
+  }
+
+  /**
+   * Get the time that remains until the deadline.
+   *
+   * @throws DeadlineExceededException if the deadline has passed already
+   */
+  public Duration checkRemaining() throws DeadlineExceededException {
+    var remaining = getRemaining();
+    if (remaining.isZero()) {
+      throw exceeded(null);
+    }
+
+    return remaining;
+  }
+
+  /**
+   * Create an exception that indicates that the deadline has passed.
+   */
+  public DeadlineExceededException exceeded(Exception cause) {
+    return new DeadlineExceededException(
+      String.format(
+        "The request did not complete within %d seconds, try again later",
+        this.timeout.toSeconds()),
+      cause);
+  }
+
+  @Override
+  public Context storeInContext(Context context) {
+    return context.with(KEY, this);
+  }
+}
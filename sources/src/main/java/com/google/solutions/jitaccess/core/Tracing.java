@@ -0,0 +1,127 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core;
+
+import com.google.common.base.Preconditions;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Helper for recording the steps of a request as spans.
+ */
+public class Tracing {
+  public static final String INSTRUMENTATION_NAME = "com.google.solutions.jitaccess";
+
+  /** Tracer that doesn't record anything, for use in tests */
+  public static final Tracer NOOP_TRACER = OpenTelemetry.noop().getTracer(INSTRUMENTATION_NAME);
+
+  /** Resource scope (organization, folder, or project) that is analyzed */
+  public static final AttributeKey<String> SCOPE = AttributeKey.stringKey("jitaccess.scope");
+
+  /** Project ID */
+  public static final AttributeKey<String> PROJECT = AttributeKey.stringKey("jitaccess.project");
+
+  /** Role name */
+  public static final AttributeKey<String> ROLE = AttributeKey.stringKey("jitaccess.role");
+
+  /** Number of project roles returned or activated */
+  public static final AttributeKey<Long> ROLE_COUNT = AttributeKey.longKey("jitaccess.role_count");
+
+  /** Number of items returned by an API */
+  public static final AttributeKey<Long> RESULT_COUNT = AttributeKey.longKey("jitaccess.result_count");
+
+  /** Attempt number of an HTTP request, 0 for the initial attempt */
+  public static final AttributeKey<Long> RETRY_ATTEMPT = AttributeKey.longKey("jitaccess.retry_attempt");
+
+  /** Size of an HTTP response, if the response specifies a content length */
+  public static final AttributeKey<Long> RESPONSE_SIZE = AttributeKey.longKey("http.response_content_length");
+
+  private Tracing() {
+  }
+
+  /**
+   * Start a span and make it the current span. Close the returned
+   * step when the traced method returns or throws.
+   */
+  public static Step startStep(Tracer tracer, String name) {
+    Preconditions.checkNotNull(tracer, "tracer");
+    Preconditions.checkNotNull(name, "name");
+
+    return new Step(tracer.spanBuilder(name).startSpan());
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  /**
+   * A traced step. Steps that are closed without having succeeded
+   * are marked as errors.
+   */
+  public static class Step implements AutoCloseable {
+    private final Span span;
+    private final Scope scope;
+    private boolean succeeded = false;
+
+    private Step(Span span) {
+      this.span = span;
+      this.scope = span.makeCurrent();
+    }
+
+    public <T> Step setAttribute(AttributeKey<T> key, T value) {
+      if (value != null) {
+        this.span.setAttribute(key, value);
+      }
+
+      return this;
+    }
+
+    /**
+     * Mark the step as successful.
+     */
+    public <T> T succeeded(T result) {
+      this.succeeded = true;
+      return result;
+    }
+
+    /**
+     * Mark the step as successful.
+     */
+    public void succeeded() {
+      this.succeeded = true;
+    }
+
+    @Override
+    public void close() {
+      if (!this.succeeded) {
+        this.span.setStatus(StatusCode.ERROR);
+      }
+
+      this.scope.close();
+      this.span.end();
+    }
+  }
+}
@@ -0,0 +1,301 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.Tracing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records the latency and outcome of adapter methods, and of the
+ * HTTP requests that adapters send to Google APIs, as metrics and
+ * as spans.
+ */
+public class AdapterMetrics {
+  /** Latency of adapter methods, including retries */
+  public static final String CALLS = "jitaccess.adapter.calls";
+
+  /** Number of retries, for example because of concurrent modifications */
+  public static final String RETRIES = "jitaccess.adapter.retries";
+
+  /** Number of operations that failed because they couldn't be retried anymore */
+  public static final String GIVE_UPS = "jitaccess.adapter.giveups";
+
+  /** Number of items returned by adapter methods */
+  public static final String RESULTS = "jitaccess.adapter.results";
+
+  /** Latency and status of individual HTTP requests */
+  public static final String API_REQUESTS = "jitaccess.api.requests";
+
+  /** Size of HTTP responses, if the response specifies a content length */
+  public static final String API_RESPONSE_SIZE = "jitaccess.api.response.size";
+
+  private final MeterRegistry registry;
+  private final Tracer tracer;
+  private final String adapter;
+
+  public AdapterMetrics(MeterRegistry registry, Tracer tracer, String adapter) {
+    Preconditions.checkNotNull(registry, "registry");
+    Preconditions.checkNotNull(tracer, "tracer");
+    Preconditions.checkNotNull(adapter, "adapter");
+
+    this.registry = registry;
+    this.tracer = tracer;
+    this.adapter = adapter;
+  }
+
+  public AdapterMetrics(MeterRegistry registry, String adapter) {
+    this(registry, Tracing.NOOP_TRACER, adapter);
+  }
+
+  /**
+   * Start timing and tracing a method call. Close the returned call
+   * when the method returns or throws.
+   */
+  public Call startCall(String method) {
+    return new Call(method);
+  }
+
+  /**
+   * Count a retry.
+   */
+  public void recordRetry(String method, String reason) {
+    Counter.builder(RETRIES)
+      .tags("adapter", this.adapter, "method", method, "reason", reason)
+      .register(this.registry)
+      .increment();
+
+    Span.current().addEvent(
+      "retry",
+      Attributes.of(AttributeKey.stringKey("reason"), reason));
+  }
+
+  /**
+   * Count an operation that failed because it couldn't be retried anymore.
+   */
+  public void recordGiveUp(String method, String reason) {
+    Counter.builder(GIVE_UPS)
+      .tags("adapter", this.adapter, "method", method, "reason", reason)
+      .register(this.registry)
+      .increment();
+
+    Span.current().addEvent(
+      "give_up",
+      Attributes.of(AttributeKey.stringKey("reason"), reason));
+  }
+
+  /**
+   * Record the number of items returned by a method.
+   */
+  public void recordResultCount(String method, int count) {
+    DistributionSummary.builder(RESULTS)
+      .tags("adapter", this.adapter, "method", method)
+      .publishPercentileHistogram()
+      .register(this.registry)
+      .record(count);
+
+    Span.current().setAttribute(Tracing.RESULT_COUNT, (long)count);
+  }
+
+  private void recordApiRequest(
+    HttpRequest request,
+    String status,
+    long startTime,
+    Long contentLength
+  ) {
+    var host = request.getUrl().getHost();
+
+    Timer.builder(API_REQUESTS)
+      .tags(
+        "adapter", this.adapter,
+        "host", host,
+        "method", request.getRequestMethod(),
+        "status", status)
+      .publishPercentileHistogram()
+      .register(this.registry)
+      .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+    if (contentLength != null) {
+      DistributionSummary.builder(API_RESPONSE_SIZE)
+        .baseUnit("bytes")
+        .tags("adapter", this.adapter, "host", host)
+        .publishPercentileHistogram()
+        .register(this.registry)
+        .record(contentLength);
+    }
+  }
+
+  /**
+   * Start a client span for an HTTP request. The span becomes a child
+   * of the current span, typically the span of an adapter method.
+   */
+  private Span startApiRequestSpan(HttpRequest request, int attempt) {
+    return this.tracer
+      .spanBuilder(String.format("%s %s", request.getRequestMethod(), request.getUrl().getHost()))
+      .setSpanKind(SpanKind.CLIENT)
+      .setAttribute("http.method", request.getRequestMethod())
+      .setAttribute("net.peer.name", request.getUrl().getHost())
+      .setAttribute(Tracing.RETRY_ATTEMPT, (long)attempt)
+      .startSpan();
+  }
+
+  /**
+   * Wrap a request initializer so that every HTTP request (including
+   * retries) is timed and traced, and its status and response size
+   * are recorded.
+   */
+  public HttpRequestInitializer instrument(HttpRequestInitializer initializer) {
+    Preconditions.checkNotNull(initializer, "initializer");
+
+    return request -> {
+      initializer.initialize(request);
+
+      //
+      // Chain the handlers set by the initializer, if any. The execute
+      // interceptor runs right before each attempt, so it's the best
+      // place to start timing.
+      //
+      var executeInterceptor = request.getInterceptor();
+      var responseInterceptor = request.getResponseInterceptor();
+      var ioExceptionHandler = request.getIOExceptionHandler();
+      var startTime = new AtomicLong(System.nanoTime());
+      var attempts = new AtomicInteger();
+      var span = new AtomicReference<Span>();
+
+      request.setInterceptor(r -> {
+        if (executeInterceptor != null) {
+          executeInterceptor.intercept(r);
+        }
+
+        span.set(startApiRequestSpan(r, attempts.getAndIncrement()));
+        startTime.set(System.nanoTime());
+      });
+
+      request.setResponseInterceptor(response -> {
+        var contentLength = response.getHeaders().getContentLength();
+        recordApiRequest(
+          request,
+          String.valueOf(response.getStatusCode()),
+          startTime.get(),
+          contentLength);
+
+        var currentSpan = span.getAndSet(null);
+        if (currentSpan != null) {
+          currentSpan.setAttribute("http.status_code", response.getStatusCode());
+          if (contentLength != null) {
+            currentSpan.setAttribute(Tracing.RESPONSE_SIZE, contentLength);
+          }
+
+          if (!response.isSuccessStatusCode()) {
+            currentSpan.setStatus(StatusCode.ERROR);
+          }
+
+          currentSpan.end();
+        }
+
+        if (responseInterceptor != null) {
+          responseInterceptor.interceptResponse(response);
+        }
+      });
+
+      request.setIOExceptionHandler((r, supportsRetry) -> {
+        recordApiRequest(r, "io_error", startTime.get(), null);
+
+        var currentSpan = span.getAndSet(null);
+        if (currentSpan != null) {
+          currentSpan.setStatus(StatusCode.ERROR, "I/O error");
+          currentSpan.end();
+        }
+
+        return ioExceptionHandler != null && ioExceptionHandler.handleIOException(r, supportsRetry);
+      });
+    };
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  /**
+   * A method call that is being timed and traced. Calls that are closed
+   * without having succeeded are recorded as errors.
+   */
+  public class Call implements AutoCloseable {
+    private final String method;
+    private final long startTime = System.nanoTime();
+    private final Tracing.Step step;
+    private String outcome = "error";
+
+    private Call(String method) {
+      this.method = method;
+      this.step = Tracing.startStep(tracer, String.format("%s/%s", adapter, method));
+    }
+
+    public <T> Call setAttribute(AttributeKey<T> key, T value) {
+      this.step.setAttribute(key, value);
+      return this;
+    }
+
+    /**
+     * Mark the call as successful.
+     */
+    public <T> T succeeded(T result) {
+      this.outcome = "success";
+      return this.step.succeeded(result);
+    }
+
+    /**
+     * Mark the call as successful.
+     */
+    public void succeeded() {
+      this.outcome = "success";
+      this.step.succeeded();
+    }
+
+    @Override
+    public void close() {
+      this.step.close();
+
+      Timer.builder(CALLS)
+        .tags("adapter", adapter, "method", this.method, "outcome", this.outcome)
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(System.nanoTime() - this.startTime, TimeUnit.NANOSECONDS);
+    }
+  }
+}
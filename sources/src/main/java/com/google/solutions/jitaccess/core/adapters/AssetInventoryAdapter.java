@@ -25,20 +25,31 @@ import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.cloudasset.v1.CloudAsset;
 import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.api.services.cloudasset.v1.model.IamPolicySearchResult;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.common.base.Preconditions;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
 import com.google.solutions.jitaccess.core.AccessException;
 import com.google.solutions.jitaccess.core.ApplicationVersion;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
 import com.google.solutions.jitaccess.core.NotAuthenticatedException;
+import com.google.solutions.jitaccess.core.Tracing;
 import com.google.solutions.jitaccess.core.data.UserId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.opentelemetry.api.trace.Tracer;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -48,30 +59,71 @@ import java.util.Optional;
 @ApplicationScoped
 public class AssetInventoryAdapter {
   public static final String OAUTH_SCOPE = "https://www.googleapis.com/auth/cloud-platform";
-  private static final int ANALYZE_IAM_POLICY_TIMEOUT_SECS = 30;
+  private static final Duration ANALYZE_IAM_POLICY_TIMEOUT = Duration.ofSeconds(30);
+  private static final int SEARCH_IAM_POLICIES_PAGE_SIZE = 500;
 
   private final GoogleCredentials credentials;
+  private final AdapterMetrics metrics;
+  private final HttpTransport.Options transportOptions;
 
-  public AssetInventoryAdapter(GoogleCredentials credentials) {
+  /** Lazily initialized client, clients are thread-safe and can be reused */
+  private CloudAsset client;
+
+  @Inject
+  public AssetInventoryAdapter(
+    GoogleCredentials credentials,
+    MeterRegistry meterRegistry,
+    Tracer tracer,
+    HttpTransport.Options transportOptions
+  ) {
     Preconditions.checkNotNull(credentials, "credentials");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+    Preconditions.checkNotNull(tracer, "tracer");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
 
     this.credentials = credentials;
+    this.metrics = new AdapterMetrics(meterRegistry, tracer, "asset-inventory");
+    this.transportOptions = transportOptions;
+  }
+
+  public AssetInventoryAdapter(GoogleCredentials credentials) {
+    this(credentials, Metrics.globalRegistry, Tracing.NOOP_TRACER, HttpTransport.Options.createDefault());
   }
 
-  private CloudAsset createClient() throws IOException {
+  private synchronized CloudAsset getClient() throws IOException {
     try {
-      return new CloudAsset.Builder(
-          HttpTransport.newTransport(),
-          new GsonFactory(),
-          new HttpCredentialsAdapter(this.credentials))
-        .setApplicationName(ApplicationVersion.USER_AGENT)
-        .build();
+      if (this.client == null) {
+        this.client = new CloudAsset.Builder(
+            HttpTransport.getSharedTransport(),
+            new GsonFactory(),
+            this.metrics.instrument(HttpTransport.withDeadline(new HttpCredentialsAdapter(this.credentials))))
+          .setApplicationName(ApplicationVersion.USER_AGENT)
+          .setRootUrl(this.transportOptions.rootUrlOverride.orElse(CloudAsset.DEFAULT_ROOT_URL))
+          .build();
+      }
+
+      return this.client;
     }
     catch (GeneralSecurityException e) {
       throw new IOException("Creating a CloudAsset client failed", e);
     }
   }
 
+  /**
+   * Get the execution timeout for analyzing IAM policies. The analysis must
+   * complete before the deadline of the current request, if there is one.
+   */
+  private static String getAnalyzeIamPolicyExecutionTimeout() throws DeadlineExceededException {
+    var timeout = Deadline.limit(ANALYZE_IAM_POLICY_TIMEOUT);
+    return String.format("%ds", Math.max(1, timeout.toSeconds()));
+  }
+
+  private void recordResultCount(String method, IamPolicyAnalysis analysis) {
+    this.metrics.recordResultCount(
+      method,
+      analysis != null && analysis.getAnalysisResults() != null ? analysis.getAnalysisResults().size() : 0);
+  }
+
   /**
    * Find resources accessible by a user, incl.:
    * - resources the user has been directly granted access to
@@ -97,13 +149,15 @@ public class AssetInventoryAdapter {
       || scope.startsWith("folders/")
       || scope.startsWith("projects/"));
 
-    try {
-      var request = createClient().v1()
+    try (var call = this.metrics.startCall("findAccessibleResourcesByUser")) {
+      call.setAttribute(Tracing.SCOPE, scope);
+
+      var request = getClient().v1()
         .analyzeIamPolicy(scope)
         .setAnalysisQueryIdentitySelectorIdentity("user:" + user.email)
         .setAnalysisQueryOptionsExpandResources(expandResources)
         .setAnalysisQueryConditionContextAccessTime(DateTimeFormatter.ISO_INSTANT.format(Instant.now()))
-        .setExecutionTimeout(String.format("%ds", ANALYZE_IAM_POLICY_TIMEOUT_SECS));
+        .setExecutionTimeout(getAnalyzeIamPolicyExecutionTimeout());
 
       if (fullResourceName.isPresent()) {
         request.setAnalysisQueryResourceSelectorFullResourceName(fullResourceName.get());
@@ -113,9 +167,15 @@ public class AssetInventoryAdapter {
         request.setAnalysisQueryAccessSelectorPermissions(List.of(permission.get()));
       }
 
-      return request
+      var analysis = request
         .execute()
         .getMainAnalysis();
+
+      recordResultCount("findAccessibleResourcesByUser", analysis);
+      return call.succeeded(analysis);
+    }
+    catch (SocketTimeoutException e) {
+      throw HttpTransport.translateTimeout(e);
     }
     catch (GoogleJsonResponseException e) {
       switch (e.getStatusCode()) {
@@ -141,6 +201,21 @@ public class AssetInventoryAdapter {
       String scope,
       String fullResourceName,
       String role
+  ) throws AccessException, IOException {
+    return findPermissionedPrincipalsByResource(scope, fullResourceName, role, false);
+  }
+
+  /**
+   * Find users or groups that have been (conditionally) granted a given role on a given resource.
+   *
+   * If expandGroupsAndResources is true, the result lists the members of groups (instead of
+   * groups), and the descendants of resources (instead of only the resources themselves).
+   */
+  public IamPolicyAnalysis findPermissionedPrincipalsByResource(
+      String scope,
+      String fullResourceName,
+      String role,
+      boolean expandGroupsAndResources
   ) throws AccessException, IOException {
     Preconditions.checkNotNull(scope, "scope");
     Preconditions.checkNotNull(fullResourceName, "fullResourceName");
@@ -150,15 +225,81 @@ public class AssetInventoryAdapter {
       || scope.startsWith("folders/")
       || scope.startsWith("projects/"));
 
-    try {
-      return createClient().v1()
+    try (var call = this.metrics.startCall("findPermissionedPrincipalsByResource")) {
+      call.setAttribute(Tracing.SCOPE, scope);
+
+      var request = getClient().v1()
         .analyzeIamPolicy(scope)
         .setAnalysisQueryResourceSelectorFullResourceName(fullResourceName)
         .setAnalysisQueryAccessSelectorRoles(List.of(role))
         .setAnalysisQueryConditionContextAccessTime(DateTimeFormatter.ISO_INSTANT.format(Instant.now()))
-        .setExecutionTimeout(String.format("%ds", ANALYZE_IAM_POLICY_TIMEOUT_SECS))
+        .setExecutionTimeout(getAnalyzeIamPolicyExecutionTimeout());
+
+      if (expandGroupsAndResources) {
+        request
+          .setAnalysisQueryOptionsExpandGroups(true)
+          .setAnalysisQueryOptionsExpandResources(true);
+      }
+
+      var analysis = request
         .execute()
         .getMainAnalysis();
+
+      recordResultCount("findPermissionedPrincipalsByResource", analysis);
+      return call.succeeded(analysis);
+    }
+    catch (SocketTimeoutException e) {
+      throw HttpTransport.translateTimeout(e);
+    }
+    catch (GoogleJsonResponseException e) {
+      switch (e.getStatusCode()) {
+        case 401:
+          throw new NotAuthenticatedException("Not authenticated", e);
+        case 403:
+          throw new AccessDeniedException(String.format("Denied access to scope '%s': %s", scope, e.getMessage()), e);
+        default:
+          throw (GoogleJsonResponseException)e.fillInStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Find all IAM policies within a scope, including the policies of
+   * the scope itself and of all descendant resources.
+   */
+  public List<IamPolicySearchResult> findIamPolicies(
+      String scope
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(scope, "scope");
+
+    assert (scope.startsWith("organizations/")
+      || scope.startsWith("folders/")
+      || scope.startsWith("projects/"));
+
+    try (var call = this.metrics.startCall("findIamPolicies")) {
+      call.setAttribute(Tracing.SCOPE, scope);
+
+      var policies = new ArrayList<IamPolicySearchResult>();
+      String pageToken = null;
+      do {
+        var response = getClient().v1()
+          .searchAllIamPolicies(scope)
+          .setPageSize(SEARCH_IAM_POLICIES_PAGE_SIZE)
+          .setPageToken(pageToken)
+          .execute();
+
+        if (response.getResults() != null) {
+          policies.addAll(response.getResults());
+        }
+
+        pageToken = response.getNextPageToken();
+      } while (pageToken != null && !pageToken.isEmpty());
+
+      this.metrics.recordResultCount("findIamPolicies", policies.size());
+      return call.succeeded(policies);
+    }
+    catch (SocketTimeoutException e) {
+      throw HttpTransport.translateTimeout(e);
     }
     catch (GoogleJsonResponseException e) {
       switch (e.getStatusCode()) {
@@ -0,0 +1,284 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appendable that buffers log records and writes them to the underlying
+ * output on a background thread, so that logging doesn't block requests.
+ *
+ * Each call to append() is treated as a separate record and must
+ * therefore contain one or more complete lines.
+ */
+@ApplicationScoped
+public class AsyncLogWriter implements Appendable, Closeable {
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+
+  private final Appendable output;
+  private final Options options;
+  private final BlockingQueue<String> buffer;
+  private final Thread flusher;
+
+  private final AtomicLong overflows = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile boolean closed = false;
+
+  public AsyncLogWriter(Appendable output, Options options) {
+    Preconditions.checkNotNull(output, "output");
+    Preconditions.checkNotNull(options, "options");
+
+    this.output = output;
+    this.options = options;
+    this.buffer = new ArrayBlockingQueue<>(options.bufferSize);
+
+    this.flusher = new Thread(this::flushContinuously, "log-writer");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  @Inject
+  public AsyncLogWriter(Options options) {
+    this(System.out, options);
+  }
+
+  private void flushContinuously() {
+    var batch = new ArrayList<String>(MAX_BATCH_SIZE);
+    while (!this.closed || !this.buffer.isEmpty()) {
+      try {
+        var first = this.buffer.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          this.buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+          writeBatch(batch);
+          batch.clear();
+        }
+      }
+      catch (InterruptedException e) {
+        //
+        // Interrupted by close(), drain remaining records and quit.
+        //
+        this.buffer.drainTo(batch);
+        writeBatch(batch);
+        return;
+      }
+    }
+  }
+
+  private void writeBatch(Iterable<String> records) {
+    var batch = new StringBuilder();
+    for (var record : records) {
+      batch.append(record);
+    }
+
+    writeDirect(batch);
+  }
+
+  private void writeDirect(CharSequence records) {
+    synchronized (this.output) {
+      try {
+        this.output.append(records);
+        if (this.output instanceof Flushable) {
+          ((Flushable) this.output).flush();
+        }
+      }
+      catch (IOException ignored) {
+        //
+        // Nowhere else to log to.
+        //
+      }
+    }
+  }
+
+  private void enqueue(String record) {
+    if (this.closed) {
+      //
+      // Flusher is gone, write synchronously.
+      //
+      writeDirect(record);
+      return;
+    }
+
+    if (this.buffer.offer(record)) {
+      drainIfClosed();
+      return;
+    }
+
+    var overflow = this.overflows.incrementAndGet();
+    var block = this.options.overflowPolicy == OverflowPolicy.BLOCK ||
+      (this.options.overflowPolicy == OverflowPolicy.SAMPLE && overflow % this.options.sampleRate == 0);
+
+    if (block) {
+      try {
+        this.buffer.put(record);
+        drainIfClosed();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.dropped.incrementAndGet();
+      }
+    }
+    else {
+      this.dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * If close() ran while we were enqueueing, it might have drained the
+   * buffer before our record arrived. Write the record ourselves so that
+   * it doesn't get lost.
+   */
+  private void drainIfClosed() {
+    if (this.closed) {
+      drainRemaining();
+    }
+  }
+
+  private void drainRemaining() {
+    var remaining = new ArrayList<String>();
+    this.buffer.drainTo(remaining);
+    if (!remaining.isEmpty()) {
+      writeBatch(remaining);
+    }
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) {
+    enqueue(String.valueOf(csq));
+    return this;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) {
+    enqueue(String.valueOf(csq).substring(start, end));
+    return this;
+  }
+
+  @Override
+  public Appendable append(char c) {
+    enqueue(String.valueOf(c));
+    return this;
+  }
+
+  /**
+   * Stop the background thread and write all buffered records.
+   */
+  @Override
+  @PreDestroy
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    try {
+      this.flusher.join(this.options.shutdownTimeout.toMillis());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (this.flusher.isAlive()) {
+      this.flusher.interrupt();
+    }
+
+    //
+    // Write anything that slipped in while we were closing. Records
+    // that are enqueued after this point are written by the thread
+    // that enqueues them, see drainIfClosed().
+    //
+    drainRemaining();
+  }
+
+  /** Number of records that didn't fit into the buffer */
+  public long getOverflowCount() {
+    return this.overflows.get();
+  }
+
+  /** Number of records that have been dropped because of overflows */
+  public long getDroppedCount() {
+    return this.dropped.get();
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  public enum OverflowPolicy {
+    /** Block the caller until there is space in the buffer */
+    BLOCK,
+
+    /** Drop the record */
+    DROP,
+
+    /** Block for every n-th record, drop all others */
+    SAMPLE
+  }
+
+  public static class Options {
+    /** Maximum number of records to buffer */
+    public final int bufferSize;
+
+    /** What to do when the buffer is full */
+    public final OverflowPolicy overflowPolicy;
+
+    /** For SAMPLE, keep one out of this many overflowing records */
+    public final int sampleRate;
+
+    /** Maximum time to wait for the buffer to drain on shutdown */
+    public final Duration shutdownTimeout;
+
+    public Options(
+      int bufferSize,
+      OverflowPolicy overflowPolicy,
+      int sampleRate,
+      Duration shutdownTimeout
+    ) {
+      Preconditions.checkArgument(bufferSize > 0, "bufferSize");
+      Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+      Preconditions.checkArgument(sampleRate > 0, "sampleRate");
+      Preconditions.checkNotNull(shutdownTimeout, "shutdownTimeout");
+
+      this.bufferSize = bufferSize;
+      this.overflowPolicy = overflowPolicy;
+      this.sampleRate = sampleRate;
+      this.shutdownTimeout = shutdownTimeout;
+    }
+  }
+}
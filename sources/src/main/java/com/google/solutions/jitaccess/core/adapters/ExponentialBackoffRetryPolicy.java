@@ -0,0 +1,325 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.solutions.jitaccess.core.Deadline;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry policy that uses exponential backoff with full jitter, limited
+ * by a maximum number of attempts, an overall deadline, and a retry budget.
+ *
+ * Operations that modify the same resource share a retry budget: Each
+ * retry consumes a token, each successful operation refunds a fraction
+ * of a token, and tokens are refilled at a fixed rate. When many operations
+ * on a resource fail at the same time, the budget runs out and operations
+ * on that resource fail fast instead of adding more load. Operations on
+ * other resources aren't affected.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+  /** Number of operations that have been started */
+  public static final String OPERATIONS = "jitaccess.retry.operations";
+
+  /** Number of retries that have been performed */
+  public static final String RETRIES = "jitaccess.retry.retries";
+
+  /** Number of operations that gave up, by reason */
+  public static final String GIVE_UPS = "jitaccess.retry.giveups";
+
+  /** Time after which the budget of an idle key is discarded */
+  private static final Duration BUDGET_RETENTION = Duration.ofMinutes(10);
+
+  /** Maximum number of keys to track budgets for */
+  private static final int MAX_BUDGETS = 1000;
+
+  private final Options options;
+
+  /** Budgets by key, idle budgets are evicted (and thus refilled) eventually */
+  private final Cache<String, Budget> budgets;
+
+  private final AtomicLong operations = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong attemptsExhausted = new AtomicLong();
+  private final AtomicLong deadlinesExceeded = new AtomicLong();
+  private final AtomicLong budgetExhausted = new AtomicLong();
+
+  public ExponentialBackoffRetryPolicy(Options options, MeterRegistry meterRegistry) {
+    Preconditions.checkNotNull(options, "options");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+
+    this.options = options;
+    this.budgets = CacheBuilder.newBuilder()
+      .expireAfterAccess(BUDGET_RETENTION)
+      .maximumSize(MAX_BUDGETS)
+      .build();
+
+    FunctionCounter.builder(OPERATIONS, this.operations, AtomicLong::get)
+      .register(meterRegistry);
+    FunctionCounter.builder(RETRIES, this.retries, AtomicLong::get)
+      .register(meterRegistry);
+    FunctionCounter.builder(GIVE_UPS, this.attemptsExhausted, AtomicLong::get)
+      .tags("reason", "attempts_exhausted")
+      .register(meterRegistry);
+    FunctionCounter.builder(GIVE_UPS, this.deadlinesExceeded, AtomicLong::get)
+      .tags("reason", "deadline_exceeded")
+      .register(meterRegistry);
+    FunctionCounter.builder(GIVE_UPS, this.budgetExhausted, AtomicLong::get)
+      .tags("reason", "budget_exhausted")
+      .register(meterRegistry);
+  }
+
+  public ExponentialBackoffRetryPolicy(Options options) {
+    this(options, Metrics.globalRegistry);
+  }
+
+  @Override
+  public Operation beginOperation(String key) {
+    Preconditions.checkNotNull(key, "key");
+
+    Budget budget;
+    try {
+      budget = this.budgets.get(key, Budget::new);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+
+    this.operations.incrementAndGet();
+    return new BackoffOperation(budget, System.nanoTime());
+  }
+
+  public Options getOptions() {
+    return options;
+  }
+
+  /** Number of operations that have been started */
+  public long getOperationCount() {
+    return this.operations.get();
+  }
+
+  /** Number of retries that have been performed */
+  public long getRetryCount() {
+    return this.retries.get();
+  }
+
+  /** Number of operations that failed after the maximum number of attempts */
+  public long getAttemptsExhaustedCount() {
+    return this.attemptsExhausted.get();
+  }
+
+  /** Number of operations that failed because they exceeded the deadline */
+  public long getDeadlineExceededCount() {
+    return this.deadlinesExceeded.get();
+  }
+
+  /** Number of operations that failed because the retry budget was exhausted */
+  public long getBudgetExhaustedCount() {
+    return this.budgetExhausted.get();
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  /**
+   * Token bucket that limits the retries for a single key.
+   */
+  private class Budget {
+    private double tokens = options.budgetTokens;
+    private long lastRefillTime = System.nanoTime();
+
+    private void refill() {
+      var now = System.nanoTime();
+      this.tokens = Math.min(
+        options.budgetTokens,
+        this.tokens + (now - this.lastRefillTime) / 1e9 * options.budgetRefillPerSecond);
+      this.lastRefillTime = now;
+    }
+
+    private synchronized boolean tryConsume() {
+      refill();
+      if (this.tokens < 1) {
+        return false;
+      }
+
+      this.tokens -= 1;
+      return true;
+    }
+
+    private synchronized void refund() {
+      refill();
+      this.tokens = Math.min(options.budgetTokens, this.tokens + options.budgetRefundPerSuccess);
+    }
+  }
+
+  private class BackoffOperation implements Operation {
+    private final Budget budget;
+    private final long startTime;
+    private int attempts = 1;
+    private GiveUpReason giveUpReason;
+
+    private BackoffOperation(Budget budget, long startTime) {
+      this.budget = budget;
+      this.startTime = startTime;
+    }
+
+    @Override
+    public boolean waitBeforeRetry() throws InterruptedException {
+      if (this.attempts >= options.maxAttempts) {
+        attemptsExhausted.incrementAndGet();
+        this.giveUpReason = GiveUpReason.ATTEMPTS_EXHAUSTED;
+        return false;
+      }
+
+      //
+      // Use "full jitter", i.e. pick a random delay between 0 and the
+      // exponential backoff delay. This keeps concurrent callers from
+      // retrying in lockstep.
+      //
+      var backoffMillis = Math.min(
+        options.maxDelay.toMillis(),
+        (long) (options.initialDelay.toMillis() * Math.pow(options.multiplier, this.attempts - 1)));
+      var delayMillis = ThreadLocalRandom.current().nextLong(backoffMillis + 1);
+
+      var elapsedMillis = Duration.ofNanos(System.nanoTime() - this.startTime).toMillis();
+      //
+      // Don't retry if the retry wouldn't start before the deadline
+      // of the operation, or of the current request.
+      //
+      var requestDeadline = Deadline.current();
+      if (requestDeadline.isPresent() && requestDeadline.get().getRemaining().toMillis() <= delayMillis) {
+        deadlinesExceeded.incrementAndGet();
+        this.giveUpReason = GiveUpReason.REQUEST_DEADLINE_EXCEEDED;
+        return false;
+      }
+
+      if (elapsedMillis + delayMillis > options.deadline.toMillis()) {
+        deadlinesExceeded.incrementAndGet();
+        this.giveUpReason = GiveUpReason.DEADLINE_EXCEEDED;
+        return false;
+      }
+
+      if (!this.budget.tryConsume()) {
+        budgetExhausted.incrementAndGet();
+        this.giveUpReason = GiveUpReason.BUDGET_EXHAUSTED;
+        return false;
+      }
+
+      Thread.sleep(delayMillis);
+
+      this.attempts++;
+      retries.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public void succeeded() {
+      this.budget.refund();
+    }
+
+    @Override
+    public Optional<GiveUpReason> getGiveUpReason() {
+      return Optional.ofNullable(this.giveUpReason);
+    }
+  }
+
+  public static class Options {
+    /** Delay before the first retry */
+    public final Duration initialDelay;
+
+    /** Upper bound for delays */
+    public final Duration maxDelay;
+
+    /** Factor by which the delay increases with each retry */
+    public final double multiplier;
+
+    /** Maximum number of attempts, including the first attempt */
+    public final int maxAttempts;
+
+    /** Maximum time to spend on an operation, including all retries */
+    public final Duration deadline;
+
+    /** Maximum number of retries on the same key that can be performed in a burst */
+    public final int budgetTokens;
+
+    /** Number of tokens to add to the budget for each successful operation */
+    public final double budgetRefundPerSuccess;
+
+    /** Number of tokens to add to the budget per second */
+    public final double budgetRefillPerSecond;
+
+    public Options(
+      Duration initialDelay,
+      Duration maxDelay,
+      double multiplier,
+      int maxAttempts,
+      Duration deadline,
+      int budgetTokens,
+      double budgetRefundPerSuccess,
+      double budgetRefillPerSecond
+    ) {
+      Preconditions.checkNotNull(initialDelay, "initialDelay");
+      Preconditions.checkNotNull(maxDelay, "maxDelay");
+      Preconditions.checkNotNull(deadline, "deadline");
+      Preconditions.checkArgument(multiplier >= 1, "multiplier");
+      Preconditions.checkArgument(maxAttempts >= 1, "maxAttempts");
+      Preconditions.checkArgument(budgetTokens >= 0, "budgetTokens");
+      Preconditions.checkArgument(budgetRefundPerSuccess >= 0, "budgetRefundPerSuccess");
+      Preconditions.checkArgument(budgetRefillPerSecond >= 0, "budgetRefillPerSecond");
+
+      this.initialDelay = initialDelay;
+      this.maxDelay = maxDelay;
+      this.multiplier = multiplier;
+      this.maxAttempts = maxAttempts;
+      this.deadline = deadline;
+      this.budgetTokens = budgetTokens;
+      this.budgetRefundPerSuccess = budgetRefundPerSuccess;
+      this.budgetRefillPerSecond = budgetRefillPerSecond;
+    }
+
+    /**
+     * Default options for IAM policy updates.
+     */
+    public static Options createDefault() {
+      return new Options(
+        Duration.ofMillis(100),
+        Duration.ofSeconds(2),
+        2.0,
+        8,
+        Duration.ofSeconds(10),
+        20,
+        0.2,
+        1.0);
+    }
+  }
+}
@@ -22,20 +22,45 @@
 package com.google.solutions.jitaccess.core.adapters;
 
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.Deadline;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Optional;
 
 /**
  * Factory for creating transports based on the 'javax.net.ssl.trustStore'
  * system property.
  */
 public class HttpTransport {
+  private static NetHttpTransport sharedTransport;
+
+  /** Default connect timeout of HTTP requests, see HttpRequest */
+  private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(20);
+
   private HttpTransport() {}
 
+  /**
+   * Get a transport that is shared across all adapters.
+   *
+   * Sharing a transport lets requests reuse pooled keep-alive connections
+   * and TLS sessions, and avoids reloading the trust store for each request.
+   */
+  public static synchronized NetHttpTransport getSharedTransport() throws GeneralSecurityException, IOException {
+    if (sharedTransport == null) {
+      sharedTransport = newTransport();
+    }
+
+    return sharedTransport;
+  }
+
   public static NetHttpTransport newTransport() throws GeneralSecurityException, IOException {
     var trustStore = System.getProperty("javax.net.ssl.trustStore");
     var trustStorePassword = System.getProperty("javax.net.ssl.trustStorePassword");
@@ -65,4 +90,89 @@ public class HttpTransport {
       return GoogleNetHttpTransport.newTrustedTransport();
     }
   }
+
+  /**
+   * Wrap a request initializer so that every HTTP request (including
+   * retries) respects the deadline of the current request.
+   *
+   * Each attempt uses the remaining time as its socket timeouts, and
+   * fails without sending anything if the deadline has passed already.
+   * If a read times out, the deadline has passed by then, and adapters
+   * can use translateTimeout to report it as such.
+   * Requests sent outside a request, for example by background jobs,
+   * keep the default timeouts.
+   */
+  public static HttpRequestInitializer withDeadline(HttpRequestInitializer initializer) {
+    Preconditions.checkNotNull(initializer, "initializer");
+
+    return request -> {
+      initializer.initialize(request);
+
+      var deadline = Deadline.current();
+      if (deadline.isEmpty()) {
+        return;
+      }
+
+      //
+      // The request might be retried, so check the deadline before
+      // each attempt rather than only once.
+      //
+      var executeInterceptor = request.getInterceptor();
+      request.setInterceptor(r -> {
+        if (executeInterceptor != null) {
+          executeInterceptor.intercept(r);
+        }
+
+        var remaining = deadline.get().checkRemaining();
+        //
+        // Round up so that a read timeout implies that the deadline has passed.
+        //
+        r.setReadTimeout((int)Math.max(1, remaining.toMillis() + 1));
+        r.setConnectTimeout((int)Math.max(1, Math.min(
+          remaining.toMillis(),
+          DEFAULT_CONNECT_TIMEOUT.toMillis())));
+      });
+    };
+  }
+
+  /**
+   * Translate a socket timeout into a DeadlineExceededException if
+   * it occurred because the deadline of the current request has passed.
+   */
+  public static IOException translateTimeout(SocketTimeoutException e) {
+    Preconditions.checkNotNull(e, "e");
+
+    var deadline = Deadline.current();
+    if (deadline.isPresent() && deadline.get().isExpired()) {
+      return deadline.get().exceeded(e);
+    }
+    else {
+      return e;
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  public static class Options {
+    /**
+     * Root URL to use for all Google APIs instead of their default
+     * endpoints. Used to point adapters at a fake API server.
+     */
+    public final Optional<String> rootUrlOverride;
+
+    public Options(Optional<String> rootUrlOverride) {
+      Preconditions.checkNotNull(rootUrlOverride, "rootUrlOverride");
+      Preconditions.checkArgument(
+        rootUrlOverride.map(url -> url.endsWith("/")).orElse(true),
+        "The root URL must end with a slash");
+
+      this.rootUrlOverride = rootUrlOverride;
+    }
+
+    public static Options createDefault() {
+      return new Options(Optional.empty());
+    }
+  }
 }
@@ -0,0 +1,339 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.cloudresourcemanager.v3.model.Binding;
+import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.AccessException;
+import com.google.solutions.jitaccess.core.AlreadyExistsException;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces IAM binding updates for the same project.
+ *
+ * The first caller for a project waits for a short window, collects all
+ * bindings that other callers submit for the same project and with the
+ * same request reason in the meantime, and applies them in a single policy
+ * update. If that update fails because the bindings were rejected, the
+ * bindings of each caller are applied separately so that one caller's
+ * bindings can't cause another caller's update to fail. Other failures,
+ * such as persistent concurrent modifications or exceeded deadlines, apply
+ * to all callers alike and aren't retried.
+ */
+class IamBindingCoalescer {
+  private final Duration window;
+  private final Writer writer;
+  private final Sleeper sleeper;
+
+  /** Batches that are still accepting bindings, guarded by itself */
+  private final Map<BatchKey, Batch> openBatches = new HashMap<>();
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  IamBindingCoalescer(Duration window, Writer writer, Sleeper sleeper) {
+    Preconditions.checkNotNull(window, "window");
+    Preconditions.checkNotNull(writer, "writer");
+    Preconditions.checkNotNull(sleeper, "sleeper");
+
+    this.window = window;
+    this.writer = writer;
+    this.sleeper = sleeper;
+  }
+
+  public IamBindingCoalescer(Duration window, Writer writer) {
+    this(window, writer, w -> Thread.sleep(w.toMillis()));
+  }
+
+  /**
+   * Add IAM bindings, possibly as part of a larger policy update.
+   */
+  public void addProjectIamBindings(
+    ProjectId projectId,
+    List<Binding> bindings,
+    EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
+    String requestReason
+  ) throws AccessException, AlreadyExistsException, IOException {
+    Preconditions.checkNotNull(projectId, "projectId");
+    Preconditions.checkNotNull(bindings, "bindings");
+    Preconditions.checkNotNull(options, "options");
+
+    this.requests.incrementAndGet();
+
+    if (this.window.isZero()) {
+      this.writes.incrementAndGet();
+      this.writer.write(projectId, bindings, options, requestReason);
+      return;
+    }
+
+    var key = new BatchKey(projectId, options, requestReason);
+    var member = new Member(bindings);
+    Batch batch;
+    boolean isLeader;
+
+    synchronized (this.openBatches) {
+      batch = this.openBatches.get(key);
+      isLeader = batch == null;
+      if (isLeader) {
+        batch = new Batch();
+        this.openBatches.put(key, batch);
+      }
+
+      batch.members.add(member);
+    }
+
+    if (isLeader) {
+      writeBatch(key, batch);
+    }
+
+    //
+    // Don't wait for the batch past the deadline of the current
+    // request, the leader's deadline might be later than ours.
+    //
+    var deadline = Deadline.current();
+    try {
+      try {
+        if (deadline.isPresent()) {
+          member.result.get(
+            Math.max(0, deadline.get().getRemaining().toMillis()),
+            TimeUnit.MILLISECONDS);
+        }
+        else {
+          member.result.get();
+        }
+      }
+      catch (TimeoutException e) {
+        synchronized (this.openBatches) {
+          if (this.openBatches.get(key) == batch) {
+            //
+            // The batch hasn't been written yet, so we can still
+            // withdraw our bindings.
+            //
+            batch.members.remove(member);
+            throw deadline.get().exceeded(e);
+          }
+        }
+
+        //
+        // The batch is being written already, and might include our
+        // bindings. Wait for the outcome so that we don't report a
+        // failure for bindings that end up being applied.
+        //
+        member.result.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for IAM policy update");
+    }
+    catch (ExecutionException e) {
+      var cause = e.getCause();
+      if (cause instanceof AccessException) {
+        throw (AccessException) cause;
+      }
+      else if (cause instanceof AlreadyExistsException) {
+        throw (AlreadyExistsException) cause;
+      }
+      else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      else {
+        throw new IOException("Updating IAM policy failed", cause);
+      }
+    }
+  }
+
+  private void writeBatch(BatchKey key, Batch batch) {
+    //
+    // Wait for other callers to join the batch. If we're interrupted,
+    // write the batch right away so that other callers aren't stranded.
+    //
+    boolean interrupted = false;
+    try {
+      this.sleeper.sleep(this.window);
+    }
+    catch (InterruptedException e) {
+      interrupted = true;
+    }
+
+    List<Member> members;
+    synchronized (this.openBatches) {
+      this.openBatches.remove(key);
+      members = List.copyOf(batch.members);
+    }
+
+    try {
+      var bindings = new ArrayList<Binding>();
+      members.forEach(m -> bindings.addAll(m.bindings));
+
+      write(key, bindings);
+      members.forEach(m -> m.result.complete(null));
+    }
+    catch (Exception e) {
+      if (members.size() == 1 || !isCausedByBindings(e)) {
+        //
+        // The failure doesn't depend on which bindings we tried to
+        // apply, so applying them separately would only cause more
+        // load on a contended policy.
+        //
+        members.forEach(m -> m.result.completeExceptionally(e));
+      }
+      else {
+        //
+        // The update might have failed because of a single caller's
+        // bindings. Apply the bindings of each caller separately so
+        // that every caller gets the outcome of its own update.
+        //
+        for (var member : members) {
+          try {
+            write(key, member.bindings);
+            member.result.complete(null);
+          }
+          catch (Exception memberException) {
+            member.result.completeExceptionally(memberException);
+          }
+        }
+      }
+    }
+    finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Check if a failed update was rejected because of its bindings,
+   * for example because a binding contains an invalid condition.
+   */
+  private static boolean isCausedByBindings(Exception e) {
+    return e instanceof GoogleJsonResponseException
+      && ((GoogleJsonResponseException) e).getStatusCode() == 400;
+  }
+
+  private void write(
+    BatchKey key,
+    List<Binding> bindings
+  ) throws AccessException, AlreadyExistsException, IOException {
+    this.writes.incrementAndGet();
+    this.writer.write(key.projectId, bindings, key.options, key.requestReason);
+  }
+
+  /** Number of bindings requests that have been submitted */
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+  /** Number of policy updates that have been performed */
+  public long getWriteCount() {
+    return this.writes.get();
+  }
+
+  /** Number of callers waiting in batches that haven't been written yet */
+  int getPendingCount() {
+    synchronized (this.openBatches) {
+      return this.openBatches.values().stream().mapToInt(b -> b.members.size()).sum();
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  interface Writer {
+    void write(
+      ProjectId projectId,
+      List<Binding> bindings,
+      EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
+      String requestReason
+    ) throws AccessException, AlreadyExistsException, IOException;
+  }
+
+  interface Sleeper {
+    void sleep(Duration duration) throws InterruptedException;
+  }
+
+  private static class Member {
+    private final List<Binding> bindings;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private Member(List<Binding> bindings) {
+      this.bindings = bindings;
+    }
+  }
+
+  private static class Batch {
+    private final List<Member> members = new ArrayList<>();
+  }
+
+  private static class BatchKey {
+    private final ProjectId projectId;
+    private final EnumSet<ResourceManagerAdapter.IamBindingOptions> options;
+    private final String requestReason;
+
+    private BatchKey(
+      ProjectId projectId,
+      EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
+      String requestReason
+    ) {
+      this.projectId = projectId;
+      this.options = EnumSet.copyOf(options);
+      this.requestReason = requestReason;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      var that = (BatchKey) o;
+      return this.projectId.equals(that.projectId)
+        && this.options.equals(that.options)
+        && Objects.equals(this.requestReason, that.requestReason);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.projectId, this.options, this.requestReason);
+    }
+  }
+}
@@ -33,10 +33,16 @@ import com.google.solutions.jitaccess.core.AccessDeniedException;
 import com.google.solutions.jitaccess.core.AccessException;
 import com.google.solutions.jitaccess.core.ApplicationVersion;
 import com.google.solutions.jitaccess.core.NotAuthenticatedException;
+import com.google.solutions.jitaccess.core.Tracing;
 import com.google.solutions.jitaccess.core.data.UserId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.opentelemetry.api.trace.Tracer;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.security.GeneralSecurityException;
 
 /** Adapter for IAM Credentials API */
@@ -45,27 +51,52 @@ public class IamCredentialsAdapter {
   public static final String OAUTH_SCOPE = "https://www.googleapis.com/auth/cloud-platform";
 
   private final GoogleCredentials credentials;
+  private final AdapterMetrics metrics;
+  private final HttpTransport.Options transportOptions;
 
-  private IAMCredentials createClient() throws IOException
+  /** Lazily initialized client, clients are thread-safe and can be reused */
+  private IAMCredentials client;
+
+  private synchronized IAMCredentials getClient() throws IOException
   {
     try {
-      return new IAMCredentials
-        .Builder(
-          HttpTransport.newTransport(),
-          new GsonFactory(),
-          new HttpCredentialsAdapter(this.credentials))
-        .setApplicationName(ApplicationVersion.USER_AGENT)
-        .build();
+      if (this.client == null) {
+        this.client = new IAMCredentials
+          .Builder(
+            HttpTransport.getSharedTransport(),
+            new GsonFactory(),
+            this.metrics.instrument(HttpTransport.withDeadline(new HttpCredentialsAdapter(this.credentials))))
+          .setApplicationName(ApplicationVersion.USER_AGENT)
+          .setRootUrl(this.transportOptions.rootUrlOverride.orElse(IAMCredentials.DEFAULT_ROOT_URL))
+          .build();
+      }
+
+      return this.client;
     }
     catch (GeneralSecurityException e) {
       throw new IOException("Creating a IAMCredentials client failed", e);
     }
   }
 
-  public IamCredentialsAdapter(GoogleCredentials credentials)  {
+  @Inject
+  public IamCredentialsAdapter(
+    GoogleCredentials credentials,
+    MeterRegistry meterRegistry,
+    Tracer tracer,
+    HttpTransport.Options transportOptions
+  )  {
     Preconditions.checkNotNull(credentials, "credentials");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+    Preconditions.checkNotNull(tracer, "tracer");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
 
     this.credentials = credentials;
+    this.metrics = new AdapterMetrics(meterRegistry, tracer, "iam-credentials");
+    this.transportOptions = transportOptions;
+  }
+
+  public IamCredentialsAdapter(GoogleCredentials credentials)  {
+    this(credentials, Metrics.globalRegistry, Tracing.NOOP_TRACER, HttpTransport.Options.createDefault());
   }
 
   /**
@@ -78,7 +109,7 @@ public class IamCredentialsAdapter {
     Preconditions.checkNotNull(serviceAccount, "serviceAccount");
     Preconditions.checkNotNull(payload, "payload");
 
-    try
+    try (var call = this.metrics.startCall("signJwt"))
     {
       if (payload.getFactory() == null) {
         payload.setFactory(new GsonFactory());
@@ -90,14 +121,17 @@ public class IamCredentialsAdapter {
       var request = new SignJwtRequest()
         .setPayload(payloadJson);
 
-      return createClient()
+      return call.succeeded(getClient()
         .projects()
         .serviceAccounts()
         .signJwt(
           String.format("projects/-/serviceAccounts/%s", serviceAccount.email),
           request)
         .execute()
-        .getSignedJwt();
+        .getSignedJwt());
+    }
+    catch (SocketTimeoutException e) {
+      throw HttpTransport.translateTimeout(e);
     }
     catch (GoogleJsonResponseException e) {
       switch (e.getStatusCode()) {
@@ -23,7 +23,9 @@ package com.google.solutions.jitaccess.core.adapters;
 
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAmount;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 /**
@@ -34,8 +36,8 @@ public class IamTemporaryAccessConditions {
     "(request.time >= timestamp(\"%s\") && " + "request.time < timestamp(\"%s\"))";
 
   private static final String CONDITION_PATTERN =
-    "^\\s*\\(request.time >= timestamp\\(\\\".*\\\"\\) && "
-      + "request.time < timestamp\\(\\\".*\\\"\\)\\)\\s*$";
+    "^\\s*\\(request.time >= timestamp\\(\\\"(.*)\\\"\\) && "
+      + "request.time < timestamp\\(\\\"(.*)\\\"\\)\\)\\s*$";
 
   private static final Pattern CONDITION = Pattern.compile(CONDITION_PATTERN);
 
@@ -46,6 +48,27 @@ public class IamTemporaryAccessConditions {
     return expression != null && CONDITION.matcher(expression).matches();
   }
 
+  /**
+   * Extract the end time of a temporary access condition.
+   */
+  public static Optional<OffsetDateTime> getEndTime(String expression) {
+    if (expression == null) {
+      return Optional.empty();
+    }
+
+    var matcher = CONDITION.matcher(expression);
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(OffsetDateTime.parse(matcher.group(2), DateTimeFormatter.ISO_DATE_TIME));
+    }
+    catch (DateTimeParseException e) {
+      return Optional.empty();
+    }
+  }
+
   public static String createExpression(
     OffsetDateTime startTime, OffsetDateTime endTime) {
     assert (startTime.isBefore(endTime));
@@ -26,6 +26,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.solutions.jitaccess.core.data.UserPrincipal;
 
 import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,6 +36,9 @@ import java.util.Map;
  */
 @RequestScoped
 public class LogAdapter {
+  /** Mappers are thread-safe and expensive to create, so share one */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
   private final Appendable output;
 
   private String traceId;
@@ -48,6 +52,11 @@ public class LogAdapter {
     this(System.out);
   }
 
+  @Inject
+  public LogAdapter(AsyncLogWriter writer) {
+    this((Appendable) writer);
+  }
+
   /**
    * Set Trace ID for current request.
    */
@@ -128,7 +137,10 @@ public class LogAdapter {
         //
         // Write to STDOUT, AppEngine picks it up from there.
         //
-        output.append(new ObjectMapper().writeValueAsString(this)).append("\n");
+        // NB. Write the entry in a single call so that it's treated
+        // as a single record by the asynchronous writer.
+        //
+        output.append(MAPPER.writeValueAsString(this) + "\n");
       }
       catch (IOException e) {
         try {
@@ -22,25 +22,201 @@
 package com.google.solutions.jitaccess.core.adapters;
 
 import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.Tracing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.opentelemetry.api.trace.Tracer;
 
-import javax.enterprise.context.ApplicationScoped;
 import javax.mail.*;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import java.io.Closeable;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Adapter for sending email.
+ *
+ * The adapter keeps its SMTP connection open and reuses it for subsequent
+ * mails. Mails can be sent synchronously, or submitted to a background
+ * worker that delivers them in batches.
+ *
+ * The adapter isn't managed by CDI. Whoever creates it owns the connection
+ * and the background worker, and must close() the adapter when it's no
+ * longer needed.
  */
-public class MailAdapter {
+public class MailAdapter implements Closeable {
+  /** Maximum number of mails waiting to be delivered by the background worker */
+  private static final int MAX_QUEUED_MAILS = 100;
+
+  /** Maximum number of mails to deliver before yielding the connection */
+  private static final int MAX_BATCH_SIZE = 20;
+
+  /** Close the connection if it hasn't been used for this long */
+  private static final long CONNECTION_IDLE_TIMEOUT_SECONDS = 30;
+
+  /** Default timeout for connecting to and reading from the SMTP server */
+  private static final long SMTP_TIMEOUT_MILLIS = 10_000;
+
+  /** Maximum time to wait for the background worker to stop */
+  private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
   private final Options options;
+  private final Session session;
+  private final AdapterMetrics metrics;
 
-  public MailAdapter(Options options) {
+  /** Connection to SMTP server, guarded by this */
+  private Transport transport;
+
+  private final BlockingQueue<QueuedMail> deliveryQueue = new ArrayBlockingQueue<>(MAX_QUEUED_MAILS);
+
+  /** Lazily started worker, guarded by deliveryQueue */
+  private Thread deliveryWorker;
+
+  /** Set while holding deliveryQueue, so that no mails are queued after close */
+  private volatile boolean closed = false;
+
+  public MailAdapter(Options options, MeterRegistry meterRegistry, Tracer tracer) {
     Preconditions.checkNotNull(options, "options");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+    Preconditions.checkNotNull(tracer, "tracer");
+
     this.options = options;
+    this.session = Session.getInstance(
+      this.options.smtpProperties,
+      this.options.smtpAuthenticator);
+    this.metrics = new AdapterMetrics(meterRegistry, tracer, "mail");
+  }
+
+  public MailAdapter(Options options) {
+    this(options, Metrics.globalRegistry, Tracing.NOOP_TRACER);
+  }
+
+  private MimeMessage createMessage(
+    String recipientName,
+    String recipientEmail,
+    String subject,
+    Multipart content
+  ) throws MessagingException, UnsupportedEncodingException {
+    var message = new MimeMessage(this.session);
+    message.setFrom(new InternetAddress(this.options.senderAddress, this.options.senderName));
+    message.addRecipient(
+      Message.RecipientType.TO,
+      new InternetAddress(recipientEmail, recipientName));
+    message.setSubject(subject);
+    message.setContent(content);
+    message.saveChanges();
+
+    return message;
+  }
+
+  private static Multipart createHtmlContent(String htmlContent) throws MessagingException {
+    var htmlPart = new MimeBodyPart();
+    htmlPart.setContent(htmlContent, "text/html");
+
+    var content = new MimeMultipart();
+    content.addBodyPart(htmlPart);
+    return content;
+  }
+
+  private synchronized void connect() throws MessagingException {
+    if (this.transport == null || !this.transport.isConnected()) {
+      disconnect();
+
+      this.transport = this.session.getTransport("smtp");
+      this.transport.connect();
+    }
+  }
+
+  private synchronized void disconnect() {
+    if (this.transport != null) {
+      try {
+        this.transport.close();
+      }
+      catch (MessagingException ignored) {
+      }
+
+      this.transport = null;
+    }
+  }
+
+  /**
+   * Deliver a message over the existing connection, or a new
+   * connection if there is none.
+   */
+  private synchronized void deliver(Message message) throws MessagingException {
+    try (var call = this.metrics.startCall("deliver")) {
+      deliverWithRetry(message);
+      call.succeeded();
+    }
+  }
+
+  private void deliverWithRetry(Message message) throws MessagingException {
+    connect();
+
+    try {
+      this.transport.sendMessage(message, message.getAllRecipients());
+    }
+    catch (SendFailedException e) {
+      //
+      // The server rejected the message, reconnecting won't help.
+      //
+      throw e;
+    }
+    catch (MessagingException e) {
+      //
+      // The server might have dropped the connection, try once
+      // more using a new connection.
+      //
+      this.metrics.recordRetry("deliver", "connection_lost");
+      disconnect();
+      connect();
+
+      this.transport.sendMessage(message, message.getAllRecipients());
+    }
+  }
+
+  private void deliverQueuedMails() {
+    var batch = new ArrayList<QueuedMail>(MAX_BATCH_SIZE);
+    while (!this.closed) {
+      try {
+        var first = this.deliveryQueue.poll(CONNECTION_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (first == null) {
+          //
+          // Idle, don't keep the connection open needlessly.
+          //
+          disconnect();
+          continue;
+        }
+
+        batch.add(first);
+        this.deliveryQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+      }
+      catch (InterruptedException e) {
+        break;
+      }
+
+      for (var mail : batch) {
+        try {
+          deliver(mail.message);
+          mail.result.complete(null);
+        }
+        catch (MessagingException | RuntimeException e) {
+          mail.result.completeExceptionally(new MailException("The mail could not be delivered", e));
+        }
+      }
+
+      batch.clear();
+    }
+
+    disconnect();
   }
 
   public void sendMail(
@@ -54,20 +230,8 @@ public class MailAdapter {
     Preconditions.checkNotNull(subject, "subject");
     Preconditions.checkNotNull(content, "content");
 
-    var session = Session.getDefaultInstance(
-      this.options.smtpProperties,
-      this.options.smtpAuthenticator);
-
     try {
-      var message = new MimeMessage(session);
-      message.setFrom(new InternetAddress(this.options.senderAddress, this.options.senderName));
-      message.addRecipient(
-        Message.RecipientType.TO,
-        new InternetAddress(recipientEmail, recipientName));
-      message.setSubject(subject);
-      message.setContent(content);
-
-      Transport.send(message);
+      deliver(createMessage(recipientName, recipientEmail, subject, content));
     }
     catch (MessagingException | UnsupportedEncodingException e) {
       throw new MailException("The mail could not be delivered", e);
@@ -85,28 +249,120 @@ public class MailAdapter {
     Preconditions.checkNotNull(subject, "subject");
     Preconditions.checkNotNull(htmlContent, "htmlContent");
 
+    Multipart content;
     try {
-      var htmlPart = new MimeBodyPart();
-      htmlPart.setContent(htmlContent, "text/html");
-
-      var content = new MimeMultipart();
-      content.addBodyPart(htmlPart);
-
-      sendMail(
-        recipientName,
-        recipientEmail,
-        subject,
-        content);
+      content = createHtmlContent(htmlContent);
     }
     catch (MessagingException e) {
       throw new MailException("The mail could not be formatted", e);
     }
+
+    sendMail(
+      recipientName,
+      recipientEmail,
+      subject,
+      content);
+  }
+
+  /**
+   * Queue a mail for delivery by the background worker. The method
+   * doesn't block: if the queue is full, the returned future fails
+   * immediately.
+   */
+  public CompletableFuture<Void> submitMail(
+    String recipientName,
+    String recipientEmail,
+    String subject,
+    String htmlContent
+  ) {
+    Preconditions.checkNotNull(recipientName, "recipientName");
+    Preconditions.checkNotNull(recipientEmail, "recipientEmail");
+    Preconditions.checkNotNull(subject, "subject");
+    Preconditions.checkNotNull(htmlContent, "htmlContent");
+
+    var result = new CompletableFuture<Void>();
+
+    QueuedMail mail;
+    try {
+      mail = new QueuedMail(
+        createMessage(recipientName, recipientEmail, subject, createHtmlContent(htmlContent)),
+        result);
+    }
+    catch (MessagingException | UnsupportedEncodingException e) {
+      result.completeExceptionally(new MailException("The mail could not be formatted", e));
+      return result;
+    }
+
+    synchronized (this.deliveryQueue) {
+      if (this.closed) {
+        result.completeExceptionally(new MailException("The mail adapter has been closed", null));
+      }
+      else if (!this.deliveryQueue.offer(mail)) {
+        result.completeExceptionally(new MailException("Too many mails waiting to be delivered", null));
+      }
+      else if (this.deliveryWorker == null) {
+        this.deliveryWorker = new Thread(this::deliverQueuedMails, "mail-delivery");
+        this.deliveryWorker.setDaemon(true);
+        this.deliveryWorker.start();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Stop the background worker and close the connection. Mails
+   * that haven't been delivered yet fail.
+   */
+  @Override
+  public void close() {
+    Thread worker;
+    var undelivered = new ArrayList<QueuedMail>();
+    synchronized (this.deliveryQueue) {
+      this.closed = true;
+      this.deliveryQueue.drainTo(undelivered);
+      worker = this.deliveryWorker;
+    }
+
+    for (var mail : undelivered) {
+      mail.result.completeExceptionally(new MailException("The mail adapter has been closed", null));
+    }
+
+    if (worker != null) {
+      //
+      // The worker might be busy delivering a batch. Don't wait for
+      // it indefinitely, it disconnects by itself once it's done.
+      //
+      worker.interrupt();
+      try {
+        worker.join(CLOSE_TIMEOUT_MILLIS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (worker.isAlive()) {
+        return;
+      }
+    }
+
+    disconnect();
   }
 
   // -------------------------------------------------------------------------
   // Inner classes.
   // -------------------------------------------------------------------------
 
+  private static class QueuedMail {
+    private final Message message;
+    private final CompletableFuture<Void> result;
+
+    private QueuedMail(Message message, CompletableFuture<Void> result) {
+      this.message = message;
+      this.result = result;
+    }
+  }
+
   public static class Options {
     private final String senderName;
     private final String senderAddress;
@@ -128,6 +384,13 @@ public class MailAdapter {
       this.smtpProperties = new Properties();
       this.smtpProperties.put("mail.smtp.host", smtpHost);
       this.smtpProperties.put("mail.smtp.port", String.valueOf(smtpPort));
+
+      //
+      // JavaMail doesn't time out by default, so a stalled server
+      // would block deliveries (and closing the adapter) indefinitely.
+      //
+      this.smtpProperties.put("mail.smtp.connectiontimeout", String.valueOf(SMTP_TIMEOUT_MILLIS));
+      this.smtpProperties.put("mail.smtp.timeout", String.valueOf(SMTP_TIMEOUT_MILLIS));
     }
 
     /**
@@ -33,11 +33,20 @@ import com.google.auth.oauth2.GoogleCredentials;
 import com.google.common.base.Preconditions;
 import com.google.solutions.jitaccess.core.*;
 import com.google.solutions.jitaccess.core.data.ProjectId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.opentelemetry.api.trace.Tracer;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -47,30 +56,68 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 public class ResourceManagerAdapter {
   public static final String OAUTH_SCOPE = "https://www.googleapis.com/auth/cloud-platform";
-  private static final int MAX_SET_IAM_POLICY_ATTEMPTS = 4;
 
   private final GoogleCredentials credentials;
+  private final RetryPolicy retryPolicy;
+  private final IamBindingCoalescer coalescer;
+  private final AdapterMetrics metrics;
+  private final HttpTransport.Options transportOptions;
 
-  private CloudResourceManager createClient() throws IOException
+  /** Lazily initialized client, clients are thread-safe and can be reused */
+  private CloudResourceManager client;
+
+  private synchronized CloudResourceManager getClient() throws IOException
   {
     try {
-      return new CloudResourceManager
-        .Builder(
-          HttpTransport.newTransport(),
-          new GsonFactory(),
-          new HttpCredentialsAdapter(this.credentials))
-        .setApplicationName(ApplicationVersion.USER_AGENT)
-        .build();
+      if (this.client == null) {
+        this.client = new CloudResourceManager
+          .Builder(
+            HttpTransport.getSharedTransport(),
+            new GsonFactory(),
+            this.metrics.instrument(HttpTransport.withDeadline(new HttpCredentialsAdapter(this.credentials))))
+          .setApplicationName(ApplicationVersion.USER_AGENT)
+          .setRootUrl(this.transportOptions.rootUrlOverride.orElse(CloudResourceManager.DEFAULT_ROOT_URL))
+          .build();
+      }
+
+      return this.client;
     }
     catch (GeneralSecurityException e) {
       throw new IOException("Creating a ResourceManager client failed", e);
     }
   }
 
-  public ResourceManagerAdapter(GoogleCredentials credentials) {
+  @Inject
+  public ResourceManagerAdapter(
+    GoogleCredentials credentials,
+    RetryPolicy retryPolicy,
+    MeterRegistry meterRegistry,
+    Tracer tracer,
+    HttpTransport.Options transportOptions,
+    Options options
+  ) {
     Preconditions.checkNotNull(credentials, "credentials");
+    Preconditions.checkNotNull(retryPolicy, "retryPolicy");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+    Preconditions.checkNotNull(tracer, "tracer");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(options, "options");
 
     this.credentials = credentials;
+    this.retryPolicy = retryPolicy;
+    this.metrics = new AdapterMetrics(meterRegistry, tracer, "resource-manager");
+    this.transportOptions = transportOptions;
+    this.coalescer = new IamBindingCoalescer(options.coalescingWindow, this::writeProjectIamBindings);
+  }
+
+  public ResourceManagerAdapter(GoogleCredentials credentials) {
+    this(
+      credentials,
+      new ExponentialBackoffRetryPolicy(ExponentialBackoffRetryPolicy.Options.createDefault()),
+      Metrics.globalRegistry,
+      Tracing.NOOP_TRACER,
+      HttpTransport.Options.createDefault(),
+      new Options(Duration.ZERO));
   }
 
   /** Add an IAM binding using the optimistic concurrency control-mechanism. */
@@ -80,13 +127,70 @@ public class ResourceManagerAdapter {
     EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
     String requestReason
   ) throws AccessException, AlreadyExistsException, IOException {
-    Preconditions.checkNotNull(projectId, "projectId");
     Preconditions.checkNotNull(binding, "binding");
 
-    try {
-      var service = createClient();
+    addProjectIamBindings(projectId, List.of(binding), options, requestReason);
+  }
+
+  /**
+   * Add multiple IAM bindings using the optimistic concurrency control-mechanism.
+   * All bindings are applied in a single policy update, which might also include
+   * bindings of concurrent callers for the same project.
+   */
+  public void addProjectIamBindings(
+    ProjectId projectId,
+    List<Binding> bindings,
+    EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
+    String requestReason
+  ) throws AccessException, AlreadyExistsException, IOException {
+    Preconditions.checkNotNull(projectId, "projectId");
+    Preconditions.checkNotNull(bindings, "bindings");
+
+    try (var call = this.metrics.startCall("addProjectIamBindings")) {
+      call
+        .setAttribute(Tracing.PROJECT, projectId.id)
+        .setAttribute(Tracing.ROLE_COUNT, (long)bindings.size());
+
+      this.coalescer.addProjectIamBindings(projectId, bindings, options, requestReason);
+      call.succeeded();
+    }
+  }
+
+  /**
+   * Filter out existing temporary bindings that have the same principal
+   * and role as one of the new bindings.
+   */
+  static List<Binding> removeObsoleteBindings(
+    List<Binding> existingBindings,
+    List<Binding> newBindings
+  ) {
+    Predicate<Binding> isObsolete = b ->
+      b.getCondition() != null
+        && newBindings.stream().anyMatch(binding ->
+          b.getRole().equals(binding.getRole()) && b.getMembers().equals(binding.getMembers()))
+        && IamTemporaryAccessConditions.isTemporaryAccessCondition(b.getCondition().getExpression());
 
-      for (int attempt = 0; attempt < MAX_SET_IAM_POLICY_ATTEMPTS; attempt++) {
+    return existingBindings.stream()
+      .filter(isObsolete.negate())
+      .collect(Collectors.toList());
+  }
+
+  private void writeProjectIamBindings(
+    ProjectId projectId,
+    List<Binding> bindings,
+    EnumSet<ResourceManagerAdapter.IamBindingOptions> options,
+    String requestReason
+  ) throws AccessException, AlreadyExistsException, IOException {
+
+    try (var call = this.metrics.startCall("writeProjectIamBindings")) {
+      call
+        .setAttribute(Tracing.PROJECT, projectId.id)
+        .setAttribute(Tracing.ROLE_COUNT, (long)bindings.size());
+
+      var service = getClient();
+      var operation = this.retryPolicy.beginOperation(projectId.getFullResourceName());
+
+      while (true) {
         //
         // Read current version of policy.
         //
@@ -112,25 +216,16 @@ public class ResourceManagerAdapter {
           // have the same principal and role. Removing existing bindings
           // helps avoid hitting this limit.
           //
-          Predicate<Binding> isObsolete = b ->
-            b.getRole().equals(binding.getRole())
-              && b.getMembers().equals(binding.getMembers())
-              && b.getCondition() != null
-              && IamTemporaryAccessConditions.isTemporaryAccessCondition(b.getCondition().getExpression());
-
-          var nonObsoleteBindings =
-            policy.getBindings().stream()
-              .filter(isObsolete.negate())
-              .collect(Collectors.toList());
+          var nonObsoleteBindings = removeObsoleteBindings(policy.getBindings(), bindings);
 
           policy.getBindings().clear();
           policy.getBindings().addAll(nonObsoleteBindings);
         }
 
         //
-        // Apply change and write new version.
+        // Apply changes and write new version.
         //
-        policy.getBindings().add(binding);
+        policy.getBindings().addAll(bindings);
 
         try {
           var request = service
@@ -145,17 +240,38 @@ public class ResourceManagerAdapter {
           //
           // Successful update -> quit loop.
           //
+          operation.succeeded();
+          call.succeeded();
           return;
         }
         catch (GoogleJsonResponseException e) {
           if (e.getStatusCode() == 412) {
             //
-            // Concurrent modification - back off and retry.
+            // Concurrent modification - back off and retry, unless
+            // the retry policy tells us to give up.
             //
-            try {
-              Thread.sleep(200);
+            if (operation.waitBeforeRetry()) {
+              this.metrics.recordRetry("writeProjectIamBindings", "concurrent_modification");
             }
-            catch (InterruptedException ignored) {
+            else {
+              var reason = operation.getGiveUpReason();
+              this.metrics.recordGiveUp(
+                "writeProjectIamBindings",
+                reason
+                  .map(r -> r.name().toLowerCase())
+                  .orElse("unknown"));
+
+              var deadline = Deadline.current();
+              if (reason.equals(Optional.of(RetryPolicy.GiveUpReason.REQUEST_DEADLINE_EXCEEDED))
+                && deadline.isPresent()) {
+                //
+                // We could have retried, but not in time for the current request.
+                //
+                throw deadline.get().exceeded(e);
+              }
+
+              throw new AlreadyExistsException(
+                "Failed to update IAM bindings due to concurrent modifications");
             }
           }
           else {
@@ -163,9 +279,13 @@ public class ResourceManagerAdapter {
           }
         }
       }
-
-      throw new AlreadyExistsException(
-        "Failed to update IAM bindings due to concurrent modifications");
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry IAM policy update");
+    }
+    catch (SocketTimeoutException e) {
+      throw HttpTransport.translateTimeout(e);
     }
     catch (GoogleJsonResponseException e) {
       switch (e.getStatusCode()) {
@@ -183,4 +303,19 @@ public class ResourceManagerAdapter {
     NONE,
     REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE
   }
+
+  public static class Options {
+    /**
+     * Time to wait for concurrent bindings for the same project so that
+     * they can be applied in a single policy update. Zero disables coalescing.
+     */
+    public final Duration coalescingWindow;
+
+    public Options(Duration coalescingWindow) {
+      Preconditions.checkNotNull(coalescingWindow, "coalescingWindow");
+      Preconditions.checkArgument(!coalescingWindow.isNegative(), "coalescingWindow");
+
+      this.coalescingWindow = coalescingWindow;
+    }
+  }
 }
@@ -0,0 +1,84 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import java.util.Optional;
+
+/**
+ * Policy that determines whether and when to retry an operation that
+ * failed because of a transient condition, such as a concurrent modification.
+ */
+public interface RetryPolicy {
+  /**
+   * Begin a new operation that might require retries.
+   *
+   * @param key identifies the resource that the operation modifies.
+   * Operations that modify the same resource share a retry budget, so
+   * contention on one resource doesn't affect operations on others.
+   */
+  Operation beginOperation(String key);
+
+  /**
+   * Begin a new operation that might require retries, using a
+   * retry budget that is shared with all other unkeyed operations.
+   */
+  default Operation beginOperation() {
+    return beginOperation("");
+  }
+
+  /**
+   * Operation that is subject to a retry policy.
+   */
+  interface Operation {
+    /**
+     * Wait until the operation can be retried.
+     *
+     * @return false if the operation should not be retried anymore.
+     */
+    boolean waitBeforeRetry() throws InterruptedException;
+
+    /**
+     * Mark the operation as successful.
+     */
+    void succeeded();
+
+    /**
+     * Reason why the operation should not be retried anymore, if
+     * waitBeforeRetry returned false.
+     */
+    Optional<GiveUpReason> getGiveUpReason();
+  }
+
+  enum GiveUpReason {
+    /** The maximum number of attempts has been reached */
+    ATTEMPTS_EXHAUSTED,
+
+    /** A retry wouldn't start before the deadline of the operation */
+    DEADLINE_EXCEEDED,
+
+    /** A retry wouldn't start before the deadline of the current request */
+    REQUEST_DEADLINE_EXCEEDED,
+
+    /** Too many operations on the same resource have been retried recently */
+    BUDGET_EXHAUSTED
+  }
+}
@@ -0,0 +1,679 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import com.google.solutions.jitaccess.core.data.RoleBinding;
+import com.google.solutions.jitaccess.core.data.UserId;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Immutable index of the eligible and activated role bindings of all users
+ * within a scope.
+ *
+ * To keep the index compact, strings are dictionary-encoded: each distinct
+ * user, project, and role is stored once, and bindings refer to them by
+ * their position in the (sorted) dictionary.
+ *
+ * An index can be saved as a snapshot file, and loaded again by mapping
+ * the file into memory. Loading a snapshot decodes the dictionaries, but
+ * bindings are read from the mapped file directly.
+ */
+public class EligibilityIndex {
+  private static final ProjectRole.Status[] STATUSES = ProjectRole.Status.values();
+
+  /** Magic number at the start of snapshot files ("JITX") */
+  private static final int SNAPSHOT_MAGIC = 0x4A495458;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  /** Time at which collecting the data for this index started */
+  private final Instant creationTime;
+
+  /** Email addresses of users, sorted */
+  private final String[] users;
+
+  /** Project IDs, sorted */
+  private final String[] projects;
+
+  /** Role names, sorted */
+  private final String[] roles;
+
+  /**
+   * Bindings of users[i] are stored at positions
+   * bindingOffsets[i] (inclusive) to bindingOffsets[i + 1] (exclusive).
+   */
+  private final IntBuffer bindingOffsets;
+
+  /** Bindings, sorted by user, project, role, and status */
+  private final IntBuffer bindingProjects;
+  private final IntBuffer bindingRoles;
+  private final ByteBuffer bindingStatuses;
+
+  /** Expiry (in epoch seconds) of activated bindings, Long.MAX_VALUE for eligible bindings */
+  private final LongBuffer bindingExpiries;
+
+  EligibilityIndex(
+    Instant creationTime,
+    String[] users,
+    String[] projects,
+    String[] roles,
+    IntBuffer bindingOffsets,
+    IntBuffer bindingProjects,
+    IntBuffer bindingRoles,
+    ByteBuffer bindingStatuses,
+    LongBuffer bindingExpiries
+  ) {
+    Preconditions.checkNotNull(creationTime, "creationTime");
+    Preconditions.checkArgument(bindingOffsets.limit() == users.length + 1, "bindingOffsets");
+    Preconditions.checkArgument(bindingRoles.limit() == bindingProjects.limit(), "bindingRoles");
+    Preconditions.checkArgument(bindingStatuses.limit() == bindingProjects.limit(), "bindingStatuses");
+    Preconditions.checkArgument(bindingExpiries.limit() == bindingProjects.limit(), "bindingExpiries");
+
+    this.creationTime = creationTime;
+    this.users = users;
+    this.projects = projects;
+    this.roles = roles;
+    this.bindingOffsets = bindingOffsets;
+    this.bindingProjects = bindingProjects;
+    this.bindingRoles = bindingRoles;
+    this.bindingStatuses = bindingStatuses;
+    this.bindingExpiries = bindingExpiries;
+  }
+
+  private boolean isExpired(int binding, Instant now) {
+    return this.bindingExpiries.get(binding) <= now.getEpochSecond();
+  }
+
+  private ProjectRole.Status getStatus(int binding) {
+    return STATUSES[this.bindingStatuses.get(binding)];
+  }
+
+  /**
+   * Find the position of the first value that is greater than or
+   * equal to the given value.
+   */
+  private static int findFirst(IntBuffer sortedValues, int from, int to, int value) {
+    while (from < to) {
+      int mid = (from + to) >>> 1;
+      if (sortedValues.get(mid) < value) {
+        from = mid + 1;
+      }
+      else {
+        to = mid;
+      }
+    }
+
+    return from;
+  }
+
+  /** Time at which collecting the data for this index started */
+  public Instant getCreationTime() {
+    return this.creationTime;
+  }
+
+  /** Number of distinct users */
+  public int getUserCount() {
+    return this.users.length;
+  }
+
+  /** Number of bindings across all users */
+  public int getBindingCount() {
+    return this.bindingProjects.limit();
+  }
+
+  /**
+   * List projects in which a user has eligible or (unexpired)
+   * activated role bindings, ordered by project ID.
+   */
+  public List<ProjectId> listProjects(UserId user, Instant now) {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(now, "now");
+
+    var userIndex = Arrays.binarySearch(this.users, user.email);
+    if (userIndex < 0) {
+      return List.of();
+    }
+
+    var result = new ArrayList<ProjectId>();
+    var lastProject = -1;
+    for (int i = this.bindingOffsets.get(userIndex); i < this.bindingOffsets.get(userIndex + 1); i++) {
+      if (this.bindingProjects.get(i) != lastProject && !isExpired(i, now)) {
+        lastProject = this.bindingProjects.get(i);
+        result.add(new ProjectId(this.projects[lastProject]));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * List the eligible and activated role bindings of a user in a project.
+   * Activated bindings take precedence over eligible bindings.
+   */
+  public List<ProjectRole> listProjectRoles(UserId user, ProjectId projectId, Instant now) {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(projectId, "projectId");
+    Preconditions.checkNotNull(now, "now");
+
+    var userIndex = Arrays.binarySearch(this.users, user.email);
+    var projectIndex = Arrays.binarySearch(this.projects, projectId.id);
+    if (userIndex < 0 || projectIndex < 0) {
+      return List.of();
+    }
+
+    //
+    // Bindings are sorted by project, so find the first binding for this
+    // project and then read all bindings that follow.
+    //
+    var end = this.bindingOffsets.get(userIndex + 1);
+    var first = findFirst(
+      this.bindingProjects,
+      this.bindingOffsets.get(userIndex),
+      end,
+      projectIndex);
+
+    var jitEligible = new ArrayList<ProjectRole>();
+    var mpaEligible = new ArrayList<ProjectRole>();
+    var activated = new ArrayList<ProjectRole>();
+
+    for (int i = first; i < end && this.bindingProjects.get(i) == projectIndex; ) {
+      //
+      // Bindings of the same role are adjacent and sorted by status, with
+      // activated bindings last.
+      //
+      var role = this.bindingRoles.get(i);
+      var roleEnd = i;
+      var isActivated = false;
+      while (roleEnd < end &&
+        this.bindingProjects.get(roleEnd) == projectIndex &&
+        this.bindingRoles.get(roleEnd) == role) {
+        isActivated |= getStatus(roleEnd) == ProjectRole.Status.ACTIVATED && !isExpired(roleEnd, now);
+        roleEnd++;
+      }
+
+      var roleBinding = new RoleBinding(projectId.getFullResourceName(), this.roles[role]);
+      if (isActivated) {
+        activated.add(new ProjectRole(roleBinding, ProjectRole.Status.ACTIVATED));
+      }
+      else {
+        for (int j = i; j < roleEnd; j++) {
+          switch (getStatus(j)) {
+            case ELIGIBLE_FOR_JIT:
+              jitEligible.add(new ProjectRole(roleBinding, ProjectRole.Status.ELIGIBLE_FOR_JIT));
+              break;
+            case ELIGIBLE_FOR_MPA:
+              mpaEligible.add(new ProjectRole(roleBinding, ProjectRole.Status.ELIGIBLE_FOR_MPA));
+              break;
+            default:
+              break;
+          }
+        }
+      }
+
+      i = roleEnd;
+    }
+
+    var result = new ArrayList<ProjectRole>(jitEligible.size() + mpaEligible.size() + activated.size());
+    result.addAll(jitEligible);
+    result.addAll(mpaEligible);
+    result.addAll(activated);
+    return result;
+  }
+
+  // -------------------------------------------------------------------------
+  // Snapshots.
+  //
+  // A snapshot file contains, in this order:
+  //
+  // - header: magic, version, creation time, and the number of users,
+  //   projects, roles, and bindings
+  // - dictionaries of users, projects, and roles, each string encoded as
+  //   length followed by UTF-8 bytes
+  // - padding to align the following section to 8 bytes
+  // - binding expiries (longs)
+  // - binding offsets, projects, and roles (ints)
+  // - binding statuses (bytes)
+  //
+  // All numbers are big-endian.
+  // -------------------------------------------------------------------------
+
+  private static byte[][] encodeDictionary(String[] dictionary) {
+    var encoded = new byte[dictionary.length][];
+    for (int i = 0; i < dictionary.length; i++) {
+      encoded[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    return encoded;
+  }
+
+  private static long getDictionarySize(byte[][] dictionary) {
+    long size = 0;
+    for (var value : dictionary) {
+      size += Integer.BYTES + value.length;
+    }
+
+    return size;
+  }
+
+  private static String[] readDictionary(ByteBuffer buffer, int count) throws IOException {
+    var dictionary = new String[count];
+    for (int i = 0; i < count; i++) {
+      var length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        throw new IOException("The eligibility index snapshot is corrupt");
+      }
+
+      var value = new byte[length];
+      buffer.get(value);
+      dictionary[i] = new String(value, StandardCharsets.UTF_8);
+
+      if (i > 0 && dictionary[i - 1].compareTo(dictionary[i]) >= 0) {
+        throw new IOException("The eligibility index snapshot contains an unsorted dictionary");
+      }
+    }
+
+    return dictionary;
+  }
+
+  /**
+   * Slice the next length bytes from the buffer.
+   */
+  private static ByteBuffer slice(ByteBuffer buffer, long length) {
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+
+    var slice = buffer.slice();
+    slice.limit((int)length);
+    buffer.position(buffer.position() + (int)length);
+    return slice;
+  }
+
+  /**
+   * Check that all references between bindings and dictionaries are
+   * in range so that lookups can't fail later.
+   */
+  private void validate() throws IOException {
+    var bindingCount = getBindingCount();
+    if (this.bindingOffsets.get(0) != 0 || this.bindingOffsets.get(this.users.length) != bindingCount) {
+      throw new IOException("The eligibility index snapshot contains invalid offsets");
+    }
+
+    for (int i = 0; i < this.users.length; i++) {
+      if (this.bindingOffsets.get(i) > this.bindingOffsets.get(i + 1)) {
+        throw new IOException("The eligibility index snapshot contains invalid offsets");
+      }
+    }
+
+    for (int i = 0; i < bindingCount; i++) {
+      if (this.bindingProjects.get(i) < 0 || this.bindingProjects.get(i) >= this.projects.length ||
+        this.bindingRoles.get(i) < 0 || this.bindingRoles.get(i) >= this.roles.length ||
+        this.bindingStatuses.get(i) < 0 || this.bindingStatuses.get(i) >= STATUSES.length) {
+        throw new IOException("The eligibility index snapshot contains invalid bindings");
+      }
+    }
+  }
+
+  /**
+   * Save the index as a snapshot file. The file is replaced atomically
+   * so that concurrent readers never see a partially written snapshot.
+   */
+  public void writeSnapshot(Path path) throws IOException {
+    Preconditions.checkNotNull(path, "path");
+
+    var users = encodeDictionary(this.users);
+    var projects = encodeDictionary(this.projects);
+    var roles = encodeDictionary(this.roles);
+    var bindingCount = getBindingCount();
+
+    var headerSize = 2 * Integer.BYTES + Long.BYTES + 5 * Integer.BYTES;
+    var dictionarySize = headerSize +
+      getDictionarySize(users) +
+      getDictionarySize(projects) +
+      getDictionarySize(roles);
+    var paddedDictionarySize = (dictionarySize + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    var size = paddedDictionarySize +
+      (long)bindingCount * Long.BYTES +
+      (long)(this.users.length + 1) * Integer.BYTES +
+      (long)bindingCount * 2 * Integer.BYTES +
+      bindingCount;
+
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The eligibility index is too large to be saved as a snapshot");
+    }
+
+    var buffer = ByteBuffer.allocate((int)size);
+    buffer
+      .putInt(SNAPSHOT_MAGIC)
+      .putInt(SNAPSHOT_VERSION)
+      .putLong(this.creationTime.getEpochSecond())
+      .putInt(this.creationTime.getNano())
+      .putInt(users.length)
+      .putInt(projects.length)
+      .putInt(roles.length)
+      .putInt(bindingCount);
+
+    for (var dictionary : List.of(users, projects, roles)) {
+      for (var value : dictionary) {
+        buffer.putInt(value.length).put(value);
+      }
+    }
+
+    buffer.position((int)paddedDictionarySize);
+
+    for (int i = 0; i < bindingCount; i++) {
+      buffer.putLong(this.bindingExpiries.get(i));
+    }
+
+    for (int i = 0; i <= this.users.length; i++) {
+      buffer.putInt(this.bindingOffsets.get(i));
+    }
+
+    for (var values : List.of(this.bindingProjects, this.bindingRoles)) {
+      for (int i = 0; i < bindingCount; i++) {
+        buffer.putInt(values.get(i));
+      }
+    }
+
+    for (int i = 0; i < bindingCount; i++) {
+      buffer.put(this.bindingStatuses.get(i));
+    }
+
+    assert !buffer.hasRemaining();
+    buffer.flip();
+
+    //
+    // Write to a temporary file in the same directory, then
+    // replace the existing snapshot.
+    //
+    var directory = path.toAbsolutePath().getParent();
+    var temporaryPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    try {
+      try (var channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+
+        channel.force(true);
+      }
+
+      Files.move(
+        temporaryPath,
+        path,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temporaryPath);
+    }
+  }
+
+  /**
+   * Load an index from a snapshot file by mapping it into memory.
+   */
+  public static EligibilityIndex readSnapshot(Path path) throws IOException {
+    Preconditions.checkNotNull(path, "path");
+
+    MappedByteBuffer buffer;
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("The eligibility index snapshot is too large");
+      }
+
+      //
+      // NB. The mapping remains valid after the channel is closed.
+      //
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      if (buffer.getInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("The file is not an eligibility index snapshot");
+      }
+
+      if (buffer.getInt() != SNAPSHOT_VERSION) {
+        throw new IOException("The eligibility index snapshot uses an unsupported version");
+      }
+
+      var creationTime = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+      var userCount = buffer.getInt();
+      var projectCount = buffer.getInt();
+      var roleCount = buffer.getInt();
+      var bindingCount = buffer.getInt();
+      if (userCount < 0 || projectCount < 0 || roleCount < 0 || bindingCount < 0) {
+        throw new IOException("The eligibility index snapshot is corrupt");
+      }
+
+      var users = readDictionary(buffer, userCount);
+      var projects = readDictionary(buffer, projectCount);
+      var roles = readDictionary(buffer, roleCount);
+
+      buffer.position((buffer.position() + Long.BYTES - 1) / Long.BYTES * Long.BYTES);
+
+      var bindingExpiries = slice(buffer, (long)bindingCount * Long.BYTES).asLongBuffer();
+      var bindingOffsets = slice(buffer, ((long)userCount + 1) * Integer.BYTES).asIntBuffer();
+      var bindingProjects = slice(buffer, (long)bindingCount * Integer.BYTES).asIntBuffer();
+      var bindingRoles = slice(buffer, (long)bindingCount * Integer.BYTES).asIntBuffer();
+      var bindingStatuses = slice(buffer, bindingCount);
+      if (buffer.hasRemaining()) {
+        throw new IOException("The eligibility index snapshot is corrupt");
+      }
+
+      var index = new EligibilityIndex(
+        creationTime,
+        users,
+        projects,
+        roles,
+        bindingOffsets,
+        bindingProjects,
+        bindingRoles,
+        bindingStatuses,
+        bindingExpiries);
+
+      index.validate();
+      return index;
+    }
+    catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("The eligibility index snapshot is corrupt", e);
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Builder.
+  // -------------------------------------------------------------------------
+
+  public static class Builder {
+    private final Instant creationTime;
+
+    /** Bindings and their expiry */
+    private final Map<BindingKey, Long> bindings = new HashMap<>();
+
+    public Builder(Instant creationTime) {
+      Preconditions.checkNotNull(creationTime, "creationTime");
+      this.creationTime = creationTime;
+    }
+
+    private void addBinding(
+      UserId user,
+      ProjectId projectId,
+      String role,
+      ProjectRole.Status status,
+      long expiry
+    ) {
+      Preconditions.checkNotNull(user, "user");
+      Preconditions.checkNotNull(projectId, "projectId");
+      Preconditions.checkNotNull(role, "role");
+
+      this.bindings.merge(
+        new BindingKey(user.email, projectId.id, role, status),
+        expiry,
+        Math::max);
+    }
+
+    /**
+     * Add a role binding that the user is eligible for.
+     */
+    public Builder addEligibleBinding(
+      UserId user,
+      ProjectId projectId,
+      String role,
+      ProjectRole.Status status
+    ) {
+      Preconditions.checkArgument(status != ProjectRole.Status.ACTIVATED, "status");
+
+      addBinding(user, projectId, role, status, Long.MAX_VALUE);
+      return this;
+    }
+
+    /**
+     * Add a role binding that the user has activated.
+     */
+    public Builder addActivatedBinding(
+      UserId user,
+      ProjectId projectId,
+      String role,
+      Instant expiry
+    ) {
+      Preconditions.checkNotNull(expiry, "expiry");
+
+      addBinding(user, projectId, role, ProjectRole.Status.ACTIVATED, expiry.getEpochSecond());
+      return this;
+    }
+
+    private static String[] createDictionary(Set<String> values) {
+      var dictionary = values.toArray(new String[0]);
+      Arrays.sort(dictionary);
+      return dictionary;
+    }
+
+    public EligibilityIndex build() {
+      var users = new HashSet<String>();
+      var projects = new HashSet<String>();
+      var roles = new HashSet<String>();
+      for (var key : this.bindings.keySet()) {
+        users.add(key.user);
+        projects.add(key.project);
+        roles.add(key.role);
+      }
+
+      var userDictionary = createDictionary(users);
+      var projectDictionary = createDictionary(projects);
+      var roleDictionary = createDictionary(roles);
+
+      //
+      // Encode bindings as (user, project, role, status, expiry) tuples and
+      // sort them so that the bindings of a user are adjacent.
+      //
+      var encoded = new long[this.bindings.size()][];
+      var n = 0;
+      for (var entry : this.bindings.entrySet()) {
+        var key = entry.getKey();
+        encoded[n++] = new long[] {
+          Arrays.binarySearch(userDictionary, key.user),
+          Arrays.binarySearch(projectDictionary, key.project),
+          Arrays.binarySearch(roleDictionary, key.role),
+          key.status.ordinal(),
+          entry.getValue()
+        };
+      }
+
+      Arrays.sort(encoded, Arrays::compare);
+
+      var bindingOffsets = new int[userDictionary.length + 1];
+      var bindingProjects = new int[encoded.length];
+      var bindingRoles = new int[encoded.length];
+      var bindingStatuses = new byte[encoded.length];
+      var bindingExpiries = new long[encoded.length];
+
+      for (int i = 0; i < encoded.length; i++) {
+        bindingOffsets[(int)encoded[i][0] + 1]++;
+        bindingProjects[i] = (int)encoded[i][1];
+        bindingRoles[i] = (int)encoded[i][2];
+        bindingStatuses[i] = (byte)encoded[i][3];
+        bindingExpiries[i] = encoded[i][4];
+      }
+
+      for (int i = 0; i < userDictionary.length; i++) {
+        bindingOffsets[i + 1] += bindingOffsets[i];
+      }
+
+      return new EligibilityIndex(
+        this.creationTime,
+        userDictionary,
+        projectDictionary,
+        roleDictionary,
+        IntBuffer.wrap(bindingOffsets),
+        IntBuffer.wrap(bindingProjects),
+        IntBuffer.wrap(bindingRoles),
+        ByteBuffer.wrap(bindingStatuses),
+        LongBuffer.wrap(bindingExpiries));
+    }
+  }
+
+  private static class BindingKey {
+    private final String user;
+    private final String project;
+    private final String role;
+    private final ProjectRole.Status status;
+
+    private BindingKey(String user, String project, String role, ProjectRole.Status status) {
+      this.user = user;
+      this.project = project;
+      this.role = role;
+      this.status = status;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      var that = (BindingKey) o;
+      return this.user.equals(that.user) &&
+        this.project.equals(that.project) &&
+        this.role.equals(that.role) &&
+        this.status == that.status;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.user, this.project, this.role, this.status);
+    }
+  }
+}
@@ -0,0 +1,516 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.solutions.jitaccess.core.AccessException;
+import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
+import com.google.solutions.jitaccess.core.adapters.AsyncLogWriter;
+import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
+import com.google.solutions.jitaccess.core.adapters.LogAdapter;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import com.google.solutions.jitaccess.core.data.UserId;
+import io.quarkus.runtime.Startup;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically builds an index of all eligible and activated role bindings
+ * within a scope, so that role discovery doesn't need to analyze policies
+ * for each user and request.
+ *
+ * If a snapshot file is configured, the indexer saves each index to the
+ * file. On startup, it loads the last snapshot so that it can serve
+ * requests before the first build completes.
+ *
+ * If builds keep failing, the index eventually exceeds its maximum age
+ * and is no longer served, so that role discovery falls back to
+ * analyzing policies.
+ */
+@Startup
+@ApplicationScoped
+public class EligibilityIndexer implements Closeable {
+  private static final String USER_PREFIX = "user:";
+
+  static final String LOG_EVENT_REFRESH = "indexer.refresh";
+  static final String LOG_EVENT_SNAPSHOT = "indexer.snapshot";
+
+  /** Maximum age of a snapshot to load on startup */
+  static final Duration MAX_SNAPSHOT_AGE = Duration.ofDays(1);
+
+  private final AssetInventoryAdapter assetInventoryAdapter;
+  private final LogAdapter logAdapter;
+  private final Options options;
+
+  /** Scheduler for refreshing the index, null if indexing is disabled */
+  private final ScheduledExecutorService scheduler;
+
+  /** Current index, null until the first build completes */
+  private volatile EligibilityIndex index;
+
+  private final AtomicLong buildCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicLong snapshotFailureCount = new AtomicLong();
+
+  public EligibilityIndexer(
+    AssetInventoryAdapter assetInventoryAdapter,
+    LogAdapter logAdapter,
+    Options options
+  ) {
+    Preconditions.checkNotNull(assetInventoryAdapter, "assetInventoryAdapter");
+    Preconditions.checkNotNull(logAdapter, "logAdapter");
+    Preconditions.checkNotNull(options, "options");
+
+    this.assetInventoryAdapter = assetInventoryAdapter;
+    this.logAdapter = logAdapter;
+    this.options = options;
+
+    if (options.isEnabled()) {
+      if (options.snapshotPath.isPresent()) {
+        loadSnapshot(options.snapshotPath.get());
+      }
+
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+          .setNameFormat("eligibility-indexer-%d")
+          .setDaemon(true)
+          .build());
+      this.scheduler.scheduleWithFixedDelay(
+        this::refresh,
+        0,
+        options.refreshInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    }
+    else {
+      this.scheduler = null;
+    }
+  }
+
+  /**
+   * Create an indexer that logs to the asynchronous log writer. The indexer
+   * runs outside of requests, so it can't use the request-scoped LogAdapter.
+   */
+  @Inject
+  public EligibilityIndexer(
+    AssetInventoryAdapter assetInventoryAdapter,
+    AsyncLogWriter logWriter,
+    Options options
+  ) {
+    this(assetInventoryAdapter, new LogAdapter(logWriter), options);
+  }
+
+  public EligibilityIndexer(
+    AssetInventoryAdapter assetInventoryAdapter,
+    Options options
+  ) {
+    this(assetInventoryAdapter, new LogAdapter(), options);
+  }
+
+  private static Optional<UserId> toUserId(String member) {
+    return member != null && member.startsWith(USER_PREFIX)
+      ? Optional.of(new UserId(member.substring(USER_PREFIX.length())))
+      : Optional.empty();
+  }
+
+  /**
+   * Build a new index. This requires one API call to find all IAM policies
+   * in the scope, and one policy analysis for each distinct resource and
+   * role that has an eligible binding.
+   */
+  EligibilityIndex buildIndex() throws AccessException, IOException {
+    var builder = new EligibilityIndex.Builder(Instant.now());
+
+    //
+    // Find all bindings that are eligible or activated.
+    //
+    // Activated bindings always apply to a single user and project, so
+    // we can index them right away. Eligible bindings might apply to
+    // groups, or be inherited from folders, so we need to expand them.
+    //
+    var eligibleBindings = new LinkedHashSet<Map.Entry<String, String>>();
+    for (var policy : this.assetInventoryAdapter.findIamPolicies(this.options.scope)) {
+      if (policy.getPolicy() == null || policy.getPolicy().getBindings() == null) {
+        continue;
+      }
+
+      for (var binding : policy.getPolicy().getBindings()) {
+        switch (JitConstraints.classify(binding.getCondition())) {
+          case JIT:
+          case MPA:
+            eligibleBindings.add(Map.entry(policy.getResource(), binding.getRole()));
+            break;
+
+          case ACTIVATED:
+            var expiry = IamTemporaryAccessConditions.getEndTime(binding.getCondition().getExpression());
+            if (expiry.isPresent() &&
+              binding.getMembers() != null &&
+              ProjectId.isProjectFullResourceName(policy.getResource())) {
+              var projectId = ProjectId.fromFullResourceName(policy.getResource());
+              for (var member : binding.getMembers()) {
+                var user = toUserId(member);
+                if (user.isPresent()) {
+                  builder.addActivatedBinding(
+                    user.get(),
+                    projectId,
+                    binding.getRole(),
+                    expiry.get().toInstant());
+                }
+              }
+            }
+            break;
+
+          default:
+            break;
+        }
+      }
+    }
+
+    //
+    // Expand eligible bindings into users and projects. Analyze multiple
+    // bindings in parallel, but fail the entire build if any of the
+    // analyses fails: a partial index would hide eligible roles.
+    //
+    var executor = Executors.newFixedThreadPool(
+      this.options.analysisConcurrency,
+      new ThreadFactoryBuilder()
+        .setNameFormat("eligibility-analysis-%d")
+        .setDaemon(true)
+        .build());
+    try {
+      var futures = new ArrayList<Future<IamPolicyAnalysis>>();
+      for (var binding : eligibleBindings) {
+        futures.add(executor.submit(() -> this.assetInventoryAdapter.findPermissionedPrincipalsByResource(
+          this.options.scope,
+          binding.getKey(),
+          binding.getValue(),
+          true)));
+      }
+
+      for (var future : futures) {
+        var analysis = future.get();
+        if (analysis == null || analysis.getAnalysisResults() == null) {
+          continue;
+        }
+
+        for (var result : analysis.getAnalysisResults()) {
+          if (result.getIamBinding() == null ||
+            result.getAccessControlLists() == null ||
+            result.getIdentityList() == null ||
+            result.getIdentityList().getIdentities() == null) {
+            continue;
+          }
+
+          ProjectRole.Status status;
+          switch (JitConstraints.classify(result.getIamBinding().getCondition())) {
+            case JIT:
+              status = ProjectRole.Status.ELIGIBLE_FOR_JIT;
+              break;
+            case MPA:
+              status = ProjectRole.Status.ELIGIBLE_FOR_MPA;
+              break;
+            default:
+              continue;
+          }
+
+          for (var acl : result.getAccessControlLists()) {
+            if (acl.getResources() == null) {
+              continue;
+            }
+
+            for (var resource : acl.getResources()) {
+              if (!ProjectId.isProjectFullResourceName(resource.getFullResourceName())) {
+                continue;
+              }
+
+              var projectId = ProjectId.fromFullResourceName(resource.getFullResourceName());
+              for (var identity : result.getIdentityList().getIdentities()) {
+                var user = toUserId(identity.getName());
+                if (user.isPresent()) {
+                  builder.addEligibleBinding(
+                    user.get(),
+                    projectId,
+                    result.getIamBinding().getRole(),
+                    status);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Building the eligibility index was interrupted", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof AccessException) {
+        throw (AccessException)e.getCause();
+      }
+      else if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      else {
+        throw new IOException("Building the eligibility index failed", e.getCause());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Load an index from a snapshot file, unless the snapshot is missing,
+   * invalid, or too old. Such snapshots are replaced by the next build.
+   */
+  void loadSnapshot(Path path) {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    try {
+      var snapshot = EligibilityIndex.readSnapshot(path);
+      if (snapshot.getCreationTime().isAfter(Instant.now().minus(MAX_SNAPSHOT_AGE))) {
+        this.index = snapshot;
+      }
+    }
+    catch (IOException e) {
+      this.snapshotFailureCount.incrementAndGet();
+      this.logAdapter
+        .newErrorEntry(
+          LOG_EVENT_SNAPSHOT,
+          String.format("Loading the eligibility index snapshot from %s failed", path),
+          e)
+        .write();
+    }
+  }
+
+  /**
+   * Rebuild the index. If the build fails, keep using the previous index
+   * until it exceeds its maximum age.
+   */
+  void refresh() {
+    EligibilityIndex index;
+    try {
+      index = buildIndex();
+      this.index = index;
+      this.buildCount.incrementAndGet();
+    }
+    catch (Exception e) {
+      this.failureCount.incrementAndGet();
+
+      var previousIndex = getIndex();
+      this.logAdapter
+        .newErrorEntry(
+          LOG_EVENT_REFRESH,
+          String.format(
+            "Building the eligibility index failed: %s. %s",
+            e.getMessage(),
+            previousIndex.isPresent()
+              ? String.format("Continuing to use the index from %s", previousIndex.get().getCreationTime())
+              : "Analyzing policies until an index is available"))
+        .write();
+      return;
+    }
+
+    if (this.options.snapshotPath.isPresent()) {
+      try {
+        index.writeSnapshot(this.options.snapshotPath.get());
+      }
+      catch (IOException e) {
+        this.snapshotFailureCount.incrementAndGet();
+        this.logAdapter
+          .newErrorEntry(
+            LOG_EVENT_SNAPSHOT,
+            String.format(
+              "Saving the eligibility index snapshot to %s failed",
+              this.options.snapshotPath.get()),
+            e)
+          .write();
+      }
+    }
+  }
+
+  /**
+   * Get the current index, if indexing is enabled, an index has been
+   * built already, and the index hasn't exceeded its maximum age.
+   */
+  public Optional<EligibilityIndex> getIndex() {
+    var index = this.index;
+    if (index == null) {
+      return Optional.empty();
+    }
+    else if (!this.options.maxIndexAge.isZero() &&
+      index.getCreationTime().isBefore(Instant.now().minus(this.options.maxIndexAge))) {
+      //
+      // The index is too old to be trusted, most likely because
+      // the last builds failed.
+      //
+      return Optional.empty();
+    }
+    else {
+      return Optional.of(index);
+    }
+  }
+
+  public Options getOptions() {
+    return this.options;
+  }
+
+  /** Number of successful builds */
+  public long getBuildCount() {
+    return this.buildCount.get();
+  }
+
+  /** Number of failed builds */
+  public long getFailureCount() {
+    return this.failureCount.get();
+  }
+
+  /** Number of failed snapshot loads and writes */
+  public long getSnapshotFailureCount() {
+    return this.snapshotFailureCount.get();
+  }
+
+  @PreDestroy
+  @Override
+  public void close() {
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  public static class Options {
+    /**
+     * Scope, organization/ID, folder/ID, or project/ID
+     */
+    public final String scope;
+
+    /**
+     * Time between index builds, zero disables indexing.
+     */
+    public final Duration refreshInterval;
+
+    /**
+     * Maximum number of bindings to analyze in parallel.
+     */
+    public final int analysisConcurrency;
+
+    /**
+     * File to save the index to, and to load it from on startup.
+     */
+    public final Optional<Path> snapshotPath;
+
+    /**
+     * Maximum age of an index that can be served, zero for no limit.
+     */
+    public final Duration maxIndexAge;
+
+    /**
+     * Use the index to list the projects available to a user. The index
+     * only contains projects in which users have eligible or activated
+     * role bindings, so projects in which a user only has permanent
+     * role bindings are omitted from such lists.
+     */
+    public final boolean listProjectsFromIndex;
+
+    public Options(
+      String scope,
+      Duration refreshInterval,
+      int analysisConcurrency,
+      Optional<Path> snapshotPath,
+      Duration maxIndexAge,
+      boolean listProjectsFromIndex
+    ) {
+      Preconditions.checkNotNull(scope, "scope");
+      Preconditions.checkNotNull(refreshInterval, "refreshInterval");
+      Preconditions.checkArgument(!refreshInterval.isNegative(), "refreshInterval");
+      Preconditions.checkArgument(analysisConcurrency > 0, "analysisConcurrency");
+      Preconditions.checkNotNull(snapshotPath, "snapshotPath");
+      Preconditions.checkNotNull(maxIndexAge, "maxIndexAge");
+      Preconditions.checkArgument(!maxIndexAge.isNegative(), "maxIndexAge");
+
+      this.scope = scope;
+      this.refreshInterval = refreshInterval;
+      this.analysisConcurrency = analysisConcurrency;
+      this.snapshotPath = snapshotPath;
+      this.maxIndexAge = maxIndexAge;
+      this.listProjectsFromIndex = listProjectsFromIndex;
+    }
+
+    /**
+     * Index that expires after twice the refresh interval and that isn't
+     * used for listing projects.
+     */
+    public Options(
+      String scope,
+      Duration refreshInterval,
+      int analysisConcurrency,
+      Optional<Path> snapshotPath
+    ) {
+      this(
+        scope,
+        refreshInterval,
+        analysisConcurrency,
+        snapshotPath,
+        refreshInterval.multipliedBy(2),
+        false);
+    }
+
+    /**
+     * Index without snapshots.
+     */
+    public Options(String scope, Duration refreshInterval, int analysisConcurrency) {
+      this(scope, refreshInterval, analysisConcurrency, Optional.empty());
+    }
+
+    /**
+     * Indexing disabled.
+     */
+    public Options(String scope) {
+      this(scope, Duration.ZERO, 1);
+    }
+
+    public boolean isEnabled() {
+      return !this.refreshInterval.isZero();
+    }
+  }
+}
@@ -23,45 +23,172 @@ package com.google.solutions.jitaccess.core.services;
 
 import com.google.api.services.cloudasset.v1.model.Expr;
 
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JitConstraints {
   /** Condition title for activated role bindings */
   public static final String ACTIVATION_CONDITION_TITLE = "JIT access activation";
 
-  /** Condition that marks a role binding as eligible for JIT access */
-  private static final Pattern JIT_CONDITION_PATTERN = Pattern
-    .compile("^\\s*has\\(\\s*\\{\\s*\\}.jitaccessconstraint\\s*\\)\\s*$");
+  /** Attribute that marks a role binding as eligible for JIT access */
+  private static final String JIT_CONSTRAINT = "jitaccessconstraint";
 
-  /** Condition that marks a role binding as eligible for MPA */
-  private static final Pattern MPA_CONDITION_PATTERN = Pattern
-    .compile("^\\s*has\\(\\s*\\{\\s*\\}.multipartyapprovalconstraint\\s*\\)\\s*$");
+  /** Attribute that marks a role binding as eligible for MPA */
+  private static final String MPA_CONSTRAINT = "multipartyapprovalconstraint";
+
+  /** Maximum number of distinct expressions to memoize */
+  private static final int MAX_CACHED_EXPRESSIONS = 1024;
+
+  /**
+   * Classifications of previously seen expressions. Policies tend to
+   * use the same few conditions over and over again, so the cache
+   * simply stops growing once it's full.
+   */
+  private static final ConcurrentHashMap<String, Classification> expressionCache =
+    new ConcurrentHashMap<>();
 
   private JitConstraints() {
   }
 
-  private static boolean isConstraint(Expr iamCondition, Pattern pattern) {
-    if (iamCondition == null) {
-      return false;
+  // -------------------------------------------------------------------------
+  // Expression scanning.
+  // -------------------------------------------------------------------------
+
+  private static boolean isWhitespace(char c) {
+    // Same as \s in regular expressions.
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private static int skipSpaces(String expression, int index) {
+    while (index < expression.length() && expression.charAt(index) == ' ') {
+      index++;
+    }
+
+    return index;
+  }
+
+  private static int skipWhitespace(String expression, int index) {
+    while (index < expression.length() && isWhitespace(expression.charAt(index))) {
+      index++;
+    }
+
+    return index;
+  }
+
+  /**
+   * Match a lower-case token, ignoring case and spaces.
+   * @return index after the token, or -1 if the token doesn't match.
+   */
+  private static int skipToken(String expression, int index, String token) {
+    for (int i = 0; i < token.length(); i++) {
+      index = skipSpaces(expression, index);
+      if (index >= expression.length() ||
+        Character.toLowerCase(expression.charAt(index)) != token.charAt(i)) {
+        return -1;
+      }
+
+      index++;
+    }
+
+    return index;
+  }
+
+  /**
+   * Classify an expression of the form has({}.xxxConstraint) in a single
+   * pass. Case and spaces are ignored, other whitespace is only permitted
+   * between tokens.
+   */
+  static Classification scanExpression(String expression) {
+    var index = skipToken(expression, skipWhitespace(expression, 0), "has(");
+    if (index < 0) {
+      return Classification.OTHER;
+    }
+
+    index = skipToken(expression, skipWhitespace(expression, index), "{");
+    if (index < 0) {
+      return Classification.OTHER;
+    }
+
+    index = skipToken(expression, skipWhitespace(expression, index), "}");
+    if (index < 0) {
+      return Classification.OTHER;
+    }
+
+    //
+    // Accept any separator, not only a dot (for compatibility with
+    // earlier versions, which used a regular expression).
+    //
+    index = skipSpaces(expression, index);
+    if (index >= expression.length() || isLineTerminator(expression.charAt(index))) {
+      return Classification.OTHER;
+    }
+
+    index++;
+
+    Classification classification;
+    int end;
+    if ((end = skipToken(expression, index, JIT_CONSTRAINT)) >= 0) {
+      classification = Classification.JIT;
+    }
+    else if ((end = skipToken(expression, index, MPA_CONSTRAINT)) >= 0) {
+      classification = Classification.MPA;
+    }
+    else {
+      return Classification.OTHER;
+    }
+
+    end = skipToken(expression, skipWhitespace(expression, end), ")");
+    if (end < 0) {
+      return Classification.OTHER;
+    }
+
+    return skipWhitespace(expression, end) == expression.length()
+      ? classification
+      : Classification.OTHER;
+  }
+
+  private static Classification classifyExpression(Expr iamCondition) {
+    if (iamCondition == null || iamCondition.getExpression() == null) {
+      return Classification.OTHER;
+    }
+
+    var expression = iamCondition.getExpression();
+    var classification = expressionCache.get(expression);
+    if (classification == null) {
+      classification = scanExpression(expression);
+      if (expressionCache.size() < MAX_CACHED_EXPRESSIONS) {
+        expressionCache.putIfAbsent(expression, classification);
+      }
     }
 
-    // Strip all whitespace to simplify expression matching.
-    var expression = iamCondition
-      .getExpression()
-      .toLowerCase()
-      .replace(" ", "");
+    return classification;
+  }
+
+  // -------------------------------------------------------------------------
+  // Public methods.
+  // -------------------------------------------------------------------------
 
-    return pattern.matcher(expression).matches();
+  /**
+   * Classify an IAM condition. Activated role bindings take precedence
+   * over constraints.
+   */
+  public static Classification classify(Expr iamCondition) {
+    return isActivated(iamCondition)
+      ? Classification.ACTIVATED
+      : classifyExpression(iamCondition);
   }
 
   /** Check if the IAM condition is a JIT Access constraint */
   public static boolean isJitAccessConstraint(Expr iamCondition) {
-    return isConstraint(iamCondition, JIT_CONDITION_PATTERN);
+    return classifyExpression(iamCondition) == Classification.JIT;
   }
 
   /** Check if the IAM condition is an MPA constraint */
   public static boolean isMultiPartyApprovalConstraint(Expr iamCondition) {
-    return isConstraint(iamCondition, MPA_CONDITION_PATTERN);
+    return classifyExpression(iamCondition) == Classification.MPA;
   }
 
   /** Check if the IAM condition indicates an activated role binding */
@@ -69,4 +196,23 @@ public class JitConstraints {
     return iamCondition != null &&
       ACTIVATION_CONDITION_TITLE.equals(iamCondition.getTitle());
   }
+
+  /** Number of distinct expressions currently memoized */
+  static int getCachedExpressionCount() {
+    return expressionCache.size();
+  }
+
+  public enum Classification {
+    /** Eligible for JIT access */
+    JIT,
+
+    /** Eligible for multi-party approval */
+    MPA,
+
+    /** Activated role binding */
+    ACTIVATED,
+
+    /** Unrelated condition */
+    OTHER
+  }
 }
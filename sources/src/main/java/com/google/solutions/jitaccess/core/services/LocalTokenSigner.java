@@ -0,0 +1,236 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.auth.oauth2.TokenVerifier;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Signs and verifies tokens using an in-memory RSA key pair that
+ * is rotated periodically.
+ *
+ * After a rotation, the previous key remains valid for verification
+ * until the next rotation. The rotation interval must therefore be at
+ * least as long as the lifetime of the tokens.
+ *
+ * NB. Keys are not shared between processes and don't survive restarts,
+ * so a token can only be verified by the process that signed it. The
+ * application must therefore run on a single instance when using this
+ * signer.
+ */
+public class LocalTokenSigner {
+  private static final int KEY_SIZE = 2048;
+
+  private final String issuer;
+  private final String audience;
+  private final Duration rotationInterval;
+  private final Clock clock;
+
+  private SigningKey currentKey;
+  private SigningKey previousKey;
+
+  LocalTokenSigner(
+    String issuer,
+    String audience,
+    Duration rotationInterval,
+    Clock clock
+  ) {
+    Preconditions.checkNotNull(issuer, "issuer");
+    Preconditions.checkNotNull(audience, "audience");
+    Preconditions.checkNotNull(rotationInterval, "rotationInterval");
+    Preconditions.checkNotNull(clock, "clock");
+
+    this.issuer = issuer;
+    this.audience = audience;
+    this.rotationInterval = rotationInterval;
+    this.clock = clock;
+    this.currentKey = new SigningKey(clock.instant());
+  }
+
+  public LocalTokenSigner(
+    String issuer,
+    String audience,
+    Duration rotationInterval
+  ) {
+    this(issuer, audience, rotationInterval, Clock.systemUTC());
+  }
+
+  private static String base64Url(BigInteger value) {
+    var bytes = value.toByteArray();
+    if (bytes.length > 1 && bytes[0] == 0) {
+      //
+      // Strip sign byte.
+      //
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Rotate keys if the current key is due.
+   */
+  private synchronized void rotateKeysIfNecessary() {
+    var now = this.clock.instant();
+    if (!now.isBefore(this.currentKey.created.plus(this.rotationInterval))) {
+      this.previousKey = this.currentKey;
+      this.currentKey = new SigningKey(now);
+    }
+  }
+
+  private synchronized SigningKey getCurrentKey() {
+    rotateKeysIfNecessary();
+    return this.currentKey;
+  }
+
+  private synchronized List<SigningKey> getValidKeys() {
+    rotateKeysIfNecessary();
+    return Stream.of(this.currentKey, this.previousKey)
+      .filter(Objects::nonNull)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Sign a token using the current key.
+   */
+  public String sign(JsonWebToken.Payload payload) throws IOException {
+    Preconditions.checkNotNull(payload, "payload");
+
+    var key = getCurrentKey();
+    var header = new JsonWebSignature.Header()
+      .setAlgorithm("RS256")
+      .setType("JWT")
+      .setKeyId(key.keyId);
+
+    try {
+      return JsonWebSignature.signUsingRsaSha256(
+        key.keyPair.getPrivate(),
+        GsonFactory.getDefaultInstance(),
+        header,
+        payload);
+    }
+    catch (GeneralSecurityException e) {
+      throw new IOException("Signing the token failed", e);
+    }
+  }
+
+  /**
+   * Verify a token that has been signed using the current or
+   * previous key.
+   */
+  public JsonWebSignature verify(String token) throws TokenVerifier.VerificationException {
+    Preconditions.checkNotNull(token, "token");
+
+    String keyId;
+    try {
+      keyId = JsonWebSignature
+        .parse(GsonFactory.getDefaultInstance(), token)
+        .getHeader()
+        .getKeyId();
+    }
+    catch (IOException | IllegalArgumentException e) {
+      throw new TokenVerifier.VerificationException("The token is malformed", e);
+    }
+
+    var key = getValidKeys()
+      .stream()
+      .filter(k -> k.keyId.equals(keyId))
+      .findFirst();
+    if (key.isEmpty()) {
+      throw new TokenVerifier.VerificationException("The token was signed with an unknown key");
+    }
+
+    return key.get().verifier.verify(token);
+  }
+
+  /**
+   * Get the public keys that are currently valid, as a JSON Web Key Set.
+   */
+  public Map<String, Object> getJwks() {
+    var keys = getValidKeys()
+      .stream()
+      .map(k -> {
+        var publicKey = (RSAPublicKey) k.keyPair.getPublic();
+
+        var jwk = new LinkedHashMap<String, String>();
+        jwk.put("kty", "RSA");
+        jwk.put("alg", "RS256");
+        jwk.put("use", "sig");
+        jwk.put("kid", k.keyId);
+        jwk.put("n", base64Url(publicKey.getModulus()));
+        jwk.put("e", base64Url(publicKey.getPublicExponent()));
+        return jwk;
+      })
+      .collect(Collectors.toList());
+
+    return Map.of("keys", keys);
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  private class SigningKey {
+    private final String keyId;
+    private final Instant created;
+    private final KeyPair keyPair;
+    private final TokenVerifier verifier;
+
+    private SigningKey(Instant created) {
+      try {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+
+        this.keyId = UUID.randomUUID().toString();
+        this.created = created;
+        this.keyPair = generator.generateKeyPair();
+        this.verifier = TokenVerifier
+          .newBuilder()
+          .setPublicKey(this.keyPair.getPublic())
+          .setIssuer(issuer)
+          .setAudience(audience)
+          .setClock(() -> clock.millis())
+          .build();
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("RSA is not supported", e);
+      }
+    }
+  }
+}
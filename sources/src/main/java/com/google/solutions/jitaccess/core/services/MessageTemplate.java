@@ -0,0 +1,170 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Template with {{PROPERTY}} placeholders that is parsed once and can
+ * then be rendered repeatedly. Property values are HTML-escaped.
+ */
+public class MessageTemplate {
+  private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{\\{[A-Z0-9_]+}}");
+
+  /** Templates loaded from the JAR, by resource name */
+  private static final Map<String, MessageTemplate> resourceTemplates = new ConcurrentHashMap<>();
+
+  /**
+   * Segments of the template. Even indexes contain literal text,
+   * odd indexes contain placeholders (including braces).
+   */
+  private final String[] segments;
+  private final int literalLength;
+
+  private MessageTemplate(String[] segments) {
+    this.segments = segments;
+
+    var length = 0;
+    for (int i = 0; i < segments.length; i += 2) {
+      length += segments[i].length();
+    }
+
+    this.literalLength = length;
+  }
+
+  /**
+   * Parse a template.
+   */
+  public static MessageTemplate compile(String template) {
+    Preconditions.checkNotNull(template, "template");
+
+    var segments = new ArrayList<String>();
+    var matcher = PLACEHOLDER_PATTERN.matcher(template);
+    var position = 0;
+    while (matcher.find()) {
+      segments.add(template.substring(position, matcher.start()));
+      segments.add(matcher.group());
+      position = matcher.end();
+    }
+
+    segments.add(template.substring(position));
+
+    return new MessageTemplate(segments.toArray(new String[0]));
+  }
+
+  /**
+   * Load and parse a template from the JAR. Templates are only
+   * loaded once.
+   */
+  public static MessageTemplate fromResource(String resourceName) {
+    Preconditions.checkNotNull(resourceName, "resourceName");
+
+    return resourceTemplates.computeIfAbsent(resourceName, name -> {
+      try (var stream = MessageTemplate.class
+        .getClassLoader()
+        .getResourceAsStream(name)) {
+
+        if (stream == null) {
+          throw new IllegalArgumentException(
+            String.format("The JAR file does not contain an template named %s", name));
+        }
+
+        return compile(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+      }
+      catch (IOException e) {
+        throw new IllegalArgumentException(
+          String.format("The JAR file does not contain an template named %s", name), e);
+      }
+    });
+  }
+
+  /**
+   * Render the template. Placeholders without a matching property
+   * are left as-is.
+   *
+   * @param properties values by placeholder, including braces
+   */
+  public String render(Map<String, String> properties) {
+    Preconditions.checkNotNull(properties, "properties");
+
+    //
+    // Size the buffer for the literal text plus some room for the values
+    // so that it doesn't need to grow in the common case.
+    //
+    var buffer = new StringBuilder(this.literalLength + 64 * (this.segments.length / 2) + 16);
+
+    for (int i = 0; i < this.segments.length; i++) {
+      var segment = this.segments[i];
+      if (i % 2 == 0) {
+        buffer.append(segment);
+      }
+      else {
+        var value = properties.get(segment);
+        if (value != null) {
+          appendEscaped(buffer, value);
+        }
+        else {
+          buffer.append(segment);
+        }
+      }
+    }
+
+    return buffer.toString();
+  }
+
+  /**
+   * Append value with the same escaping as Guava's HTML escaper,
+   * but without creating an intermediate string.
+   */
+  private static void appendEscaped(StringBuilder buffer, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      var c = value.charAt(i);
+      switch (c) {
+        case '"':
+          buffer.append("&quot;");
+          break;
+        case '\'':
+          buffer.append("&#39;");
+          break;
+        case '&':
+          buffer.append("&amp;");
+          break;
+        case '<':
+          buffer.append("&lt;");
+          break;
+        case '>':
+          buffer.append("&gt;");
+          break;
+        default:
+          buffer.append(c);
+      }
+    }
+  }
+}
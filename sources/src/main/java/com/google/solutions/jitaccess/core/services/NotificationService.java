@@ -22,15 +22,15 @@
 package com.google.solutions.jitaccess.core.services;
 
 import com.google.common.base.Preconditions;
-import com.google.common.html.HtmlEscapers;
 import com.google.solutions.jitaccess.core.adapters.MailAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.UserId;
 
-import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /**
@@ -51,14 +51,13 @@ public class NotificationService {
     this.options = options;
 
     //
-    // Read email template file from JAR.
+    // Read email template file from JAR so that we fail early if
+    // it's missing.
     //
-    try (var stream = NotificationService.class
-      .getClassLoader()
-      .getResourceAsStream("ApprovalRequest.email.html")) {
-      String emailTemplate = new String(stream.readAllBytes());
+    try {
+      MessageTemplate.fromResource(ApprovalRequest.TEMPLATE);
     }
-    catch (IOException e) {
+    catch (IllegalArgumentException e) {
       throw new RuntimeException("The JAR file is missing the email template", e);
     }
   }
@@ -83,6 +82,32 @@ public class NotificationService {
     }
   }
 
+  /**
+   * Queue a notification for delivery without waiting for it
+   * to be delivered.
+   */
+  public CompletableFuture<Void> submitNotification(Notification notification) {
+    Preconditions.checkNotNull(notification, "notification");
+
+    if (this.options.enableEmail) {
+      return this.mailAdapter
+        .submitMail(
+          notification.recipient.email,
+          notification.recipient.email,
+          notification.subject,
+          notification.format())
+        .exceptionally(e -> {
+          var cause = e instanceof CompletionException ? e.getCause() : e;
+          throw new CompletionException(
+            new NotificationException("The notification could not be sent", cause));
+        });
+    }
+    else {
+      System.out.println(notification);
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
   // -------------------------------------------------------------------------
   // Inner classes.
   // -------------------------------------------------------------------------
@@ -109,27 +134,11 @@ public class NotificationService {
 
     protected String format() {
       //
-      // Read email template file from JAR and replace {{PROPERTY}} placeholders.
+      // Replace {{PROPERTY}} placeholders in the (cached) email template.
       //
-      try (var stream = NotificationService.class
-        .getClassLoader()
-        .getResourceAsStream("ApprovalRequest.email.html")) {
-
-        var template = new String(stream.readAllBytes());
-        var escaper = HtmlEscapers.htmlEscaper();
-
-        for (var property : this.properties.entrySet()) {
-          template = template.replace(
-            property.getKey(),
-            escaper.escape(property.getValue()));
-        }
-
-        return template;
-      }
-      catch (IOException e) {
-        throw new RuntimeException(
-          String.format("The JAR file does not contain an template named %s", this.template), e);
-      }
+      return MessageTemplate
+        .fromResource(this.template)
+        .render(this.properties);
     }
 
     @Override
@@ -147,7 +156,7 @@ public class NotificationService {
   }
 
   public static class ApprovalRequest extends Notification {
-    private static final String TEMPLATE = "ApprovalRequest.email.html";
+    static final String TEMPLATE = "ApprovalRequest.email.html";
 
     public ApprovalRequest(
       UserId requestor,
@@ -0,0 +1,56 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * Page of a sorted result list of T.
+ */
+public class Page<T> {
+  /**
+   * Items on this page, in sort order.
+   */
+  private final List<T> items;
+
+  /**
+   * Indicates whether more items follow after this page.
+   */
+  private final boolean truncated;
+
+  public Page(List<T> items, boolean truncated) {
+    Preconditions.checkNotNull(items);
+
+    this.items = items;
+    this.truncated = truncated;
+  }
+
+  public List<T> getItems() {
+    return this.items;
+  }
+
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+}
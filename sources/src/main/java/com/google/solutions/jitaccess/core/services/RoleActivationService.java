@@ -31,29 +31,49 @@ import com.google.common.base.Preconditions;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
 import com.google.solutions.jitaccess.core.AccessException;
 import com.google.solutions.jitaccess.core.AlreadyExistsException;
+import com.google.solutions.jitaccess.core.Tracing;
 import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
 import com.google.solutions.jitaccess.core.adapters.ResourceManagerAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.RoleBinding;
 import com.google.solutions.jitaccess.core.data.UserId;
+import io.opentelemetry.api.trace.Tracer;
 
-import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
-
-@ApplicationScoped
+import java.util.stream.Collectors;
+
+/**
+ * Service for activating eligible roles.
+ *
+ * The service is request-scoped so that eligibility information can be
+ * reused across multiple activations within the same request.
+ */
+@RequestScoped
 public class RoleActivationService {
   private final RoleDiscoveryService roleDiscoveryService;
   private final ResourceManagerAdapter resourceManagerAdapter;
   private final TokenService tokenService;
+  private final Tracer tracer;
   private final Options options;
 
+  /**
+   * Eligible roles, by user and project, as seen during this request.
+   */
+  private final Map<EligibilityKey, Result<ProjectRole>> eligibilitySnapshot = new ConcurrentHashMap<>();
+
   private void checkJustification(String justification) throws AccessDeniedException{
     if (!this.options.justificationPattern.matcher(justification).matches()) {
       throw new AccessDeniedException(
@@ -72,45 +92,93 @@ public class RoleActivationService {
     }
   }
 
+  private Result<ProjectRole> listEligibleProjectRoles(
+    UserId user,
+    ProjectId projectId
+  ) throws AccessException, IOException {
+    //
+    // Eligibility doesn't change by activating a role, so it's
+    // safe to reuse previous results. This avoids repeating the
+    // same policy analysis when activating multiple roles.
+    //
+    // NB. Always analyze policies instead of using the eligibility
+    // index, which might not reflect recent changes.
+    //
+    var key = new EligibilityKey(user, projectId);
+    var eligibleRoles = this.eligibilitySnapshot.get(key);
+    if (eligibleRoles == null) {
+      eligibleRoles = this.roleDiscoveryService.analyzeEligibleProjectRoles(user, projectId);
+      this.eligibilitySnapshot.put(key, eligibleRoles);
+    }
+
+    return eligibleRoles;
+  }
+
   private void checkUserCanActivateProjectRole(
     UserId user,
     RoleBinding roleBinding,
     ActivationType activationType
   ) throws AccessException, IOException {
-    if (!this.roleDiscoveryService.listEligibleProjectRoles(
-        user,
-        ProjectId.fromFullResourceName(roleBinding.fullResourceName))
-      .getItems()
-      .stream()
-      .filter(pr -> pr.roleBinding.equals(roleBinding))
-      .filter(pr -> canActivateProjectRole(pr, activationType))
-      .findAny()
-      .isPresent()) {
-      throw new AccessDeniedException(
-        String.format(
-          "The user %s does not have a suitable project role on %s to activate",
-          user,
-          roleBinding.fullResourceName));
+    var projectId = ProjectId.fromFullResourceName(roleBinding.fullResourceName);
+
+    try (var step = Tracing.startStep(this.tracer, "RoleActivationService.checkUserCanActivateProjectRole")) {
+      step
+        .setAttribute(Tracing.PROJECT, projectId.id)
+        .setAttribute(Tracing.ROLE, roleBinding.role);
+
+      if (!listEligibleProjectRoles(user, projectId)
+        .getItems()
+        .stream()
+        .filter(pr -> pr.roleBinding.equals(roleBinding))
+        .filter(pr -> canActivateProjectRole(pr, activationType))
+        .findAny()
+        .isPresent()) {
+        throw new AccessDeniedException(
+          String.format(
+            "The user %s does not have a suitable project role on %s to activate",
+            user,
+            roleBinding.fullResourceName));
+      }
+
+      step.succeeded();
     }
   }
 
+  @Inject
   public RoleActivationService(
     RoleDiscoveryService roleDiscoveryService,
     TokenService tokenService,
     ResourceManagerAdapter resourceManagerAdapter,
+    Tracer tracer,
     Options configuration
   ) {
     Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
     Preconditions.checkNotNull(tokenService, "tokenService");
     Preconditions.checkNotNull(resourceManagerAdapter, "resourceManagerAdapter");
+    Preconditions.checkNotNull(tracer, "tracer");
     Preconditions.checkNotNull(configuration, "configuration");
 
     this.roleDiscoveryService = roleDiscoveryService;
     this.resourceManagerAdapter = resourceManagerAdapter;
     this.tokenService = tokenService;
+    this.tracer = tracer;
     this.options = configuration;
   }
 
+  public RoleActivationService(
+    RoleDiscoveryService roleDiscoveryService,
+    TokenService tokenService,
+    ResourceManagerAdapter resourceManagerAdapter,
+    Options configuration
+  ) {
+    this(
+      roleDiscoveryService,
+      tokenService,
+      resourceManagerAdapter,
+      Tracing.NOOP_TRACER,
+      configuration);
+  }
+
   /**
    * Activate a role binding, either for the calling user (JIT) or
    * for another beneficiary (MPA).
@@ -122,10 +190,46 @@ public class RoleActivationService {
     ActivationType activationType,
     String justification
   ) throws AccessException, AlreadyExistsException, IOException {
-    Preconditions.checkNotNull(caller, "userId");
     Preconditions.checkNotNull(roleBinding, "roleBinding");
+
+    var activations = activateProjectRoles(
+      caller,
+      beneficiary,
+      List.of(roleBinding),
+      activationType,
+      justification);
+
+    assert activations.size() == 1;
+    return activations.get(0);
+  }
+
+  /**
+   * Activate one or more role bindings of the same project, either for the
+   * calling user (JIT) or for another beneficiary (MPA).
+   *
+   * All bindings are added in a single IAM policy update.
+   */
+  public List<Activation> activateProjectRoles(
+    UserId caller,
+    UserId beneficiary,
+    Collection<RoleBinding> roleBindings,
+    ActivationType activationType,
+    String justification
+  ) throws AccessException, AlreadyExistsException, IOException {
+    Preconditions.checkNotNull(caller, "userId");
+    Preconditions.checkNotNull(roleBindings, "roleBindings");
     Preconditions.checkNotNull(justification, "justification");
-    Preconditions.checkArgument(ProjectId.isProjectFullResourceName(roleBinding.fullResourceName));
+    Preconditions.checkArgument(!roleBindings.isEmpty(), "At least one role binding is required");
+    Preconditions.checkArgument(roleBindings
+      .stream()
+      .allMatch(b -> ProjectId.isProjectFullResourceName(b.fullResourceName)));
+
+    var projectId = ProjectId.fromFullResourceName(roleBindings.iterator().next().fullResourceName);
+    Preconditions.checkArgument(
+      roleBindings
+        .stream()
+        .allMatch(b -> projectId.equals(ProjectId.fromFullResourceName(b.fullResourceName))),
+      "All role bindings must belong to the same project");
 
     if (activationType == ActivationType.JIT && !beneficiary.equals(caller)) {
       throw new IllegalArgumentException("JIT activation requires the caller and beneficiary to be the same");
@@ -141,15 +245,17 @@ public class RoleActivationService {
 
     //
     // Double-check that the (calling) user is really allowed to (JIT/MPA-) activate
-    // this role. This is to avoid us from being tricked to grant
+    // these roles. This is to avoid us from being tricked to grant
     // access to a role that they aren't eligible for.
     //
-    checkUserCanActivateProjectRole(caller, roleBinding, activationType);
+    for (var roleBinding : roleBindings) {
+      checkUserCanActivateProjectRole(caller, roleBinding, activationType);
+    }
 
     String bindingDescription;
     if (activationType == ActivationType.JIT) {
       //
-      // JIT access: The caller is trying to activate a role for themselves.
+      // JIT access: The caller is trying to activate roles for themselves.
       //
       // We already checked that the caller is eligible, so we're good to proceed.
       //
@@ -159,12 +265,14 @@ public class RoleActivationService {
     }
     else if (activationType == ActivationType.MPA) {
       //
-      // Multi-party approval: The caller is trying to activate a role for somebody else.
+      // Multi-party approval: The caller is trying to activate roles for somebody else.
       //
       // We already checked that the caller is eligible, but we still need to check that the beneficiary
       // is eligible too.
       //
-      checkUserCanActivateProjectRole(beneficiary, roleBinding, activationType);
+      for (var roleBinding : roleBindings) {
+        checkUserCanActivateProjectRole(beneficiary, roleBinding, activationType);
+      }
 
       //
       // Both the caller and the beneficiary are eligible, so we're good to proceed.
@@ -179,7 +287,7 @@ public class RoleActivationService {
     }
 
     //
-    // Add time-bound IAM binding for the beneficiary.
+    // Add time-bound IAM bindings for the beneficiary.
     //
     // Replace existing bindings for same user and role to avoid
     // accumulating junk, and to prevent hitting the binding limit.
@@ -188,23 +296,34 @@ public class RoleActivationService {
     var activationTime = OffsetDateTime.now();
     var expiryTime = activationTime.plus(this.options.activationDuration);
 
-    var binding = new Binding()
-      .setMembers(List.of("user:" + beneficiary))
-      .setRole(roleBinding.role)
-      .setCondition(new com.google.api.services.cloudresourcemanager.v3.model.Expr()
-        .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
-        .setDescription(bindingDescription)
-        .setExpression(IamTemporaryAccessConditions.createExpression(activationTime, expiryTime)));
-
-    this.resourceManagerAdapter.addProjectIamBinding(
-      ProjectId.fromFullResourceName(roleBinding.fullResourceName),
-      binding,
+    var bindings = roleBindings
+      .stream()
+      .map(roleBinding -> new Binding()
+        .setMembers(List.of("user:" + beneficiary))
+        .setRole(roleBinding.role)
+        .setCondition(new com.google.api.services.cloudresourcemanager.v3.model.Expr()
+          .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+          .setDescription(bindingDescription)
+          .setExpression(IamTemporaryAccessConditions.createExpression(activationTime, expiryTime))))
+      .collect(Collectors.toList());
+
+    this.resourceManagerAdapter.addProjectIamBindings(
+      projectId,
+      bindings,
       EnumSet.of(ResourceManagerAdapter.IamBindingOptions.REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE),
       justification);
 
-    return new Activation(
-      new ProjectRole(roleBinding, ProjectRole.Status.ACTIVATED),
-      expiryTime);
+    //
+    // The beneficiary's cached eligibility information is now stale.
+    //
+    this.roleDiscoveryService.invalidateEligibleProjectRoles(beneficiary, projectId);
+
+    return roleBindings
+      .stream()
+      .map(roleBinding -> new Activation(
+        new ProjectRole(roleBinding, ProjectRole.Status.ACTIVATED),
+        expiryTime))
+      .collect(Collectors.toList());
   }
 
   public String createMultiPartyApprovalToken( // TODO: Test
@@ -314,6 +433,35 @@ public class RoleActivationService {
     }
   }
 
+  private static class EligibilityKey {
+    private final UserId user;
+    private final ProjectId projectId;
+
+    private EligibilityKey(UserId user, ProjectId projectId) {
+      this.user = user;
+      this.projectId = projectId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      var that = (EligibilityKey) o;
+      return this.user.equals(that.user) && this.projectId.equals(that.projectId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.user, this.projectId);
+    }
+  }
+
   public static class Options {
     public final Duration activationDuration;
     public final String justificationHint;
@@ -0,0 +1,203 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.solutions.jitaccess.core.data.UserId;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetches the projects and eligible roles of users in the background
+ * so that they're cached by the time the user asks for them.
+ */
+@ApplicationScoped
+public class RoleDiscoveryPrefetcher implements Closeable {
+  private final RoleDiscoveryService roleDiscoveryService;
+  private final Options options;
+
+  /**
+   * Executor for prefetches. Prefetches are best-effort, so the
+   * executor uses few, low-priority threads and a bounded queue.
+   */
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Users for which a prefetch has been started recently. Prevents
+   * repeated prefetches for users whose data can't be analyzed.
+   */
+  private final Cache<UserId, Boolean> recentPrefetches;
+
+  private final AtomicLong prefetchCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+
+  public RoleDiscoveryPrefetcher(
+    RoleDiscoveryService roleDiscoveryService,
+    Options options
+  ) {
+    Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
+    Preconditions.checkNotNull(options, "options");
+
+    this.roleDiscoveryService = roleDiscoveryService;
+    this.options = options;
+    this.executor = new ThreadPoolExecutor(
+      Math.max(1, options.concurrency),
+      Math.max(1, options.concurrency),
+      30,
+      TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(Math.max(1, options.queueSize)),
+      new ThreadFactoryBuilder()
+        .setNameFormat("role-prefetch-%d")
+        .setDaemon(true)
+        .setPriority(Thread.MIN_PRIORITY)
+        .build());
+    this.executor.allowCoreThreadTimeOut(true);
+
+    //
+    // There's no point in prefetching more often than the
+    // analysis results expire.
+    //
+    this.recentPrefetches = CacheBuilder.newBuilder()
+      .expireAfterWrite(roleDiscoveryService.getOptions().cacheTimeout)
+      .build();
+  }
+
+  private boolean isEnabled() {
+    //
+    // Prefetching is pointless if results aren't cached.
+    //
+    var discoveryOptions = this.roleDiscoveryService.getOptions();
+    return this.options.concurrency > 0 &&
+      discoveryOptions.cacheSize > 0 &&
+      !discoveryOptions.cacheTimeout.isZero();
+  }
+
+  private void run(UserId user) {
+    try {
+      this.roleDiscoveryService.warmCaches(user, this.options.recentProjects);
+    }
+    catch (Exception e) {
+      //
+      // Ignore, the error will surface again once the user
+      // asks for the data.
+      //
+      this.failureCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Start prefetching the data of a user, unless it's already cached or
+   * being prefetched. Returns immediately.
+   *
+   * @return true if a prefetch was started.
+   */
+  public boolean prefetch(UserId user) {
+    Preconditions.checkNotNull(user, "user");
+
+    if (!isEnabled() ||
+      this.roleDiscoveryService.isAvailableProjectsCached(user) ||
+      this.recentPrefetches.asMap().putIfAbsent(user, Boolean.TRUE) != null) {
+      return false;
+    }
+
+    try {
+      this.executor.execute(() -> run(user));
+      this.prefetchCount.incrementAndGet();
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      //
+      // Queue is full, skip this user. The user's next request
+      // might trigger a new attempt.
+      //
+      this.recentPrefetches.invalidate(user);
+      this.rejectedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  /** Number of prefetches that have been started */
+  public long getPrefetchCount() {
+    return this.prefetchCount.get();
+  }
+
+  /** Number of prefetches that were skipped because the queue was full */
+  public long getRejectedCount() {
+    return this.rejectedCount.get();
+  }
+
+  /** Number of prefetches that failed */
+  public long getFailureCount() {
+    return this.failureCount.get();
+  }
+
+  @PreDestroy
+  @Override
+  public void close() {
+    this.executor.shutdownNow();
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  public static class Options {
+    /**
+     * Maximum number of prefetches to run in parallel, 0 disables
+     * prefetching.
+     */
+    public final int concurrency;
+
+    /**
+     * Maximum number of pending prefetches.
+     */
+    public final int queueSize;
+
+    /**
+     * Number of recently used projects to prefetch eligible roles for.
+     */
+    public final int recentProjects;
+
+    public Options(int concurrency, int queueSize, int recentProjects) {
+      Preconditions.checkArgument(concurrency >= 0, "concurrency");
+      Preconditions.checkArgument(queueSize > 0, "queueSize");
+      Preconditions.checkArgument(
+        recentProjects >= 0 && recentProjects <= RoleDiscoveryService.MAX_RECENT_PROJECTS,
+        "recentProjects");
+
+      this.concurrency = concurrency;
+      this.queueSize = queueSize;
+      this.recentProjects = recentProjects;
+    }
+  }
+}
@@ -24,18 +24,32 @@ package com.google.solutions.jitaccess.core.services;
 import com.google.api.services.cloudasset.v1.model.Expr;
 import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
 import com.google.solutions.jitaccess.core.AccessException;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.Tracing;
 import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.RoleBinding;
 import com.google.solutions.jitaccess.core.data.UserId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -45,18 +59,344 @@ import java.util.stream.Stream;
  */
 @ApplicationScoped
 public class RoleDiscoveryService {
+  /** Number of recently used projects to remember per user */
+  static final int MAX_RECENT_PROJECTS = 5;
+
+  /** Time to remember recently used projects for */
+  private static final Duration RECENT_PROJECTS_RETENTION = Duration.ofDays(7);
+
+  /** Maximum number of invalidated project roles to track */
+  private static final int MAX_STALE_PROJECT_ROLES = 10000;
+
   private final AssetInventoryAdapter assetInventoryAdapter;
 
+  private final EligibilityIndexer eligibilityIndexer;
+
+  private final Tracer tracer;
+
   private final Options options;
 
+  /**
+   * Cache for policy analysis results. Analyzing policies is slow, so we
+   * keep results for a (short) while.
+   */
+  private final Cache<AnalysisCacheKey, IamPolicyAnalysis> analysisCache;
+
+  /**
+   * Cache for users that are eligible to approve a role binding. Approvers
+   * change rarely, but finding them requires a scope-wide analysis.
+   */
+  private final Cache<ApproverCacheKey, List<UserId>> approverCache;
+
+  /**
+   * Cache for the projects available to a user, sorted by project ID
+   * so that they can be served page by page.
+   */
+  private final Cache<UserId, List<ProjectId>> projectCache;
+
+  /**
+   * Projects for which users recently listed eligible roles, most
+   * recent first. Retained much longer than analysis results so that
+   * they can be used for prefetching.
+   */
+  private final Cache<UserId, List<ProjectId>> recentProjects;
+
+  /**
+   * Project roles that have changed since they were last indexed, and the
+   * time when they changed. Until the index catches up, these project
+   * roles are analyzed instead of looked up in the index.
+   */
+  private final Cache<AnalysisCacheKey, Instant> staleProjectRoles;
+
+  /**
+   * Executor for analyzing multiple projects in parallel.
+   */
+  private final ExecutorService analysisExecutor;
+
+  @Inject
   public RoleDiscoveryService(
     AssetInventoryAdapter assetInventoryAdapter,
+    EligibilityIndexer eligibilityIndexer,
+    MeterRegistry meterRegistry,
+    Tracer tracer,
     Options configuration) {
     Preconditions.checkNotNull(assetInventoryAdapter, "assetInventoryAdapter");
+    Preconditions.checkNotNull(eligibilityIndexer, "eligibilityIndexer");
+    Preconditions.checkNotNull(meterRegistry, "meterRegistry");
+    Preconditions.checkNotNull(tracer, "tracer");
     Preconditions.checkNotNull(configuration, "configuration");
 
     this.assetInventoryAdapter = assetInventoryAdapter;
+    this.eligibilityIndexer = eligibilityIndexer;
+    this.tracer = tracer;
     this.options = configuration;
+    this.analysisCache = CacheBuilder.newBuilder()
+      .expireAfterWrite(configuration.cacheTimeout)
+      .maximumSize(configuration.cacheSize)
+      .recordStats()
+      .build();
+    this.approverCache = CacheBuilder.newBuilder()
+      .expireAfterWrite(configuration.cacheTimeout)
+      .maximumSize(configuration.cacheSize)
+      .recordStats()
+      .build();
+    this.projectCache = CacheBuilder.newBuilder()
+      .expireAfterWrite(configuration.cacheTimeout)
+      .maximumSize(configuration.cacheSize)
+      .recordStats()
+      .build();
+    this.recentProjects = CacheBuilder.newBuilder()
+      .expireAfterAccess(RECENT_PROJECTS_RETENTION)
+      .maximumSize(configuration.cacheSize)
+      .build();
+    this.staleProjectRoles = CacheBuilder.newBuilder()
+      .expireAfterWrite(RECENT_PROJECTS_RETENTION)
+      .maximumSize(MAX_STALE_PROJECT_ROLES)
+      .build();
+    this.analysisExecutor = Executors.newFixedThreadPool(
+      configuration.analysisConcurrency,
+      new ThreadFactoryBuilder()
+        .setNameFormat("role-discovery-%d")
+        .setDaemon(true)
+        .build());
+
+    GuavaCacheMetrics.monitor(meterRegistry, this.analysisCache, "role-discovery.analysis");
+    GuavaCacheMetrics.monitor(meterRegistry, this.approverCache, "role-discovery.approvers");
+    GuavaCacheMetrics.monitor(meterRegistry, this.projectCache, "role-discovery.projects");
+  }
+
+  public RoleDiscoveryService(
+    AssetInventoryAdapter assetInventoryAdapter,
+    EligibilityIndexer eligibilityIndexer,
+    Options configuration) {
+    this(
+      assetInventoryAdapter,
+      eligibilityIndexer,
+      Metrics.globalRegistry,
+      Tracing.NOOP_TRACER,
+      configuration);
+  }
+
+  /**
+   * Create service that always uses policy analysis, without an index.
+   */
+  public RoleDiscoveryService(
+    AssetInventoryAdapter assetInventoryAdapter,
+    Options configuration) {
+    this(
+      assetInventoryAdapter,
+      new EligibilityIndexer(assetInventoryAdapter, new EligibilityIndexer.Options(configuration.scope)),
+      configuration);
+  }
+
+  /**
+   * Get the eligibility index, unless it's unavailable or doesn't reflect
+   * recent changes to the user's roles in the given project.
+   */
+  private Optional<EligibilityIndex> getCurrentIndex(
+    UserId user,
+    Optional<ProjectId> projectId
+  ) {
+    var index = this.eligibilityIndexer.getIndex();
+    if (index.isPresent() && projectId.isPresent()) {
+      var changeTime = this.staleProjectRoles.getIfPresent(
+        createProjectRolesCacheKey(user, projectId.get()));
+      if (changeTime != null && !index.get().getCreationTime().isAfter(changeTime)) {
+        return Optional.empty();
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * Get the eligibility index for listing the projects available to a user,
+   * unless it's unavailable or not meant to be used for listing projects.
+   */
+  private Optional<EligibilityIndex> getCurrentProjectsIndex(UserId user) {
+    return this.eligibilityIndexer.getOptions().listProjectsFromIndex
+      ? getCurrentIndex(user, Optional.empty())
+      : Optional.empty();
+  }
+
+  private AnalysisCacheKey createProjectRolesCacheKey(UserId user, ProjectId projectId) {
+    return new AnalysisCacheKey(
+      this.options.scope,
+      user,
+      Optional.empty(),
+      Optional.of(projectId.getFullResourceName()),
+      false);
+  }
+
+  /**
+   * Find resources accessible by a user, using cached results if possible.
+   */
+  private IamPolicyAnalysis findAccessibleResourcesByUser(
+    UserId user,
+    Optional<String> permission,
+    Optional<String> fullResourceName,
+    boolean expandResources
+  ) throws AccessException, IOException {
+    var key = new AnalysisCacheKey(
+      this.options.scope,
+      user,
+      permission,
+      fullResourceName,
+      expandResources);
+
+    var analysis = this.analysisCache.getIfPresent(key);
+    if (analysis == null) {
+      //
+      // NB. If multiple threads miss the cache at the same time, they
+      // all perform the analysis. That's wasteful, but harmless.
+      //
+      analysis = this.assetInventoryAdapter.findAccessibleResourcesByUser(
+        key.scope,
+        key.user,
+        key.permission,
+        key.fullResourceName,
+        key.expandResources);
+
+      this.analysisCache.put(key, analysis);
+    }
+
+    return analysis;
+  }
+
+  /**
+   * Find users that are eligible to approve a role binding, using cached
+   * results if possible.
+   */
+  private List<UserId> findApprovers(
+    RoleBinding roleBinding
+  ) throws AccessException, IOException {
+    var key = new ApproverCacheKey(
+      this.options.scope,
+      roleBinding.fullResourceName,
+      roleBinding.role);
+
+    var approvers = this.approverCache.getIfPresent(key);
+    if (approvers == null) {
+      var analysisResult = this.assetInventoryAdapter.findPermissionedPrincipalsByResource(
+        key.scope,
+        key.fullResourceName,
+        key.role);
+
+      approvers = Stream.ofNullable(analysisResult.getAnalysisResults())
+        .flatMap(Collection::stream)
+
+        // Narrow down to IAM bindings with an MPA constraint.
+        .filter(result -> result.getIamBinding() != null &&
+          JitConstraints.isMultiPartyApprovalConstraint(result.getIamBinding().getCondition()))
+
+        // Collect identities (users and group members)
+        .filter(result -> result.getIdentityList() != null)
+        .flatMap(result -> result.getIdentityList().getIdentities().stream()
+          .filter(id -> id.getName().startsWith("user:"))
+          .map(id -> new UserId(id.getName().substring("user:".length()))))
+        .collect(Collectors.toUnmodifiableList());
+
+      this.approverCache.put(key, approvers);
+    }
+
+    return approvers;
+  }
+
+  /**
+   * Classify the role bindings of a policy analysis as activated,
+   * JIT-eligible, or MPA-eligible in a single pass.
+   *
+   * @return project roles, ordered by resource name
+   */
+  static List<ProjectRole> classifyProjectRoles(IamPolicyAnalysis analysisResult) {
+    //
+    // Use sets to remove duplicates, but keep the order in which
+    // we encounter bindings.
+    //
+    var activatedBindings = new LinkedHashSet<RoleBinding>();
+    var jitEligibleBindings = new LinkedHashSet<RoleBinding>();
+    var mpaEligibleBindings = new LinkedHashSet<RoleBinding>();
+
+    if (analysisResult.getAnalysisResults() != null) {
+      for (var result : analysisResult.getAnalysisResults()) {
+        if (result.getIamBinding() == null || result.getAccessControlLists() == null) {
+          continue;
+        }
+
+        //
+        // Classify the condition once per binding, not once per ACL.
+        //
+        var classification = JitConstraints.classify(result.getIamBinding().getCondition());
+        if (classification == JitConstraints.Classification.OTHER) {
+          continue;
+        }
+
+        for (var acl : result.getAccessControlLists()) {
+          var evalResult = acl.getConditionEvaluation() != null
+            ? acl.getConditionEvaluation().getEvaluationValue()
+            : null;
+
+          //
+          // Role bindings which have already been activated have a time
+          // condition that we created, and the condition evaluates to
+          // true (indicating it's still valid).
+          //
+          // Eligible role bindings are conditional and have a special
+          // condition that serves as marker.
+          //
+          Set<RoleBinding> bucket;
+          if (classification == JitConstraints.Classification.ACTIVATED &&
+            "TRUE".equalsIgnoreCase(evalResult)) {
+            bucket = activatedBindings;
+          }
+          else if (classification == JitConstraints.Classification.JIT &&
+            "CONDITIONAL".equalsIgnoreCase(evalResult)) {
+            bucket = jitEligibleBindings;
+          }
+          else if (classification == JitConstraints.Classification.MPA &&
+            "CONDITIONAL".equalsIgnoreCase(evalResult)) {
+            bucket = mpaEligibleBindings;
+          }
+          else {
+            continue;
+          }
+
+          for (var resource : acl.getResources()) {
+            if (ProjectId.isProjectFullResourceName(resource.getFullResourceName())) {
+              bucket.add(new RoleBinding(
+                resource.getFullResourceName(),
+                result.getIamBinding().getRole()));
+            }
+          }
+        }
+      }
+    }
+
+    //
+    // Merge the three buckets. Activated bindings take precedence
+    // over eligible bindings.
+    //
+    var roles = new ArrayList<ProjectRole>(
+      jitEligibleBindings.size() + mpaEligibleBindings.size() + activatedBindings.size());
+
+    for (var binding : jitEligibleBindings) {
+      if (!activatedBindings.contains(binding)) {
+        roles.add(new ProjectRole(binding, ProjectRole.Status.ELIGIBLE_FOR_JIT));
+      }
+    }
+
+    for (var binding : mpaEligibleBindings) {
+      if (!activatedBindings.contains(binding)) {
+        roles.add(new ProjectRole(binding, ProjectRole.Status.ELIGIBLE_FOR_MPA));
+      }
+    }
+
+    for (var binding : activatedBindings) {
+      roles.add(new ProjectRole(binding, ProjectRole.Status.ACTIVATED));
+    }
+
+    roles.sort(Comparator.comparing(r -> r.roleBinding.fullResourceName));
+    return roles;
   }
 
   private static List<RoleBinding> findRoleBindings(
@@ -104,46 +444,259 @@ public class RoleDiscoveryService {
   }
 
 
+  /**
+   * Find projects available to a user, sorted by project ID, using
+   * the index or cached results if possible.
+   *
+   * NB. The index only contains projects in which the user has eligible
+   * or activated role bindings, so projects in which the user only has
+   * permanent role bindings are omitted if the index is used. The index
+   * is therefore only used if that's enabled explicitly.
+   */
+  private List<ProjectId> findAvailableProjects(
+    UserId user
+  ) throws AccessException, IOException {
+    try (var step = Tracing.startStep(this.tracer, "RoleDiscoveryService.findAvailableProjects")) {
+      step.setAttribute(Tracing.SCOPE, this.options.scope);
+
+      var index = getCurrentProjectsIndex(user);
+      var projects = index.isPresent()
+        ? index.get().listProjects(user, Instant.now())
+        : this.projectCache.getIfPresent(user);
+
+      if (projects == null) {
+        //
+        // Use Asset API to search projects on which the user has been
+        // granted the 'resourcemanager.projects.get' permission.
+        //
+        // Always expand resources.
+        //
+        var analysisResult = findAccessibleResourcesByUser(
+          user,
+          Optional.of("resourcemanager.projects.get"),
+          Optional.empty(),
+          true);
+
+        // Consider permanent and eligible bindings.
+        var roleBindings = findRoleBindings(
+          analysisResult,
+          condition -> condition == null ||
+            JitConstraints.isJitAccessConstraint(condition) ||
+            JitConstraints.isMultiPartyApprovalConstraint(condition),
+          evalResult -> evalResult == null ||
+            "TRUE".equalsIgnoreCase(evalResult) ||
+            "CONDITIONAL".equalsIgnoreCase(evalResult));
+
+        projects = roleBindings
+          .stream()
+          .map(b -> ProjectId.fromFullResourceName(b.fullResourceName))
+          .distinct()
+          .sorted(Comparator.comparing(p -> p.id))
+          .collect(Collectors.toUnmodifiableList());
+
+        this.projectCache.put(user, projects);
+      }
+
+      step.setAttribute(Tracing.RESULT_COUNT, (long)projects.size());
+      return step.succeeded(projects);
+    }
+  }
+
+  /**
+   * Find the index of the first project whose ID is greater than
+   * (or equal to, if inclusive) the given ID.
+   */
+  private static int findProjectIndex(
+    List<ProjectId> sortedProjects,
+    String id,
+    boolean inclusive
+  ) {
+    int low = 0;
+    int high = sortedProjects.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int comparison = sortedProjects.get(mid).id.compareTo(id);
+      if (comparison < 0 || (comparison == 0 && !inclusive)) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
   /**
    * List projects available to the given user. The user may or may not have
    * eligible roles in these projects.
+   *
+   * The set is ordered by project ID.
    */
   public Set<ProjectId> listAvailableProjects(
     UserId user
   ) throws AccessException, IOException {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(findAvailableProjects(user)));
+  }
+
+  /**
+   * List a page of projects available to the given user, ordered by
+   * project ID.
+   *
+   * @param prefix only include projects whose ID starts with this prefix.
+   * @param startAfter only include projects whose ID sorts after this one,
+   *                   typically the last project of the previous page.
+   * @param maxResults maximum number of projects to include.
+   */
+  public Page<ProjectId> listAvailableProjects(
+    UserId user,
+    String prefix,
+    Optional<ProjectId> startAfter,
+    int maxResults
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(prefix, "prefix");
+    Preconditions.checkNotNull(startAfter, "startAfter");
+    Preconditions.checkArgument(maxResults > 0, "maxResults");
+
+    var projects = findAvailableProjects(user);
+
     //
-    // Use Asset API to search projects on which the user has been
-    // granted the 'resourcemanager.projects.get' permission.
+    // The list is sorted, so projects with the same prefix form
+    // a contiguous range.
     //
-    // Always expand resources.
+    var start = findProjectIndex(projects, prefix, true);
+    if (startAfter.isPresent()) {
+      start = Math.max(start, findProjectIndex(projects, startAfter.get().id, false));
+    }
+
+    var end = start;
+    while (end < projects.size() &&
+      end - start < maxResults &&
+      projects.get(end).id.startsWith(prefix)) {
+      end++;
+    }
+
+    return new Page<>(
+      List.copyOf(projects.subList(start, end)),
+      end < projects.size() && projects.get(end).id.startsWith(prefix));
+  }
+
+  /**
+   * List a page of projects available to the given user whose ID
+   * contains the given text, ordered by project ID.
+   *
+   * @param text only include projects whose ID contains this text.
+   * @param startAfter only include projects whose ID sorts after this one,
+   *                   typically the last project of the previous page.
+   * @param maxResults maximum number of projects to include.
+   */
+  public Page<ProjectId> searchAvailableProjects(
+    UserId user,
+    String text,
+    Optional<ProjectId> startAfter,
+    int maxResults
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(text, "text");
+    Preconditions.checkNotNull(startAfter, "startAfter");
+    Preconditions.checkArgument(maxResults > 0, "maxResults");
+
+    var projects = findAvailableProjects(user);
+
     //
-    var analysisResult = this.assetInventoryAdapter.findAccessibleResourcesByUser(
-      this.options.scope,
-      user,
-      Optional.of("resourcemanager.projects.get"),
-      Optional.empty(),
-      true);
-
-    // Consider permanent and eligible bindings.
-    var roleBindings = findRoleBindings(
-      analysisResult,
-      condition -> condition == null ||
-        JitConstraints.isJitAccessConstraint(condition) ||
-        JitConstraints.isMultiPartyApprovalConstraint(condition),
-      evalResult -> evalResult == null ||
-        "TRUE".equalsIgnoreCase(evalResult) ||
-        "CONDITIONAL".equalsIgnoreCase(evalResult));
-
-    return roleBindings
-      .stream()
-      .map(b -> ProjectId.fromFullResourceName(b.fullResourceName))
-      .collect(Collectors.toSet());
+    // Matches can be anywhere in the list, so we have to scan it.
+    //
+    var index = startAfter.isPresent()
+      ? findProjectIndex(projects, startAfter.get().id, false)
+      : 0;
+
+    var matches = new ArrayList<ProjectId>();
+    for (; index < projects.size() && matches.size() < maxResults; index++) {
+      if (projects.get(index).id.contains(text)) {
+        matches.add(projects.get(index));
+      }
+    }
+
+    return new Page<>(
+      List.copyOf(matches),
+      projects
+        .subList(index, projects.size())
+        .stream()
+        .anyMatch(p -> p.id.contains(text)));
   }
 
   /**
-   * List eligible role bindings for the given user.
+   * Check if the projects available to the given user are cached
+   * or indexed.
    */
-  public Result<ProjectRole> listEligibleProjectRoles(
+  public boolean isAvailableProjectsCached(UserId user) {
+    Preconditions.checkNotNull(user, "user");
+
+    return getCurrentProjectsIndex(user).isPresent() ||
+      this.projectCache.getIfPresent(user) != null;
+  }
+
+  /**
+   * List projects for which the given user recently listed eligible
+   * roles, most recent first.
+   */
+  public List<ProjectId> listRecentProjects(UserId user) {
+    Preconditions.checkNotNull(user, "user");
+
+    var projects = this.recentProjects.getIfPresent(user);
+    return projects != null ? projects : List.of();
+  }
+
+  /**
+   * Populate the caches with the projects available to the given user,
+   * and the eligible roles for up to maxProjects recently used projects.
+   */
+  void warmCaches(
+    UserId user,
+    int maxProjects
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkArgument(maxProjects >= 0, "maxProjects");
+
+    findAvailableProjects(user);
+
+    var recentProjects = listRecentProjects(user);
+    for (var projectId : recentProjects.subList(0, Math.min(maxProjects, recentProjects.size()))) {
+      findEligibleProjectRoles(user, projectId);
+    }
+  }
+
+  /**
+   * Find eligible role bindings for the given user, using the index
+   * if possible.
+   */
+  private Result<ProjectRole> findEligibleProjectRoles(
+    UserId user,
+    ProjectId projectId
+  ) throws AccessException, IOException {
+    try (var step = Tracing.startStep(this.tracer, "RoleDiscoveryService.findEligibleProjectRoles")) {
+      step.setAttribute(Tracing.PROJECT, projectId.id);
+
+      var index = getCurrentIndex(user, Optional.of(projectId));
+      var roles = index.isPresent()
+        ? new Result<>(index.get().listProjectRoles(user, projectId, Instant.now()), List.of())
+        : analyzeEligibleProjectRoles(user, projectId);
+
+      step.setAttribute(Tracing.ROLE_COUNT, (long)roles.getItems().size());
+      return step.succeeded(roles);
+    }
+  }
+
+  /**
+   * Find eligible role bindings for the given user by analyzing
+   * policies, bypassing the index.
+   *
+   * The index might lag behind changes to IAM policies, so use this
+   * method (instead of listEligibleProjectRoles) to check whether a
+   * user is allowed to activate a role.
+   */
+  public Result<ProjectRole> analyzeEligibleProjectRoles(
     UserId user,
     ProjectId projectId
   ) throws AccessException, IOException {
@@ -163,75 +716,182 @@ public class RoleDiscoveryService {
     // admin role.
     //
 
-    var analysisResult = this.assetInventoryAdapter.findAccessibleResourcesByUser(
-      this.options.scope,
+    try (var step = Tracing.startStep(this.tracer, "RoleDiscoveryService.analyzeEligibleProjectRoles")) {
+      step.setAttribute(Tracing.PROJECT, projectId.id);
+
+      var analysisResult = findAccessibleResourcesByUser(
+        user,
+        Optional.empty(),
+        Optional.of(projectId.getFullResourceName()),
+        false);
+
+      var consolidatedRoles = classifyProjectRoles(analysisResult);
+
+      step.setAttribute(Tracing.ROLE_COUNT, (long)consolidatedRoles.size());
+      return step.succeeded(new Result<>(
+        consolidatedRoles,
+        Stream.ofNullable(analysisResult.getNonCriticalErrors())
+          .flatMap(Collection::stream)
+          .map(e -> e.getCause())
+          .collect(Collectors.toList())));
+    }
+  }
+
+  /**
+   * List eligible role bindings for the given user.
+   */
+  public Result<ProjectRole> listEligibleProjectRoles(
+    UserId user,
+    ProjectId projectId
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(projectId, "projectId");
+
+    this.recentProjects.asMap().compute(
       user,
-      Optional.empty(),
-      Optional.of(projectId.getFullResourceName()),
-      false);
+      (u, projects) -> Stream.concat(
+          Stream.of(projectId),
+          Stream.ofNullable(projects).flatMap(List::stream).filter(p -> !p.equals(projectId)))
+        .limit(MAX_RECENT_PROJECTS)
+        .collect(Collectors.toUnmodifiableList()));
 
-    //
-    // Find role bindings which have already been activated.
-    // These bindings have a time condition that we created, and
-    // the condition evaluates to true (indicating it's still
-    // valid).
-    //
-    var activatedRoles = findRoleBindings(
-      analysisResult,
-      condition -> JitConstraints.isActivated(condition),
-      evalResult -> "TRUE".equalsIgnoreCase(evalResult))
-      .stream()
-      .map(binding -> new ProjectRole(binding, ProjectRole.Status.ACTIVATED))
-      .collect(Collectors.toList());
+    return findEligibleProjectRoles(user, projectId);
+  }
 
-    //
-    // Find all JIT-eligible role bindings. The bindings are
-    // conditional and have a special condition that serves
-    // as marker.
-    //
-    var jitEligibleRoles = findRoleBindings(
-      analysisResult,
-      condition -> JitConstraints.isJitAccessConstraint(condition),
-      evalResult -> "CONDITIONAL".equalsIgnoreCase(evalResult))
-      .stream()
-      .map(binding -> new ProjectRole(binding, ProjectRole.Status.ELIGIBLE_FOR_JIT))
-      .collect(Collectors.toList());
+  /**
+   * List eligible role bindings for the given user across all projects
+   * that are available to them.
+   *
+   * Projects are analyzed in parallel, but each call only analyzes a
+   * limited number of projects at a time so that a user with many projects
+   * can't monopolize the executor. Projects that can't be analyzed within
+   * the configured timeout are skipped and reported as warnings.
+   */
+  public Result<ProjectRole> listAllEligibleProjectRoles(
+    UserId user
+  ) throws AccessException, IOException {
+    Preconditions.checkNotNull(user, "user");
 
     //
-    // Find all MPA-eligible role bindings. The bindings are
-    // conditional and have a special condition that serves
-    // as marker.
+    // The timeout covers listing projects as well as analyzing them. Make
+    // it the current deadline so that it also limits the API calls.
     //
-    var mpaEligibleRoles = findRoleBindings(
-      analysisResult,
-      condition -> JitConstraints.isMultiPartyApprovalConstraint(condition),
-      evalResult -> "CONDITIONAL".equalsIgnoreCase(evalResult))
-      .stream()
-      .map(binding -> new ProjectRole(binding, ProjectRole.Status.ELIGIBLE_FOR_MPA))
-      .collect(Collectors.toList());
+    var deadline = Deadline.after(Deadline.limit(this.options.analysisTimeout));
+    try (var scope = deadline.makeCurrent()) {
+      var projectIds = findAvailableProjects(user);
+      var futures = analyzeProjects(user, projectIds, deadline);
 
+      var roles = new ArrayList<ProjectRole>();
+      var warnings = new ArrayList<String>();
+      for (int i = 0; i < projectIds.size(); i++) {
+        var projectId = projectIds.get(i);
+        var future = i < futures.size() ? futures.get(i) : null;
+
+        if (future == null || future.isCancelled()) {
+          warnings.add(String.format("Listing roles for project %s timed out", projectId));
+          continue;
+        }
+
+        try {
+          var projectRoles = future.get();
+
+          roles.addAll(projectRoles.getItems());
+          if (projectRoles.getWarnings() != null) {
+            warnings.addAll(projectRoles.getWarnings());
+          }
+        }
+        catch (ExecutionException e) {
+          warnings.add(String.format(
+            "Listing roles for project %s failed: %s",
+            projectId,
+            e.getCause().getMessage()));
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Listing eligible roles was interrupted", e);
+        }
+      }
+
+      return new Result<>(
+        roles.stream()
+          .sorted(Comparator.comparing(r -> r.roleBinding.fullResourceName))
+          .collect(Collectors.toList()),
+        warnings);
+    }
+  }
+
+  /**
+   * Analyze projects in parallel, keeping at most a limited number of
+   * analyses in flight.
+   *
+   * @return futures in the same order as the projects. Projects that couldn't
+   * be started before the deadline are missing, and analyses that didn't
+   * complete before the deadline are cancelled.
+   */
+  private List<Future<Result<ProjectRole>>> analyzeProjects(
+    UserId user,
+    List<ProjectId> projectIds,
+    Deadline deadline
+  ) throws IOException {
     //
-    // Merge the three lists.
-    //
-    // NB. We can't use !activatedRoles.contains(...)
-    // because of the different binding statuses.
+    // Propagate the current context so that the spans of the
+    // individual projects become children of the current span.
     //
-    var allEligibleRoles = Stream.concat(jitEligibleRoles.stream(), mpaEligibleRoles.stream());
-    var consolidatedRoles = allEligibleRoles
-      .filter(r -> !activatedRoles
-        .stream()
-        .anyMatch(a -> a.roleBinding.equals(r.roleBinding)))
-      .collect(Collectors.toList());
-    consolidatedRoles.addAll(activatedRoles);
+    var context = Context.current();
+    var completionService = new ExecutorCompletionService<Result<ProjectRole>>(this.analysisExecutor);
+    var futures = new ArrayList<Future<Result<ProjectRole>>>(projectIds.size());
 
-    return new Result<>(
-      consolidatedRoles.stream()
-        .sorted(Comparator.comparing(r -> r.roleBinding.fullResourceName))
-        .collect(Collectors.toList()),
-      Stream.ofNullable(analysisResult.getNonCriticalErrors())
-        .flatMap(Collection::stream)
-        .map(e -> e.getCause())
-        .collect(Collectors.toList()));
+    try {
+      var completed = 0;
+      while (completed < projectIds.size()) {
+        //
+        // Top up the analyses in flight to the per-call limit.
+        //
+        while (futures.size() < projectIds.size() &&
+          futures.size() - completed < this.options.analysisConcurrencyPerCall) {
+          var projectId = projectIds.get(futures.size());
+          futures.add(completionService.submit(context.wrap(
+            () -> findEligibleProjectRoles(user, projectId))));
+        }
+
+        var remaining = deadline.getRemaining();
+        if (remaining.isZero() ||
+          completionService.poll(remaining.toNanos(), TimeUnit.NANOSECONDS) == null) {
+          break;
+        }
+
+        completed++;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Listing eligible roles was interrupted", e);
+    }
+    finally {
+      //
+      // Cancel analyses that are still running or queued. This
+      // doesn't affect analyses that have completed already.
+      //
+      futures.forEach(f -> f.cancel(true));
+    }
+
+    return futures;
+  }
+
+  /**
+   * Discard cached information about a user's roles in a project, typically
+   * because the user's role bindings have changed.
+   */
+  public void invalidateEligibleProjectRoles(
+    UserId user,
+    ProjectId projectId
+  ) {
+    Preconditions.checkNotNull(user, "user");
+    Preconditions.checkNotNull(projectId, "projectId");
+
+    var key = createProjectRolesCacheKey(user, projectId);
+    this.analysisCache.invalidate(key);
+    this.staleProjectRoles.put(key, Instant.now());
   }
 
   /**
@@ -250,44 +910,39 @@ public class RoleDiscoveryService {
     // Check that the (calling) user is really allowed to request approval
     // this role.
     //
-    var projectId = ProjectId.fromFullResourceName(roleBinding.fullResourceName);
-
-    var eligibleRoles = listEligibleProjectRoles(callerUserId, projectId);
-    if (!eligibleRoles
-      .getItems()
-      .stream()
-      .filter(pr -> pr.roleBinding.equals(roleBinding))
-      .filter(pr -> pr.status == ProjectRole.Status.ELIGIBLE_FOR_MPA)
-      .findAny()
-      .isPresent()) {
-      throw new AccessDeniedException(
-        String.format("The user %s is not eligible to request approval for this role", callerUserId));
-    }
-
-    //
-    // Find other eligible users.
+    // NB. This uses the cached policy analysis, if available, but
+    // never the index.
     //
-    var analysisResult = this.assetInventoryAdapter.findPermissionedPrincipalsByResource(
-      this.options.scope,
-      roleBinding.fullResourceName,
-      roleBinding.role);
+    var projectId = ProjectId.fromFullResourceName(roleBinding.fullResourceName);
 
-    return Stream.ofNullable(analysisResult.getAnalysisResults())
-      .flatMap(Collection::stream)
+    try (var step = Tracing.startStep(this.tracer, "RoleDiscoveryService.listApproversForProjectRole")) {
+      step
+        .setAttribute(Tracing.PROJECT, projectId.id)
+        .setAttribute(Tracing.ROLE, roleBinding.role);
 
-      // Narrow down to IAM bindings with an MPA constraint.
-      .filter(result -> result.getIamBinding() != null &&
-        JitConstraints.isMultiPartyApprovalConstraint(result.getIamBinding().getCondition()))
+      var eligibleRoles = analyzeEligibleProjectRoles(callerUserId, projectId);
+      if (!eligibleRoles
+        .getItems()
+        .stream()
+        .filter(pr -> pr.roleBinding.equals(roleBinding))
+        .filter(pr -> pr.status == ProjectRole.Status.ELIGIBLE_FOR_MPA)
+        .findAny()
+        .isPresent()) {
+        throw new AccessDeniedException(
+          String.format("The user %s is not eligible to request approval for this role", callerUserId));
+      }
 
-      // Collect identities (users and group members)
-      .filter(result -> result.getIdentityList() != null)
-      .flatMap(result -> result.getIdentityList().getIdentities().stream()
-        .filter(id -> id.getName().startsWith("user:"))
-        .map(id -> new UserId(id.getName().substring("user:".length()))))
+      //
+      // Find other eligible users.
+      //
+      var approvers = findApprovers(roleBinding)
+        .stream()
+        .filter(user -> !user.equals(callerUserId))
+        .collect(Collectors.toList());
 
-      // Remove the caller.
-      .filter(user -> !user.equals(callerUserId))
-      .collect(Collectors.toList());
+      step.setAttribute(Tracing.RESULT_COUNT, (long)approvers.size());
+      return step.succeeded(approvers);
+    }
   }
 
   // -------------------------------------------------------------------------
@@ -296,15 +951,177 @@ public class RoleDiscoveryService {
 
   public static class Options {
     /**
-     * Scope, organization/ID, folder/ID, or project/ID
+     * Scope, organization/ID, folder/ID, or project/ID, in which
+     * to search inherited IAM policies.
      */
     public final String scope;
 
     /**
-     * Search inherited IAM policies
+     * Duration for which policy analysis results are cached.
+     */
+    public final Duration cacheTimeout;
+
+    /**
+     * Maximum number of policy analysis results to cache.
+     */
+    public final int cacheSize;
+
+    /** Default for analysisConcurrency */
+    public static final int DEFAULT_ANALYSIS_CONCURRENCY = 8;
+
+    /** Default for analysisConcurrencyPerCall */
+    public static final int DEFAULT_ANALYSIS_CONCURRENCY_PER_CALL = 4;
+
+    /** Default for analysisTimeout */
+    public static final Duration DEFAULT_ANALYSIS_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Maximum number of projects to analyze in parallel, across all calls.
+     */
+    public final int analysisConcurrency;
+
+    /**
+     * Maximum number of projects to analyze in parallel for a single call.
+     */
+    public final int analysisConcurrencyPerCall;
+
+    /**
+     * Maximum time to spend on analyzing multiple projects.
+     */
+    public final Duration analysisTimeout;
+
+    public Options(
+      String scope,
+      Duration cacheTimeout,
+      int cacheSize,
+      int analysisConcurrency,
+      int analysisConcurrencyPerCall,
+      Duration analysisTimeout
+    ) {
+      Preconditions.checkNotNull(scope, "scope");
+      Preconditions.checkNotNull(cacheTimeout, "cacheTimeout");
+      Preconditions.checkArgument(cacheSize >= 0, "cacheSize");
+      Preconditions.checkArgument(analysisConcurrency > 0, "analysisConcurrency");
+      Preconditions.checkArgument(analysisConcurrencyPerCall > 0, "analysisConcurrencyPerCall");
+      Preconditions.checkNotNull(analysisTimeout, "analysisTimeout");
+
+      this.scope = scope;
+      this.cacheTimeout = cacheTimeout;
+      this.cacheSize = cacheSize;
+      this.analysisConcurrency = analysisConcurrency;
+      this.analysisConcurrencyPerCall = analysisConcurrencyPerCall;
+      this.analysisTimeout = analysisTimeout;
+    }
+
+    /**
+     * Search inherited IAM policies, using default settings
+     * for parallel analysis.
+     */
+    public Options(String scope, Duration cacheTimeout, int cacheSize) {
+      this(
+        scope,
+        cacheTimeout,
+        cacheSize,
+        DEFAULT_ANALYSIS_CONCURRENCY,
+        DEFAULT_ANALYSIS_CONCURRENCY_PER_CALL,
+        DEFAULT_ANALYSIS_TIMEOUT);
+    }
+
+    /**
+     * Search inherited IAM policies, without caching.
      */
     public Options(String scope) {
+      this(scope, Duration.ZERO, 0);
+    }
+  }
+
+  private static class AnalysisCacheKey {
+    private final String scope;
+    private final UserId user;
+    private final Optional<String> permission;
+    private final Optional<String> fullResourceName;
+    private final boolean expandResources;
+
+    private AnalysisCacheKey(
+      String scope,
+      UserId user,
+      Optional<String> permission,
+      Optional<String> fullResourceName,
+      boolean expandResources
+    ) {
       this.scope = scope;
+      this.user = user;
+      this.permission = permission;
+      this.fullResourceName = fullResourceName;
+      this.expandResources = expandResources;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      var that = (AnalysisCacheKey) o;
+      return this.expandResources == that.expandResources
+        && this.scope.equals(that.scope)
+        && this.user.equals(that.user)
+        && this.permission.equals(that.permission)
+        && this.fullResourceName.equals(that.fullResourceName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+        this.scope,
+        this.user,
+        this.permission,
+        this.fullResourceName,
+        this.expandResources);
+    }
+  }
+
+  private static class ApproverCacheKey {
+    private final String scope;
+    private final String fullResourceName;
+    private final String role;
+
+    private ApproverCacheKey(
+      String scope,
+      String fullResourceName,
+      String role
+    ) {
+      this.scope = scope;
+      this.fullResourceName = fullResourceName;
+      this.role = role;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      var that = (ApproverCacheKey) o;
+      return this.scope.equals(that.scope)
+        && this.fullResourceName.equals(that.fullResourceName)
+        && this.role.equals(that.role);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+        this.scope,
+        this.fullResourceName,
+        this.role);
     }
   }
 }
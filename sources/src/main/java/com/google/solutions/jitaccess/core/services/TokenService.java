@@ -32,12 +32,15 @@ import javax.enterprise.context.ApplicationScoped;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
 
 @ApplicationScoped
 public class TokenService {
   private final IamCredentialsAdapter iamCredentialsAdapter;
   private final Options options;
   private final TokenVerifier tokenVerifier;
+  private final LocalTokenSigner localSigner;
 
   public TokenService(
     IamCredentialsAdapter iamCredentialsAdapter,
@@ -49,15 +52,32 @@ public class TokenService {
     this.options = options;
     this.iamCredentialsAdapter = iamCredentialsAdapter;
 
-    //
-    // Create verifier to check signature and obligatory claims.
-    //
-    this.tokenVerifier = TokenVerifier
-      .newBuilder()
-      .setCertificatesLocation(IamCredentialsAdapter.getJwksUrl(options.serviceAccount))
-      .setIssuer(options.serviceAccount.email)
-      .setAudience(options.serviceAccount.email)
-      .build();
+    if (options.signingMode == SigningMode.LOCAL) {
+      //
+      // Sign and verify tokens using in-memory keys.
+      //
+      this.localSigner = new LocalTokenSigner(
+        options.serviceAccount.email,
+        options.serviceAccount.email,
+        options.keyRotationInterval);
+      this.tokenVerifier = null;
+    }
+    else {
+      //
+      // Create verifier to check signature and obligatory claims.
+      //
+      this.localSigner = null;
+      this.tokenVerifier = TokenVerifier
+        .newBuilder()
+        .setCertificatesLocation(IamCredentialsAdapter.getJwksUrl(options.serviceAccount))
+        .setIssuer(options.serviceAccount.email)
+        .setAudience(options.serviceAccount.email)
+        .build();
+    }
+  }
+
+  public Options getOptions() {
+    return options;
   }
 
   public String createToken(JsonWebToken.Payload payload) throws AccessException, IOException {
@@ -72,9 +92,14 @@ public class TokenService {
       .setIssuer(this.options.serviceAccount.email)
       .setExpirationTimeSeconds(Instant.now().plus(this.options.tokenValidity).getEpochSecond());
 
-    return this.iamCredentialsAdapter.signJwt(
-      this.options.serviceAccount,
-      payload);
+    if (this.localSigner != null) {
+      return this.localSigner.sign(payload);
+    }
+    else {
+      return this.iamCredentialsAdapter.signJwt(
+        this.options.serviceAccount,
+        payload);
+    }
   }
 
   public JsonWebToken.Payload verifyToken(
@@ -84,10 +109,13 @@ public class TokenService {
     Preconditions.checkNotNull(token, "token");
     Preconditions.checkNotNull(expectedSubject, "expectedSubject");
 
-    var decodedToken = this.tokenVerifier.verify(token);
+    var decodedToken = this.localSigner != null
+      ? this.localSigner.verify(token)
+      : this.tokenVerifier.verify(token);
     if (!decodedToken.getHeader().getAlgorithm().equals("RS256")) {
       //
-      // Service account keys are RS256, anything else is fishy.
+      // Service account keys and local keys are RS256, anything
+      // else is fishy.
       //
       throw new TokenVerifier.VerificationException("The token uses the wrong algorithm");
     }
@@ -99,17 +127,58 @@ public class TokenService {
     return decodedToken.getPayload();
   }
 
+  /**
+   * Get the public keys used for signing tokens, as a JSON Web Key Set.
+   * Only available when signing tokens locally.
+   */
+  public Optional<Map<String, Object>> getJwks() {
+    return this.localSigner != null
+      ? Optional.of(this.localSigner.getJwks())
+      : Optional.empty();
+  }
+
   // -------------------------------------------------------------------------
   // Inner classes.
   // -------------------------------------------------------------------------
 
+  public enum SigningMode {
+    /** Sign tokens using the service account's Google-managed key */
+    REMOTE,
+
+    /** Sign tokens using in-memory keys */
+    LOCAL
+  }
+
   public static class Options {
     public final UserId serviceAccount;
     public final Duration tokenValidity;
 
-    public Options(UserId serviceAccount, Duration tokenValidity) {
+    /** How to sign tokens */
+    public final SigningMode signingMode;
+
+    /** Interval at which in-memory keys are rotated, only used for LOCAL */
+    public final Duration keyRotationInterval;
+
+    public Options(
+      UserId serviceAccount,
+      Duration tokenValidity,
+      SigningMode signingMode,
+      Duration keyRotationInterval
+    ) {
+      Preconditions.checkNotNull(signingMode, "signingMode");
+      Preconditions.checkNotNull(keyRotationInterval, "keyRotationInterval");
+      Preconditions.checkArgument(
+        signingMode != SigningMode.LOCAL || keyRotationInterval.compareTo(tokenValidity) >= 0,
+        "The key rotation interval must not be shorter than the token validity");
+
       this.serviceAccount = serviceAccount;
       this.tokenValidity = tokenValidity;
+      this.signingMode = signingMode;
+      this.keyRotationInterval = keyRotationInterval;
+    }
+
+    public Options(UserId serviceAccount, Duration tokenValidity) {
+      this(serviceAccount, tokenValidity, SigningMode.REMOTE, tokenValidity);
     }
   }
 }
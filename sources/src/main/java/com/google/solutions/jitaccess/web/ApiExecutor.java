@@ -0,0 +1,177 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
+import org.eclipse.microprofile.context.ManagedExecutor;
+import org.eclipse.microprofile.context.ThreadContext;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.ServiceUnavailableException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes the blocking part of API requests on a dedicated pool
+ * so that requests don't occupy worker threads while they wait for
+ * Google APIs. That keeps worker threads available for cheap requests,
+ * and limits how many expensive requests run concurrently.
+ *
+ * The request context is propagated to the pool so that request-scoped
+ * beans remain usable.
+ *
+ * Each request gets a deadline that starts when the request is submitted,
+ * so time spent waiting in the queue counts against it. The deadline
+ * follows the request to adapters, which use the remaining time as
+ * their timeouts.
+ *
+ * With a concurrency of 0, requests run inline on the worker thread
+ * instead. That's how requests were processed before this class existed,
+ * and lets load tests compare both modes against the same build.
+ */
+@ApplicationScoped
+public class ApiExecutor implements AutoCloseable {
+  private final ExecutorService executor;
+  private final Duration requestTimeout;
+
+  @Inject
+  public ApiExecutor(Options options) {
+    this(
+      options.isInline()
+        ? MoreExecutors.newDirectExecutorService()
+        : ManagedExecutor.builder()
+          .maxAsync(options.concurrency)
+          .maxQueued(options.queueSize)
+          .propagated(ThreadContext.CDI)
+          .cleared(ThreadContext.ALL_REMAINING)
+          .build(),
+      options.requestTimeout);
+  }
+
+  ApiExecutor(ExecutorService executor, Duration requestTimeout) {
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkNotNull(requestTimeout, "requestTimeout");
+
+    this.executor = executor;
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * Run a task on behalf of the current request.
+   *
+   * @return stage that completes with the result or exception of the task.
+   * If the request's deadline passes before the task runs, the stage
+   * completes with a DeadlineExceededException.
+   */
+  public <T> CompletionStage<T> submit(Callable<T> task) {
+    var deadline = Deadline.after(this.requestTimeout);
+
+    //
+    // The request continues on another thread, so take the
+    // request's trace context and deadline along.
+    //
+    var context = TracingRequestFilter.detachContext().with(deadline);
+
+    var result = new CompletableFuture<T>();
+    try {
+      this.executor.execute(() -> {
+        if (deadline.isExpired()) {
+          //
+          // The request spent its entire budget in the queue.
+          //
+          result.completeExceptionally(deadline.exceeded(null));
+          return;
+        }
+
+        try (var scope = context.makeCurrent()) {
+          result.complete(task.call());
+        }
+        catch (Exception e) {
+          result.completeExceptionally(e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      result.completeExceptionally(
+        new ServiceUnavailableException("The server is too busy, try again later"));
+    }
+
+    return result;
+  }
+
+  @PreDestroy
+  @Override
+  public void close() {
+    this.executor.shutdownNow();
+  }
+
+  // -------------------------------------------------------------------------
+  // Inner classes.
+  // -------------------------------------------------------------------------
+
+  public static class Options {
+    /**
+     * Maximum number of requests to process in parallel, or 0 to
+     * process requests inline on the worker thread.
+     */
+    public final int concurrency;
+
+    /**
+     * Maximum number of requests waiting to be processed. Requests
+     * beyond that are rejected.
+     */
+    public final int queueSize;
+
+    /**
+     * Time by which a request must complete, including the time it
+     * spends waiting to be processed.
+     */
+    public final Duration requestTimeout;
+
+    public Options(int concurrency, int queueSize, Duration requestTimeout) {
+      Preconditions.checkArgument(concurrency >= 0, "concurrency");
+      Preconditions.checkArgument(queueSize > 0, "queueSize");
+      Preconditions.checkNotNull(requestTimeout, "requestTimeout");
+      Preconditions.checkArgument(!requestTimeout.isNegative() && !requestTimeout.isZero(), "requestTimeout");
+
+      this.concurrency = concurrency;
+      this.queueSize = queueSize;
+      this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Check if requests are processed inline, without a dedicated pool.
+     */
+    public boolean isInline() {
+      return this.concurrency == 0;
+    }
+  }
+}
@@ -21,16 +21,20 @@
 
 package com.google.solutions.jitaccess.web;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Preconditions;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
-import com.google.solutions.jitaccess.core.AccessException;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
 import com.google.solutions.jitaccess.core.adapters.LogAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.RoleBinding;
 import com.google.solutions.jitaccess.core.data.UserPrincipal;
+import com.google.solutions.jitaccess.core.services.Page;
 import com.google.solutions.jitaccess.core.services.RoleActivationService;
 import com.google.solutions.jitaccess.core.services.RoleDiscoveryService;
+import com.google.solutions.jitaccess.core.services.TokenService;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
@@ -38,7 +42,10 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 /**
@@ -47,6 +54,8 @@ import java.util.stream.Collectors;
 @Dependent
 @Path("/api/")
 public class ApiResource {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory()
+    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
   @Inject
   RoleDiscoveryService roleDiscoveryService;
@@ -54,9 +63,15 @@ public class ApiResource {
   @Inject
   RoleActivationService roleActivationService;
 
+  @Inject
+  TokenService tokenService;
+
   @Inject
   LogAdapter logAdapter;
 
+  @Inject
+  ApiExecutor executor;
+
   /**
    * Return friendly error to browsers that still have the 1.0 frontend cached.
    */
@@ -87,33 +102,110 @@ public class ApiResource {
   }
 
   /**
-   * List projects that the calling user can access.
+   * Get the public keys used for signing approval tokens. Only available if
+   * tokens are signed locally.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("jwks")
+  public Map<String, Object> getJwks() {
+    Preconditions.checkNotNull(tokenService, "tokenService");
+
+    return this.tokenService
+      .getJwks()
+      .orElseThrow(() -> new NotFoundException("Approval tokens are not signed locally"));
+  }
+
+  /**
+   * List projects that the calling user can access, ordered by project ID.
+   *
+   * The list can be filtered by a prefix, or by a query that matches
+   * any part of the project ID, but not both.
+   *
+   * If a page size is specified, the response contains at most that many
+   * projects, plus a cursor for retrieving the next page.
    */
   @GET
   @Produces(MediaType.APPLICATION_JSON)
   @Path("projects")
-  public ProjectsResponseEntity listProjects(
+  public CompletionStage<StreamingOutput> listProjects(
+    @QueryParam("prefix") @DefaultValue("") String prefix,
+    @QueryParam("query") @DefaultValue("") String query,
+    @QueryParam("cursor") String cursor,
+    @QueryParam("pageSize") @DefaultValue("0") int pageSize,
     @Context SecurityContext securityContext
-  ) throws AccessException {
+  ) {
     Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
 
+    Preconditions.checkArgument(pageSize >= 0, "pageSize must not be negative");
+    Preconditions.checkArgument(
+      prefix.isBlank() || query.isBlank(),
+      "prefix and query must not be used together");
+    var startAfter = cursor != null && !cursor.isEmpty()
+      ? Optional.of(decodeProjectsCursor(cursor))
+      : Optional.<ProjectId>empty();
+
     var iapPrincipal = (UserPrincipal) securityContext.getUserPrincipal();
 
-    try {
-      var projects = this.roleDiscoveryService.listAvailableProjects(iapPrincipal.getId());
+    return this.executor.submit(() -> {
+      Page<ProjectId> page;
+      try {
+        //
+        // NB. Project IDs are always lower case.
+        //
+        var maxResults = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+        if (!query.isBlank()) {
+          page = this.roleDiscoveryService.searchAvailableProjects(
+            iapPrincipal.getId(),
+            query.trim().toLowerCase(),
+            startAfter,
+            maxResults);
+        }
+        else {
+          page = this.roleDiscoveryService.listAvailableProjects(
+            iapPrincipal.getId(),
+            prefix.trim().toLowerCase(),
+            startAfter,
+            maxResults);
+        }
+      }
+      catch (Exception e) {
+        this.logAdapter
+          .newErrorEntry(
+            LogEvents.API_LIST_ELIGIBLE_ROLES,
+            String.format("Listing available projects failed: %s", e.getMessage()))
+          .write();
 
-      return new ProjectsResponseEntity(
-        projects.stream().map(p -> p.id).collect(Collectors.toSet()));
-    }
-    catch (Exception e) {
-      this.logAdapter
-        .newErrorEntry(
-          LogEvents.API_LIST_ELIGIBLE_ROLES,
-          String.format("Listing available projects failed: %s", e.getMessage()))
-        .write();
-
-      throw new AccessDeniedException("Listing available projects failed, see logs for details");
-    }
+        if (e instanceof DeadlineExceededException) {
+          throw e;
+        }
+
+        throw new AccessDeniedException("Listing available projects failed, see logs for details");
+      }
+
+      //
+      // Write the response directly instead of building a
+      // ProjectsResponseEntity first.
+      //
+      return output -> {
+        try (var generator = JSON_FACTORY.createGenerator(output)) {
+          generator.writeStartObject();
+          generator.writeArrayFieldStart("projects");
+          for (var projectId : page.getItems()) {
+            generator.writeString(projectId.id);
+          }
+          generator.writeEndArray();
+
+          if (page.isTruncated() && !page.getItems().isEmpty()) {
+            generator.writeStringField(
+              "nextCursor",
+              encodeProjectsCursor(page.getItems().get(page.getItems().size() - 1)));
+          }
+
+          generator.writeEndObject();
+        }
+      };
+    });
   }
 
   /**
@@ -122,10 +214,10 @@ public class ApiResource {
   @GET
   @Produces(MediaType.APPLICATION_JSON)
   @Path("projects/{projectId}/roles")
-  public ProjectRolesResponseEntity listEligibleRoleBindings(
+  public CompletionStage<ProjectRolesResponseEntity> listEligibleRoleBindings(
     @PathParam("projectId") String projectId,
     @Context SecurityContext securityContext
-  ) throws AccessException {
+  ) {
     Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
 
     Preconditions.checkArgument(
@@ -135,24 +227,67 @@ public class ApiResource {
 
     var iapPrincipal = (UserPrincipal) securityContext.getUserPrincipal();
 
-    try {
-      var bindings = this.roleDiscoveryService.listEligibleProjectRoles(
-        iapPrincipal.getId(),
-        new ProjectId(projectId));
+    return this.executor.submit(() -> {
+      try {
+        var bindings = this.roleDiscoveryService.listEligibleProjectRoles(
+          iapPrincipal.getId(),
+          new ProjectId(projectId));
 
-      return new ProjectRolesResponseEntity(
-        bindings.getItems(),
-        bindings.getWarnings());
-    }
-    catch (Exception e) {
-      this.logAdapter
-        .newErrorEntry(
-          LogEvents.API_LIST_ELIGIBLE_ROLES,
-          String.format("Listing project roles failed: %s", e.getMessage()))
-        .write();
-
-      throw new AccessDeniedException("Listing project roles failed, see logs for details");
-    }
+        return new ProjectRolesResponseEntity(
+          bindings.getItems(),
+          bindings.getWarnings());
+      }
+      catch (Exception e) {
+        this.logAdapter
+          .newErrorEntry(
+            LogEvents.API_LIST_ELIGIBLE_ROLES,
+            String.format("Listing project roles failed: %s", e.getMessage()))
+          .write();
+
+        if (e instanceof DeadlineExceededException) {
+          throw e;
+        }
+
+        throw new AccessDeniedException("Listing project roles failed, see logs for details");
+      }
+    });
+  }
+
+  /**
+   * List eligible roles across all projects that the calling user can access.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("roles")
+  public CompletionStage<ProjectRolesResponseEntity> listAllEligibleRoleBindings(
+    @Context SecurityContext securityContext
+  ) {
+    Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
+
+    var iapPrincipal = (UserPrincipal) securityContext.getUserPrincipal();
+
+    return this.executor.submit(() -> {
+      try {
+        var bindings = this.roleDiscoveryService.listAllEligibleProjectRoles(iapPrincipal.getId());
+
+        return new ProjectRolesResponseEntity(
+          bindings.getItems(),
+          bindings.getWarnings());
+      }
+      catch (Exception e) {
+        this.logAdapter
+          .newErrorEntry(
+            LogEvents.API_LIST_ELIGIBLE_ROLES,
+            String.format("Listing roles across projects failed: %s", e.getMessage()))
+          .write();
+
+        if (e instanceof DeadlineExceededException) {
+          throw e;
+        }
+
+        throw new AccessDeniedException("Listing roles across projects failed, see logs for details");
+      }
+    });
   }
 
   /**
@@ -163,11 +298,11 @@ public class ApiResource {
   @Consumes(MediaType.APPLICATION_JSON)
   @Produces(MediaType.APPLICATION_JSON)
   @Path("projects/{projectId}/roles/self-activate")
-  public SelfActivationResponseEntity selfActivateProjectRoles(
+  public CompletionStage<SelfActivationResponseEntity> selfActivateProjectRoles(
     @PathParam("projectId") String projectIdString,
     SelfActivationRequestEntity request,
     @Context SecurityContext securityContext
-  ) throws AccessDeniedException {
+  ) {
     Preconditions.checkNotNull(roleDiscoveryService, "roleDiscoveryService");
 
     Preconditions.checkArgument(
@@ -191,18 +326,91 @@ public class ApiResource {
       .map(r -> new RoleBinding(projectId.getFullResourceName(), r))
       .collect(Collectors.toSet());
 
-    var activations = new ArrayList<RoleActivationService.Activation>();
-    for (var roleBinding : roleBindings) {
+    return this.executor.submit(() -> {
+      //
+      // Activate all roles in a single batch. This is not only faster, but
+      // also ensures that either all or none of the roles are activated.
+      //
+      List<RoleActivationService.Activation> activations;
       try {
-        var activation = this.roleActivationService.activateProjectRole(
+        activations = this.roleActivationService.activateProjectRoles(
           iapPrincipal.getId(),
           iapPrincipal.getId(),
-          roleBinding,
+          roleBindings,
           RoleActivationService.ActivationType.JIT,
           request.justification);
+      }
+      catch (AccessDeniedException e) {
+        for (var roleBinding : roleBindings) {
+          this.logAdapter
+            .newErrorEntry(
+              LogEvents.API_ACTIVATE_ROLE,
+              String.format(
+                "User %s was denied to activated role '%s' on '%s' for themselves, justified by '%s': %s",
+                iapPrincipal.getId(),
+                roleBinding.role,
+                roleBinding.fullResourceName,
+                request.justification,
+                e.getMessage()))
+            .addLabel("role", roleBinding.role)
+            .addLabel("resource", roleBinding.fullResourceName)
+            .addLabel("justification", request.justification)
+            .write();
+        }
+
+        throw e;
+      }
+      catch (DeadlineExceededException e) {
+        //
+        // The activation might still complete, so don't report it
+        // as failed.
+        //
+        for (var roleBinding : roleBindings) {
+          this.logAdapter
+            .newErrorEntry(
+              LogEvents.API_ACTIVATE_ROLE,
+              String.format(
+                "User %s timed out activating role '%s' on '%s' for themselves, justified by '%s', " +
+                  "the role might have been activated nonetheless: %s",
+                iapPrincipal.getId(),
+                roleBinding.role,
+                roleBinding.fullResourceName,
+                request.justification,
+                e.getMessage()))
+            .addLabel("role", roleBinding.role)
+            .addLabel("resource", roleBinding.fullResourceName)
+            .addLabel("justification", request.justification)
+            .write();
+        }
+
+        throw e;
+      }
+      catch (Exception e) {
+        for (var roleBinding : roleBindings) {
+          this.logAdapter
+            .newErrorEntry(
+              LogEvents.API_ACTIVATE_ROLE,
+              String.format(
+                "User %s failed to activate role '%s' on '%s' for themselves, justified by '%s': %s",
+                iapPrincipal.getId(),
+                roleBinding.role,
+                roleBinding.fullResourceName,
+                request.justification,
+                e.getMessage()))
+            .addLabel("role", roleBinding.role)
+            .addLabel("resource", roleBinding.fullResourceName)
+            .addLabel("justification", request.justification)
+            .write();
+        }
+
+        throw new AccessDeniedException("Activating role failed", e);
+      }
+
+      assert activations != null;
+      assert activations.size() == roleBindings.size();
 
-        assert activation != null;
-        activations.add(activation);
+      for (var activation : activations) {
+        var roleBinding = activation.projectRole.roleBinding;
 
         this.logAdapter
           .newInfoEntry(
@@ -218,47 +426,39 @@ public class ApiResource {
           .addLabel("justification", request.justification)
           .write();
       }
-      catch (AccessDeniedException e) {
-        this.logAdapter
-          .newErrorEntry(
-            LogEvents.API_ACTIVATE_ROLE,
-            String.format(
-              "User %s was denied to activated role '%s' on '%s' for themselves, justified by '%s': %s",
-              iapPrincipal.getId(),
-              roleBinding.role,
-              roleBinding.fullResourceName,
-              request.justification,
-              e.getMessage()))
-          .addLabel("role", roleBinding.role)
-          .addLabel("resource", roleBinding.fullResourceName)
-          .addLabel("justification", request.justification)
-          .write();
 
-        throw e;
-      }
-      catch (Exception e) {
-        this.logAdapter
-          .newErrorEntry(
-            LogEvents.API_ACTIVATE_ROLE,
-            String.format(
-              "User %s failed to activate role '%s' on '%s' for themselves, justified by '%s': %s",
-              iapPrincipal.getId(),
-              roleBinding.role,
-              roleBinding.fullResourceName,
-              request.justification,
-              e.getMessage()))
-          .addLabel("role", roleBinding.role)
-          .addLabel("resource", roleBinding.fullResourceName)
-          .addLabel("justification", request.justification)
-          .write();
+      return new SelfActivationResponseEntity(activations);
+    });
+  }
 
-        throw new AccessDeniedException("Activating role failed", e);
-      }
+  // -------------------------------------------------------------------------
+  // Cursors.
+  // -------------------------------------------------------------------------
+
+  /**
+   * Encode the last project of a page as an (opaque) cursor.
+   */
+  static String encodeProjectsCursor(ProjectId lastProjectId) {
+    return Base64
+      .getUrlEncoder()
+      .withoutPadding()
+      .encodeToString(lastProjectId.id.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static ProjectId decodeProjectsCursor(String cursor) {
+    String projectId;
+    try {
+      projectId = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("The cursor is invalid");
     }
 
-    assert activations.size() == roleBindings.size();
+    Preconditions.checkArgument(
+      !projectId.isEmpty() && projectId.indexOf('/') == -1,
+      "The cursor is invalid");
 
-    return new SelfActivationResponseEntity(activations);
+    return new ProjectId(projectId);
   }
 
   // -------------------------------------------------------------------------
@@ -274,12 +474,20 @@ public class ApiResource {
     }
   }
 
+  /**
+   * Response of listProjects. The response is streamed, so this class
+   * only describes its format.
+   */
   public static class ProjectsResponseEntity {
-    public final Set<String> projects;
+    public final List<String> projects;
+
+    /** Cursor for the next page, null if there are no more projects */
+    public final String nextCursor;
 
-    public ProjectsResponseEntity(Set<String> projects) {
+    public ProjectsResponseEntity(List<String> projects, String nextCursor) {
       Preconditions.checkNotNull(projects, "projects");
       this.projects = projects;
+      this.nextCursor = nextCursor;
     }
   }
 
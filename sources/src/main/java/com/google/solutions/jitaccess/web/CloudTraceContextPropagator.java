@@ -0,0 +1,108 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Propagator for the X-Cloud-Trace-Context header, which AppEngine
+ * and IAP add to incoming requests. Extracting the header lets spans
+ * join the trace that was started by the load balancer.
+ *
+ * The header has the format TRACE_ID/SPAN_ID;o=OPTIONS, where the
+ * span ID is a decimal number, cf.
+ * https://cloud.google.com/trace/docs/setup#force-trace
+ */
+class CloudTraceContextPropagator implements TextMapPropagator {
+  static final String HEADER_NAME = "X-Cloud-Trace-Context";
+
+  private static final Pattern HEADER_PATTERN =
+    Pattern.compile("^([0-9a-fA-F]{32})/(\\d{1,20})(?:;o=([01]))?$");
+
+  @Override
+  public Collection<String> fields() {
+    return List.of(HEADER_NAME);
+  }
+
+  @Override
+  public <C> void inject(Context context, C carrier, TextMapSetter<C> setter) {
+    var spanContext = Span.fromContext(context).getSpanContext();
+    if (!spanContext.isValid() || setter == null) {
+      return;
+    }
+
+    setter.set(
+      carrier,
+      HEADER_NAME,
+      String.format(
+        "%s/%s;o=%d",
+        spanContext.getTraceId(),
+        Long.toUnsignedString(Long.parseUnsignedLong(spanContext.getSpanId(), 16)),
+        spanContext.isSampled() ? 1 : 0));
+  }
+
+  @Override
+  public <C> Context extract(Context context, C carrier, TextMapGetter<C> getter) {
+    if (context == null) {
+      context = Context.root();
+    }
+
+    var header = getter != null ? getter.get(carrier, HEADER_NAME) : null;
+    if (header == null) {
+      return context;
+    }
+
+    var matcher = HEADER_PATTERN.matcher(header.trim());
+    if (!matcher.matches()) {
+      return context;
+    }
+
+    long spanId;
+    try {
+      spanId = Long.parseUnsignedLong(matcher.group(2));
+    }
+    catch (NumberFormatException e) {
+      return context;
+    }
+
+    var spanContext = SpanContext.createFromRemoteParent(
+      matcher.group(1).toLowerCase(),
+      String.format("%016x", spanId),
+      "1".equals(matcher.group(3)) ? TraceFlags.getSampled() : TraceFlags.getDefault(),
+      TraceState.getDefault());
+
+    return spanContext.isValid()
+      ? context.with(Span.wrap(spanContext))
+      : context;
+  }
+}
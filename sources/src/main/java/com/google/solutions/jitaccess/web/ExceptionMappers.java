@@ -22,6 +22,7 @@
 package com.google.solutions.jitaccess.web;
 
 import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
 import com.google.solutions.jitaccess.core.NotAuthenticatedException;
 import org.jboss.resteasy.spi.UnhandledException;
 
@@ -29,6 +30,7 @@ import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.NotAllowedException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
@@ -45,7 +47,9 @@ public class ExceptionMappers {
     UnhandledExceptionMapper.class,
     NotAllowedExceptionMapper.class,
     NotAcceptableExceptionMapper.class,
-    NotFoundExceptionMapper.class
+    NotFoundExceptionMapper.class,
+    ServiceUnavailableExceptionMapper.class,
+    DeadlineExceededExceptionMapper.class
   };
 
   @Provider
@@ -146,6 +150,28 @@ public class ExceptionMappers {
     }
   }
 
+  @Provider
+  public static class ServiceUnavailableExceptionMapper implements ExceptionMapper<ServiceUnavailableException> {
+    @Override
+    public Response toResponse(ServiceUnavailableException exception) {
+      return Response
+        .status(Response.Status.SERVICE_UNAVAILABLE)
+        .entity(new ErrorEntity(exception))
+        .build();
+    }
+  }
+
+  @Provider
+  public static class DeadlineExceededExceptionMapper implements ExceptionMapper<DeadlineExceededException> {
+    @Override
+    public Response toResponse(DeadlineExceededException exception) {
+      return Response
+        .status(Response.Status.GATEWAY_TIMEOUT)
+        .entity(new ErrorEntity(exception))
+        .build();
+    }
+  }
+
   @Provider
   public static class UnhandledExceptionMapper implements ExceptionMapper<UnhandledException> {
     @Override
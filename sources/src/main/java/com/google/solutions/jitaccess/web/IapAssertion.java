@@ -25,6 +25,7 @@ import com.google.api.client.json.webtoken.JsonWebSignature;
 import com.google.solutions.jitaccess.core.data.DeviceInfo;
 import com.google.solutions.jitaccess.core.data.UserId;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +47,14 @@ public class IapAssertion {
       this.token.getPayload().get("email").toString());
   }
 
+  /**
+   * Time when the assertion expires
+   */
+  public Instant getExpiryTime() {
+    var expiry = this.token.getPayload().getExpirationTimeSeconds();
+    return expiry != null ? Instant.ofEpochSecond(expiry) : Instant.MIN;
+  }
+
   /**
    * Extract device information (if available)
    */
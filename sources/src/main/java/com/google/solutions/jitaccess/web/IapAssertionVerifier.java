@@ -0,0 +1,158 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.auth.oauth2.TokenVerifier;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Verifies IAP assertions.
+ *
+ * The verifier caches IAP's public keys, and remembers assertions that
+ * it has already verified so that repeated requests with the same
+ * assertion don't require another signature check.
+ */
+@ApplicationScoped
+public class IapAssertionVerifier {
+  private static final String IAP_ISSUER_URL = "https://cloud.google.com/iap";
+
+  /** Maximum number of verified assertions to keep */
+  private static final int MAX_CACHED_ASSERTIONS = 1024;
+
+  /** Upper bound for keeping verified assertions, IAP assertions expire after 10 minutes */
+  private static final Duration MAX_CACHE_DURATION = Duration.ofMinutes(10);
+
+  /** Minimum time between two reloads of the public keys */
+  private static final Duration MIN_KEY_RELOAD_INTERVAL = Duration.ofMinutes(1);
+
+  private final Supplier<TokenVerifier> verifierFactory;
+  private final Cache<String, IapAssertion> verifiedAssertions;
+
+  private TokenVerifier verifier;
+  private Instant verifierCreated;
+
+  public IapAssertionVerifier(Supplier<TokenVerifier> verifierFactory) {
+    Preconditions.checkNotNull(verifierFactory, "verifierFactory");
+
+    this.verifierFactory = verifierFactory;
+    this.verifier = verifierFactory.get();
+    this.verifierCreated = Instant.now();
+    this.verifiedAssertions = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_ASSERTIONS)
+      .expireAfterWrite(MAX_CACHE_DURATION)
+      .build();
+  }
+
+  @Inject
+  public IapAssertionVerifier(RuntimeEnvironment runtimeEnvironment) {
+    //
+    // NB. For AppEngine, we can derive the expected audience
+    // from the project number and name.
+    //
+    this(() -> TokenVerifier.newBuilder()
+      .setAudience(String.format(
+        "/projects/%s/apps/%s",
+        runtimeEnvironment.getProjectNumber(),
+        runtimeEnvironment.getProjectId()))
+      .setIssuer(IAP_ISSUER_URL)
+      .build());
+  }
+
+  private synchronized TokenVerifier getVerifier() {
+    return this.verifier;
+  }
+
+  /**
+   * Replace the verifier (and its cached public keys) unless that
+   * has been done very recently.
+   *
+   * @return true if the verifier was replaced.
+   */
+  private synchronized boolean tryReloadVerifier() {
+    if (Instant.now().isBefore(this.verifierCreated.plus(MIN_KEY_RELOAD_INTERVAL))) {
+      return false;
+    }
+
+    this.verifier = this.verifierFactory.get();
+    this.verifierCreated = Instant.now();
+    return true;
+  }
+
+  private static String hash(String assertion) {
+    return Hashing.sha256().hashString(assertion, StandardCharsets.US_ASCII).toString();
+  }
+
+  /**
+   * Verify an assertion.
+   */
+  public IapAssertion verify(String assertion) throws TokenVerifier.VerificationException {
+    Preconditions.checkNotNull(assertion, "assertion");
+
+    var key = hash(assertion);
+
+    var cached = this.verifiedAssertions.getIfPresent(key);
+    if (cached != null) {
+      if (Instant.now().isBefore(cached.getExpiryTime())) {
+        return cached;
+      }
+
+      this.verifiedAssertions.invalidate(key);
+    }
+
+    IapAssertion verified;
+    try {
+      verified = new IapAssertion(getVerifier().verify(assertion));
+    }
+    catch (TokenVerifier.VerificationException e) {
+      //
+      // The assertion might have been signed with a key that
+      // has been rotated in after we loaded the keys. Reload the
+      // keys and try again.
+      //
+      if (tryReloadVerifier()) {
+        verified = new IapAssertion(getVerifier().verify(assertion));
+      }
+      else {
+        throw e;
+      }
+    }
+
+    this.verifiedAssertions.put(key, verified);
+    return verified;
+  }
+
+  /** Number of verified assertions that are currently cached */
+  long getCachedAssertionCount() {
+    this.verifiedAssertions.cleanUp();
+    return this.verifiedAssertions.size();
+  }
+}
@@ -27,6 +27,7 @@ import com.google.solutions.jitaccess.core.adapters.LogAdapter;
 import com.google.solutions.jitaccess.core.data.DeviceInfo;
 import com.google.solutions.jitaccess.core.data.UserId;
 import com.google.solutions.jitaccess.core.data.UserPrincipal;
+import com.google.solutions.jitaccess.core.services.RoleDiscoveryPrefetcher;
 
 import javax.annotation.Priority;
 import javax.enterprise.context.Dependent;
@@ -49,39 +50,37 @@ import java.security.Principal;
 public class IapRequestFilter implements ContainerRequestFilter {
   private static final String EVENT_AUTHENTICATE = "iap.authenticate";
 
-  private static final String IAP_ISSUER_URL = "https://cloud.google.com/iap";
   private static final String IAP_ASSERTION_HEADER = "x-goog-iap-jwt-assertion";
 
+  /**
+   * Header that selects the principal when using a fake API server, lets
+   * load tests simulate multiple users.
+   */
+  static final String TEST_PRINCIPAL_HEADER = "x-jitaccess-test-principal";
+
   @Inject
   LogAdapter log;
 
   @Inject
   RuntimeEnvironment runtimeEnvironment;
 
+  @Inject
+  IapAssertionVerifier assertionVerifier;
+
+  @Inject
+  RoleDiscoveryPrefetcher prefetcher;
+
   private UserPrincipal authenticateRequest(ContainerRequestContext requestContext) {
     //
     // Read IAP assertion header and validate it.
     //
-    // NB. For AppEngine, we can derive the expected audience
-    // from the project number and name.
-    //
-    String expectedAudience =
-      String.format(
-        "/projects/%s/apps/%s",
-        this.runtimeEnvironment.getProjectNumber(), this.runtimeEnvironment.getProjectId());
-
     String assertion = requestContext.getHeaderString(IAP_ASSERTION_HEADER);
     if (assertion == null) {
       throw new ForbiddenException("Identity-Aware Proxy must be enabled for this application");
     }
 
     try {
-      final var verifiedAssertion = new IapAssertion(
-        TokenVerifier.newBuilder()
-          .setAudience(expectedAudience)
-          .setIssuer(IAP_ISSUER_URL)
-          .build()
-          .verify(assertion));
+      final var verifiedAssertion = this.assertionVerifier.verify(assertion);
 
       //
       // Associate the token with the request so that controllers
@@ -109,14 +108,47 @@ public class IapRequestFilter implements ContainerRequestFilter {
     }
   }
 
+  private UserPrincipal getStaticPrincipal(ContainerRequestContext requestContext) {
+    //
+    // The application doesn't have any real credentials when it's using
+    // a fake API server, so it's safe to let the caller pick a principal.
+    //
+    var testPrincipal = requestContext.getHeaderString(TEST_PRINCIPAL_HEADER);
+    if (this.runtimeEnvironment.getApiEndpointOverride().isEmpty() ||
+      testPrincipal == null ||
+      testPrincipal.isBlank()) {
+      return this.runtimeEnvironment.getStaticPrincipal();
+    }
+
+    var userId = new UserId(testPrincipal.trim());
+    return new UserPrincipal() {
+      @Override
+      public String getName() {
+        return userId.toString();
+      }
+
+      @Override
+      public UserId getId() {
+        return userId;
+      }
+
+      @Override
+      public DeviceInfo getDevice() {
+        return DeviceInfo.UNKNOWN;
+      }
+    };
+  }
+
   public void filter(ContainerRequestContext requestContext) {
     Preconditions.checkNotNull(this.log, "log");
     Preconditions.checkNotNull(this.runtimeEnvironment, "runtimeEnvironment");
+    Preconditions.checkNotNull(this.assertionVerifier, "assertionVerifier");
+    Preconditions.checkNotNull(this.prefetcher, "prefetcher");
 
     var principal =
       this.runtimeEnvironment.getStaticPrincipal() == null
         ? authenticateRequest(requestContext)
-        : this.runtimeEnvironment.getStaticPrincipal();
+        : getStaticPrincipal(requestContext);
 
     this.log.setPrincipal(principal);
 
@@ -144,5 +176,12 @@ public class IapRequestFilter implements ContainerRequestFilter {
       });
 
     this.log.newInfoEntry(EVENT_AUTHENTICATE, "Authenticated IAP principal").write();
+
+    //
+    // If we haven't seen the user in a while, start fetching their
+    // projects and roles so that they're ready by the time the
+    // frontend asks for them.
+    //
+    this.prefetcher.prefetch(principal.getId());
   }
 }
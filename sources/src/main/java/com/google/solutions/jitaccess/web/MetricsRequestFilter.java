@@ -0,0 +1,120 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.common.base.Preconditions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Record the latency and status of API requests, and the number of
+ * requests in flight, by endpoint.
+ *
+ * The filter runs before all other filters so that the time spent on
+ * authentication is included. For streamed responses, the time spent on
+ * writing the response body is not included.
+ */
+@Singleton
+@Provider
+@Priority(Priorities.AUTHENTICATION - 300)
+public class MetricsRequestFilter implements ContainerRequestFilter, ContainerResponseFilter {
+  /** Latency and status of requests */
+  public static final String REQUESTS = "jitaccess.endpoint.requests";
+
+  /** Number of requests in flight */
+  public static final String ACTIVE_REQUESTS = "jitaccess.endpoint.active";
+
+  private static final String START_TIME_PROPERTY = MetricsRequestFilter.class.getName() + ".startTime";
+  private static final String ENDPOINT_PROPERTY = MetricsRequestFilter.class.getName() + ".endpoint";
+
+  @Inject
+  MeterRegistry registry;
+
+  @Context
+  ResourceInfo resourceInfo;
+
+  /** Counters backing the in-flight gauges, by endpoint */
+  private final Map<String, AtomicInteger> activeRequests = new ConcurrentHashMap<>();
+
+  private AtomicInteger getActiveRequests(String endpoint) {
+    return this.activeRequests.computeIfAbsent(endpoint, e -> {
+      var count = new AtomicInteger();
+      Gauge.builder(ACTIVE_REQUESTS, count, AtomicInteger::get)
+        .tags("endpoint", e)
+        .register(this.registry);
+      return count;
+    });
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    Preconditions.checkNotNull(this.registry, "registry");
+
+    //
+    // Use the name of the resource method, not the path, so that
+    // path parameters don't end up in tags.
+    //
+    var method = this.resourceInfo != null ? this.resourceInfo.getResourceMethod() : null;
+    var endpoint = method != null ? method.getName() : "unknown";
+
+    getActiveRequests(endpoint).incrementAndGet();
+    requestContext.setProperty(ENDPOINT_PROPERTY, endpoint);
+    requestContext.setProperty(START_TIME_PROPERTY, System.nanoTime());
+  }
+
+  @Override
+  public void filter(
+    ContainerRequestContext requestContext,
+    ContainerResponseContext responseContext
+  ) {
+    var endpoint = (String)requestContext.getProperty(ENDPOINT_PROPERTY);
+    var startTime = (Long)requestContext.getProperty(START_TIME_PROPERTY);
+    if (endpoint == null || startTime == null) {
+      //
+      // Request didn't pass this filter, for example because
+      // it didn't match any resource.
+      //
+      return;
+    }
+
+    getActiveRequests(endpoint).decrementAndGet();
+
+    Timer.builder(REQUESTS)
+      .tags("endpoint", endpoint, "status", String.valueOf(responseContext.getStatus()))
+      .publishPercentileHistogram()
+      .register(this.registry)
+      .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+  }
+}
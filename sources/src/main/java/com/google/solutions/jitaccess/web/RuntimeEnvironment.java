@@ -28,27 +28,53 @@ import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.util.GenericData;
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.ComputeEngineCredentials;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ImpersonatedCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
 import com.google.solutions.jitaccess.core.ApplicationVersion;
+import com.google.solutions.jitaccess.core.Tracing;
 import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
+import com.google.solutions.jitaccess.core.adapters.AsyncLogWriter;
+import com.google.solutions.jitaccess.core.adapters.ExponentialBackoffRetryPolicy;
+import com.google.solutions.jitaccess.core.adapters.HttpTransport;
 import com.google.solutions.jitaccess.core.adapters.LogAdapter;
 import com.google.solutions.jitaccess.core.adapters.ResourceManagerAdapter;
+import com.google.solutions.jitaccess.core.adapters.RetryPolicy;
 import com.google.solutions.jitaccess.core.data.DeviceInfo;
 import com.google.solutions.jitaccess.core.data.UserId;
 import com.google.solutions.jitaccess.core.data.UserPrincipal;
 import com.google.solutions.jitaccess.core.services.NotificationService;
 import com.google.solutions.jitaccess.core.services.RoleActivationService;
+import com.google.solutions.jitaccess.core.services.EligibilityIndexer;
+import com.google.solutions.jitaccess.core.services.RoleDiscoveryPrefetcher;
 import com.google.solutions.jitaccess.core.services.RoleDiscoveryService;
 import com.google.solutions.jitaccess.core.services.TokenService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -67,6 +93,7 @@ public class RuntimeEnvironment {
   private final UserPrincipal staticPrincipal;
   private final UserId applicationPrincipal;
   private final GoogleCredentials applicationCredentials;
+  private final Optional<String> apiEndpointOverride;
 
   private static HttpResponse getMetadata(String path) throws IOException {
     GenericUrl genericUrl = new GenericUrl(ComputeEngineCredentials.getMetadataServerUrl() + path);
@@ -120,6 +147,7 @@ public class RuntimeEnvironment {
           getMetadata("/computeMetadata/v1/project/?recursive=true").parseAs(GenericData.class);
 
         this.developmentMode = false;
+        this.apiEndpointOverride = Optional.empty();
         this.projectId = (String) projectMetadata.get("projectId");
         this.projectNumber = projectMetadata.get("numericProjectId").toString();
         this.staticPrincipal = null; // Use proper IAP authentication.
@@ -170,64 +198,86 @@ public class RuntimeEnvironment {
         }
       };
 
-      try {
-        GoogleCredentials defaultCredentials = GoogleCredentials.getApplicationDefault();
-
-        String impersonateServiceAccount = System.getProperty(CONFIG_IMPERSONATE_SA);
-        if (impersonateServiceAccount != null && !impersonateServiceAccount.isEmpty()) {
-          //
-          // Use the application default credentials (ADC) to impersonate a
-          // service account. This can be used when using user credentials as ADC.
-          //
-          this.applicationCredentials =
-            ImpersonatedCredentials.create(
-              defaultCredentials,
-              impersonateServiceAccount,
-              null,
-              Stream.of(ResourceManagerAdapter.OAUTH_SCOPE, AssetInventoryAdapter.OAUTH_SCOPE)
-                .distinct()
-                .collect(Collectors.toList()),
-              0);
-
-          //
-          // If we lack impersonation permissions, ImpersonatedCredentials
-          // will keep retrying until the call timeout expires. The effect
-          // is that the application seems hung.
-          //
-          // To prevent this from happening, force a refresh here. If the
-          // refresh fails, fail application startup.
-          //
-          this.applicationCredentials.refresh();
-
-          this.applicationPrincipal = new UserId(impersonateServiceAccount);
-        }
-        else if (defaultCredentials instanceof ServiceAccountCredentials) {
-          //
-          // Use ADC as-is.
-          //
-          this.applicationCredentials = defaultCredentials;
-
-          this.applicationPrincipal = new UserId(
-              ((ServiceAccountCredentials) this.applicationCredentials).getServiceAccountUser());
+      this.apiEndpointOverride = Optional.of(getConfigurationOption("API_ENDPOINT_OVERRIDE", ""))
+        .filter(url -> !url.isEmpty());
+
+      if (this.apiEndpointOverride.isPresent()) {
+        //
+        // Use a fake API server, for example for load testing. Real
+        // credentials are of no use there, so use a fake token instead.
+        //
+        this.applicationCredentials = GoogleCredentials.create(new AccessToken(
+          "fake-token",
+          Date.from(Instant.now().plus(Duration.ofDays(365)))));
+        this.applicationPrincipal = new UserId(
+          System.getProperty(CONFIG_IMPERSONATE_SA, "jitaccess@dev.iam.gserviceaccount.com"));
+      }
+      else {
+        try {
+          GoogleCredentials defaultCredentials = GoogleCredentials.getApplicationDefault();
+
+          String impersonateServiceAccount = System.getProperty(CONFIG_IMPERSONATE_SA);
+          if (impersonateServiceAccount != null && !impersonateServiceAccount.isEmpty()) {
+            //
+            // Use the application default credentials (ADC) to impersonate a
+            // service account. This can be used when using user credentials as ADC.
+            //
+            this.applicationCredentials =
+              ImpersonatedCredentials.create(
+                defaultCredentials,
+                impersonateServiceAccount,
+                null,
+                Stream.of(ResourceManagerAdapter.OAUTH_SCOPE, AssetInventoryAdapter.OAUTH_SCOPE)
+                  .distinct()
+                  .collect(Collectors.toList()),
+                0);
+
+            //
+            // If we lack impersonation permissions, ImpersonatedCredentials
+            // will keep retrying until the call timeout expires. The effect
+            // is that the application seems hung.
+            //
+            // To prevent this from happening, force a refresh here. If the
+            // refresh fails, fail application startup.
+            //
+            this.applicationCredentials.refresh();
+
+            this.applicationPrincipal = new UserId(impersonateServiceAccount);
+          }
+          else if (defaultCredentials instanceof ServiceAccountCredentials) {
+            //
+            // Use ADC as-is.
+            //
+            this.applicationCredentials = defaultCredentials;
+
+            this.applicationPrincipal = new UserId(
+                ((ServiceAccountCredentials) this.applicationCredentials).getServiceAccountUser());
+          }
+          else {
+            throw new RuntimeException(
+              String.format(
+                "You're using user credentials as application default "
+                  + "credentials (ADC). Use -D%s=<service-account-email> to impersonate "
+                  + "a service account during development",
+                CONFIG_IMPERSONATE_SA));
+          }
         }
-        else {
-          throw new RuntimeException(
-            String.format(
-              "You're using user credentials as application default "
-                + "credentials (ADC). Use -D%s=<service-account-email> to impersonate "
-                + "a service account during development",
-              CONFIG_IMPERSONATE_SA));
+        catch (IOException e) {
+          throw new RuntimeException("Failed to lookup application credentials", e);
         }
       }
-      catch (IOException e) {
-        throw new RuntimeException("Failed to lookup application credentials", e);
-      }
 
       logAdapter
         .newWarningEntry(
           LogEvents.RUNTIME_STARTUP,
           String.format("Running in development mode as %s", this.applicationPrincipal))
         .write();
+
+      this.apiEndpointOverride.ifPresent(url -> logAdapter
+        .newWarningEntry(
+          LogEvents.RUNTIME_STARTUP,
+          String.format("Using fake API endpoint %s", url))
+        .write());
     }
   }
 
@@ -247,6 +297,20 @@ public class RuntimeEnvironment {
     return applicationPrincipal;
   }
 
+  /**
+   * Get the root URL of the fake API server that adapters use
+   * instead of Google APIs. Only available in development mode.
+   */
+  public Optional<String> getApiEndpointOverride() {
+    return apiEndpointOverride;
+  }
+
+  private String getResourceScope() {
+    return getConfigurationOption(
+      "RESOURCE_SCOPE",
+      "projects/" + getConfigurationOption("GOOGLE_CLOUD_PROJECT", null));
+  }
+
   // -------------------------------------------------------------------------
   // Producer methods.
   // -------------------------------------------------------------------------
@@ -256,12 +320,145 @@ public class RuntimeEnvironment {
     return applicationCredentials;
   }
 
+  @Produces
+  @Singleton
+  public RetryPolicy getIamPolicyUpdateRetryPolicy(MeterRegistry meterRegistry) {
+    var defaults = ExponentialBackoffRetryPolicy.Options.createDefault();
+    return new ExponentialBackoffRetryPolicy(
+      new ExponentialBackoffRetryPolicy.Options(
+        defaults.initialDelay,
+        defaults.maxDelay,
+        defaults.multiplier,
+        Integer.parseInt(getConfigurationOption("IAM_UPDATE_MAX_ATTEMPTS", String.valueOf(defaults.maxAttempts))),
+        Duration.ofSeconds(Integer.parseInt(getConfigurationOption("IAM_UPDATE_TIMEOUT", String.valueOf(defaults.deadline.toSeconds())))),
+        defaults.budgetTokens,
+        defaults.budgetRefundPerSuccess,
+        defaults.budgetRefillPerSecond),
+      meterRegistry);
+  }
+
+  @Produces
+  @Singleton
+  public OpenTelemetry getOpenTelemetry() {
+    var endpoint = getConfigurationOption("TRACE_OTLP_ENDPOINT", "");
+    if (endpoint.isEmpty()) {
+      //
+      // Tracing is disabled.
+      //
+      return OpenTelemetry.noop();
+    }
+
+    var sampler = Sampler.traceIdRatioBased(
+      Double.parseDouble(getConfigurationOption("TRACE_SAMPLE_RATE", "1.0")));
+
+    var tracerProvider = SdkTracerProvider.builder()
+      .setResource(Resource.getDefault().merge(Resource.create(Attributes.of(
+        AttributeKey.stringKey("service.name"), "jitaccess",
+        AttributeKey.stringKey("service.version"), ApplicationVersion.VERSION_STRING))))
+      //
+      // Follow the load balancer's decision if it decided to trace
+      // a request, but don't rely on it to sample all other requests.
+      //
+      .setSampler(Sampler.parentBasedBuilder(sampler)
+        .setRemoteParentNotSampled(sampler)
+        .build())
+      .addSpanProcessor(BatchSpanProcessor
+        .builder(OtlpGrpcSpanExporter.builder().setEndpoint(endpoint).build())
+        .build())
+      .build();
+
+    return OpenTelemetrySdk.builder()
+      .setTracerProvider(tracerProvider)
+      .build();
+  }
+
+  public void closeOpenTelemetry(@Disposes OpenTelemetry openTelemetry) {
+    if (openTelemetry instanceof OpenTelemetrySdk) {
+      //
+      // Flush pending spans.
+      //
+      ((OpenTelemetrySdk)openTelemetry)
+        .getSdkTracerProvider()
+        .shutdown()
+        .join(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Produces
+  @Singleton
+  public Tracer getTracer(OpenTelemetry openTelemetry) {
+    return openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME, ApplicationVersion.VERSION_STRING);
+  }
+
+  @Produces
+  public AsyncLogWriter.Options getAsyncLogWriterOptions() {
+    return new AsyncLogWriter.Options(
+      Integer.parseInt(getConfigurationOption("LOG_BUFFER_SIZE", "1024")),
+      AsyncLogWriter.OverflowPolicy.valueOf(getConfigurationOption("LOG_OVERFLOW_POLICY", "BLOCK")),
+      Integer.parseInt(getConfigurationOption("LOG_OVERFLOW_SAMPLE_RATE", "10")),
+      Duration.ofSeconds(5));
+  }
+
+  @Produces
+  public ApiExecutor.Options getApiExecutorOptions() {
+    return new ApiExecutor.Options(
+      Integer.parseInt(getConfigurationOption("API_CONCURRENCY", "200")),
+      Integer.parseInt(getConfigurationOption("API_QUEUE_SIZE", "512")),
+      Duration.ofSeconds(Integer.parseInt(getConfigurationOption("API_REQUEST_TIMEOUT", "30"))));
+  }
+
+  @Produces
+  public HttpTransport.Options getHttpTransportOptions() {
+    return new HttpTransport.Options(this.apiEndpointOverride);
+  }
+
+  @Produces
+  public ResourceManagerAdapter.Options getResourceManagerAdapterOptions() {
+    return new ResourceManagerAdapter.Options(
+      Duration.ofMillis(Integer.parseInt(getConfigurationOption("IAM_UPDATE_COALESCING_WINDOW", "50"))));
+  }
+
   @Produces
   public RoleDiscoveryService.Options getRoleDiscoveryServiceOptions() {
     return new RoleDiscoveryService.Options(
-      getConfigurationOption(
-        "RESOURCE_SCOPE",
-        "projects/" + getConfigurationOption("GOOGLE_CLOUD_PROJECT", null)));
+      getResourceScope(),
+      Duration.ofSeconds(Integer.parseInt(getConfigurationOption("RESOURCE_CACHE_TIMEOUT", "60"))),
+      Integer.parseInt(getConfigurationOption("RESOURCE_CACHE_SIZE", "1000")),
+      Integer.parseInt(getConfigurationOption(
+        "RESOURCE_DISCOVERY_CONCURRENCY",
+        String.valueOf(RoleDiscoveryService.Options.DEFAULT_ANALYSIS_CONCURRENCY))),
+      Integer.parseInt(getConfigurationOption(
+        "RESOURCE_DISCOVERY_CONCURRENCY_PER_REQUEST",
+        String.valueOf(RoleDiscoveryService.Options.DEFAULT_ANALYSIS_CONCURRENCY_PER_CALL))),
+      Duration.ofSeconds(Integer.parseInt(getConfigurationOption(
+        "RESOURCE_DISCOVERY_TIMEOUT",
+        String.valueOf(RoleDiscoveryService.Options.DEFAULT_ANALYSIS_TIMEOUT.toSeconds())))));
+  }
+
+  @Produces
+  public EligibilityIndexer.Options getEligibilityIndexerOptions() {
+    var refreshInterval = Duration.ofMinutes(
+      Integer.parseInt(getConfigurationOption("ELIGIBILITY_INDEX_REFRESH_INTERVAL", "0")));
+
+    return new EligibilityIndexer.Options(
+      getResourceScope(),
+      refreshInterval,
+      Integer.parseInt(getConfigurationOption("ELIGIBILITY_INDEX_CONCURRENCY", "4")),
+      Optional.of(getConfigurationOption("ELIGIBILITY_INDEX_SNAPSHOT", ""))
+        .filter(path -> !path.isEmpty())
+        .map(Path::of),
+      Duration.ofMinutes(Integer.parseInt(getConfigurationOption(
+        "ELIGIBILITY_INDEX_MAX_AGE",
+        String.valueOf(refreshInterval.multipliedBy(2).toMinutes())))),
+      Boolean.parseBoolean(getConfigurationOption("ELIGIBILITY_INDEX_LIST_PROJECTS", "false")));
+  }
+
+  @Produces
+  public RoleDiscoveryPrefetcher.Options getRoleDiscoveryPrefetcherOptions() {
+    return new RoleDiscoveryPrefetcher.Options(
+      Integer.parseInt(getConfigurationOption("PREFETCH_CONCURRENCY", "2")),
+      Integer.parseInt(getConfigurationOption("PREFETCH_QUEUE_SIZE", "100")),
+      Integer.parseInt(getConfigurationOption("PREFETCH_RECENT_PROJECTS", "3")));
   }
 
   @Produces
@@ -274,9 +471,17 @@ public class RuntimeEnvironment {
 
   @Produces
   public TokenService.Options getTokenServiceOptions() {
+    var tokenValidity = Duration.ofMinutes(Integer.parseInt(getConfigurationOption("MPA_TOKEN_LIFETIME", "120")));
+
+    //
+    // Rotate local keys at twice the token lifetime so that a key remains
+    // valid for verification at least as long as the tokens it signed.
+    //
     return new TokenService.Options(
       applicationPrincipal,
-      Duration.ofMinutes(Integer.parseInt(getConfigurationOption("MPA_TOKEN_LIFETIME", "120"))));
+      tokenValidity,
+      TokenService.SigningMode.valueOf(getConfigurationOption("MPA_TOKEN_SIGNING", "REMOTE")),
+      tokenValidity.multipliedBy(2));
   }
 
   @Produces
@@ -0,0 +1,178 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.common.base.Preconditions;
+import com.google.solutions.jitaccess.core.Tracing;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Record a span for each API request. If the request carries a trace
+ * context (either as W3C traceparent header, or as X-Cloud-Trace-Context
+ * header, as added by AppEngine and IAP), the span joins that trace.
+ *
+ * The filter runs before all other filters so that the time spent on
+ * authentication is included. For streamed responses, the time spent on
+ * writing the response body is not included.
+ */
+@Singleton
+@Provider
+@Priority(Priorities.AUTHENTICATION - 400)
+public class TracingRequestFilter implements ContainerRequestFilter, ContainerResponseFilter {
+  private static final String SPAN_PROPERTY = TracingRequestFilter.class.getName() + ".span";
+
+  /**
+   * Scope that makes the request's span current on the thread that
+   * runs the request filters and the resource method.
+   */
+  private static final ThreadLocal<Scope> ATTACHED_SCOPE = new ThreadLocal<>();
+
+  /**
+   * Propagators for extracting the parent context. The W3C header
+   * takes precedence if both headers are present.
+   */
+  static final TextMapPropagator PROPAGATOR = TextMapPropagator.composite(
+    new CloudTraceContextPropagator(),
+    W3CTraceContextPropagator.getInstance());
+
+  private static final TextMapGetter<ContainerRequestContext> HEADER_GETTER =
+    new TextMapGetter<>() {
+      @Override
+      public Iterable<String> keys(ContainerRequestContext carrier) {
+        return carrier.getHeaders().keySet();
+      }
+
+      @Override
+      public String get(ContainerRequestContext carrier, String key) {
+        return carrier != null ? carrier.getHeaderString(key) : null;
+      }
+    };
+
+  @Inject
+  Tracer tracer;
+
+  @Context
+  ResourceInfo resourceInfo;
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    Preconditions.checkNotNull(this.tracer, "tracer");
+
+    //
+    // Use the name of the resource method, not the path, so that
+    // path parameters don't end up in span names.
+    //
+    var method = this.resourceInfo != null ? this.resourceInfo.getResourceMethod() : null;
+    var name = method != null
+      ? String.format("%s.%s", method.getDeclaringClass().getSimpleName(), method.getName())
+      : requestContext.getMethod();
+
+    var parent = PROPAGATOR.extract(
+      io.opentelemetry.context.Context.root(),
+      requestContext,
+      HEADER_GETTER);
+
+    var span = this.tracer.spanBuilder(name)
+      .setParent(parent)
+      .setSpanKind(SpanKind.SERVER)
+      .setAttribute("http.method", requestContext.getMethod())
+      .startSpan();
+
+    var projectId = requestContext.getUriInfo().getPathParameters().getFirst("projectId");
+    if (projectId != null) {
+      span.setAttribute(Tracing.PROJECT, projectId);
+    }
+
+    requestContext.setProperty(SPAN_PROPERTY, span);
+
+    //
+    // Don't leak the scope of a previous request that failed
+    // before reaching the response filter.
+    //
+    closeAttachedScope();
+    ATTACHED_SCOPE.set(span.makeCurrent());
+  }
+
+  private static void closeAttachedScope() {
+    var scope = ATTACHED_SCOPE.get();
+    if (scope != null) {
+      ATTACHED_SCOPE.remove();
+      scope.close();
+    }
+  }
+
+  /**
+   * Detach the current request's trace context from the current thread.
+   * Used when a request continues on a different thread: response filters
+   * then run on that thread, and can't close the scope anymore.
+   *
+   * @return trace context to use on the other thread.
+   */
+  static io.opentelemetry.context.Context detachContext() {
+    var context = io.opentelemetry.context.Context.current();
+    closeAttachedScope();
+    return context;
+  }
+
+  @Override
+  public void filter(
+    ContainerRequestContext requestContext,
+    ContainerResponseContext responseContext
+  ) {
+    //
+    // If the request was processed synchronously, we're still on
+    // the thread that ran the request filter.
+    //
+    closeAttachedScope();
+
+    var span = (Span)requestContext.getProperty(SPAN_PROPERTY);
+    if (span == null) {
+      //
+      // Request didn't pass this filter, for example because
+      // it didn't match any resource.
+      //
+      return;
+    }
+
+    span.setAttribute("http.status_code", responseContext.getStatus());
+    if (responseContext.getStatus() >= 500) {
+      span.setStatus(StatusCode.ERROR);
+    }
+
+    span.end();
+  }
+}
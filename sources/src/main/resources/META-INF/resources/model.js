@@ -54,10 +54,15 @@ class Model {
         }
     }
 
-    async listProjects() {
+    /** List projects whose ID contains the query, ordered by ID */
+    async listProjects(query, pageSize) {
         try {
             return await $.ajax({
                 url: "/api/projects",
+                data: {
+                    query: query,
+                    pageSize: pageSize
+                },
                 dataType: "json",
                 headers: { "X-JITACCESS": "1" }
             });
@@ -67,21 +72,17 @@ class Model {
         }
     }
 
-    async searchProjects(projectIdPrefix) {
-        console.assert(projectIdPrefix);
+    async searchProjects(projectIdQuery) {
+        console.assert(projectIdQuery);
 
-        // Avoid kicking off multiple requests in parallel.
-        if (!this._listProjectsPromise) {
-            this._listProjectsPromise = this.listProjects();
-        }
-
-        let projectsResult = await this._listProjectsPromise;
+        // Let the backend filter and page the (potentially long) list,
+        // and only show the first 100 matches.
+        let projectsResult = await this.listProjects(projectIdQuery.trim(), 100);
         if (!projectsResult.projects) {
             return [];
         }
 
-        return projectsResult.projects.filter(
-            projectId => projectId.toLowerCase().includes(projectIdPrefix.trim().toLowerCase()));
+        return projectsResult.projects;
     }
 
     /** List eligible roles */
@@ -191,10 +192,10 @@ class DebugModel extends Model {
         }
     }
 
-    async listProjects() {
+    async listProjects(query, pageSize) {
         var setting = $("#debug-listProjects").val();
         if (!setting) {
-            return super.listProjects();
+            return super.listProjects(query, pageSize);
         }
         else if (setting === "error") {
             return Promise.reject("Simulated error");
@@ -203,6 +204,8 @@ class DebugModel extends Model {
             await new Promise(r => setTimeout(r, 2000));
             return Promise.resolve({
                 projects: Array.from({ length: setting }, (e, i) => "project-" + i)
+                    .filter(projectId => projectId.includes(query.toLowerCase()))
+                    .slice(0, pageSize)
             });
         }
     }
@@ -0,0 +1,106 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDeadline {
+
+  // -------------------------------------------------------------------------
+  // current.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenNoDeadlineSet_ThenCurrentReturnsEmpty() {
+    assertFalse(Deadline.current().isPresent());
+  }
+
+  @Test
+  public void whenDeadlineMadeCurrent_ThenCurrentReturnsDeadline() {
+    var deadline = Deadline.after(Duration.ofMinutes(1));
+    try (var scope = deadline.makeCurrent()) {
+      assertSame(deadline, Deadline.current().get());
+    }
+
+    assertFalse(Deadline.current().isPresent());
+  }
+
+  // -------------------------------------------------------------------------
+  // limit.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenNoDeadlineSet_ThenLimitReturnsTimeout() throws Exception {
+    assertEquals(Duration.ofMinutes(5), Deadline.limit(Duration.ofMinutes(5)));
+  }
+
+  @Test
+  public void whenDeadlineEarlierThanTimeout_ThenLimitReturnsRemainingTime() throws Exception {
+    try (var scope = Deadline.after(Duration.ofMinutes(1)).makeCurrent()) {
+      var limit = Deadline.limit(Duration.ofMinutes(5));
+
+      assertTrue(limit.compareTo(Duration.ofMinutes(1)) <= 0);
+      assertFalse(limit.isZero());
+    }
+  }
+
+  @Test
+  public void whenDeadlineLaterThanTimeout_ThenLimitReturnsTimeout() throws Exception {
+    try (var scope = Deadline.after(Duration.ofMinutes(5)).makeCurrent()) {
+      assertEquals(Duration.ofMinutes(1), Deadline.limit(Duration.ofMinutes(1)));
+    }
+  }
+
+  @Test
+  public void whenDeadlinePassed_ThenLimitThrowsException() {
+    try (var scope = Deadline.after(Duration.ZERO).makeCurrent()) {
+      assertThrows(
+        DeadlineExceededException.class,
+        () -> Deadline.limit(Duration.ofMinutes(1)));
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // checkRemaining.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenDeadlinePassed_ThenCheckRemainingThrowsException() {
+    var deadline = Deadline.after(Duration.ZERO);
+
+    assertTrue(deadline.isExpired());
+    assertEquals(Duration.ZERO, deadline.getRemaining());
+    assertThrows(DeadlineExceededException.class, deadline::checkRemaining);
+  }
+
+  @Test
+  public void whenDeadlineNotPassed_ThenCheckRemainingReturnsRemainingTime() throws Exception {
+    var deadline = Deadline.after(Duration.ofMinutes(1));
+
+    assertFalse(deadline.isExpired());
+    assertTrue(deadline.checkRemaining().compareTo(Duration.ofMinutes(1)) <= 0);
+  }
+}
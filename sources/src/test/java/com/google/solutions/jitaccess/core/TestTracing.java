@@ -0,0 +1,101 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestTracing {
+  private static Span createSpan(Tracer tracer) {
+    var span = Mockito.mock(Span.class);
+    when(span.makeCurrent()).thenReturn(Scope.noop());
+
+    var spanBuilder = Mockito.mock(SpanBuilder.class);
+    when(spanBuilder.startSpan()).thenReturn(span);
+    when(tracer.spanBuilder(anyString())).thenReturn(spanBuilder);
+
+    return span;
+  }
+
+  // -------------------------------------------------------------------------
+  // startStep.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenStepSucceeds_ThenCloseEndsSpan() {
+    var tracer = Mockito.mock(Tracer.class);
+    var span = createSpan(tracer);
+
+    try (var step = Tracing.startStep(tracer, "step")) {
+      assertEquals("result", step.succeeded("result"));
+    }
+
+    verify(tracer, times(1)).spanBuilder(eq("step"));
+    verify(span, never()).setStatus(any());
+    verify(span, times(1)).end();
+  }
+
+  @Test
+  public void whenStepDoesNotSucceed_ThenCloseMarksSpanAsError() {
+    var tracer = Mockito.mock(Tracer.class);
+    var span = createSpan(tracer);
+
+    try (var step = Tracing.startStep(tracer, "step")) {
+    }
+
+    verify(span, times(1)).setStatus(eq(StatusCode.ERROR));
+    verify(span, times(1)).end();
+  }
+
+  @Test
+  public void whenAttributeValueIsNull_ThenSetAttributeIgnoresAttribute() {
+    var tracer = Mockito.mock(Tracer.class);
+    var span = createSpan(tracer);
+
+    try (var step = Tracing.startStep(tracer, "step")) {
+      step
+        .setAttribute(Tracing.PROJECT, null)
+        .setAttribute(Tracing.ROLE, "role")
+        .succeeded();
+    }
+
+    verify(span, never()).setAttribute(eq(Tracing.PROJECT), any());
+    verify(span, times(1)).setAttribute(eq(Tracing.ROLE), eq("role"));
+  }
+
+  @Test
+  public void whenTracerIsNoop_ThenStepSucceeds() {
+    try (var step = Tracing.startStep(Tracing.NOOP_TRACER, "step")) {
+      step.setAttribute(Tracing.ROLE_COUNT, 1L).succeeded();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAdapterMetrics {
+  private static final GenericUrl SAMPLE_URL = new GenericUrl("https://example.com/v1/resource");
+
+  // -------------------------------------------------------------------------
+  // startCall.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenCallSucceeds_ThenCloseRecordsSuccess() {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    try (var call = metrics.startCall("method")) {
+      assertEquals("result", call.succeeded("result"));
+    }
+
+    var timer = registry.find(AdapterMetrics.CALLS)
+      .tags("adapter", "test", "method", "method", "outcome", "success")
+      .timer();
+    assertNotNull(timer);
+    assertEquals(1, timer.count());
+  }
+
+  @Test
+  public void whenCallThrowsException_ThenCloseRecordsError() {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    assertThrows(IOException.class, () -> {
+      try (var call = metrics.startCall("method")) {
+        throw new IOException("mock");
+      }
+    });
+
+    var timer = registry.find(AdapterMetrics.CALLS)
+      .tags("adapter", "test", "method", "method", "outcome", "error")
+      .timer();
+    assertNotNull(timer);
+    assertEquals(1, timer.count());
+  }
+
+  // -------------------------------------------------------------------------
+  // recordRetry.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenRetried_ThenRecordRetryIncrementsCounter() {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    metrics.recordRetry("method", "reason");
+    metrics.recordRetry("method", "reason");
+
+    assertEquals(
+      2,
+      registry.find(AdapterMetrics.RETRIES).tags("reason", "reason").counter().count());
+  }
+
+  // -------------------------------------------------------------------------
+  // recordGiveUp.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenGivingUp_ThenRecordGiveUpIncrementsCounter() {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    metrics.recordGiveUp("method", "budget_exhausted");
+
+    assertEquals(
+      1,
+      registry.find(AdapterMetrics.GIVE_UPS).tags("reason", "budget_exhausted").counter().count());
+    assertNull(registry.find(AdapterMetrics.RETRIES).counter());
+  }
+
+  // -------------------------------------------------------------------------
+  // instrument.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenRequestSucceeds_ThenInstrumentRecordsStatusAndSize() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    var transport = new MockHttpTransport.Builder()
+      .setLowLevelHttpResponse(new MockLowLevelHttpResponse()
+        .setStatusCode(200)
+        .addHeader("Content-Length", "2")
+        .setContent("{}"))
+      .build();
+
+    transport
+      .createRequestFactory(metrics.instrument(request -> {}))
+      .buildGetRequest(SAMPLE_URL)
+      .execute();
+
+    var timer = registry.find(AdapterMetrics.API_REQUESTS)
+      .tags("host", "example.com", "method", "GET", "status", "200")
+      .timer();
+    assertNotNull(timer);
+    assertEquals(1, timer.count());
+
+    var size = registry.find(AdapterMetrics.API_RESPONSE_SIZE).summary();
+    assertNotNull(size);
+    assertEquals(2, size.totalAmount());
+  }
+
+  @Test
+  public void whenRequestFails_ThenInstrumentRecordsStatus() {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    var transport = new MockHttpTransport.Builder()
+      .setLowLevelHttpResponse(new MockLowLevelHttpResponse()
+        .setStatusCode(412))
+      .build();
+
+    assertThrows(
+      HttpResponseException.class,
+      () -> transport
+        .createRequestFactory(metrics.instrument(request -> {}))
+        .buildGetRequest(SAMPLE_URL)
+        .execute());
+
+    var timer = registry.find(AdapterMetrics.API_REQUESTS)
+      .tags("status", "412")
+      .timer();
+    assertNotNull(timer);
+    assertEquals(1, timer.count());
+  }
+
+  @Test
+  public void whenInitializerSetsInterceptors_ThenInstrumentKeepsInterceptors() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var metrics = new AdapterMetrics(registry, "test");
+
+    var transport = new MockHttpTransport.Builder()
+      .setLowLevelHttpResponse(new MockLowLevelHttpResponse().setStatusCode(200))
+      .build();
+
+    var intercepted = new boolean[2];
+    transport
+      .createRequestFactory(metrics.instrument(request -> {
+        request.setInterceptor(r -> intercepted[0] = true);
+        request.setResponseInterceptor(r -> intercepted[1] = true);
+      }))
+      .buildGetRequest(SAMPLE_URL)
+      .execute();
+
+    assertTrue(intercepted[0]);
+    assertTrue(intercepted[1]);
+  }
+}
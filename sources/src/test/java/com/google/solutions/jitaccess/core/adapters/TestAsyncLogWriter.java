@@ -0,0 +1,200 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAsyncLogWriter {
+  private static AsyncLogWriter.Options createOptions(
+    int bufferSize,
+    AsyncLogWriter.OverflowPolicy policy
+  ) {
+    return new AsyncLogWriter.Options(bufferSize, policy, 2, Duration.ofSeconds(10));
+  }
+
+  /**
+   * Output that doesn't accept writes until it's released.
+   */
+  private static class BlockingOutput implements Appendable {
+    private final StringBuffer buffer = new StringBuffer();
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final CountDownLatch entered = new CountDownLatch(1);
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      this.entered.countDown();
+      try {
+        this.released.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      this.buffer.append(csq);
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      return append(csq.subSequence(start, end));
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return append(String.valueOf(c));
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // append.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenClosed_ThenBufferedRecordsAreWritten() {
+    var output = new StringBuffer();
+    var writer = new AsyncLogWriter(output, createOptions(100, AsyncLogWriter.OverflowPolicy.BLOCK));
+
+    for (int i = 0; i < 50; i++) {
+      writer.append(i + "\n");
+    }
+
+    writer.close();
+
+    assertEquals(50, output.toString().split("\n").length);
+    assertTrue(output.toString().startsWith("0\n1\n2\n"));
+    assertEquals(0, writer.getDroppedCount());
+  }
+
+  @Test
+  public void whenAlreadyClosed_ThenAppendWritesSynchronously() {
+    var output = new StringBuffer();
+    var writer = new AsyncLogWriter(output, createOptions(100, AsyncLogWriter.OverflowPolicy.BLOCK));
+    writer.close();
+
+    writer.append("line\n");
+
+    assertEquals("line\n", output.toString());
+  }
+
+  @Test
+  public void whenAppendingWhileClosing_ThenNoRecordsAreLost() throws Exception {
+    for (int run = 0; run < 20; run++) {
+      var output = new StringBuffer();
+      var writer = new AsyncLogWriter(output, createOptions(1000, AsyncLogWriter.OverflowPolicy.BLOCK));
+
+      var threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] = new Thread(() -> {
+          for (int i = 0; i < 200; i++) {
+            writer.append("line\n");
+          }
+        });
+        threads[t].start();
+      }
+
+      writer.close();
+
+      for (var thread : threads) {
+        thread.join();
+      }
+
+      assertEquals(800, output.toString().split("\n").length);
+    }
+  }
+
+  @Test
+  public void whenBufferFullAndPolicyIsDrop_ThenAppendDropsRecords() throws Exception {
+    var output = new BlockingOutput();
+    var writer = new AsyncLogWriter(output, createOptions(2, AsyncLogWriter.OverflowPolicy.DROP));
+
+    //
+    // Let the flusher pick up the first record and get stuck writing it.
+    //
+    writer.append("0\n");
+    assertTrue(output.entered.await(10, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 5; i++) {
+      writer.append(i + "\n");
+    }
+
+    assertEquals(3, writer.getOverflowCount());
+    assertEquals(3, writer.getDroppedCount());
+
+    output.released.countDown();
+    writer.close();
+
+    assertEquals("0\n1\n2\n", output.buffer.toString());
+  }
+
+  @Test
+  public void whenBufferFullAndPolicyIsSample_ThenAppendKeepsSomeRecords() throws Exception {
+    var output = new BlockingOutput();
+    var writer = new AsyncLogWriter(output, createOptions(2, AsyncLogWriter.OverflowPolicy.SAMPLE));
+
+    writer.append("0\n");
+    assertTrue(output.entered.await(10, TimeUnit.SECONDS));
+
+    writer.append("1\n");
+    writer.append("2\n");
+    writer.append("3\n"); // Overflow 1, dropped
+
+    //
+    // Overflow 2 is kept, which blocks until the flusher makes progress.
+    //
+    var sampled = new Thread(() -> writer.append("4\n"));
+    sampled.start();
+    while (sampled.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+
+    output.released.countDown();
+    sampled.join();
+    writer.close();
+
+    assertEquals(2, writer.getOverflowCount());
+    assertEquals(1, writer.getDroppedCount());
+    assertEquals("0\n1\n2\n4\n", output.buffer.toString());
+  }
+
+  @Test
+  public void whenUsedByLogAdapter_ThenEntriesAreWritten() {
+    var output = new StringBuffer();
+    var writer = new AsyncLogWriter(output, createOptions(100, AsyncLogWriter.OverflowPolicy.BLOCK));
+
+    var adapter = new LogAdapter(writer);
+    adapter.newInfoEntry("event-1", "message-1").write();
+    adapter.newInfoEntry("event-2", "message-2").write();
+
+    writer.close();
+
+    var lines = output.toString().split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0].contains("message-1"));
+    assertTrue(lines[1].contains("message-2"));
+  }
+}
@@ -0,0 +1,364 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.solutions.jitaccess.core.Deadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExponentialBackoffRetryPolicy {
+  private static ExponentialBackoffRetryPolicy.Options createOptions(
+    int maxAttempts,
+    Duration deadline,
+    int budgetTokens
+  ) {
+    return new ExponentialBackoffRetryPolicy.Options(
+      Duration.ofMillis(1),
+      Duration.ofMillis(10),
+      2.0,
+      maxAttempts,
+      deadline,
+      budgetTokens,
+      0.5,
+      0);
+  }
+
+  // -------------------------------------------------------------------------
+  // waitBeforeRetry.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenMaxAttemptsReached_ThenWaitBeforeRetryReturnsFalse() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(3, Duration.ofMinutes(1), 100));
+
+    var operation = policy.beginOperation();
+    assertTrue(operation.waitBeforeRetry());
+    assertTrue(operation.waitBeforeRetry());
+    assertFalse(operation.waitBeforeRetry());
+
+    assertEquals(RetryPolicy.GiveUpReason.ATTEMPTS_EXHAUSTED, operation.getGiveUpReason().get());
+    assertEquals(1, policy.getOperationCount());
+    assertEquals(2, policy.getRetryCount());
+    assertEquals(1, policy.getAttemptsExhaustedCount());
+  }
+
+  @Test
+  public void whenDeadlineExceeded_ThenWaitBeforeRetryReturnsFalse() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(100, Duration.ZERO, 100));
+
+    var operation = policy.beginOperation();
+    Thread.sleep(2);
+
+    assertFalse(operation.waitBeforeRetry());
+    assertEquals(RetryPolicy.GiveUpReason.DEADLINE_EXCEEDED, operation.getGiveUpReason().get());
+    assertEquals(0, policy.getRetryCount());
+    assertEquals(1, policy.getDeadlineExceededCount());
+  }
+
+  @Test
+  public void whenRequestDeadlineExceeded_ThenWaitBeforeRetryReturnsFalse() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(100, Duration.ofMinutes(1), 100));
+
+    try (var scope = Deadline.after(Duration.ZERO).makeCurrent()) {
+      var operation = policy.beginOperation();
+
+      assertFalse(operation.waitBeforeRetry());
+      assertEquals(RetryPolicy.GiveUpReason.REQUEST_DEADLINE_EXCEEDED, operation.getGiveUpReason().get());
+      assertEquals(0, policy.getRetryCount());
+      assertEquals(1, policy.getDeadlineExceededCount());
+    }
+  }
+
+  @Test
+  public void whenBudgetExhausted_ThenWaitBeforeRetryReturnsFalse() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(100, Duration.ofMinutes(1), 2));
+
+    assertTrue(policy.beginOperation().waitBeforeRetry());
+
+    var operation = policy.beginOperation();
+    assertTrue(operation.waitBeforeRetry());
+    assertFalse(operation.getGiveUpReason().isPresent());
+
+    operation = policy.beginOperation();
+    assertFalse(operation.waitBeforeRetry());
+    assertEquals(RetryPolicy.GiveUpReason.BUDGET_EXHAUSTED, operation.getGiveUpReason().get());
+
+    assertEquals(2, policy.getRetryCount());
+    assertEquals(1, policy.getBudgetExhaustedCount());
+  }
+
+  @Test
+  public void whenBudgetOfOneKeyExhausted_ThenOtherKeysCanRetry() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(100, Duration.ofMinutes(1), 1));
+
+    assertTrue(policy.beginOperation("project-1").waitBeforeRetry());
+    assertFalse(policy.beginOperation("project-1").waitBeforeRetry());
+
+    assertTrue(policy.beginOperation("project-2").waitBeforeRetry());
+    assertEquals(1, policy.getBudgetExhaustedCount());
+  }
+
+  @Test
+  public void whenBudgetExhausted_ThenBudgetIsRefilledOverTime() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(new ExponentialBackoffRetryPolicy.Options(
+      Duration.ofMillis(1),
+      Duration.ofMillis(10),
+      2.0,
+      100,
+      Duration.ofMinutes(1),
+      1,
+      0,
+      20));
+
+    assertTrue(policy.beginOperation().waitBeforeRetry());
+    assertFalse(policy.beginOperation().waitBeforeRetry());
+
+    Thread.sleep(100);
+
+    assertTrue(policy.beginOperation().waitBeforeRetry());
+  }
+
+  @Test
+  public void whenOperationsSucceed_ThenBudgetIsRefunded() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(100, Duration.ofMinutes(1), 1));
+
+    assertTrue(policy.beginOperation().waitBeforeRetry());
+    assertFalse(policy.beginOperation().waitBeforeRetry());
+
+    policy.beginOperation().succeeded();
+    policy.beginOperation().succeeded();
+
+    assertTrue(policy.beginOperation().waitBeforeRetry());
+  }
+
+  @Test
+  public void whenInterrupted_ThenWaitBeforeRetryThrowsException() {
+    var policy = new ExponentialBackoffRetryPolicy(new ExponentialBackoffRetryPolicy.Options(
+      Duration.ofSeconds(10),
+      Duration.ofSeconds(10),
+      1.0,
+      2,
+      Duration.ofMinutes(1),
+      1,
+      0,
+      0));
+
+    //
+    // Full jitter might pick a delay of 0, in which case sleep returns
+    // without checking the interrupt flag. Retry until we hit a delay > 0.
+    //
+    for (int i = 0; i < 10; i++) {
+      var operation = policy.beginOperation();
+      Thread.currentThread().interrupt();
+      try {
+        operation.waitBeforeRetry();
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+      finally {
+        Thread.interrupted();
+      }
+    }
+
+    fail("Expected InterruptedException");
+  }
+
+  // -------------------------------------------------------------------------
+  // Metrics.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenOperationsGiveUp_ThenCountersAreRegistered() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var policy = new ExponentialBackoffRetryPolicy(createOptions(2, Duration.ofMinutes(1), 1), registry);
+
+    var operation = policy.beginOperation("project-1");
+    assertTrue(operation.waitBeforeRetry());
+    assertFalse(operation.waitBeforeRetry());
+    assertFalse(policy.beginOperation("project-1").waitBeforeRetry());
+
+    assertEquals(2, registry.find(ExponentialBackoffRetryPolicy.OPERATIONS).functionCounter().count());
+    assertEquals(1, registry.find(ExponentialBackoffRetryPolicy.RETRIES).functionCounter().count());
+    assertEquals(1, registry.find(ExponentialBackoffRetryPolicy.GIVE_UPS)
+      .tags("reason", "attempts_exhausted")
+      .functionCounter()
+      .count());
+    assertEquals(1, registry.find(ExponentialBackoffRetryPolicy.GIVE_UPS)
+      .tags("reason", "budget_exhausted")
+      .functionCounter()
+      .count());
+    assertEquals(0, registry.find(ExponentialBackoffRetryPolicy.GIVE_UPS)
+      .tags("reason", "deadline_exceeded")
+      .functionCounter()
+      .count());
+  }
+
+  // -------------------------------------------------------------------------
+  // Contended etags.
+  // -------------------------------------------------------------------------
+
+  /**
+   * Simulates an IAM policy that uses etags for optimistic concurrency control.
+   */
+  private static class SimulatedPolicy {
+    private int etag = 0;
+    private int bindings = 0;
+
+    synchronized int read() {
+      return this.etag;
+    }
+
+    synchronized boolean write(int etag) {
+      if (etag != this.etag) {
+        return false;
+      }
+
+      this.etag++;
+      this.bindings++;
+      return true;
+    }
+  }
+
+  @Test
+  public void whenEtagsContended_ThenAllUpdatesEventuallySucceed() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(new ExponentialBackoffRetryPolicy.Options(
+      Duration.ofMillis(1),
+      Duration.ofMillis(50),
+      2.0,
+      50,
+      Duration.ofSeconds(30),
+      1000,
+      0.2,
+      0));
+
+    var iamPolicy = new SimulatedPolicy();
+    var failures = new AtomicInteger();
+    var writers = 16;
+    var updatesPerWriter = 10;
+
+    var executor = Executors.newFixedThreadPool(writers);
+    try {
+      var tasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < writers; i++) {
+        tasks.add(() -> {
+          for (int j = 0; j < updatesPerWriter; j++) {
+            var operation = policy.beginOperation();
+            while (true) {
+              var etag = iamPolicy.read();
+
+              //
+              // Simulate the latency of a read-modify-write cycle.
+              //
+              Thread.sleep(1);
+
+              if (iamPolicy.write(etag)) {
+                operation.succeeded();
+                break;
+              }
+              else if (!operation.waitBeforeRetry()) {
+                failures.incrementAndGet();
+                break;
+              }
+            }
+          }
+          return null;
+        });
+      }
+
+      for (var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    assertEquals(0, failures.get());
+    assertEquals(writers * updatesPerWriter, iamPolicy.bindings);
+    assertEquals(writers * updatesPerWriter, policy.getOperationCount());
+    assertTrue(policy.getRetryCount() > 0);
+  }
+
+  @Test
+  public void whenEtagsContendedAndBudgetSmall_ThenUpdatesFailFast() throws Exception {
+    var policy = new ExponentialBackoffRetryPolicy(new ExponentialBackoffRetryPolicy.Options(
+      Duration.ofMillis(1),
+      Duration.ofMillis(50),
+      2.0,
+      50,
+      Duration.ofSeconds(30),
+      2,
+      0,
+      0));
+
+    var iamPolicy = new SimulatedPolicy();
+    var failures = new AtomicInteger();
+    var writers = 8;
+
+    var executor = Executors.newFixedThreadPool(writers);
+    try {
+      var tasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < writers; i++) {
+        tasks.add(() -> {
+          var operation = policy.beginOperation();
+          while (true) {
+            var etag = iamPolicy.read();
+            Thread.sleep(5);
+
+            if (iamPolicy.write(etag)) {
+              operation.succeeded();
+              break;
+            }
+            else if (!operation.waitBeforeRetry()) {
+              failures.incrementAndGet();
+              break;
+            }
+          }
+          return null;
+        });
+      }
+
+      for (var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    assertTrue(policy.getRetryCount() <= 2);
+    assertEquals(failures.get(), policy.getBudgetExhaustedCount());
+    assertEquals(writers, iamPolicy.bindings + failures.get());
+  }
+}
@@ -0,0 +1,155 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHttpTransport {
+  @Test
+  public void whenCalledRepeatedly_ThenGetSharedTransportReturnsSameInstance() throws Exception {
+    assertSame(HttpTransport.getSharedTransport(), HttpTransport.getSharedTransport());
+  }
+
+  @Test
+  public void whenCalledRepeatedly_ThenNewTransportReturnsNewInstance() throws Exception {
+    assertNotSame(HttpTransport.newTransport(), HttpTransport.newTransport());
+  }
+
+  // -------------------------------------------------------------------------
+  // withDeadline.
+  // -------------------------------------------------------------------------
+
+  private static final GenericUrl SAMPLE_URL = new GenericUrl("https://example.com/v1/resource");
+
+  private static MockHttpTransport createTransport() {
+    return new MockHttpTransport.Builder()
+      .setLowLevelHttpResponse(new MockLowLevelHttpResponse().setStatusCode(200))
+      .build();
+  }
+
+  @Test
+  public void whenNoDeadline_ThenWithDeadlineKeepsDefaultTimeouts() throws Exception {
+    var request = createTransport()
+      .createRequestFactory(HttpTransport.withDeadline(r -> {}))
+      .buildGetRequest(SAMPLE_URL);
+    request.execute();
+
+    assertEquals(20000, request.getConnectTimeout());
+    assertEquals(20000, request.getReadTimeout());
+  }
+
+  @Test
+  public void whenDeadlineSet_ThenWithDeadlineLimitsTimeouts() throws Exception {
+    try (var scope = Deadline.after(Duration.ofSeconds(5)).makeCurrent()) {
+      var request = createTransport()
+        .createRequestFactory(HttpTransport.withDeadline(r -> {}))
+        .buildGetRequest(SAMPLE_URL);
+      request.execute();
+
+      assertTrue(request.getConnectTimeout() > 0 && request.getConnectTimeout() <= 5000);
+      assertTrue(request.getReadTimeout() > 0 && request.getReadTimeout() <= 5000);
+    }
+  }
+
+  @Test
+  public void whenDeadlinePassed_ThenExecuteThrowsException() throws Exception {
+    try (var scope = Deadline.after(Duration.ZERO).makeCurrent()) {
+      var request = createTransport()
+        .createRequestFactory(HttpTransport.withDeadline(r -> {}))
+        .buildGetRequest(SAMPLE_URL);
+
+      assertThrows(DeadlineExceededException.class, () -> request.execute());
+    }
+  }
+
+  @Test
+  public void whenInitializerSetsInterceptor_ThenWithDeadlineChainsInterceptor() throws Exception {
+    var intercepted = new boolean[1];
+    try (var scope = Deadline.after(Duration.ofSeconds(5)).makeCurrent()) {
+      createTransport()
+        .createRequestFactory(HttpTransport.withDeadline(r -> r.setInterceptor(i -> intercepted[0] = true)))
+        .buildGetRequest(SAMPLE_URL)
+        .execute();
+    }
+
+    assertTrue(intercepted[0]);
+  }
+
+  @Test
+  public void whenServerDoesNotRespondBeforeDeadline_ThenReadTimesOutAfterDeadline() throws Exception {
+    try (var server = new ServerSocket(0)) {
+      var url = new GenericUrl(String.format("http://localhost:%d/", server.getLocalPort()));
+      var deadline = Deadline.after(Duration.ofMillis(200));
+
+      try (var scope = deadline.makeCurrent()) {
+        var request = new NetHttpTransport()
+          .createRequestFactory(HttpTransport.withDeadline(r -> r.setNumberOfRetries(0)))
+          .buildGetRequest(url);
+
+        var exception = assertThrows(SocketTimeoutException.class, () -> request.execute());
+        assertTrue(deadline.isExpired());
+        assertTrue(HttpTransport.translateTimeout(exception) instanceof DeadlineExceededException);
+      }
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // translateTimeout.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenDeadlinePassed_ThenTranslateTimeoutReturnsDeadlineExceededException() {
+    var timeout = new SocketTimeoutException("mock");
+    try (var scope = Deadline.after(Duration.ZERO).makeCurrent()) {
+      var exception = HttpTransport.translateTimeout(timeout);
+
+      assertTrue(exception instanceof DeadlineExceededException);
+      assertSame(timeout, exception.getCause());
+    }
+  }
+
+  @Test
+  public void whenDeadlineNotPassed_ThenTranslateTimeoutReturnsTimeout() {
+    var timeout = new SocketTimeoutException("mock");
+    try (var scope = Deadline.after(Duration.ofMinutes(1)).makeCurrent()) {
+      assertSame(timeout, HttpTransport.translateTimeout(timeout));
+    }
+  }
+
+  @Test
+  public void whenNoDeadline_ThenTranslateTimeoutReturnsTimeout() {
+    var timeout = new SocketTimeoutException("mock");
+    assertSame(timeout, HttpTransport.translateTimeout(timeout));
+  }
+}
@@ -0,0 +1,463 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.cloudresourcemanager.v3.model.Binding;
+import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.AlreadyExistsException;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIamBindingCoalescer {
+  private static final ProjectId SAMPLE_PROJECT_1 = new ProjectId("project-1");
+  private static final ProjectId SAMPLE_PROJECT_2 = new ProjectId("project-2");
+  private static final EnumSet<ResourceManagerAdapter.IamBindingOptions> OPTIONS =
+    EnumSet.of(ResourceManagerAdapter.IamBindingOptions.REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE);
+  private static final Duration WINDOW = Duration.ofSeconds(1);
+
+  private static Binding createBinding(String role) {
+    return new Binding()
+      .setRole(role)
+      .setMembers(List.of("user:user@example.com"));
+  }
+
+  private static class Write {
+    private final ProjectId projectId;
+    private final List<Binding> bindings;
+    private final String requestReason;
+
+    private Write(ProjectId projectId, List<Binding> bindings, String requestReason) {
+      this.projectId = projectId;
+      this.bindings = new ArrayList<>(bindings);
+      this.requestReason = requestReason;
+    }
+  }
+
+  /**
+   * Window that stays open until the test closes it.
+   */
+  private static class ManualWindow implements IamBindingCoalescer.Sleeper {
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void sleep(Duration duration) throws InterruptedException {
+      this.closed.await();
+    }
+
+    private void close() {
+      this.closed.countDown();
+    }
+  }
+
+  /**
+   * Create tasks that add one binding each.
+   */
+  private static List<Callable<Void>> createTasks(
+    IamBindingCoalescer coalescer,
+    ProjectId projectId,
+    List<String> roles,
+    String requestReason
+  ) {
+    var tasks = new ArrayList<Callable<Void>>();
+    for (var role : roles) {
+      tasks.add(() -> {
+        coalescer.addProjectIamBindings(projectId, List.of(createBinding(role)), OPTIONS, requestReason);
+        return null;
+      });
+    }
+
+    return tasks;
+  }
+
+  private static List<Callable<Void>> createTasks(
+    IamBindingCoalescer coalescer,
+    ProjectId projectId,
+    int count
+  ) {
+    var roles = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      roles.add("roles/role-" + i);
+    }
+
+    return createTasks(coalescer, projectId, roles, "reason");
+  }
+
+  private static void awaitPendingCount(
+    IamBindingCoalescer coalescer,
+    int count
+  ) throws InterruptedException {
+    var timeout = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+    while (coalescer.getPendingCount() < count) {
+      assertTrue(System.nanoTime() < timeout, "Callers did not join a batch");
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Run tasks concurrently, close the window once all tasks have
+   * joined a batch, and wait for the tasks to complete.
+   */
+  private static List<Future<Void>> runTasks(
+    IamBindingCoalescer coalescer,
+    ManualWindow window,
+    List<Callable<Void>> tasks
+  ) throws Exception {
+    var executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      var futures = new ArrayList<Future<Void>>();
+      for (var task : tasks) {
+        futures.add(executor.submit(task));
+      }
+
+      awaitPendingCount(coalescer, tasks.size());
+      window.close();
+
+      return futures;
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private static GoogleJsonResponseException createBadRequestException() {
+    return new GoogleJsonResponseException(
+      new HttpResponseException.Builder(400, "Bad Request", new HttpHeaders()),
+      null);
+  }
+
+  // -------------------------------------------------------------------------
+  // addProjectIamBindings.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenWindowIsZero_ThenAddProjectIamBindingsWritesImmediately() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var coalescer = new IamBindingCoalescer(
+      Duration.ZERO,
+      (projectId, bindings, options, reason) -> writes.add(new Write(projectId, bindings, reason)));
+
+    coalescer.addProjectIamBindings(SAMPLE_PROJECT_1, List.of(createBinding("roles/a")), OPTIONS, "a");
+    coalescer.addProjectIamBindings(SAMPLE_PROJECT_1, List.of(createBinding("roles/b")), OPTIONS, "b");
+
+    assertEquals(2, writes.size());
+    assertEquals(2, coalescer.getWriteCount());
+    assertEquals(2, coalescer.getRequestCount());
+  }
+
+  @Test
+  public void whenCalledConcurrentlyForSameProject_ThenAddProjectIamBindingsCoalescesWrites() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> writes.add(new Write(projectId, bindings, reason)),
+      window);
+
+    for (var future : runTasks(coalescer, window, createTasks(coalescer, SAMPLE_PROJECT_1, 8))) {
+      future.get();
+    }
+
+    assertEquals(8, coalescer.getRequestCount());
+    assertEquals(1, coalescer.getWriteCount());
+    assertEquals(1, writes.size());
+    assertEquals(8, writes.get(0).bindings.size());
+    assertEquals(SAMPLE_PROJECT_1, writes.get(0).projectId);
+    assertEquals("reason", writes.get(0).requestReason);
+  }
+
+  @Test
+  public void whenCalledConcurrentlyForDifferentProjects_ThenAddProjectIamBindingsWritesPerProject() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> writes.add(new Write(projectId, bindings, reason)),
+      window);
+
+    var tasks = new ArrayList<Callable<Void>>();
+    tasks.addAll(createTasks(coalescer, SAMPLE_PROJECT_1, 2));
+    tasks.addAll(createTasks(coalescer, SAMPLE_PROJECT_2, 2));
+
+    for (var future : runTasks(coalescer, window, tasks)) {
+      future.get();
+    }
+
+    assertEquals(2, writes.size());
+    assertTrue(writes.stream().anyMatch(w -> w.projectId.equals(SAMPLE_PROJECT_1)));
+    assertTrue(writes.stream().anyMatch(w -> w.projectId.equals(SAMPLE_PROJECT_2)));
+    assertTrue(writes.stream().allMatch(w -> w.bindings.size() == 2));
+  }
+
+  @Test
+  public void whenRequestReasonsDiffer_ThenWritesAreNotCoalesced() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> writes.add(new Write(projectId, bindings, reason)),
+      window);
+
+    var tasks = new ArrayList<Callable<Void>>();
+    tasks.addAll(createTasks(coalescer, SAMPLE_PROJECT_1, List.of("roles/a-1", "roles/a-2"), "reason-a"));
+    tasks.addAll(createTasks(coalescer, SAMPLE_PROJECT_1, List.of("roles/b-1", "roles/b-2"), "reason-b"));
+
+    for (var future : runTasks(coalescer, window, tasks)) {
+      future.get();
+    }
+
+    assertEquals(2, writes.size());
+    for (var write : writes) {
+      var prefix = write.requestReason.equals("reason-a") ? "roles/a-" : "roles/b-";
+      assertEquals(2, write.bindings.size());
+      assertTrue(write.bindings.stream().allMatch(b -> b.getRole().startsWith(prefix)));
+    }
+  }
+
+  @Test
+  public void whenCoalescedWriteRejected_ThenBindingsAreWrittenPerCaller() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> {
+        if (bindings.stream().anyMatch(b -> b.getRole().equals("roles/invalid"))) {
+          throw createBadRequestException();
+        }
+
+        writes.add(new Write(projectId, bindings, reason));
+      },
+      window);
+
+    var futures = runTasks(
+      coalescer,
+      window,
+      createTasks(
+        coalescer,
+        SAMPLE_PROJECT_1,
+        List.of("roles/valid-1", "roles/invalid", "roles/valid-2"),
+        "reason"));
+
+    futures.get(0).get();
+    var exception = assertThrows(ExecutionException.class, () -> futures.get(1).get());
+    assertTrue(exception.getCause() instanceof GoogleJsonResponseException);
+    futures.get(2).get();
+
+    assertEquals(4, coalescer.getWriteCount());
+    assertEquals(2, writes.size());
+    assertTrue(writes.stream().allMatch(w -> w.bindings.size() == 1));
+  }
+
+  @Test
+  public void whenCoalescedWriteFailsWithConcurrentModifications_ThenBindingsAreNotWrittenPerCaller() throws Exception {
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> {
+        throw new AlreadyExistsException("mock");
+      },
+      window);
+
+    var futures = runTasks(coalescer, window, createTasks(coalescer, SAMPLE_PROJECT_1, 3));
+
+    var causes = new ArrayList<Throwable>();
+    for (var future : futures) {
+      causes.add(assertThrows(ExecutionException.class, future::get).getCause());
+    }
+
+    assertEquals(1, coalescer.getWriteCount());
+    assertTrue(causes.get(0) instanceof AlreadyExistsException);
+    assertTrue(causes.stream().allMatch(c -> c == causes.get(0)));
+  }
+
+  @Test
+  public void whenWriteFails_ThenAllCallersReceiveException() throws Exception {
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> {
+        throw new AccessDeniedException("mock");
+      },
+      window);
+
+    for (var future : runTasks(coalescer, window, createTasks(coalescer, SAMPLE_PROJECT_1, 4))) {
+      var exception = assertThrows(ExecutionException.class, future::get);
+      assertTrue(exception.getCause() instanceof AccessDeniedException);
+    }
+
+    assertEquals(1, coalescer.getWriteCount());
+  }
+
+  @Test
+  public void whenWriteFailsWithoutCoalescing_ThenExceptionIsPropagated() {
+    var coalescer = new IamBindingCoalescer(
+      Duration.ZERO,
+      (projectId, bindings, options, reason) -> {
+        throw new AccessDeniedException("mock");
+      });
+
+    assertThrows(
+      AccessDeniedException.class,
+      () -> coalescer.addProjectIamBindings(
+        SAMPLE_PROJECT_1,
+        Collections.singletonList(createBinding("roles/a")),
+        OPTIONS,
+        "a"));
+  }
+
+  // -------------------------------------------------------------------------
+  // Deadline.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenFollowerTimesOutBeforeWrite_ThenItsBindingsAreNotWritten() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> writes.add(new Write(projectId, bindings, reason)),
+      window);
+
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var leader = executor.submit(() -> {
+        coalescer.addProjectIamBindings(SAMPLE_PROJECT_1, List.of(createBinding("roles/leader")), OPTIONS, "reason");
+        return null;
+      });
+
+      awaitPendingCount(coalescer, 1);
+
+      try (var scope = Deadline.after(Duration.ZERO).makeCurrent()) {
+        assertThrows(
+          DeadlineExceededException.class,
+          () -> coalescer.addProjectIamBindings(
+            SAMPLE_PROJECT_1,
+            List.of(createBinding("roles/follower")),
+            OPTIONS,
+            "reason"));
+      }
+
+      assertEquals(1, coalescer.getPendingCount());
+
+      window.close();
+      leader.get();
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    assertEquals(1, writes.size());
+    assertEquals(1, writes.get(0).bindings.size());
+    assertEquals("roles/leader", writes.get(0).bindings.get(0).getRole());
+  }
+
+  @Test
+  public void whenFollowerTimesOutDuringWrite_ThenItWaitsForOutcome() throws Exception {
+    var writes = new CopyOnWriteArrayList<Write>();
+    var writeStarted = new CountDownLatch(1);
+    var writeResumed = new CountDownLatch(1);
+    var window = new ManualWindow();
+    var coalescer = new IamBindingCoalescer(
+      WINDOW,
+      (projectId, bindings, options, reason) -> {
+        writeStarted.countDown();
+        try {
+          writeResumed.await();
+        }
+        catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+
+        writes.add(new Write(projectId, bindings, reason));
+      },
+      window);
+
+    var executor = Executors.newFixedThreadPool(2);
+    try {
+      var leader = executor.submit(() -> {
+        coalescer.addProjectIamBindings(SAMPLE_PROJECT_1, List.of(createBinding("roles/leader")), OPTIONS, "reason");
+        return null;
+      });
+
+      awaitPendingCount(coalescer, 1);
+
+      var followerThread = new AtomicReference<Thread>();
+      var followerDeadline = Deadline.after(WINDOW);
+      var follower = executor.submit(() -> {
+        followerThread.set(Thread.currentThread());
+        try (var scope = followerDeadline.makeCurrent()) {
+          coalescer.addProjectIamBindings(SAMPLE_PROJECT_1, List.of(createBinding("roles/follower")), OPTIONS, "reason");
+        }
+        return null;
+      });
+
+      awaitPendingCount(coalescer, 2);
+      window.close();
+      writeStarted.await();
+
+      //
+      // Let the follower's deadline pass while the batch is being
+      // written. Once it has, the follower either waits for the write
+      // without a timeout, or fails.
+      //
+      while (!follower.isDone() && followerThread.get().getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+
+      assertTrue(followerDeadline.isExpired());
+
+      writeResumed.countDown();
+      leader.get();
+      follower.get();
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    assertEquals(1, writes.size());
+    assertEquals(2, writes.get(0).bindings.size());
+  }
+}
@@ -63,6 +63,39 @@ public class TestIamTemporaryAccessConditions {
     assertFalse(IamTemporaryAccessConditions.isTemporaryAccessCondition(clause));
   }
 
+  // -------------------------------------------------------------------------
+  // getEndTime.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenExpressionIsNull_ThenGetEndTimeReturnsEmpty() {
+    assertFalse(IamTemporaryAccessConditions.getEndTime(null).isPresent());
+  }
+
+  @Test
+  public void whenExpressionIsNotTemporaryCondition_ThenGetEndTimeReturnsEmpty() {
+    assertFalse(IamTemporaryAccessConditions.getEndTime("has({}.jitAccessConstraint)").isPresent());
+  }
+
+  @Test
+  public void whenEndTimeMalformed_ThenGetEndTimeReturnsEmpty() {
+    var clause =
+      "(request.time >= timestamp(\"2020-01-01T00:00:00Z\") && "
+        + "request.time < timestamp(\"tomorrow\"))";
+
+    assertFalse(IamTemporaryAccessConditions.getEndTime(clause).isPresent());
+  }
+
+  @Test
+  public void whenExpressionIsTemporaryCondition_ThenGetEndTimeReturnsEndTime() {
+    var clause = IamTemporaryAccessConditions.createExpression(
+      OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), Duration.ofMinutes(5));
+
+    assertEquals(
+      OffsetDateTime.of(2020, 1, 1, 0, 5, 0, 0, ZoneOffset.UTC),
+      IamTemporaryAccessConditions.getEndTime(clause).get());
+  }
+
   // -------------------------------------------------------------------------
   // createExpression.
   // -------------------------------------------------------------------------
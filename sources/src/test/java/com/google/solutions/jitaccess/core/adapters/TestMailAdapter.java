@@ -0,0 +1,236 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.adapters;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMailAdapter {
+
+  /**
+   * Minimal SMTP server that accepts all mails.
+   */
+  private static class FakeSmtpServer implements Closeable {
+    private final ServerSocket socket;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger messages = new AtomicInteger();
+
+    FakeSmtpServer() throws IOException {
+      this.socket = new ServerSocket(0);
+
+      var acceptor = new Thread(() -> {
+        while (!this.socket.isClosed()) {
+          try {
+            var client = this.socket.accept();
+            this.connections.incrementAndGet();
+
+            var handler = new Thread(() -> handle(client));
+            handler.setDaemon(true);
+            handler.start();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private void handle(Socket client) {
+      try (client;
+           var reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+           var writer = new PrintWriter(client.getOutputStream(), true)) {
+
+        writer.print("220 localhost\r\n");
+        writer.flush();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+          var command = line.toUpperCase();
+          if (command.startsWith("DATA")) {
+            writer.print("354 go ahead\r\n");
+            writer.flush();
+            while ((line = reader.readLine()) != null && !line.equals(".")) {
+            }
+
+            this.messages.incrementAndGet();
+            writer.print("250 ok\r\n");
+          }
+          else if (command.startsWith("QUIT")) {
+            writer.print("221 bye\r\n");
+            writer.flush();
+            return;
+          }
+          else {
+            writer.print("250 ok\r\n");
+          }
+
+          writer.flush();
+        }
+      }
+      catch (IOException ignored) {
+      }
+    }
+
+    int getPort() {
+      return this.socket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.socket.close();
+    }
+  }
+
+  private static MailAdapter.Options createOptions(int port) {
+    return new MailAdapter.Options("localhost", port, "Sender", "sender@example.com");
+  }
+
+  // -------------------------------------------------------------------------
+  // sendMail.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenSendingMultipleMails_ThenSendMailReusesConnection() throws Exception {
+    try (var server = new FakeSmtpServer()) {
+      var adapter = new MailAdapter(createOptions(server.getPort()));
+
+      adapter.sendMail("Recipient", "recipient@example.com", "subject-1", "<p>1</p>");
+      adapter.sendMail("Recipient", "recipient@example.com", "subject-2", "<p>2</p>");
+      adapter.sendMail("Recipient", "recipient@example.com", "subject-3", "<p>3</p>");
+
+      adapter.close();
+
+      assertEquals(3, server.messages.get());
+      assertEquals(1, server.connections.get());
+    }
+  }
+
+  @Test
+  public void whenServerUnreachable_ThenSendMailThrowsException() throws Exception {
+    int port;
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    var adapter = new MailAdapter(createOptions(port));
+
+    assertThrows(
+      MailAdapter.MailException.class,
+      () -> adapter.sendMail("Recipient", "recipient@example.com", "subject", "<p></p>"));
+  }
+
+  // -------------------------------------------------------------------------
+  // submitMail.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenSubmittingMultipleMails_ThenSubmitMailDeliversInBackground() throws Exception {
+    try (var server = new FakeSmtpServer()) {
+      var adapter = new MailAdapter(createOptions(server.getPort()));
+
+      var results = new ArrayList<CompletableFuture<Void>>();
+      for (int i = 0; i < 10; i++) {
+        results.add(adapter.submitMail("Recipient", "recipient@example.com", "subject-" + i, "<p></p>"));
+      }
+
+      CompletableFuture
+        .allOf(results.toArray(new CompletableFuture[0]))
+        .get(30, TimeUnit.SECONDS);
+
+      adapter.close();
+
+      assertEquals(10, server.messages.get());
+      assertEquals(1, server.connections.get());
+    }
+  }
+
+  @Test
+  public void whenServerUnreachable_ThenSubmitMailFails() throws Exception {
+    int port;
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    var adapter = new MailAdapter(createOptions(port));
+    var result = adapter.submitMail("Recipient", "recipient@example.com", "subject", "<p></p>");
+
+    var exception = assertThrows(ExecutionException.class, () -> result.get(30, TimeUnit.SECONDS));
+    assertTrue(exception.getCause() instanceof MailAdapter.MailException);
+
+    adapter.close();
+  }
+
+  @Test
+  public void whenClosed_ThenSubmitMailFails() {
+    var adapter = new MailAdapter(createOptions(25));
+    adapter.close();
+
+    var result = adapter.submitMail("Recipient", "recipient@example.com", "subject", "<p></p>");
+
+    assertTrue(result.isCompletedExceptionally());
+  }
+
+  @Test
+  public void whenClosedWhileSubmitting_ThenAllSubmittedMailsComplete() throws Exception {
+    try (var server = new FakeSmtpServer()) {
+      var adapter = new MailAdapter(createOptions(server.getPort()));
+      var results = new ArrayList<CompletableFuture<Void>>();
+
+      var submitter = new Thread(() -> {
+        for (int i = 0; i < 50; i++) {
+          synchronized (results) {
+            results.add(adapter.submitMail("Recipient", "recipient@example.com", "subject-" + i, "<p></p>"));
+          }
+        }
+      });
+      submitter.start();
+
+      adapter.close();
+      submitter.join();
+
+      for (var result : results) {
+        try {
+          result.get(30, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof MailAdapter.MailException);
+        }
+      }
+    }
+  }
+}
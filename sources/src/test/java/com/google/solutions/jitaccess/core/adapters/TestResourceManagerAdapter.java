@@ -178,4 +178,89 @@ public class TestResourceManagerAdapter {
     assertTrue(newPolicy.getBindings().stream().anyMatch(
       b -> b.getCondition() != null && b.getCondition().getTitle().equals("permanent binding")));
   }
+
+  //---------------------------------------------------------------------
+  // addProjectIamBindings.
+  //---------------------------------------------------------------------
+
+  @Test
+  public void whenAddingMultipleBindings_ThenAddProjectIamBindingsAddsAllBindings() throws Exception {
+    var adapter = new ResourceManagerAdapter(IntegrationTestEnvironment.APPLICATION_CREDENTIALS);
+
+    String condition =
+      IamTemporaryAccessConditions.createExpression(OffsetDateTime.now(), Duration.ofMinutes(5));
+
+    adapter.addProjectIamBindings(
+      IntegrationTestEnvironment.PROJECT_ID,
+      List.of(
+        new Binding()
+          .setMembers(List.of("serviceAccount:" + IntegrationTestEnvironment.TEMPORARY_ACCESS_USER.email))
+          .setRole("roles/browser")
+          .setCondition(new Expr()
+            .setTitle("batch binding 1")
+            .setExpression(condition)),
+        new Binding()
+          .setMembers(List.of("serviceAccount:" + IntegrationTestEnvironment.TEMPORARY_ACCESS_USER.email))
+          .setRole("roles/iam.securityReviewer")
+          .setCondition(new Expr()
+            .setTitle("batch binding 2")
+            .setExpression(condition))),
+      EnumSet.of(ResourceManagerAdapter.IamBindingOptions.REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE),
+      REQUEST_REASON);
+
+    var service = new CloudResourceManager
+      .Builder(
+      HttpTransport.newTransport(),
+      new GsonFactory(),
+      new HttpCredentialsAdapter(GoogleCredentials.getApplicationDefault()))
+      .build();
+
+    var policy = service
+      .projects()
+      .getIamPolicy(
+        String.format("projects/%s", IntegrationTestEnvironment.PROJECT_ID),
+        new GetIamPolicyRequest()
+          .setOptions(new GetPolicyOptions().setRequestedPolicyVersion(3)))
+      .execute();
+
+    assertTrue(policy.getBindings().stream().anyMatch(
+      b -> b.getCondition() != null && "batch binding 1".equals(b.getCondition().getTitle())));
+    assertTrue(policy.getBindings().stream().anyMatch(
+      b -> b.getCondition() != null && "batch binding 2".equals(b.getCondition().getTitle())));
+  }
+
+  //---------------------------------------------------------------------
+  // removeObsoleteBindings.
+  //---------------------------------------------------------------------
+
+  @Test
+  public void whenExistingBindingIsTemporaryAndMatches_ThenRemoveObsoleteBindingsRemovesBinding() {
+    var start = OffsetDateTime.now();
+    var temporaryCondition = IamTemporaryAccessConditions.createExpression(start, start.plusMinutes(5));
+
+    var obsolete = new Binding()
+      .setMembers(List.of("user:alice@example.com"))
+      .setRole("roles/browser")
+      .setCondition(new Expr().setExpression(temporaryCondition));
+    var permanent = new Binding()
+      .setMembers(List.of("user:alice@example.com"))
+      .setRole("roles/browser");
+    var otherCondition = new Binding()
+      .setMembers(List.of("user:alice@example.com"))
+      .setRole("roles/browser")
+      .setCondition(new Expr().setExpression("has({}.jitAccessConstraint)"));
+    var otherRole = new Binding()
+      .setMembers(List.of("user:alice@example.com"))
+      .setRole("roles/viewer")
+      .setCondition(new Expr().setExpression(temporaryCondition));
+
+    var remaining = ResourceManagerAdapter.removeObsoleteBindings(
+      List.of(obsolete, permanent, otherCondition, otherRole),
+      List.of(new Binding()
+        .setMembers(List.of("user:alice@example.com"))
+        .setRole("roles/browser")
+        .setCondition(new Expr().setExpression(temporaryCondition))));
+
+    assertEquals(List.of(permanent, otherCondition, otherRole), remaining);
+  }
 }
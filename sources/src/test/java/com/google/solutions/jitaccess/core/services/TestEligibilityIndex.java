@@ -0,0 +1,305 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import com.google.solutions.jitaccess.core.data.RoleBinding;
+import com.google.solutions.jitaccess.core.data.UserId;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEligibilityIndex {
+  private static final UserId SAMPLE_USER = new UserId("user-1", "user-1@example.com");
+  private static final UserId SAMPLE_USER_2 = new UserId("user-2", "user-2@example.com");
+  private static final UserId SAMPLE_USER_3 = new UserId("\u30e6\u30fc\u30b6\u30fc@example.com");
+  private static final ProjectId SAMPLE_PROJECT_ID_1 = new ProjectId("project-1");
+  private static final ProjectId SAMPLE_PROJECT_ID_2 = new ProjectId("project-2");
+  private static final String SAMPLE_ROLE = "roles/resourcemanager.projectIamAdmin";
+  private static final String SAMPLE_ROLE_2 = "roles/browser";
+  private static final Instant NOW = Instant.ofEpochSecond(1000000);
+
+  // -------------------------------------------------------------------------
+  // build.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenBuilderEmpty_ThenBuildReturnsEmptyIndex() {
+    var index = new EligibilityIndex.Builder(NOW).build();
+
+    assertEquals(NOW, index.getCreationTime());
+    assertEquals(0, index.getUserCount());
+    assertEquals(0, index.getBindingCount());
+  }
+
+  @Test
+  public void whenBindingAddedTwice_ThenBuildRemovesDuplicates() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, NOW.plusSeconds(60))
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, NOW.plusSeconds(120))
+      .build();
+
+    assertEquals(1, index.getUserCount());
+    assertEquals(2, index.getBindingCount());
+  }
+
+  @Test
+  public void whenActivatedBindingHasNoExpiry_ThenAddActivatedBindingThrowsException() {
+    assertThrows(
+      NullPointerException.class,
+      () -> new EligibilityIndex.Builder(NOW)
+        .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, null));
+  }
+
+  @Test
+  public void whenStatusIsActivated_ThenAddEligibleBindingThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new EligibilityIndex.Builder(NOW)
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ACTIVATED));
+  }
+
+  // -------------------------------------------------------------------------
+  // listProjects.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenUserNotIndexed_ThenListProjectsReturnsEmptyList() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    assertEquals(List.of(), index.listProjects(SAMPLE_USER_2, NOW));
+  }
+
+  @Test
+  public void whenUserHasMultipleBindings_ThenListProjectsReturnsSortedDistinctProjects() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_MPA)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE_2, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER_2, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    assertEquals(
+      List.of(SAMPLE_PROJECT_ID_1, SAMPLE_PROJECT_ID_2),
+      index.listProjects(SAMPLE_USER, NOW));
+    assertEquals(
+      List.of(SAMPLE_PROJECT_ID_2),
+      index.listProjects(SAMPLE_USER_2, NOW));
+  }
+
+  @Test
+  public void whenActivatedBindingExpired_ThenListProjectsIgnoresBinding() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, NOW.plusSeconds(60))
+      .build();
+
+    assertEquals(List.of(SAMPLE_PROJECT_ID_1), index.listProjects(SAMPLE_USER, NOW));
+    assertEquals(List.of(), index.listProjects(SAMPLE_USER, NOW.plus(Duration.ofMinutes(1))));
+  }
+
+  // -------------------------------------------------------------------------
+  // listProjectRoles.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenProjectNotIndexed_ThenListProjectRolesReturnsEmptyList() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER_2, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    assertEquals(List.of(), index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_2, NOW));
+    assertEquals(List.of(), index.listProjectRoles(SAMPLE_USER, new ProjectId("project-3"), NOW));
+  }
+
+  @Test
+  public void whenUserHasEligibleBindings_ThenListProjectRolesReturnsJitBeforeMpaRoles() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_MPA)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE_2, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var roles = index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1, NOW);
+
+    assertEquals(2, roles.size());
+    assertEquals(
+      new RoleBinding(SAMPLE_PROJECT_ID_1.getFullResourceName(), SAMPLE_ROLE_2),
+      roles.get(0).roleBinding);
+    assertEquals(ProjectRole.Status.ELIGIBLE_FOR_JIT, roles.get(0).status);
+    assertEquals(
+      new RoleBinding(SAMPLE_PROJECT_ID_1.getFullResourceName(), SAMPLE_ROLE),
+      roles.get(1).roleBinding);
+    assertEquals(ProjectRole.Status.ELIGIBLE_FOR_MPA, roles.get(1).status);
+  }
+
+  @Test
+  public void whenEligibleBindingActivated_ThenListProjectRolesReturnsActivatedRole() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, NOW.plusSeconds(60))
+      .build();
+
+    var roles = index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1, NOW);
+
+    assertEquals(1, roles.size());
+    assertEquals(ProjectRole.Status.ACTIVATED, roles.get(0).status);
+  }
+
+  @Test
+  public void whenActivationExpired_ThenListProjectRolesReturnsEligibleRole() {
+    var index = new EligibilityIndex.Builder(NOW)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, NOW.plusSeconds(60))
+      .build();
+
+    var roles = index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1, NOW.plusSeconds(60));
+
+    assertEquals(1, roles.size());
+    assertEquals(ProjectRole.Status.ELIGIBLE_FOR_JIT, roles.get(0).status);
+  }
+
+  // -------------------------------------------------------------------------
+  // writeSnapshot/readSnapshot.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenIndexEmpty_ThenReadSnapshotReturnsEmptyIndex() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(NOW).build().writeSnapshot(path);
+
+      var index = EligibilityIndex.readSnapshot(path);
+      assertEquals(NOW, index.getCreationTime());
+      assertEquals(0, index.getUserCount());
+      assertEquals(0, index.getBindingCount());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotWritten_ThenReadSnapshotReturnsEquivalentIndex() throws Exception {
+    var original = new EligibilityIndex.Builder(NOW.plusMillis(123))
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_MPA)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE_2, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addActivatedBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, NOW.plusSeconds(60))
+      .addEligibleBinding(SAMPLE_USER_3, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      original.writeSnapshot(path);
+      var index = EligibilityIndex.readSnapshot(path);
+
+      assertEquals(original.getCreationTime(), index.getCreationTime());
+      assertEquals(original.getUserCount(), index.getUserCount());
+      assertEquals(original.getBindingCount(), index.getBindingCount());
+
+      for (var user : List.of(SAMPLE_USER, SAMPLE_USER_2, SAMPLE_USER_3)) {
+        assertEquals(original.listProjects(user, NOW), index.listProjects(user, NOW));
+
+        for (var projectId : List.of(SAMPLE_PROJECT_ID_1, SAMPLE_PROJECT_ID_2)) {
+          assertEquals(
+            original.listProjectRoles(user, projectId, NOW),
+            index.listProjectRoles(user, projectId, NOW));
+        }
+      }
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotExists_ThenWriteSnapshotReplacesFile() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(NOW)
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+        .build()
+        .writeSnapshot(path);
+      var first = EligibilityIndex.readSnapshot(path);
+
+      new EligibilityIndex.Builder(NOW.plusSeconds(1))
+        .build()
+        .writeSnapshot(path);
+
+      assertEquals(1, first.getBindingCount());
+      assertEquals(List.of(SAMPLE_PROJECT_ID_1), first.listProjects(SAMPLE_USER, NOW));
+      assertEquals(0, EligibilityIndex.readSnapshot(path).getBindingCount());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenFileIsNotSnapshot_ThenReadSnapshotThrowsException() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      Files.writeString(path, "not a snapshot");
+
+      assertThrows(
+        IOException.class,
+        () -> EligibilityIndex.readSnapshot(path));
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotTruncated_ThenReadSnapshotThrowsException() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(NOW)
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+        .build()
+        .writeSnapshot(path);
+
+      var content = Files.readAllBytes(path);
+      Files.write(path, Arrays.copyOf(content, content.length - 1));
+
+      assertThrows(
+        IOException.class,
+        () -> EligibilityIndex.readSnapshot(path));
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,459 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.services.cloudasset.v1.model.*;
+import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
+import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
+import com.google.solutions.jitaccess.core.adapters.LogAdapter;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import com.google.solutions.jitaccess.core.data.ProjectRole;
+import com.google.solutions.jitaccess.core.data.UserId;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestEligibilityIndexer {
+  private static final UserId SAMPLE_USER = new UserId("user-1", "user-1@example.com");
+  private static final ProjectId SAMPLE_PROJECT_ID_1 = new ProjectId("project-1");
+  private static final ProjectId SAMPLE_PROJECT_ID_2 = new ProjectId("project-2");
+  private static final String SAMPLE_FOLDER_RESOURCE = "//cloudresourcemanager.googleapis.com/folders/1";
+  private static final String SAMPLE_ROLE = "roles/resourcemanager.projectIamAdmin";
+  private static final String JIT_CONDITION = "has({}.jitAccessConstraint)";
+  private static final String MPA_CONDITION = "has({}.multiPartyApprovalConstraint)";
+
+  private static IamPolicySearchResult createPolicy(String resource, Binding binding) {
+    return new IamPolicySearchResult()
+      .setResource(resource)
+      .setPolicy(new Policy().setBindings(List.of(binding)));
+  }
+
+  private static IamPolicyAnalysis createAnalysis(
+    String condition,
+    String identity,
+    String... resources
+  ) {
+    var acl = new GoogleCloudAssetV1AccessControlList()
+      .setResources(List.of(resources)
+        .stream()
+        .map(r -> new GoogleCloudAssetV1Resource().setFullResourceName(r))
+        .collect(Collectors.toList()));
+
+    return new IamPolicyAnalysis()
+      .setAnalysisResults(List.of(new IamPolicyAnalysisResult()
+        .setAccessControlLists(List.of(acl))
+        .setIamBinding(new Binding()
+          .setRole(SAMPLE_ROLE)
+          .setCondition(new Expr().setExpression(condition)))
+        .setIdentityList(new GoogleCloudAssetV1IdentityList()
+          .setIdentities(List.of(
+            new GoogleCloudAssetV1Identity().setName(identity),
+            new GoogleCloudAssetV1Identity().setName("group:ignoreme@example.com"))))));
+  }
+
+  // -------------------------------------------------------------------------
+  // Options.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenRefreshIntervalIsZero_ThenIndexingIsDisabled() {
+    var indexer = new EligibilityIndexer(
+      Mockito.mock(AssetInventoryAdapter.class),
+      new EligibilityIndexer.Options("organizations/0"));
+
+    assertFalse(indexer.getOptions().isEnabled());
+    assertFalse(indexer.getIndex().isPresent());
+  }
+
+  // -------------------------------------------------------------------------
+  // buildIndex.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenNoPoliciesFound_ThenBuildIndexReturnsEmptyIndex() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of());
+
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0"));
+
+    var index = indexer.buildIndex();
+    assertEquals(0, index.getBindingCount());
+  }
+
+  @Test
+  public void whenPolicyContainsEligibleBinding_ThenBuildIndexExpandsBinding() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of(
+        createPolicy(
+          SAMPLE_FOLDER_RESOURCE,
+          new Binding()
+            .setRole(SAMPLE_ROLE)
+            .setMembers(List.of("group:group@example.com"))
+            .setCondition(new Expr().setExpression(JIT_CONDITION)))));
+    when(assetAdapter.findPermissionedPrincipalsByResource(
+      eq("organizations/0"),
+      eq(SAMPLE_FOLDER_RESOURCE),
+      eq(SAMPLE_ROLE),
+      eq(true)))
+      .thenReturn(createAnalysis(
+        JIT_CONDITION,
+        "user:" + SAMPLE_USER.email,
+        SAMPLE_FOLDER_RESOURCE,
+        SAMPLE_PROJECT_ID_1.getFullResourceName(),
+        SAMPLE_PROJECT_ID_2.getFullResourceName()));
+
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0"));
+
+    var index = indexer.buildIndex();
+    assertEquals(1, index.getUserCount());
+    assertEquals(
+      List.of(SAMPLE_PROJECT_ID_1, SAMPLE_PROJECT_ID_2),
+      index.listProjects(SAMPLE_USER, Instant.now()));
+
+    var roles = index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1, Instant.now());
+    assertEquals(1, roles.size());
+    assertEquals(ProjectRole.Status.ELIGIBLE_FOR_JIT, roles.get(0).status);
+  }
+
+  @Test
+  public void whenPolicyContainsActivatedBinding_ThenBuildIndexAddsBindingWithoutAnalysis() throws Exception {
+    var endTime = OffsetDateTime.now(ZoneOffset.UTC).plusMinutes(5);
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of(
+        createPolicy(
+          SAMPLE_PROJECT_ID_1.getFullResourceName(),
+          new Binding()
+            .setRole(SAMPLE_ROLE)
+            .setMembers(List.of("user:" + SAMPLE_USER.email))
+            .setCondition(new Expr()
+              .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+              .setExpression(IamTemporaryAccessConditions.createExpression(
+                endTime.minusMinutes(5),
+                endTime))))));
+
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0"));
+
+    var index = indexer.buildIndex();
+
+    var roles = index.listProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1, Instant.now());
+    assertEquals(1, roles.size());
+    assertEquals(ProjectRole.Status.ACTIVATED, roles.get(0).status);
+
+    verify(assetAdapter, times(0)).findPermissionedPrincipalsByResource(
+      anyString(),
+      anyString(),
+      anyString(),
+      Mockito.anyBoolean());
+  }
+
+  @Test
+  public void whenAnalysisFails_ThenBuildIndexThrowsException() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of(
+        createPolicy(
+          SAMPLE_PROJECT_ID_1.getFullResourceName(),
+          new Binding()
+            .setRole(SAMPLE_ROLE)
+            .setMembers(List.of("user:" + SAMPLE_USER.email))
+            .setCondition(new Expr().setExpression(MPA_CONDITION)))));
+    when(assetAdapter.findPermissionedPrincipalsByResource(
+      anyString(),
+      anyString(),
+      anyString(),
+      eq(true)))
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0"));
+
+    assertThrows(
+      AccessDeniedException.class,
+      () -> indexer.buildIndex());
+  }
+
+  // -------------------------------------------------------------------------
+  // refresh.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenBuildFails_ThenRefreshKeepsPreviousIndex() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of())
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0"));
+
+    indexer.refresh();
+    var index = indexer.getIndex();
+    assertTrue(index.isPresent());
+
+    indexer.refresh();
+    assertSame(index.get(), indexer.getIndex().get());
+    assertEquals(1, indexer.getBuildCount());
+    assertEquals(1, indexer.getFailureCount());
+  }
+
+  @Test
+  public void whenBuildFails_ThenRefreshLogsError() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var log = new StringBuilder();
+    var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new LogAdapter(log),
+      new EligibilityIndexer.Options("organizations/0"));
+
+    indexer.refresh();
+
+    assertTrue(log.toString().contains(EligibilityIndexer.LOG_EVENT_REFRESH));
+    assertTrue(log.toString().contains("mock"));
+  }
+
+  // -------------------------------------------------------------------------
+  // getIndex.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenIndexExceedsMaxAge_ThenGetIndexReturnsEmpty() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(Instant.now().minus(Duration.ofMinutes(10)))
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+        .build()
+        .writeSnapshot(path);
+
+      var indexer = new EligibilityIndexer(
+        Mockito.mock(AssetInventoryAdapter.class),
+        new EligibilityIndexer.Options(
+          "organizations/0",
+          Duration.ZERO,
+          1,
+          Optional.empty(),
+          Duration.ofMinutes(5),
+          false));
+      indexer.loadSnapshot(path);
+
+      assertFalse(indexer.getIndex().isPresent());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenIndexWithinMaxAge_ThenGetIndexReturnsIndex() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(Instant.now().minus(Duration.ofMinutes(1)))
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+        .build()
+        .writeSnapshot(path);
+
+      var indexer = new EligibilityIndexer(
+        Mockito.mock(AssetInventoryAdapter.class),
+        new EligibilityIndexer.Options(
+          "organizations/0",
+          Duration.ZERO,
+          1,
+          Optional.empty(),
+          Duration.ofMinutes(5),
+          false));
+      indexer.loadSnapshot(path);
+
+      assertTrue(indexer.getIndex().isPresent());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenEnabled_ThenIndexerBuildsIndexInBackground() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of());
+
+    try (var indexer = new EligibilityIndexer(
+      assetAdapter,
+      new EligibilityIndexer.Options("organizations/0", Duration.ofMinutes(1), 1))) {
+
+      verify(assetAdapter, Mockito.timeout(5000)).findIamPolicies(eq("organizations/0"));
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Snapshots.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenSnapshotPathSet_ThenRefreshWritesSnapshot() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of());
+
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      var indexer = new EligibilityIndexer(
+        assetAdapter,
+        new EligibilityIndexer.Options("organizations/0", Duration.ZERO, 1, Optional.of(path)));
+
+      indexer.refresh();
+
+      assertEquals(
+        indexer.getIndex().get().getCreationTime(),
+        EligibilityIndex.readSnapshot(path).getCreationTime());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotRecent_ThenLoadSnapshotUsesSnapshot() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(Instant.now())
+        .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+        .build()
+        .writeSnapshot(path);
+
+      var indexer = new EligibilityIndexer(
+        Mockito.mock(AssetInventoryAdapter.class),
+        new EligibilityIndexer.Options("organizations/0"));
+      indexer.loadSnapshot(path);
+
+      assertTrue(indexer.getIndex().isPresent());
+      assertEquals(
+        List.of(SAMPLE_PROJECT_ID_1),
+        indexer.getIndex().get().listProjects(SAMPLE_USER, Instant.now()));
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotTooOld_ThenLoadSnapshotIgnoresSnapshot() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      new EligibilityIndex.Builder(Instant.now().minus(EligibilityIndexer.MAX_SNAPSHOT_AGE).minusSeconds(1))
+        .build()
+        .writeSnapshot(path);
+
+      var indexer = new EligibilityIndexer(
+        Mockito.mock(AssetInventoryAdapter.class),
+        new EligibilityIndexer.Options("organizations/0"));
+      indexer.loadSnapshot(path);
+
+      assertFalse(indexer.getIndex().isPresent());
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotInvalid_ThenLoadSnapshotIgnoresSnapshot() throws Exception {
+    var path = Files.createTempFile("index", ".bin");
+    try {
+      Files.writeString(path, "not a snapshot");
+
+      var log = new StringBuilder();
+      var indexer = new EligibilityIndexer(
+        Mockito.mock(AssetInventoryAdapter.class),
+        new LogAdapter(log),
+        new EligibilityIndexer.Options("organizations/0"));
+      indexer.loadSnapshot(path);
+
+      assertFalse(indexer.getIndex().isPresent());
+      assertEquals(0, indexer.getFailureCount());
+      assertEquals(1, indexer.getSnapshotFailureCount());
+      assertTrue(log.toString().contains(EligibilityIndexer.LOG_EVENT_SNAPSHOT));
+    }
+    finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void whenSnapshotCannotBeWritten_ThenRefreshKeepsIndexAndLogsError() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter.findIamPolicies(eq("organizations/0")))
+      .thenReturn(List.of());
+
+    var directory = Files.createTempDirectory("index");
+    try {
+      var log = new StringBuilder();
+      var indexer = new EligibilityIndexer(
+        assetAdapter,
+        new LogAdapter(log),
+        new EligibilityIndexer.Options(
+          "organizations/0",
+          Duration.ZERO,
+          1,
+          Optional.of(directory.resolve("missing").resolve("index.bin"))));
+
+      indexer.refresh();
+
+      assertTrue(indexer.getIndex().isPresent());
+      assertEquals(1, indexer.getBuildCount());
+      assertEquals(0, indexer.getFailureCount());
+      assertEquals(1, indexer.getSnapshotFailureCount());
+      assertTrue(log.toString().contains(EligibilityIndexer.LOG_EVENT_SNAPSHOT));
+    }
+    finally {
+      Files.deleteIfExists(directory);
+    }
+  }
+}
@@ -24,6 +24,9 @@ package com.google.solutions.jitaccess.core.services;
 import com.google.api.services.cloudasset.v1.model.Expr;
 import org.junit.jupiter.api.Test;
 
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -76,4 +79,120 @@ public class TestJitConstraints {
     assertFalse(JitConstraints.isMultiPartyApprovalConstraint(new Expr().setExpression("")));
     assertFalse(JitConstraints.isMultiPartyApprovalConstraint(null));
   }
+
+  // ---------------------------------------------------------------------
+  // classify.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenConditionIsNullOrEmpty_ThenClassifyReturnsOther() {
+    assertEquals(JitConstraints.Classification.OTHER, JitConstraints.classify(null));
+    assertEquals(JitConstraints.Classification.OTHER, JitConstraints.classify(new Expr()));
+    assertEquals(
+      JitConstraints.Classification.OTHER,
+      JitConstraints.classify(new Expr().setExpression("")));
+  }
+
+  @Test
+  public void whenConditionIsConstraint_ThenClassifyReturnsConstraintType() {
+    assertEquals(
+      JitConstraints.Classification.JIT,
+      JitConstraints.classify(new Expr().setExpression("has({}.jitAccessConstraint)")));
+    assertEquals(
+      JitConstraints.Classification.MPA,
+      JitConstraints.classify(new Expr().setExpression("has({}.multiPartyApprovalConstraint)")));
+  }
+
+  @Test
+  public void whenConditionHasActivationTitle_ThenClassifyReturnsActivated() {
+    var condition = new Expr()
+      .setTitle(JitConstraints.ACTIVATION_CONDITION_TITLE)
+      .setExpression("request.time < timestamp(\"2022-01-01T00:00:00Z\")");
+    assertEquals(JitConstraints.Classification.ACTIVATED, JitConstraints.classify(condition));
+  }
+
+  @Test
+  public void whenConditionIsUnrelated_ThenClassifyReturnsOther() {
+    assertEquals(
+      JitConstraints.Classification.OTHER,
+      JitConstraints.classify(new Expr().setExpression("has({}.otherConstraint)")));
+    assertEquals(
+      JitConstraints.Classification.OTHER,
+      JitConstraints.classify(new Expr().setExpression("has({}.jitAccessConstraint) && true")));
+    assertEquals(
+      JitConstraints.Classification.OTHER,
+      JitConstraints.classify(new Expr().setExpression("has({}.jitAccessConstraint")));
+  }
+
+  @Test
+  public void whenConditionClassifiedRepeatedly_ThenClassificationIsCached() {
+    var expression = "has({}.jitAccessConstraint) /* cached */";
+    var before = JitConstraints.getCachedExpressionCount();
+
+    JitConstraints.classify(new Expr().setExpression(expression));
+    JitConstraints.classify(new Expr().setExpression(expression));
+    JitConstraints.classify(new Expr().setExpression(expression));
+
+    assertEquals(before + 1, JitConstraints.getCachedExpressionCount());
+  }
+
+  // ---------------------------------------------------------------------
+  // scanExpression.
+  // ---------------------------------------------------------------------
+
+  private static final Pattern LEGACY_JIT_PATTERN = Pattern
+    .compile("^\\s*has\\(\\s*\\{\\s*\\}.jitaccessconstraint\\s*\\)\\s*$");
+  private static final Pattern LEGACY_MPA_PATTERN = Pattern
+    .compile("^\\s*has\\(\\s*\\{\\s*\\}.multipartyapprovalconstraint\\s*\\)\\s*$");
+
+  private static JitConstraints.Classification legacyClassify(String expression) {
+    var normalized = expression.toLowerCase().replace(" ", "");
+    if (LEGACY_JIT_PATTERN.matcher(normalized).matches()) {
+      return JitConstraints.Classification.JIT;
+    }
+    else if (LEGACY_MPA_PATTERN.matcher(normalized).matches()) {
+      return JitConstraints.Classification.MPA;
+    }
+    else {
+      return JitConstraints.Classification.OTHER;
+    }
+  }
+
+  @Test
+  public void whenExpressionVaries_ThenScanExpressionMatchesRegularExpression() {
+    var expressions = new String[] {
+      "",
+      " ",
+      "has",
+      "has(",
+      "has({}",
+      "has({}.",
+      "has({}.jitAccessConstraint)",
+      "has({}.multiPartyApprovalConstraint)",
+      "  HAS ( { } . JIT access CONSTRAINT )  ",
+      "\thas(\n{\r}.jitAccessConstraint\f)\u000B",
+      "h\tas({}.jitAccessConstraint)",
+      "has({}.jitAccess\tConstraint)",
+      "has({}\t.jitAccessConstraint)",
+      "has({}\tjitAccessConstraint)",
+      "has({}\njitAccessConstraint)",
+      "has({}xjitAccessConstraint)",
+      "has({}jitAccessConstraint)",
+      "has({}..jitAccessConstraint)",
+      "has({}.jitAccessConstraint))",
+      "has({}.jitAccessConstraintx)",
+      "has({}.jitAccessConstrain)",
+      "has({}.multiPartyApprovalConstraint) || true",
+      "has({x}.jitAccessConstraint)",
+      "has({}.otherConstraint)",
+      "request.time < timestamp(\"2022-01-01T00:00:00Z\")",
+    };
+
+    for (var expression : expressions) {
+      assertEquals(
+        legacyClassify(expression),
+        JitConstraints.scanExpression(expression),
+        expression);
+    }
+  }
 }
@@ -0,0 +1,176 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.auth.oauth2.TokenVerifier;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLocalTokenSigner {
+  private static final String SAMPLE_ISSUER = "issuer@example.com";
+  private static final String SAMPLE_AUDIENCE = "audience@example.com";
+
+  private static class MutableClock extends Clock {
+    private Instant now = Instant.now();
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return this.now;
+    }
+
+    void advance(Duration duration) {
+      this.now = this.now.plus(duration);
+    }
+  }
+
+  private static JsonWebToken.Payload createPayload(Clock clock, String issuer) {
+    return new JsonWebToken.Payload()
+      .setIssuer(issuer)
+      .setAudience(SAMPLE_AUDIENCE)
+      .setSubject("user@example.com")
+      .setExpirationTimeSeconds(clock.instant().plus(Duration.ofHours(1)).getEpochSecond());
+  }
+
+  // -------------------------------------------------------------------------
+  // sign/verify.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenTokenSigned_ThenVerifySucceeds() throws Exception {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    var token = signer.sign(createPayload(clock, SAMPLE_ISSUER));
+    var verified = signer.verify(token);
+
+    assertEquals("RS256", verified.getHeader().getAlgorithm());
+    assertEquals("user@example.com", verified.getPayload().getSubject());
+  }
+
+  @Test
+  public void whenTokenHasWrongIssuer_ThenVerifyThrowsException() throws Exception {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    var token = signer.sign(createPayload(clock, "other@example.com"));
+
+    assertThrows(TokenVerifier.VerificationException.class, () -> signer.verify(token));
+  }
+
+  @Test
+  public void whenTokenSignedByOtherSigner_ThenVerifyThrowsException() throws Exception {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+    var otherSigner = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    var token = otherSigner.sign(createPayload(clock, SAMPLE_ISSUER));
+
+    assertThrows(TokenVerifier.VerificationException.class, () -> signer.verify(token));
+  }
+
+  @Test
+  public void whenTokenMalformed_ThenVerifyThrowsException() {
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2));
+
+    assertThrows(TokenVerifier.VerificationException.class, () -> signer.verify("ey00"));
+  }
+
+  // -------------------------------------------------------------------------
+  // Rotation.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenKeyRotatedOnce_ThenVerifyAcceptsTokenSignedWithPreviousKey() throws Exception {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    var payload = createPayload(clock, SAMPLE_ISSUER)
+      .setExpirationTimeSeconds(clock.instant().plus(Duration.ofHours(3)).getEpochSecond());
+    var token = signer.sign(payload);
+
+    clock.advance(Duration.ofHours(2));
+    signer.sign(createPayload(clock, SAMPLE_ISSUER));
+
+    assertNotNull(signer.verify(token));
+  }
+
+  @Test
+  public void whenKeyRotatedTwice_ThenVerifyRejectsTokenSignedWithOldKey() throws Exception {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    var payload = createPayload(clock, SAMPLE_ISSUER)
+      .setExpirationTimeSeconds(clock.instant().plus(Duration.ofHours(10)).getEpochSecond());
+    var token = signer.sign(payload);
+
+    clock.advance(Duration.ofHours(2));
+    signer.sign(createPayload(clock, SAMPLE_ISSUER));
+    clock.advance(Duration.ofHours(2));
+    signer.sign(createPayload(clock, SAMPLE_ISSUER));
+
+    assertThrows(TokenVerifier.VerificationException.class, () -> signer.verify(token));
+  }
+
+  // -------------------------------------------------------------------------
+  // getJwks.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenKeyRotated_ThenGetJwksReturnsCurrentAndPreviousKey() {
+    var clock = new MutableClock();
+    var signer = new LocalTokenSigner(SAMPLE_ISSUER, SAMPLE_AUDIENCE, Duration.ofHours(2), clock);
+
+    assertEquals(1, ((List<?>) signer.getJwks().get("keys")).size());
+
+    clock.advance(Duration.ofHours(2));
+
+    var keys = (List<?>) signer.getJwks().get("keys");
+    assertEquals(2, keys.size());
+
+    var key = (Map<?, ?>) keys.get(0);
+    assertEquals("RSA", key.get("kty"));
+    assertEquals("RS256", key.get("alg"));
+    assertNotNull(key.get("kid"));
+    assertNotNull(key.get("n"));
+    assertEquals("AQAB", key.get("e"));
+  }
+}
@@ -0,0 +1,120 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.common.html.HtmlEscapers;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMessageTemplate {
+  private static final Map<String, String> SAMPLE_PROPERTIES = Map.of(
+    "{{SUBJECT}}", "Subject <1>",
+    "{{REQUESTOR}}", "requestor@example.com",
+    "{{PROJECT}}", "project-1",
+    "{{ROLE}}", "roles/\"role\"",
+    "{{JUSTIFICATION}}", "Bug & 'case' #1",
+    "{{ACTION_LINK}}", "https://example.com/?a=1&b=2");
+
+  /**
+   * Reference implementation that replaces one property at a time.
+   */
+  private static String renderUsingReplace(String template, Map<String, String> properties) {
+    var escaper = HtmlEscapers.htmlEscaper();
+    for (var property : properties.entrySet()) {
+      template = template.replace(property.getKey(), escaper.escape(property.getValue()));
+    }
+
+    return template;
+  }
+
+  // -------------------------------------------------------------------------
+  // render.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenTemplateHasNoPlaceholders_ThenRenderReturnsTemplate() {
+    var template = MessageTemplate.compile("no placeholders {{}} {{lower}}");
+
+    assertEquals("no placeholders {{}} {{lower}}", template.render(SAMPLE_PROPERTIES));
+  }
+
+  @Test
+  public void whenTemplateHasPlaceholders_ThenRenderReplacesPlaceholders() {
+    var template = MessageTemplate.compile("{{PROJECT}}{{PROJECT}}, {{REQUESTOR}}.");
+
+    assertEquals(
+      "project-1project-1, requestor@example.com.",
+      template.render(SAMPLE_PROPERTIES));
+  }
+
+  @Test
+  public void whenPropertyMissing_ThenRenderKeepsPlaceholder() {
+    var template = MessageTemplate.compile("<p>{{UNKNOWN}}</p>");
+
+    assertEquals("<p>{{UNKNOWN}}</p>", template.render(SAMPLE_PROPERTIES));
+  }
+
+  @Test
+  public void whenPropertyContainsHtml_ThenRenderEscapesValue() {
+    var template = MessageTemplate.compile("{{ROLE}} {{JUSTIFICATION}} {{SUBJECT}}");
+
+    assertEquals(
+      "roles/&quot;role&quot; Bug &amp; &#39;case&#39; #1 Subject &lt;1&gt;",
+      template.render(SAMPLE_PROPERTIES));
+  }
+
+  @Test
+  public void whenRenderingEmailTemplate_ThenResultMatchesReplace() throws IOException {
+    String text;
+    try (var stream = MessageTemplate.class
+      .getClassLoader()
+      .getResourceAsStream(NotificationService.ApprovalRequest.TEMPLATE)) {
+      text = new String(stream.readAllBytes());
+    }
+
+    assertEquals(
+      renderUsingReplace(text, SAMPLE_PROPERTIES),
+      MessageTemplate.fromResource(NotificationService.ApprovalRequest.TEMPLATE).render(SAMPLE_PROPERTIES));
+  }
+
+  // -------------------------------------------------------------------------
+  // fromResource.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenResourceLoadedTwice_ThenFromResourceReturnsSameTemplate() {
+    assertSame(
+      MessageTemplate.fromResource(NotificationService.ApprovalRequest.TEMPLATE),
+      MessageTemplate.fromResource(NotificationService.ApprovalRequest.TEMPLATE));
+  }
+
+  @Test
+  public void whenResourceMissing_ThenFromResourceThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> MessageTemplate.fromResource("doesnotexist.html"));
+  }
+}
@@ -29,12 +29,14 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class TestNotificationService {
 
@@ -116,6 +118,58 @@ public class TestNotificationService {
       anyString());
   }
 
+  // -------------------------------------------------------------------------
+  // submitNotification.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenEmailEnabled_ThenSubmitNotificationSubmitsMail() throws Exception {
+    var mailAdapter = Mockito.mock(MailAdapter.class);
+    when(mailAdapter.submitMail(anyString(), anyString(), anyString(), anyString()))
+      .thenReturn(CompletableFuture.completedFuture(null));
+
+    var service = new NotificationService(
+      mailAdapter,
+      new NotificationService.Options(true));
+    service.submitNotification(new NotificationService.ApprovalRequest(
+      new UserId("requestor@example.com"),
+      new UserId("recipient@example.com"),
+      new ProjectRole(
+        new RoleBinding("//cloudresourcemanager.googleapis.com/projects/project-1", "project/browser"),
+        ProjectRole.Status.ELIGIBLE_FOR_JIT),
+      "justification",
+      new URI("https://example.com/"))).get();
+
+    verify(mailAdapter, times(1)).submitMail(
+      eq("recipient@example.com"),
+      eq("recipient@example.com"),
+      anyString(),
+      anyString());
+  }
+
+  @Test
+  public void whenEmailDisabled_ThenSubmitNotificationDoesNothing() throws Exception {
+    var mailAdapter = Mockito.mock(MailAdapter.class);
+    var service = new NotificationService(
+      mailAdapter,
+      new NotificationService.Options(false));
+    var result = service.submitNotification(new NotificationService.ApprovalRequest(
+      new UserId("requestor@example.com"),
+      new UserId("recipient@example.com"),
+      new ProjectRole(
+        new RoleBinding("//cloudresourcemanager.googleapis.com/projects/project-1", "project/browser"),
+        ProjectRole.Status.ELIGIBLE_FOR_JIT),
+      "justification",
+      new URI("https://example.com/")));
+
+    assertTrue(result.isDone());
+    verify(mailAdapter, times(0)).submitMail(
+      anyString(),
+      anyString(),
+      anyString(),
+      anyString());
+  }
+
   // -------------------------------------------------------------------------
   // ApprovalRequest.
   // -------------------------------------------------------------------------
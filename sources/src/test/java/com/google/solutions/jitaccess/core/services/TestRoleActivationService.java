@@ -21,7 +21,9 @@
 
 package com.google.solutions.jitaccess.core.services;
 
+import com.google.api.services.cloudasset.v1.model.*;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
 import com.google.solutions.jitaccess.core.adapters.ResourceManagerAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
@@ -34,6 +36,7 @@ import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -82,7 +85,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -117,7 +120,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -162,7 +165,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -170,7 +173,7 @@ public class TestRoleActivationService {
             SAMPLE_ROLE),
           ProjectRole.Status.ELIGIBLE_FOR_MPA)),
         List.of()));
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER_2), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER_2), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.<ProjectRole>of(),
         List.of()));
@@ -201,11 +204,11 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.<ProjectRole>of(),
         List.of()));
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER_2), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER_2), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -240,7 +243,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -275,7 +278,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -309,16 +312,131 @@ public class TestRoleActivationService {
     assertTrue(activation.expiry.isBefore(OffsetDateTime.now().plusMinutes(2)));
 
     verify(resourceAdapter)
-      .addProjectIamBinding(
+      .addProjectIamBindings(
         eq(SAMPLE_PROJECT_ID),
-        argThat(b -> b.getRole().equals(SAMPLE_ROLE)
-          && b.getCondition().getExpression().contains("request.time < timestamp")
-          && b.getCondition().getDescription().contains("justification")),
+        argThat(bindings -> bindings.size() == 1
+          && bindings.get(0).getRole().equals(SAMPLE_ROLE)
+          && bindings.get(0).getCondition().getExpression().contains("request.time < timestamp")
+          && bindings.get(0).getCondition().getDescription().contains("justification")),
         eq(
           EnumSet.of(
             ResourceManagerAdapter.IamBindingOptions
               .REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE)),
         eq("justification"));
+    verify(discoveryService).invalidateEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID));
+  }
+
+  // ---------------------------------------------------------------------
+  // activateProjectRoles.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenRolesBelongToDifferentProjects_ThenActivateProjectRolesThrowsException() throws Exception {
+    var service = new RoleActivationService(
+      Mockito.mock(RoleDiscoveryService.class),
+      Mockito.mock(TokenService.class),
+      Mockito.mock(ResourceManagerAdapter.class),
+      new RoleActivationService.Options(
+        "hint",
+        JUSTIFICATION_PATTERN,
+        Duration.ofMinutes(1)));
+
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> service.activateProjectRoles(
+        SAMPLE_USER,
+        SAMPLE_USER,
+        List.of(
+          new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE),
+          new RoleBinding(new ProjectId("project-2"), SAMPLE_ROLE)),
+        RoleActivationService.ActivationType.JIT,
+        "justification"));
+  }
+
+  @Test
+  public void whenOneRoleIsNotEligible_ThenActivateProjectRolesAddsNoBindings() throws Exception {
+    var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
+    var discoveryService = Mockito.mock(RoleDiscoveryService.class);
+
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+      .thenReturn(new Result<ProjectRole>(
+        List.of(new ProjectRole(
+          new RoleBinding(
+            SAMPLE_PROJECT_RESOURCE_1,
+            SAMPLE_ROLE),
+          ProjectRole.Status.ELIGIBLE_FOR_JIT)),
+        List.of()));
+
+    var service = new RoleActivationService(
+      discoveryService,
+      Mockito.mock(TokenService.class),
+      resourceAdapter,
+      new RoleActivationService.Options(
+        "hint",
+        JUSTIFICATION_PATTERN,
+        Duration.ofMinutes(1)));
+
+    assertThrows(
+      AccessDeniedException.class,
+      () -> service.activateProjectRoles(
+        SAMPLE_USER,
+        SAMPLE_USER,
+        List.of(
+          new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE),
+          new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, "roles/compute.viewer")),
+        RoleActivationService.ActivationType.JIT,
+        "justification"));
+
+    verify(resourceAdapter, never()).addProjectIamBindings(any(), any(), any(), any());
+  }
+
+  @Test
+  public void whenRolesAreJitEligible_ThenActivateProjectRolesAddsBindingsInSingleUpdate() throws Exception {
+    var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
+    var discoveryService = Mockito.mock(RoleDiscoveryService.class);
+
+    var roleBinding1 = new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE);
+    var roleBinding2 = new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, "roles/compute.viewer");
+
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+      .thenReturn(new Result<ProjectRole>(
+        List.of(
+          new ProjectRole(roleBinding1, ProjectRole.Status.ELIGIBLE_FOR_JIT),
+          new ProjectRole(roleBinding2, ProjectRole.Status.ELIGIBLE_FOR_JIT)),
+        List.of()));
+
+    var service = new RoleActivationService(
+      discoveryService,
+      Mockito.mock(TokenService.class),
+      resourceAdapter,
+      new RoleActivationService.Options(
+        "hint",
+        JUSTIFICATION_PATTERN,
+        Duration.ofMinutes(1)));
+
+    var activations = service.activateProjectRoles(
+      SAMPLE_USER,
+      SAMPLE_USER,
+      List.of(roleBinding1, roleBinding2),
+      RoleActivationService.ActivationType.JIT,
+      "justification");
+
+    assertEquals(2, activations.size());
+    assertEquals(roleBinding1, activations.get(0).projectRole.roleBinding);
+    assertEquals(roleBinding2, activations.get(1).projectRole.roleBinding);
+    assertEquals(ProjectRole.Status.ACTIVATED, activations.get(0).projectRole.status);
+    assertEquals(ProjectRole.Status.ACTIVATED, activations.get(1).projectRole.status);
+
+    verify(resourceAdapter, times(1))
+      .addProjectIamBindings(
+        eq(SAMPLE_PROJECT_ID),
+        argThat(bindings -> bindings.size() == 2),
+        eq(
+          EnumSet.of(
+            ResourceManagerAdapter.IamBindingOptions
+              .REPLACE_BINDINGS_FOR_SAME_PRINCIPAL_AND_ROLE)),
+        eq("justification"));
+    verify(discoveryService, times(1)).analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID));
   }
 
   @Test
@@ -327,7 +445,7 @@ public class TestRoleActivationService {
     var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
     var discoveryService = Mockito.mock(RoleDiscoveryService.class);
 
-    when(discoveryService.listEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
+    when(discoveryService.analyzeEligibleProjectRoles(eq(SAMPLE_USER), eq(SAMPLE_PROJECT_ID)))
       .thenReturn(new Result<ProjectRole>(
         List.of(new ProjectRole(
           new RoleBinding(
@@ -357,4 +475,79 @@ public class TestRoleActivationService {
           RoleActivationService.ActivationType.JIT,
           "not-numeric"));
   }
-}
\ No newline at end of file
+
+  // ---------------------------------------------------------------------
+  // Eligibility snapshot.
+  // ---------------------------------------------------------------------
+
+  private static IamPolicyAnalysisResult createJitEligibleAnalysisResult(String role) {
+    return new IamPolicyAnalysisResult()
+      .setAttachedResourceFullName(SAMPLE_PROJECT_RESOURCE_1)
+      .setAccessControlLists(List.of(new GoogleCloudAssetV1AccessControlList()
+        .setResources(List.of(new GoogleCloudAssetV1Resource()
+          .setFullResourceName(SAMPLE_PROJECT_RESOURCE_1)))
+        .setConditionEvaluation(new ConditionEvaluation()
+          .setEvaluationValue("CONDITIONAL"))))
+      .setIamBinding(new Binding()
+        .setMembers(List.of("user:" + SAMPLE_USER))
+        .setRole(role)
+        .setCondition(new Expr()
+          .setTitle("eligible binding")
+          .setExpression("has({}.jitAccessConstraint)")));
+  }
+
+  @Test
+  public void whenActivatingMultipleRolesInSameProject_ThenPolicyIsAnalyzedOnce() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    var resourceAdapter = Mockito.mock(ResourceManagerAdapter.class);
+
+    var roles = List.of("roles/role-1", "roles/role-2", "roles/role-3");
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createJitEligibleAnalysisResult(roles.get(0)),
+          createJitEligibleAnalysisResult(roles.get(1)),
+          createJitEligibleAnalysisResult(roles.get(2)))));
+
+    var discoveryService = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    var service = new RoleActivationService(
+      discoveryService,
+      Mockito.mock(TokenService.class),
+      resourceAdapter,
+      new RoleActivationService.Options(
+        "hint",
+        JUSTIFICATION_PATTERN,
+        Duration.ofMinutes(1)));
+
+    for (var role : roles) {
+      service.activateProjectRole(
+        SAMPLE_USER,
+        SAMPLE_USER,
+        new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, role),
+        RoleActivationService.ActivationType.JIT,
+        "justification");
+    }
+
+    verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.empty()),
+      eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+      eq(false));
+    verify(resourceAdapter, times(roles.size())).addProjectIamBindings(
+      eq(SAMPLE_PROJECT_ID),
+      any(),
+      any(),
+      eq("justification"));
+  }
+}
@@ -0,0 +1,184 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.core.services;
+
+import com.google.api.services.cloudasset.v1.model.IamPolicyAnalysis;
+import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
+import com.google.solutions.jitaccess.core.data.ProjectId;
+import com.google.solutions.jitaccess.core.data.UserId;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestRoleDiscoveryPrefetcher {
+  private static final UserId SAMPLE_USER = new UserId("user-1", "user-1@example.com");
+  private static final ProjectId SAMPLE_PROJECT_ID = new ProjectId("project-1");
+  private static final RoleDiscoveryService.Options CACHING_OPTIONS =
+    new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10);
+
+  private static void awaitCondition(BooleanSupplier condition) throws Exception {
+    var deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for prefetch");
+      Thread.sleep(10);
+    }
+  }
+
+  private static AssetInventoryAdapter createAssetAdapter() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        any(),
+        any(),
+        Mockito.anyBoolean()))
+      .thenReturn(new IamPolicyAnalysis());
+
+    return assetAdapter;
+  }
+
+  // -------------------------------------------------------------------------
+  // prefetch.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenCachingDisabled_ThenPrefetchDoesNothing() throws Exception {
+    var assetAdapter = createAssetAdapter();
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(1, 10, 3))) {
+      assertFalse(prefetcher.prefetch(SAMPLE_USER));
+      assertEquals(0, prefetcher.getPrefetchCount());
+    }
+  }
+
+  @Test
+  public void whenConcurrencyIsZero_ThenPrefetchDoesNothing() throws Exception {
+    var service = new RoleDiscoveryService(createAssetAdapter(), CACHING_OPTIONS);
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(0, 10, 3))) {
+      assertFalse(prefetcher.prefetch(SAMPLE_USER));
+      assertEquals(0, prefetcher.getPrefetchCount());
+    }
+  }
+
+  @Test
+  public void whenProjectsNotCached_ThenPrefetchPopulatesCache() throws Exception {
+    var assetAdapter = createAssetAdapter();
+    var service = new RoleDiscoveryService(assetAdapter, CACHING_OPTIONS);
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(1, 10, 3))) {
+      assertTrue(prefetcher.prefetch(SAMPLE_USER));
+      awaitCondition(() -> service.isAvailableProjectsCached(SAMPLE_USER));
+
+      service.listAvailableProjects(SAMPLE_USER);
+
+      verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true));
+    }
+  }
+
+  @Test
+  public void whenProjectsCached_ThenPrefetchDoesNothing() throws Exception {
+    var service = new RoleDiscoveryService(createAssetAdapter(), CACHING_OPTIONS);
+    service.listAvailableProjects(SAMPLE_USER);
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(1, 10, 3))) {
+      assertFalse(prefetcher.prefetch(SAMPLE_USER));
+    }
+  }
+
+  @Test
+  public void whenPrefetchFailed_ThenPrefetchIsNotRepeatedImmediately() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        any(),
+        any(),
+        Mockito.anyBoolean()))
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var service = new RoleDiscoveryService(assetAdapter, CACHING_OPTIONS);
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(1, 10, 3))) {
+      assertTrue(prefetcher.prefetch(SAMPLE_USER));
+      awaitCondition(() -> prefetcher.getFailureCount() == 1);
+
+      assertFalse(prefetcher.prefetch(SAMPLE_USER));
+      assertEquals(1, prefetcher.getPrefetchCount());
+    }
+  }
+
+  @Test
+  public void whenUserHasRecentProjects_ThenPrefetchAnalyzesRecentProjects() throws Exception {
+    var assetAdapter = createAssetAdapter();
+    var service = new RoleDiscoveryService(assetAdapter, CACHING_OPTIONS);
+
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID);
+    service.invalidateEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID);
+
+    try (var prefetcher = new RoleDiscoveryPrefetcher(
+      service,
+      new RoleDiscoveryPrefetcher.Options(1, 10, 3))) {
+      assertTrue(prefetcher.prefetch(SAMPLE_USER));
+      awaitCondition(() -> service.isAvailableProjectsCached(SAMPLE_USER));
+
+      verify(assetAdapter, Mockito.timeout(5000).times(2)).findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_ID.getFullResourceName())),
+        eq(false));
+    }
+  }
+}
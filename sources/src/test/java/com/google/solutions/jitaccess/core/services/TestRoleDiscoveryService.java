@@ -24,6 +24,7 @@ package com.google.solutions.jitaccess.core.services;
 import com.google.api.services.cloudasset.v1.model.*;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
 import com.google.solutions.jitaccess.core.adapters.AssetInventoryAdapter;
+import com.google.solutions.jitaccess.core.adapters.IamTemporaryAccessConditions;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.RoleBinding;
@@ -31,12 +32,21 @@ import com.google.solutions.jitaccess.core.data.UserId;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TestRoleDiscoveryService {
@@ -220,6 +230,141 @@ public class TestRoleDiscoveryService {
     assertTrue(projectIds.contains(SAMPLE_PROJECT_ID_2));
   }
 
+  private static AssetInventoryAdapter createAssetAdapterForProjects(String... projectIds)
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    var results = new ArrayList<IamPolicyAnalysisResult>();
+    for (var projectId : projectIds) {
+      results.add(createIamPolicyAnalysisResult(
+        new ProjectId(projectId).getFullResourceName(),
+        SAMPLE_ROLE,
+        SAMPLE_USER));
+    }
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis().setAnalysisResults(results));
+
+    return assetAdapter;
+  }
+
+  @Test
+  public void whenPrefixSpecified_ThenListAvailableProjectsReturnsSortedMatches() throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("b-2", "a-1", "b-1", "c-1", "b-3"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var page = service.listAvailableProjects(SAMPLE_USER, "b-", Optional.empty(), 10);
+    assertEquals(
+      List.of(new ProjectId("b-1"), new ProjectId("b-2"), new ProjectId("b-3")),
+      page.getItems());
+    assertFalse(page.isTruncated());
+  }
+
+  @Test
+  public void whenMoreProjectsThanMaxResults_ThenListAvailableProjectsReturnsTruncatedPages()
+    throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("b-2", "a-1", "b-1", "c-1", "b-3"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var firstPage = service.listAvailableProjects(SAMPLE_USER, "", Optional.empty(), 2);
+    assertEquals(List.of(new ProjectId("a-1"), new ProjectId("b-1")), firstPage.getItems());
+    assertTrue(firstPage.isTruncated());
+
+    var secondPage = service.listAvailableProjects(
+      SAMPLE_USER, "", Optional.of(new ProjectId("b-1")), 2);
+    assertEquals(List.of(new ProjectId("b-2"), new ProjectId("b-3")), secondPage.getItems());
+    assertTrue(secondPage.isTruncated());
+
+    var lastPage = service.listAvailableProjects(
+      SAMPLE_USER, "", Optional.of(new ProjectId("b-3")), 2);
+    assertEquals(List.of(new ProjectId("c-1")), lastPage.getItems());
+    assertFalse(lastPage.isTruncated());
+  }
+
+  @Test
+  public void whenStartAfterIsNotInList_ThenListAvailableProjectsContinuesAfterIt() throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("b-2", "a-1", "b-1", "c-1", "b-3"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var page = service.listAvailableProjects(SAMPLE_USER, "b-", Optional.of(new ProjectId("b-15")), 10);
+    assertEquals(List.of(new ProjectId("b-2"), new ProjectId("b-3")), page.getItems());
+    assertFalse(page.isTruncated());
+  }
+
+  // ---------------------------------------------------------------------
+  // searchAvailableProjects.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenTextSpecified_ThenSearchAvailableProjectsReturnsSortedMatches() throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("b-dev", "a-prod", "b-prod", "c-dev", "dev-1"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var page = service.searchAvailableProjects(SAMPLE_USER, "dev", Optional.empty(), 10);
+    assertEquals(
+      List.of(new ProjectId("b-dev"), new ProjectId("c-dev"), new ProjectId("dev-1")),
+      page.getItems());
+    assertFalse(page.isTruncated());
+  }
+
+  @Test
+  public void whenMoreMatchesThanMaxResults_ThenSearchAvailableProjectsReturnsTruncatedPages()
+    throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("b-dev", "a-prod", "b-prod", "c-dev", "dev-1"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var firstPage = service.searchAvailableProjects(SAMPLE_USER, "dev", Optional.empty(), 2);
+    assertEquals(List.of(new ProjectId("b-dev"), new ProjectId("c-dev")), firstPage.getItems());
+    assertTrue(firstPage.isTruncated());
+
+    var lastPage = service.searchAvailableProjects(
+      SAMPLE_USER, "dev", Optional.of(new ProjectId("c-dev")), 2);
+    assertEquals(List.of(new ProjectId("dev-1")), lastPage.getItems());
+    assertFalse(lastPage.isTruncated());
+  }
+
+  @Test
+  public void whenNoMatchesFollow_ThenSearchAvailableProjectsReturnsPageThatIsNotTruncated()
+    throws Exception {
+    var service = new RoleDiscoveryService(
+      createAssetAdapterForProjects("a-dev", "b-dev", "c-prod"),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var page = service.searchAvailableProjects(SAMPLE_USER, "dev", Optional.empty(), 2);
+    assertEquals(List.of(new ProjectId("a-dev"), new ProjectId("b-dev")), page.getItems());
+    assertFalse(page.isTruncated());
+  }
+
+  @Test
+  public void whenCachingEnabled_ThenListAvailableProjectsAnalyzesOnce() throws Exception {
+    var assetAdapter = createAssetAdapterForProjects("a-1", "b-1");
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    service.listAvailableProjects(SAMPLE_USER, "", Optional.empty(), 1);
+    service.listAvailableProjects(SAMPLE_USER, "", Optional.of(new ProjectId("a-1")), 1);
+    service.listAvailableProjects(SAMPLE_USER);
+
+    verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.of("resourcemanager.projects.get")),
+      eq(Optional.empty()),
+      eq(true));
+  }
+
   // ---------------------------------------------------------------------
   // listEligibleRoleBindings.
   // ---------------------------------------------------------------------
@@ -604,6 +749,636 @@ public class TestRoleDiscoveryService {
       roles.getItems().get(1));
   }
 
+  // ---------------------------------------------------------------------
+  // listAllEligibleProjectRoles.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenUserHasRolesInMultipleProjects_ThenListAllEligibleProjectRolesReturnsMergedList()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE, SAMPLE_USER),
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_2, SAMPLE_ROLE, SAMPLE_USER))));
+
+    for (var resource : List.of(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_PROJECT_RESOURCE_2)) {
+      when(assetAdapter
+        .findAccessibleResourcesByUser(
+          anyString(),
+          eq(SAMPLE_USER),
+          eq(Optional.empty()),
+          eq(Optional.of(resource)),
+          eq(false)))
+        .thenReturn(new IamPolicyAnalysis()
+          .setAnalysisResults(List.of(
+            createConditionalIamPolicyAnalysisResult(
+              resource,
+              SAMPLE_ROLE,
+              SAMPLE_USER,
+              JIT_CONDITION,
+              "eligible binding",
+              "CONDITIONAL"))));
+    }
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var roles = service.listAllEligibleProjectRoles(SAMPLE_USER);
+
+    assertNotNull(roles.getWarnings());
+    assertEquals(0, roles.getWarnings().size());
+    assertEquals(2, roles.getItems().size());
+    assertEquals(SAMPLE_PROJECT_ID_1, roles.getItems().get(0).getProjectId());
+    assertEquals(SAMPLE_PROJECT_ID_2, roles.getItems().get(1).getProjectId());
+  }
+
+  @Test
+  public void whenAnalysisOfOneProjectFails_ThenListAllEligibleProjectRolesReturnsPartialResult()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE, SAMPLE_USER),
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_2, SAMPLE_ROLE, SAMPLE_USER))));
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createConditionalIamPolicyAnalysisResult(
+            SAMPLE_PROJECT_RESOURCE_1,
+            SAMPLE_ROLE,
+            SAMPLE_USER,
+            JIT_CONDITION,
+            "eligible binding",
+            "CONDITIONAL"))));
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_2)),
+        eq(false)))
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var roles = service.listAllEligibleProjectRoles(SAMPLE_USER);
+
+    assertEquals(1, roles.getItems().size());
+    assertEquals(SAMPLE_PROJECT_ID_1, roles.getItems().get(0).getProjectId());
+    assertEquals(1, roles.getWarnings().size());
+    assertTrue(roles.getWarnings().get(0).contains(SAMPLE_PROJECT_ID_2.id));
+  }
+
+  @Test
+  public void whenAnalysisOfOneProjectTimesOut_ThenListAllEligibleProjectRolesReturnsPartialResult()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE, SAMPLE_USER),
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_2, SAMPLE_ROLE, SAMPLE_USER))));
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_2)),
+        eq(false)))
+      .thenAnswer(invocation -> {
+        Thread.sleep(5000);
+        return new IamPolicyAnalysis();
+      });
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options(
+        "organizations/0",
+        Duration.ZERO,
+        0,
+        2,
+        2,
+        Duration.ofMillis(500)));
+
+    var roles = service.listAllEligibleProjectRoles(SAMPLE_USER);
+
+    assertEquals(0, roles.getItems().size());
+    assertEquals(1, roles.getWarnings().size());
+    assertTrue(roles.getWarnings().get(0).contains("timed out"));
+  }
+
+  @Test
+  public void whenPerCallConcurrencyIsOne_ThenListAllEligibleProjectRolesAnalyzesProjectsSequentially()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE, SAMPLE_USER),
+          createIamPolicyAnalysisResult(SAMPLE_PROJECT_RESOURCE_2, SAMPLE_ROLE, SAMPLE_USER))));
+
+    var inFlight = new AtomicInteger();
+    var maxInFlight = new AtomicInteger();
+    for (var resource : List.of(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_PROJECT_RESOURCE_2)) {
+      when(assetAdapter
+        .findAccessibleResourcesByUser(
+          anyString(),
+          eq(SAMPLE_USER),
+          eq(Optional.empty()),
+          eq(Optional.of(resource)),
+          eq(false)))
+        .thenAnswer(invocation -> {
+          maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+          Thread.sleep(100);
+          inFlight.decrementAndGet();
+          return new IamPolicyAnalysis();
+        });
+    }
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options(
+        "organizations/0",
+        Duration.ZERO,
+        0,
+        2,
+        1,
+        Duration.ofSeconds(30)));
+
+    var roles = service.listAllEligibleProjectRoles(SAMPLE_USER);
+
+    assertEquals(0, roles.getWarnings().size());
+    assertEquals(1, maxInFlight.get());
+  }
+
+  // ---------------------------------------------------------------------
+  // classifyProjectRoles.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenAnalysisContainsDuplicateBindings_ThenClassifyProjectRolesRemovesDuplicates() {
+    var jitEligibleBinding = createConditionalIamPolicyAnalysisResult(
+      SAMPLE_PROJECT_RESOURCE_1,
+      SAMPLE_ROLE,
+      SAMPLE_USER,
+      JIT_CONDITION,
+      "eligible binding",
+      "CONDITIONAL");
+
+    var roles = RoleDiscoveryService.classifyProjectRoles(new IamPolicyAnalysis()
+      .setAnalysisResults(List.of(jitEligibleBinding, jitEligibleBinding)));
+
+    assertEquals(
+      List.of(new ProjectRole(
+        new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE),
+        ProjectRole.Status.ELIGIBLE_FOR_JIT)),
+      roles);
+  }
+
+  @Test
+  public void whenBindingIsEligibleAndActivated_ThenClassifyProjectRolesReturnsActivatedRole() {
+    var roles = RoleDiscoveryService.classifyProjectRoles(new IamPolicyAnalysis()
+      .setAnalysisResults(List.of(
+        createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          JIT_CONDITION,
+          "eligible binding",
+          "CONDITIONAL"),
+        createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          MPA_CONDITION,
+          "eligible binding",
+          "CONDITIONAL"),
+        createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          "time ...",
+          JitConstraints.ACTIVATION_CONDITION_TITLE,
+          "TRUE"))));
+
+    assertEquals(
+      List.of(new ProjectRole(
+        new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE),
+        ProjectRole.Status.ACTIVATED)),
+      roles);
+  }
+
+  @Test
+  public void whenAnalysisContainsMultipleProjects_ThenClassifyProjectRolesSortsByResource() {
+    var roles = RoleDiscoveryService.classifyProjectRoles(new IamPolicyAnalysis()
+      .setAnalysisResults(List.of(
+        createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_2,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          MPA_CONDITION,
+          "eligible binding",
+          "CONDITIONAL"),
+        createIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          "roles/viewer",
+          SAMPLE_USER),
+        createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          JIT_CONDITION,
+          "eligible binding",
+          "CONDITIONAL"))));
+
+    assertEquals(
+      List.of(
+        new ProjectRole(
+          new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE),
+          ProjectRole.Status.ELIGIBLE_FOR_JIT),
+        new ProjectRole(
+          new RoleBinding(SAMPLE_PROJECT_RESOURCE_2, SAMPLE_ROLE),
+          ProjectRole.Status.ELIGIBLE_FOR_MPA)),
+      roles);
+  }
+
+  // ---------------------------------------------------------------------
+  // Caching.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenCacheEnabled_ThenListEligibleRoleBindingsReusesAnalysis() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(
+          createConditionalIamPolicyAnalysisResult(
+            SAMPLE_PROJECT_RESOURCE_1,
+            SAMPLE_ROLE,
+            SAMPLE_USER,
+            JIT_CONDITION,
+            "eligible binding",
+            "CONDITIONAL"))));
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    assertEquals(1, service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1).getItems().size());
+    assertEquals(1, service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1).getItems().size());
+
+    verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.empty()),
+      eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+      eq(false));
+  }
+
+  @Test
+  public void whenCacheDisabled_ThenListEligibleRoleBindingsRepeatsAnalysis() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+
+    verify(assetAdapter, times(2)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.empty()),
+      eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+      eq(false));
+  }
+
+  @Test
+  public void whenCacheInvalidated_ThenListEligibleRoleBindingsRepeatsAnalysis() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    service.invalidateEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+
+    verify(assetAdapter, times(2)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.empty()),
+      eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+      eq(false));
+  }
+
+  // ---------------------------------------------------------------------
+  // listRecentProjects.
+  // ---------------------------------------------------------------------
+
+  @Test
+  public void whenNoEligibleRolesListed_ThenListRecentProjectsReturnsEmptyList() {
+    var service = new RoleDiscoveryService(
+      Mockito.mock(AssetInventoryAdapter.class),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    assertEquals(List.of(), service.listRecentProjects(SAMPLE_USER));
+  }
+
+  @Test
+  public void whenEligibleRolesListed_ThenListRecentProjectsReturnsMostRecentFirst() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        any(),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_2);
+    service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+
+    assertEquals(
+      List.of(SAMPLE_PROJECT_ID_1, SAMPLE_PROJECT_ID_2),
+      service.listRecentProjects(SAMPLE_USER));
+  }
+
+  @Test
+  public void whenManyEligibleRolesListed_ThenListRecentProjectsIsLimited() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        any(),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    for (int i = 0; i < RoleDiscoveryService.MAX_RECENT_PROJECTS + 2; i++) {
+      service.listEligibleProjectRoles(SAMPLE_USER, new ProjectId("project-" + i));
+    }
+
+    var recentProjects = service.listRecentProjects(SAMPLE_USER);
+    assertEquals(RoleDiscoveryService.MAX_RECENT_PROJECTS, recentProjects.size());
+    assertEquals(
+      new ProjectId("project-" + (RoleDiscoveryService.MAX_RECENT_PROJECTS + 1)),
+      recentProjects.get(0));
+  }
+
+  // ---------------------------------------------------------------------
+  // Eligibility index.
+  // ---------------------------------------------------------------------
+
+  private static EligibilityIndexer createIndexer(EligibilityIndex index, boolean listProjectsFromIndex) {
+    var indexer = Mockito.mock(EligibilityIndexer.class);
+    when(indexer.getIndex()).thenReturn(Optional.of(index));
+    when(indexer.getOptions()).thenReturn(new EligibilityIndexer.Options(
+      "organizations/0",
+      Duration.ofMinutes(1),
+      1,
+      Optional.empty(),
+      Duration.ofMinutes(2),
+      listProjectsFromIndex));
+    return indexer;
+  }
+
+  private static EligibilityIndexer createIndexer(EligibilityIndex index) {
+    return createIndexer(index, false);
+  }
+
+  @Test
+  public void whenIndexAvailableButNotEnabledForProjects_ThenListAvailableProjectsAnalyzesPolicies()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.of("resourcemanager.projects.get")),
+        eq(Optional.empty()),
+        eq(true)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var index = new EligibilityIndex.Builder(Instant.now())
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      createIndexer(index, false),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    assertFalse(service.isAvailableProjectsCached(SAMPLE_USER));
+    service.listAvailableProjects(SAMPLE_USER);
+
+    verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.of("resourcemanager.projects.get")),
+      eq(Optional.empty()),
+      eq(true));
+  }
+
+  @Test
+  public void whenIndexAvailable_ThenListAvailableProjectsUsesIndex() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    var index = new EligibilityIndex.Builder(Instant.now())
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_2, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_MPA)
+      .build();
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      createIndexer(index, true),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    assertTrue(service.isAvailableProjectsCached(SAMPLE_USER));
+    assertEquals(
+      List.of(SAMPLE_PROJECT_ID_1, SAMPLE_PROJECT_ID_2),
+      List.copyOf(service.listAvailableProjects(SAMPLE_USER)));
+
+    verify(assetAdapter, times(0)).findAccessibleResourcesByUser(
+      anyString(),
+      any(),
+      any(),
+      any(),
+      Mockito.anyBoolean());
+  }
+
+  @Test
+  public void whenIndexAvailable_ThenListEligibleProjectRolesUsesIndex() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    var index = new EligibilityIndex.Builder(Instant.now())
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      createIndexer(index),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var roles = service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    assertEquals(1, roles.getItems().size());
+    assertEquals(ProjectRole.Status.ELIGIBLE_FOR_JIT, roles.getItems().get(0).status);
+
+    verify(assetAdapter, times(0)).findAccessibleResourcesByUser(
+      anyString(),
+      any(),
+      any(),
+      any(),
+      Mockito.anyBoolean());
+  }
+
+  @Test
+  public void whenProjectRolesInvalidatedAfterIndexCreation_ThenListEligibleProjectRolesAnalyzesPolicies()
+    throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis()
+        .setAnalysisResults(List.of(createConditionalIamPolicyAnalysisResult(
+          SAMPLE_PROJECT_RESOURCE_1,
+          SAMPLE_ROLE,
+          SAMPLE_USER,
+          IamTemporaryAccessConditions.createExpression(
+            OffsetDateTime.now(ZoneOffset.UTC),
+            OffsetDateTime.now(ZoneOffset.UTC).plusMinutes(5)),
+          JitConstraints.ACTIVATION_CONDITION_TITLE,
+          "TRUE"))));
+
+    var index = new EligibilityIndex.Builder(Instant.now().minusSeconds(60))
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      createIndexer(index),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    service.invalidateEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+
+    var roles = service.listEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    assertEquals(1, roles.getItems().size());
+    assertEquals(ProjectRole.Status.ACTIVATED, roles.getItems().get(0).status);
+  }
+
+  @Test
+  public void whenIndexAvailable_ThenAnalyzeEligibleProjectRolesAnalyzesPolicies() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis());
+
+    var index = new EligibilityIndex.Builder(Instant.now())
+      .addEligibleBinding(SAMPLE_USER, SAMPLE_PROJECT_ID_1, SAMPLE_ROLE, ProjectRole.Status.ELIGIBLE_FOR_JIT)
+      .build();
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      createIndexer(index),
+      new RoleDiscoveryService.Options("organizations/0"));
+
+    var roles = service.analyzeEligibleProjectRoles(SAMPLE_USER, SAMPLE_PROJECT_ID_1);
+    assertEquals(0, roles.getItems().size());
+  }
+
   // ---------------------------------------------------------------------
   // listApproversForProjectRole.
   // ---------------------------------------------------------------------
@@ -726,4 +1501,56 @@ public class TestRoleDiscoveryService {
     assertEquals(1, approvers.size());
     assertEquals(SAMPLE_USER_2, approvers.stream().findFirst().get());
   }
+
+  @Test
+  public void whenCacheEnabled_ThenListApproversForProjectRoleReusesAnalysis() throws Exception {
+    var assetAdapter = Mockito.mock(AssetInventoryAdapter.class);
+
+    var mpaBindingResult = createConditionalIamPolicyAnalysisResult(
+      SAMPLE_PROJECT_RESOURCE_1,
+      SAMPLE_ROLE,
+      SAMPLE_USER,
+      MPA_CONDITION,
+      "eligible binding",
+      "CONDITIONAL");
+    var mpaBindingResultForOtherUser = createConditionalIamPolicyAnalysisResult(
+      SAMPLE_PROJECT_RESOURCE_1,
+      SAMPLE_ROLE,
+      SAMPLE_USER_2,
+      MPA_CONDITION,
+      "eligible binding",
+      "CONDITIONAL");
+
+    when(assetAdapter
+      .findAccessibleResourcesByUser(
+        anyString(),
+        eq(SAMPLE_USER),
+        eq(Optional.empty()),
+        eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+        eq(false)))
+      .thenReturn(new IamPolicyAnalysis().setAnalysisResults(List.of(mpaBindingResult)));
+    when(assetAdapter.findPermissionedPrincipalsByResource(anyString(), anyString(), anyString()))
+      .thenReturn(new IamPolicyAnalysis().setAnalysisResults(List.of(
+        mpaBindingResult,
+        mpaBindingResultForOtherUser)));
+
+    var service = new RoleDiscoveryService(
+      assetAdapter,
+      new RoleDiscoveryService.Options("organizations/0", Duration.ofMinutes(1), 10));
+
+    var roleBinding = new RoleBinding(SAMPLE_PROJECT_RESOURCE_1, SAMPLE_ROLE);
+    assertEquals(List.of(SAMPLE_USER_2), service.listApproversForProjectRole(SAMPLE_USER, roleBinding));
+    assertEquals(List.of(SAMPLE_USER_2), service.listApproversForProjectRole(SAMPLE_USER, roleBinding));
+
+    verify(assetAdapter, times(1)).findAccessibleResourcesByUser(
+      anyString(),
+      eq(SAMPLE_USER),
+      eq(Optional.empty()),
+      eq(Optional.of(SAMPLE_PROJECT_RESOURCE_1)),
+      eq(false));
+    verify(assetAdapter, times(1)).findPermissionedPrincipalsByResource(
+      anyString(),
+      eq(SAMPLE_PROJECT_RESOURCE_1),
+      eq(SAMPLE_ROLE));
+  }
 }
@@ -27,10 +27,14 @@ import com.google.solutions.jitaccess.core.adapters.IamCredentialsAdapter;
 import com.google.solutions.jitaccess.core.adapters.IntegrationTestEnvironment;
 import com.google.solutions.jitaccess.core.data.UserId;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 
 import java.time.Duration;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 public class TestTokenService {
   private static final UserId SAMPLE_USER = new UserId("user-1@example.com");
@@ -60,6 +64,41 @@ public class TestTokenService {
     assertNotNull(verifiedPayload.getExpirationTimeSeconds());
   }
 
+  @Test
+  public void whenSigningLocally_ThenCreateTokenDoesNotUseIamCredentials() throws Exception {
+    var credentialsAdapter = Mockito.mock(IamCredentialsAdapter.class);
+    var serviceAccount = new UserId("service-account@example.iam.gserviceaccount.com");
+    var tokenService = new TokenService(
+      credentialsAdapter,
+      new TokenService.Options(
+        serviceAccount,
+        Duration.ofMinutes(5),
+        TokenService.SigningMode.LOCAL,
+        Duration.ofMinutes(10)));
+
+    var payload = new JsonWebToken.Payload()
+      .setSubject(SAMPLE_USER.email);
+
+    var token = tokenService.createToken(payload);
+    var verifiedPayload = tokenService.verifyToken(token, SAMPLE_USER);
+
+    assertEquals(serviceAccount.email, verifiedPayload.getIssuer());
+    assertEquals(serviceAccount.email, verifiedPayload.getAudience());
+    assertTrue(tokenService.getJwks().isPresent());
+    verify(credentialsAdapter, never()).signJwt(any(), any());
+  }
+
+  @Test
+  public void whenKeyRotationShorterThanTokenValidity_ThenOptionsThrowsException() {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new TokenService.Options(
+        SAMPLE_USER,
+        Duration.ofMinutes(10),
+        TokenService.SigningMode.LOCAL,
+        Duration.ofMinutes(5)));
+  }
+
   // -------------------------------------------------------------------------
   // verifyToken.
   // -------------------------------------------------------------------------
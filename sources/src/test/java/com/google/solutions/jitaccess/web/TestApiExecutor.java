@@ -0,0 +1,140 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.Deadline;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestApiExecutor {
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  // -------------------------------------------------------------------------
+  // submit.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenTaskSucceeds_ThenStageCompletesWithResult() throws Exception {
+    try (var executor = new ApiExecutor(Executors.newSingleThreadExecutor(), REQUEST_TIMEOUT)) {
+      var result = executor
+        .submit(() -> Thread.currentThread().getId())
+        .toCompletableFuture()
+        .get(5, TimeUnit.SECONDS);
+
+      assertNotEquals(Thread.currentThread().getId(), (long)result);
+    }
+  }
+
+  @Test
+  public void whenConcurrencyIsZero_ThenTaskRunsInline() throws Exception {
+    try (var executor = new ApiExecutor(new ApiExecutor.Options(0, 1, REQUEST_TIMEOUT))) {
+      var future = executor
+        .submit(() -> Thread.currentThread().getId())
+        .toCompletableFuture();
+
+      assertTrue(future.isDone());
+      assertEquals(Thread.currentThread().getId(), (long)future.get());
+    }
+  }
+
+  @Test
+  public void whenTaskThrows_ThenStageCompletesExceptionally() {
+    try (var executor = new ApiExecutor(MoreExecutors.newDirectExecutorService(), REQUEST_TIMEOUT)) {
+      var future = executor
+        .submit(() -> { throw new AccessDeniedException("mock"); })
+        .toCompletableFuture();
+
+      var exception = assertThrows(ExecutionException.class, () -> future.get());
+      assertTrue(exception.getCause() instanceof AccessDeniedException);
+    }
+  }
+
+  @Test
+  public void whenExecutorRejectsTask_ThenStageCompletesWithServiceUnavailableException() {
+    var executorService = MoreExecutors.newDirectExecutorService();
+    executorService.shutdown();
+
+    try (var executor = new ApiExecutor(executorService, REQUEST_TIMEOUT)) {
+      var future = executor
+        .submit(() -> "result")
+        .toCompletableFuture();
+
+      var exception = assertThrows(ExecutionException.class, () -> future.get());
+      assertTrue(exception.getCause() instanceof ServiceUnavailableException);
+    }
+  }
+
+  // -------------------------------------------------------------------------
+  // Deadline.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenTaskRuns_ThenDeadlineIsCurrent() throws Exception {
+    try (var executor = new ApiExecutor(Executors.newSingleThreadExecutor(), REQUEST_TIMEOUT)) {
+      var deadline = executor
+        .submit(() -> Deadline.current())
+        .toCompletableFuture()
+        .get(5, TimeUnit.SECONDS);
+
+      assertTrue(deadline.isPresent());
+      assertEquals(REQUEST_TIMEOUT, deadline.get().getTimeout());
+      assertFalse(Deadline.current().isPresent());
+    }
+  }
+
+  @Test
+  public void whenDeadlinePassedBeforeTaskRuns_ThenTaskIsNotRun() {
+    try (var executor = new ApiExecutor(MoreExecutors.newDirectExecutorService(), Duration.ZERO)) {
+      var future = executor
+        .submit(() -> fail("Task should not run"))
+        .toCompletableFuture();
+
+      var exception = assertThrows(ExecutionException.class, () -> future.get());
+      assertTrue(exception.getCause() instanceof DeadlineExceededException);
+    }
+  }
+
+  @Test
+  public void whenTaskFailsAfterDeadline_ThenStageCompletesWithOriginalException() {
+    try (var executor = new ApiExecutor(MoreExecutors.newDirectExecutorService(), Duration.ofMillis(50))) {
+      var future = executor
+        .submit(() -> {
+          Thread.sleep(100);
+          throw new AccessDeniedException("mock");
+        })
+        .toCompletableFuture();
+
+      var exception = assertThrows(ExecutionException.class, () -> future.get());
+      assertTrue(exception.getCause() instanceof AccessDeniedException);
+    }
+  }
+}
\ No newline at end of file
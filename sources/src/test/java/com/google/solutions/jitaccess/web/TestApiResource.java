@@ -21,15 +21,19 @@
 
 package com.google.solutions.jitaccess.web;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.solutions.jitaccess.core.AccessDeniedException;
+import com.google.solutions.jitaccess.core.DeadlineExceededException;
 import com.google.solutions.jitaccess.core.adapters.LogAdapter;
 import com.google.solutions.jitaccess.core.data.ProjectId;
 import com.google.solutions.jitaccess.core.data.ProjectRole;
 import com.google.solutions.jitaccess.core.data.RoleBinding;
 import com.google.solutions.jitaccess.core.data.UserId;
+import com.google.solutions.jitaccess.core.services.Page;
 import com.google.solutions.jitaccess.core.services.Result;
 import com.google.solutions.jitaccess.core.services.RoleActivationService;
 import com.google.solutions.jitaccess.core.services.RoleDiscoveryService;
+import com.google.solutions.jitaccess.core.services.TokenService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -38,15 +42,21 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 public class TestApiResource {
   private static final UserId SAMPLE_USER = new UserId("mock", "mock@example.com");
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
 
   private ApiResource resource;
 
@@ -56,6 +66,8 @@ public class TestApiResource {
     this.resource.logAdapter = new LogAdapter();
     this.resource.roleDiscoveryService = Mockito.mock(RoleDiscoveryService.class);
     this.resource.roleActivationService = Mockito.mock(RoleActivationService.class);
+    this.resource.tokenService = Mockito.mock(TokenService.class);
+    this.resource.executor = new ApiExecutor(MoreExecutors.newDirectExecutorService(), REQUEST_TIMEOUT);
   }
 
   // -------------------------------------------------------------------------
@@ -92,6 +104,35 @@ public class TestApiResource {
     assertEquals("hint", body.justificationHint);
   }
 
+  // -------------------------------------------------------------------------
+  // /api/jwks.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenTokensSignedRemotely_ThenGetJwksReturnsError() throws Exception {
+    when(this.resource.tokenService.getJwks()).thenReturn(Optional.empty());
+
+    var response = new RestDispatcher<>(resource, SAMPLE_USER)
+      .get("/api/jwks", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(404, response.getStatus());
+  }
+
+  @Test
+  public void whenTokensSignedLocally_ThenGetJwksReturnsKeys() throws Exception {
+    when(this.resource.tokenService.getJwks())
+      .thenReturn(Optional.of(Map.of("keys", List.of(Map.of("kid", "key-1")))));
+
+    var response = new RestDispatcher<>(resource, SAMPLE_USER)
+      .get("/api/jwks", Map.class);
+
+    assertEquals(200, response.getStatus());
+
+    var body = response.getBody();
+    assertNotNull(body);
+    assertTrue(body.containsKey("keys"));
+  }
+
   // -------------------------------------------------------------------------
   // /api/projects.
   // -------------------------------------------------------------------------
@@ -106,7 +147,7 @@ public class TestApiResource {
 
   @Test
   public void whenProjectDiscoveryThrowsAccessDeniedException_ThenGetProjectsReturnsError() throws Exception {
-    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER)))
+    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER), anyString(), any(), anyInt()))
       .thenThrow(new AccessDeniedException("mock"));
 
     var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
@@ -120,7 +161,7 @@ public class TestApiResource {
 
   @Test
   public void whenProjectDiscoveryThrowsIOException_ThenGetProjectsReturnsError() throws Exception {
-    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER)))
+    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER), anyString(), any(), anyInt()))
       .thenThrow(new IOException("mock"));
 
     var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
@@ -132,10 +173,39 @@ public class TestApiResource {
     assertNotNull(body.getMessage());
   }
 
+  @Test
+  public void whenProjectDiscoveryThrowsDeadlineExceededException_ThenGetProjectsReturnsTimeout() throws Exception {
+    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER), anyString(), any(), anyInt()))
+      .thenThrow(new DeadlineExceededException("mock"));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(504, response.getStatus());
+
+    var body = response.getBody();
+    assertNotNull(body.getMessage());
+  }
+
+  @Test
+  public void whenExecutorRejectsRequest_ThenGetProjectsReturnsError() throws Exception {
+    var executorService = MoreExecutors.newDirectExecutorService();
+    executorService.shutdown();
+    this.resource.executor = new ApiExecutor(executorService, REQUEST_TIMEOUT);
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(503, response.getStatus());
+
+    var body = response.getBody();
+    assertNotNull(body.getMessage());
+  }
+
   @Test
   public void whenProjectDiscoveryyReturnsNoProjects_ThenGetProjectsReturnsEmptyList() throws Exception {
-    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER)))
-      .thenReturn(Set.of());
+    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER), anyString(), any(), anyInt()))
+      .thenReturn(new Page<>(List.of(), false));
 
     var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
       .get("/api/projects", ApiResource.ProjectsResponseEntity.class);
@@ -149,8 +219,8 @@ public class TestApiResource {
 
   @Test
   public void whenProjectDiscoveryReturnsProjects_ThenGetProjectsReturnsList() throws Exception {
-    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER)))
-      .thenReturn(Set.of(new ProjectId("project-1"), new ProjectId("project-2")));
+    when(this.resource.roleDiscoveryService.listAvailableProjects(eq(SAMPLE_USER), anyString(), any(), anyInt()))
+      .thenReturn(new Page<>(List.of(new ProjectId("project-1"), new ProjectId("project-2")), false));
 
     var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
       .get("/api/projects", ApiResource.ProjectsResponseEntity.class);
@@ -159,7 +229,93 @@ public class TestApiResource {
 
     var body = response.getBody();
     assertNotNull(body.projects);
+    assertEquals(List.of("project-1", "project-2"), body.projects);
+    assertNull(body.nextCursor);
+  }
+
+  @Test
+  public void whenProjectDiscoveryReturnsTruncatedPage_ThenGetProjectsReturnsCursor() throws Exception {
+    when(this.resource.roleDiscoveryService.listAvailableProjects(
+      eq(SAMPLE_USER),
+      eq("project-"),
+      eq(Optional.empty()),
+      eq(2)))
+      .thenReturn(new Page<>(List.of(new ProjectId("project-1"), new ProjectId("project-2")), true));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?prefix=Project-&pageSize=2", ApiResource.ProjectsResponseEntity.class);
+
+    assertEquals(200, response.getStatus());
+
+    var body = response.getBody();
     assertEquals(2, body.projects.size());
+    assertEquals(
+      new ProjectId("project-2"),
+      ApiResource.decodeProjectsCursor(body.nextCursor));
+  }
+
+  @Test
+  public void whenCursorPassed_ThenGetProjectsStartsAfterCursor() throws Exception {
+    var cursor = ApiResource.encodeProjectsCursor(new ProjectId("project-2"));
+    when(this.resource.roleDiscoveryService.listAvailableProjects(
+      eq(SAMPLE_USER),
+      eq(""),
+      eq(Optional.of(new ProjectId("project-2"))),
+      eq(2)))
+      .thenReturn(new Page<>(List.of(new ProjectId("project-3")), false));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?pageSize=2&cursor=" + cursor, ApiResource.ProjectsResponseEntity.class);
+
+    assertEquals(200, response.getStatus());
+
+    var body = response.getBody();
+    assertEquals(List.of("project-3"), body.projects);
+    assertNull(body.nextCursor);
+  }
+
+  @Test
+  public void whenQueryPassed_ThenGetProjectsSearchesProjects() throws Exception {
+    when(this.resource.roleDiscoveryService.searchAvailableProjects(
+      eq(SAMPLE_USER),
+      eq("dev"),
+      eq(Optional.empty()),
+      eq(100)))
+      .thenReturn(new Page<>(List.of(new ProjectId("project-dev")), false));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?query=Dev&pageSize=100", ApiResource.ProjectsResponseEntity.class);
+
+    assertEquals(200, response.getStatus());
+
+    var body = response.getBody();
+    assertEquals(List.of("project-dev"), body.projects);
+    assertNull(body.nextCursor);
+  }
+
+  @Test
+  public void whenPrefixAndQueryPassed_ThenGetProjectsReturnsError() throws Exception {
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?prefix=a&query=b", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(400, response.getStatus());
+  }
+
+  @Test
+  public void whenCursorInvalid_ThenGetProjectsReturnsError() throws Exception {
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?cursor=" + ApiResource.encodeProjectsCursor(new ProjectId("a/b")),
+        ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(400, response.getStatus());
+  }
+
+  @Test
+  public void whenPageSizeNegative_ThenGetProjectsReturnsError() throws Exception {
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/projects?pageSize=-1", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(400, response.getStatus());
   }
 
   // -------------------------------------------------------------------------
@@ -277,6 +433,61 @@ public class TestApiResource {
   }
 
 
+  // -------------------------------------------------------------------------
+  // /api/roles.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void postRolesReturnsError() throws Exception {
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .post("/api/roles", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(405, response.getStatus());
+  }
+
+  @Test
+  public void whenRoleDiscoveryThrowsIOException_ThenGetRolesReturnsError() throws Exception {
+    when(this.resource.roleDiscoveryService
+      .listAllEligibleProjectRoles(eq(SAMPLE_USER)))
+      .thenThrow(new IOException("mock"));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/roles", ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(403, response.getStatus());
+
+    var body = response.getBody();
+    assertNotNull(body.getMessage());
+  }
+
+  @Test
+  public void whenRoleDiscoveryReturnsRolesAndWarnings_ThenGetRolesReturnsList() throws Exception {
+    var role1 = new ProjectRole(
+      new RoleBinding(new ProjectId("project-1").getFullResourceName(), "roles/browser"),
+      ProjectRole.Status.ELIGIBLE_FOR_JIT);
+    var role2 = new ProjectRole(
+      new RoleBinding(new ProjectId("project-2").getFullResourceName(), "roles/janitor"),
+      ProjectRole.Status.ELIGIBLE_FOR_MPA);
+
+    when(this.resource.roleDiscoveryService
+      .listAllEligibleProjectRoles(eq(SAMPLE_USER)))
+      .thenReturn(new Result<ProjectRole>(
+        List.of(role1, role2),
+        List.of("Listing roles for project project-3 timed out")));
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER)
+      .get("/api/roles", ApiResource.ProjectRolesResponseEntity.class);
+
+    assertEquals(200, response.getStatus());
+
+    var body = response.getBody();
+    assertNotNull(body.roles);
+    assertEquals(2, body.roles.size());
+    assertEquals(role1, body.roles.get(0));
+    assertEquals(role2, body.roles.get(1));
+    assertEquals(1, body.warnings.size());
+  }
+
   // -------------------------------------------------------------------------
   // /api/projects/{projectId}/roles/self-activate.
   // -------------------------------------------------------------------------
@@ -350,15 +561,15 @@ public class TestApiResource {
     var roleBinding = new RoleBinding(new ProjectId("project-1"), "roles/browser");
 
     when(this.resource.roleActivationService
-      .activateProjectRole(
+      .activateProjectRoles(
         eq(SAMPLE_USER),
         eq(SAMPLE_USER),
-        eq(roleBinding),
+        eq(Set.of(roleBinding)),
         eq(RoleActivationService.ActivationType.JIT),
         eq("justification")))
-      .thenReturn(new RoleActivationService.Activation(
+      .thenReturn(List.of(new RoleActivationService.Activation(
         new ProjectRole(roleBinding, ProjectRole.Status.ACTIVATED),
-        OffsetDateTime.now()));
+        OffsetDateTime.now())));
 
     var request = new ApiResource.SelfActivationRequestEntity();
     request.roles = List.of("roles/browser", "roles/browser");
@@ -377,4 +588,55 @@ public class TestApiResource {
     assertEquals(roleBinding, body.activatedRoles.get(0).projectRole.roleBinding);
     assertEquals(ProjectRole.Status.ACTIVATED, body.activatedRoles.get(0).projectRole.status);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void whenActivationFails_ThenSelfActivateReturnsError() throws Exception {
+    when(this.resource.roleActivationService
+      .activateProjectRoles(
+        eq(SAMPLE_USER),
+        eq(SAMPLE_USER),
+        any(),
+        eq(RoleActivationService.ActivationType.JIT),
+        eq("justification")))
+      .thenThrow(new AccessDeniedException("mock"));
+
+    var request = new ApiResource.SelfActivationRequestEntity();
+    request.roles = List.of("roles/browser", "roles/janitor");
+    request.justification = "justification";
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER).post(
+      "/api/projects/project-1/roles/self-activate",
+      request,
+      ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(403, response.getStatus());
+  }
+
+  @Test
+  public void whenActivationTimesOut_ThenSelfActivateLogsAndReturnsTimeout() throws Exception {
+    var log = new StringBuilder();
+    this.resource.logAdapter = new LogAdapter(log);
+
+    when(this.resource.roleActivationService
+      .activateProjectRoles(
+        eq(SAMPLE_USER),
+        eq(SAMPLE_USER),
+        any(),
+        eq(RoleActivationService.ActivationType.JIT),
+        eq("justification")))
+      .thenThrow(new DeadlineExceededException("mock"));
+
+    var request = new ApiResource.SelfActivationRequestEntity();
+    request.roles = List.of("roles/browser", "roles/janitor");
+    request.justification = "justification";
+
+    var response = new RestDispatcher<>(this.resource, SAMPLE_USER).post(
+      "/api/projects/project-1/roles/self-activate",
+      request,
+      ExceptionMappers.ErrorEntity.class);
+
+    assertEquals(504, response.getStatus());
+    assertTrue(log.toString().contains("roles/browser"));
+    assertTrue(log.toString().contains("roles/janitor"));
+  }
+}
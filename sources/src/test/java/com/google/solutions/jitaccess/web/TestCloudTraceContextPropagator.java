@@ -0,0 +1,138 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCloudTraceContextPropagator {
+  private static final String SAMPLE_TRACE_ID = "105445aa7843bc8bf206b12000100000";
+
+  private static final TextMapGetter<Map<String, String>> GETTER = new TextMapGetter<>() {
+    @Override
+    public Iterable<String> keys(Map<String, String> carrier) {
+      return carrier.keySet();
+    }
+
+    @Override
+    public String get(Map<String, String> carrier, String key) {
+      return carrier.get(key);
+    }
+  };
+
+  private static Context extract(String header) {
+    return new CloudTraceContextPropagator().extract(
+      Context.root(),
+      Map.of(CloudTraceContextPropagator.HEADER_NAME, header),
+      GETTER);
+  }
+
+  // -------------------------------------------------------------------------
+  // extract.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenHeaderMissing_ThenExtractReturnsContext() {
+    var context = new CloudTraceContextPropagator().extract(Context.root(), Map.of(), GETTER);
+
+    assertSame(Context.root(), context);
+  }
+
+  @Test
+  public void whenHeaderMalformed_ThenExtractReturnsContext() {
+    assertSame(Context.root(), extract(""));
+    assertSame(Context.root(), extract("not-a-trace"));
+    assertSame(Context.root(), extract(SAMPLE_TRACE_ID));
+    assertSame(Context.root(), extract(SAMPLE_TRACE_ID + "/abc;o=1"));
+    assertSame(Context.root(), extract(SAMPLE_TRACE_ID + "/99999999999999999999;o=1"));
+  }
+
+  @Test
+  public void whenSpanIdIsZero_ThenExtractReturnsContext() {
+    assertSame(Context.root(), extract(SAMPLE_TRACE_ID + "/0;o=1"));
+  }
+
+  @Test
+  public void whenHeaderValid_ThenExtractReturnsRemoteSpanContext() {
+    var spanContext = Span.fromContext(extract(SAMPLE_TRACE_ID + "/1;o=1")).getSpanContext();
+
+    assertTrue(spanContext.isValid());
+    assertTrue(spanContext.isRemote());
+    assertTrue(spanContext.isSampled());
+    assertEquals(SAMPLE_TRACE_ID, spanContext.getTraceId());
+    assertEquals("0000000000000001", spanContext.getSpanId());
+  }
+
+  @Test
+  public void whenSpanIdExceedsSignedRange_ThenExtractParsesUnsigned() {
+    var spanContext = Span.fromContext(extract(SAMPLE_TRACE_ID + "/18446744073709551615")).getSpanContext();
+
+    assertTrue(spanContext.isValid());
+    assertEquals("ffffffffffffffff", spanContext.getSpanId());
+  }
+
+  @Test
+  public void whenOptionsMissing_ThenExtractReturnsUnsampledSpanContext() {
+    var spanContext = Span.fromContext(extract(SAMPLE_TRACE_ID + "/1")).getSpanContext();
+
+    assertTrue(spanContext.isValid());
+    assertFalse(spanContext.isSampled());
+  }
+
+  // -------------------------------------------------------------------------
+  // inject.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenSpanContextValid_ThenInjectSetsHeader() {
+    var context = Context.root().with(Span.wrap(SpanContext.create(
+      SAMPLE_TRACE_ID,
+      "ffffffffffffffff",
+      TraceFlags.getSampled(),
+      TraceState.getDefault())));
+
+    var carrier = new HashMap<String, String>();
+    new CloudTraceContextPropagator().inject(context, carrier, Map::put);
+
+    assertEquals(
+      SAMPLE_TRACE_ID + "/18446744073709551615;o=1",
+      carrier.get(CloudTraceContextPropagator.HEADER_NAME));
+  }
+
+  @Test
+  public void whenSpanContextInvalid_ThenInjectDoesNothing() {
+    var carrier = new HashMap<String, String>();
+    new CloudTraceContextPropagator().inject(Context.root(), carrier, Map::put);
+
+    assertTrue(carrier.isEmpty());
+  }
+}
@@ -0,0 +1,138 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.auth.oauth2.TokenVerifier;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIapAssertionVerifier {
+  private static final String SAMPLE_AUDIENCE = "/projects/123/apps/project-1";
+  private static final String SAMPLE_ISSUER = "https://cloud.google.com/iap";
+
+  private static KeyPair createKeyPair() throws Exception {
+    var generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    return generator.generateKeyPair();
+  }
+
+  private static String createAssertion(KeyPair keyPair, Instant expiry) throws Exception {
+    var header = new JsonWebSignature.Header()
+      .setAlgorithm("RS256")
+      .setType("JWT");
+
+    var payload = new JsonWebToken.Payload()
+      .setAudience(SAMPLE_AUDIENCE)
+      .setIssuer(SAMPLE_ISSUER)
+      .setSubject("subject-1")
+      .setIssuedAtTimeSeconds(expiry.getEpochSecond() - 600)
+      .setExpirationTimeSeconds(expiry.getEpochSecond());
+    payload.set("email", "user@example.com");
+
+    return JsonWebSignature.signUsingRsaSha256(
+      keyPair.getPrivate(),
+      GsonFactory.getDefaultInstance(),
+      header,
+      payload);
+  }
+
+  private static TokenVerifier createTokenVerifier(KeyPair keyPair, Instant now) {
+    return TokenVerifier.newBuilder()
+      .setAudience(SAMPLE_AUDIENCE)
+      .setIssuer(SAMPLE_ISSUER)
+      .setPublicKey(keyPair.getPublic())
+      .setClock(() -> now.toEpochMilli())
+      .build();
+  }
+
+  // -------------------------------------------------------------------------
+  // verify.
+  // -------------------------------------------------------------------------
+
+  @Test
+  public void whenAssertionValid_ThenVerifyReturnsUserId() throws Exception {
+    var keyPair = createKeyPair();
+    var verifier = new IapAssertionVerifier(() -> createTokenVerifier(keyPair, Instant.now()));
+
+    var assertion = verifier.verify(createAssertion(keyPair, Instant.now().plusSeconds(300)));
+
+    assertEquals("subject-1", assertion.getUserId().id);
+    assertEquals("user@example.com", assertion.getUserId().email);
+  }
+
+  @Test
+  public void whenAssertionVerifiedBefore_ThenVerifyReturnsCachedAssertion() throws Exception {
+    var keyPair = createKeyPair();
+    var factoryCalls = new AtomicInteger();
+    var verifier = new IapAssertionVerifier(() -> {
+      factoryCalls.incrementAndGet();
+      return createTokenVerifier(keyPair, Instant.now());
+    });
+
+    var token = createAssertion(keyPair, Instant.now().plusSeconds(300));
+    var first = verifier.verify(token);
+    var second = verifier.verify(token);
+
+    assertSame(first, second);
+    assertEquals(1, verifier.getCachedAssertionCount());
+    assertEquals(1, factoryCalls.get());
+  }
+
+  @Test
+  public void whenCachedAssertionExpired_ThenVerifyChecksAssertionAgain() throws Exception {
+    var keyPair = createKeyPair();
+    var now = Instant.now();
+
+    //
+    // Use a verifier that thinks it's 10 minutes earlier so that it
+    // accepts the expired token.
+    //
+    var verifier = new IapAssertionVerifier(() -> createTokenVerifier(keyPair, now.minusSeconds(600)));
+
+    var token = createAssertion(keyPair, now.minusSeconds(1));
+    var first = verifier.verify(token);
+    var second = verifier.verify(token);
+
+    assertNotSame(first, second);
+  }
+
+  @Test
+  public void whenAssertionSignedWithWrongKey_ThenVerifyThrowsException() throws Exception {
+    var keyPair = createKeyPair();
+    var otherKeyPair = createKeyPair();
+    var verifier = new IapAssertionVerifier(() -> createTokenVerifier(keyPair, Instant.now()));
+
+    assertThrows(
+      TokenVerifier.VerificationException.class,
+      () -> verifier.verify(createAssertion(otherKeyPair, Instant.now().plusSeconds(300))));
+    assertEquals(0, verifier.getCachedAssertionCount());
+  }
+}
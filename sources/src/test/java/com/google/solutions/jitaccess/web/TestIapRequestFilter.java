@@ -22,17 +22,67 @@
 package com.google.solutions.jitaccess.web;
 
 import com.google.solutions.jitaccess.core.adapters.LogAdapter;
+import com.google.solutions.jitaccess.core.data.DeviceInfo;
+import com.google.solutions.jitaccess.core.data.UserId;
+import com.google.solutions.jitaccess.core.data.UserPrincipal;
+import com.google.solutions.jitaccess.core.services.RoleDiscoveryPrefetcher;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.SecurityContext;
+import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TestIapRequestFilter {
+  private static final UserId STATIC_USER = new UserId("static@example.com");
+  private static final UserId TEST_USER = new UserId("test@example.com");
+
+  private static UserPrincipal createStaticPrincipal() {
+    return new UserPrincipal() {
+      @Override
+      public UserId getId() {
+        return STATIC_USER;
+      }
+
+      @Override
+      public DeviceInfo getDevice() {
+        return DeviceInfo.UNKNOWN;
+      }
+
+      @Override
+      public String getName() {
+        return STATIC_USER.email;
+      }
+    };
+  }
+
+  private static UserId filterAndGetPrincipal(
+    RuntimeEnvironment environment,
+    ContainerRequestContext request
+  ) {
+    IapRequestFilter filter = new IapRequestFilter();
+    filter.runtimeEnvironment = environment;
+    filter.assertionVerifier = new IapAssertionVerifier(environment);
+    filter.prefetcher = Mockito.mock(RoleDiscoveryPrefetcher.class);
+    filter.log = new LogAdapter();
+
+    filter.filter(request);
+
+    var securityContext = ArgumentCaptor.forClass(SecurityContext.class);
+    verify(request).setSecurityContext(securityContext.capture());
+
+    return ((UserPrincipal)securityContext.getValue().getUserPrincipal()).getId();
+  }
+
   @Test()
   public void whenHeaderMissing_ThenFilterThrowsForbiddenException() {
     RuntimeEnvironment environment = Mockito.mock(RuntimeEnvironment.class);
@@ -41,6 +91,8 @@ public class TestIapRequestFilter {
 
     IapRequestFilter filter = new IapRequestFilter();
     filter.runtimeEnvironment = environment;
+    filter.assertionVerifier = new IapAssertionVerifier(environment);
+    filter.prefetcher = Mockito.mock(RoleDiscoveryPrefetcher.class);
     filter.log = new LogAdapter();
 
     ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
@@ -57,6 +109,8 @@ public class TestIapRequestFilter {
 
     IapRequestFilter filter = new IapRequestFilter();
     filter.runtimeEnvironment = environment;
+    filter.assertionVerifier = new IapAssertionVerifier(environment);
+    filter.prefetcher = Mockito.mock(RoleDiscoveryPrefetcher.class);
     filter.log = new LogAdapter();
 
     ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
@@ -73,6 +127,8 @@ public class TestIapRequestFilter {
 
     IapRequestFilter filter = new IapRequestFilter();
     filter.runtimeEnvironment = environment;
+    filter.assertionVerifier = new IapAssertionVerifier(environment);
+    filter.prefetcher = Mockito.mock(RoleDiscoveryPrefetcher.class);
     filter.log = new LogAdapter();
 
     // Random JWT that doesn't even come from IAP.
@@ -86,4 +142,40 @@ public class TestIapRequestFilter {
 
     assertThrows(ForbiddenException.class, () -> filter.filter(request));
   }
+
+  @Test
+  public void whenApiEndpointNotOverridden_ThenFilterIgnoresTestPrincipalHeader() {
+    RuntimeEnvironment environment = Mockito.mock(RuntimeEnvironment.class);
+    when(environment.getStaticPrincipal()).thenReturn(createStaticPrincipal());
+    when(environment.getApiEndpointOverride()).thenReturn(Optional.empty());
+
+    ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
+    when(request.getHeaderString(eq(IapRequestFilter.TEST_PRINCIPAL_HEADER))).thenReturn(TEST_USER.email);
+
+    assertEquals(STATIC_USER, filterAndGetPrincipal(environment, request));
+  }
+
+  @Test
+  public void whenApiEndpointOverriddenAndHeaderMissing_ThenFilterUsesStaticPrincipal() {
+    RuntimeEnvironment environment = Mockito.mock(RuntimeEnvironment.class);
+    when(environment.getStaticPrincipal()).thenReturn(createStaticPrincipal());
+    when(environment.getApiEndpointOverride()).thenReturn(Optional.of("http://localhost:9090/"));
+
+    ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
+    when(request.getHeaderString(anyString())).thenReturn(null);
+
+    assertEquals(STATIC_USER, filterAndGetPrincipal(environment, request));
+  }
+
+  @Test
+  public void whenApiEndpointOverridden_ThenFilterUsesTestPrincipalHeader() {
+    RuntimeEnvironment environment = Mockito.mock(RuntimeEnvironment.class);
+    when(environment.getStaticPrincipal()).thenReturn(createStaticPrincipal());
+    when(environment.getApiEndpointOverride()).thenReturn(Optional.of("http://localhost:9090/"));
+
+    ContainerRequestContext request = Mockito.mock(ContainerRequestContext.class);
+    when(request.getHeaderString(eq(IapRequestFilter.TEST_PRINCIPAL_HEADER))).thenReturn(TEST_USER.email);
+
+    assertEquals(TEST_USER, filterAndGetPrincipal(environment, request));
+  }
 }
@@ -0,0 +1,115 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ResourceInfo;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+public class TestMetricsRequestFilter {
+  public void sampleEndpoint() {
+  }
+
+  private static ContainerRequestContext createRequestContext() {
+    var properties = new HashMap<String, Object>();
+
+    var request = Mockito.mock(ContainerRequestContext.class);
+    doAnswer(invocation -> properties.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(request).setProperty(anyString(), any());
+    when(request.getProperty(anyString()))
+      .thenAnswer(invocation -> properties.get(invocation.<String>getArgument(0)));
+
+    return request;
+  }
+
+  private MetricsRequestFilter createFilter(SimpleMeterRegistry registry) throws Exception {
+    var resourceInfo = Mockito.mock(ResourceInfo.class);
+    when(resourceInfo.getResourceMethod())
+      .thenReturn(TestMetricsRequestFilter.class.getMethod("sampleEndpoint"));
+
+    var filter = new MetricsRequestFilter();
+    filter.registry = registry;
+    filter.resourceInfo = resourceInfo;
+    return filter;
+  }
+
+  @Test
+  public void whenRequestInFlight_ThenActiveGaugeIsIncremented() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var filter = createFilter(registry);
+
+    filter.filter(createRequestContext());
+
+    var gauge = registry.find(MetricsRequestFilter.ACTIVE_REQUESTS)
+      .tags("endpoint", "sampleEndpoint")
+      .gauge();
+    assertNotNull(gauge);
+    assertEquals(1, gauge.value());
+  }
+
+  @Test
+  public void whenRequestCompletes_ThenTimerRecordsStatus() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var filter = createFilter(registry);
+
+    var response = Mockito.mock(ContainerResponseContext.class);
+    when(response.getStatus()).thenReturn(403);
+
+    var request = createRequestContext();
+    filter.filter(request);
+    filter.filter(request, response);
+
+    var timer = registry.find(MetricsRequestFilter.REQUESTS)
+      .tags("endpoint", "sampleEndpoint", "status", "403")
+      .timer();
+    assertNotNull(timer);
+    assertEquals(1, timer.count());
+
+    assertEquals(
+      0,
+      registry.find(MetricsRequestFilter.ACTIVE_REQUESTS).tags("endpoint", "sampleEndpoint").gauge().value());
+  }
+
+  @Test
+  public void whenRequestDidNotPassFilter_ThenResponseFilterRecordsNothing() throws Exception {
+    var registry = new SimpleMeterRegistry();
+    var filter = createFilter(registry);
+
+    var response = Mockito.mock(ContainerResponseContext.class);
+    when(response.getStatus()).thenReturn(404);
+
+    filter.filter(createRequestContext(), response);
+
+    assertNull(registry.find(MetricsRequestFilter.REQUESTS).timer());
+  }
+}
@@ -0,0 +1,163 @@
+//
+// Copyright 2022 Google LLC
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.google.solutions.jitaccess.web;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.UriInfo;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TestTracingRequestFilter {
+  private static final String SAMPLE_TRACE_ID = "105445aa7843bc8bf206b12000100000";
+
+  public void sampleEndpoint() {
+  }
+
+  private static ContainerRequestContext createRequestContext(String traceHeader) {
+    var properties = new HashMap<String, Object>();
+    var pathParameters = new MultivaluedHashMap<String, String>();
+    pathParameters.putSingle("projectId", "project-1");
+
+    var uriInfo = Mockito.mock(UriInfo.class);
+    when(uriInfo.getPathParameters()).thenReturn(pathParameters);
+
+    var request = Mockito.mock(ContainerRequestContext.class);
+    when(request.getMethod()).thenReturn("GET");
+    when(request.getUriInfo()).thenReturn(uriInfo);
+    when(request.getHeaderString(eq(CloudTraceContextPropagator.HEADER_NAME))).thenReturn(traceHeader);
+    doAnswer(invocation -> properties.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(request).setProperty(anyString(), any());
+    when(request.getProperty(anyString()))
+      .thenAnswer(invocation -> properties.get(invocation.<String>getArgument(0)));
+
+    return request;
+  }
+
+  private static class Fixture {
+    final TracingRequestFilter filter = new TracingRequestFilter();
+    final SpanBuilder spanBuilder = Mockito.mock(SpanBuilder.class, RETURNS_SELF);
+    final Span span = Mockito.mock(Span.class);
+    final Scope scope = Mockito.mock(Scope.class);
+
+    Fixture() throws Exception {
+      when(this.spanBuilder.startSpan()).thenReturn(this.span);
+      when(this.span.makeCurrent()).thenReturn(this.scope);
+
+      var tracer = Mockito.mock(Tracer.class);
+      when(tracer.spanBuilder(anyString())).thenReturn(this.spanBuilder);
+
+      var resourceInfo = Mockito.mock(ResourceInfo.class);
+      when(resourceInfo.getResourceMethod())
+        .thenReturn(TestTracingRequestFilter.class.getMethod("sampleEndpoint"));
+
+      this.filter.tracer = tracer;
+      this.filter.resourceInfo = resourceInfo;
+    }
+  }
+
+  @Test
+  public void whenRequestHasCloudTraceHeader_ThenSpanJoinsTrace() throws Exception {
+    var fixture = new Fixture();
+
+    fixture.filter.filter(createRequestContext(SAMPLE_TRACE_ID + "/1;o=1"));
+
+    var parent = ArgumentCaptor.forClass(Context.class);
+    verify(fixture.spanBuilder).setParent(parent.capture());
+    assertEquals(SAMPLE_TRACE_ID, Span.fromContext(parent.getValue()).getSpanContext().getTraceId());
+  }
+
+  @Test
+  public void whenRequestHasNoTraceHeader_ThenSpanStartsNewTrace() throws Exception {
+    var fixture = new Fixture();
+
+    fixture.filter.filter(createRequestContext(null));
+
+    var parent = ArgumentCaptor.forClass(Context.class);
+    verify(fixture.spanBuilder).setParent(parent.capture());
+    assertFalse(Span.fromContext(parent.getValue()).getSpanContext().isValid());
+  }
+
+  @Test
+  public void whenRequestCompletes_ThenSpanIsEnded() throws Exception {
+    var fixture = new Fixture();
+
+    var response = Mockito.mock(ContainerResponseContext.class);
+    when(response.getStatus()).thenReturn(500);
+
+    var request = createRequestContext(null);
+    fixture.filter.filter(request);
+    fixture.filter.filter(request, response);
+
+    verify(fixture.span).setStatus(eq(StatusCode.ERROR));
+    verify(fixture.scope).close();
+    verify(fixture.span).end();
+  }
+
+  @Test
+  public void whenRequestContinuesOnOtherThread_ThenDetachContextClosesScope() throws Exception {
+    var fixture = new Fixture();
+
+    var response = Mockito.mock(ContainerResponseContext.class);
+    when(response.getStatus()).thenReturn(200);
+
+    var request = createRequestContext(null);
+    fixture.filter.filter(request);
+    TracingRequestFilter.detachContext();
+
+    verify(fixture.scope).close();
+
+    var otherThread = new Thread(() -> fixture.filter.filter(request, response));
+    otherThread.start();
+    otherThread.join();
+
+    verify(fixture.scope, times(1)).close();
+    verify(fixture.span).end();
+  }
+
+  @Test
+  public void whenRequestDidNotPassFilter_ThenResponseFilterDoesNothing() throws Exception {
+    var fixture = new Fixture();
+
+    var response = Mockito.mock(ContainerResponseContext.class);
+    when(response.getStatus()).thenReturn(404);
+
+    fixture.filter.filter(createRequestContext(null), response);
+
+    verify(fixture.span, never()).end();
+  }
+}